@@ -29,19 +29,41 @@ public final class AttCode extends BaseAttribute {
     public static final String ATTRIBUTE_NAME = "Code";
 
     /** &gt;= 0; the stack size */
-    private final int maxStack;
+    private int maxStack;
 
     /** &gt;= 0; the number of locals */
-    private final int maxLocals;
+    private int maxLocals;
 
-    /** non-null; array containing the bytecode per se */
-    private final BytecodeArray code;
+    /**
+     * null-ok; array containing the bytecode per se; only
+     * <code>null</code> before the contents are parsed
+     */
+    private BytecodeArray code;
+
+    /**
+     * null-ok; the exception table; only <code>null</code> before the
+     * contents are parsed
+     */
+    private ByteCatchList catches;
 
-    /** non-null; the exception table */
-    private final ByteCatchList catches;
+    /**
+     * null-ok; the associated list of attributes; only
+     * <code>null</code> before the contents are parsed
+     */
+    private AttributeList attributes;
+
+    /**
+     * null-ok; where to get the contents from, if they haven't been
+     * parsed yet
+     */
+    private Source source;
 
-    /** non-null; the associated list of attributes */
-    private final AttributeList attributes;
+    /**
+     * &gt;= 0; the total length of the attribute, in bytes, as known
+     * before the contents are parsed; only meaningful while
+     * {@link #source} is non-null
+     */
+    private final int unparsedByteLength;
 
     /**
      * Constructs an instance.
@@ -91,9 +113,38 @@ public final class AttCode extends BaseAttribute {
         this.code = code;
         this.catches = catches;
         this.attributes = attributes;
+        this.source = null;
+        this.unparsedByteLength = 0;
+    }
+
+    /**
+     * Constructs an instance whose contents are only parsed when first
+     * asked for. Problems with the contents are only noticed then, too.
+     *
+     * @param byteLength &gt;= 0; the total length of the attribute, in
+     * bytes, including the attribute header
+     * @param source non-null; where to get the contents from
+     */
+    public AttCode(int byteLength, Source source) {
+        super(ATTRIBUTE_NAME);
+
+        if (byteLength < 0) {
+            throw new IllegalArgumentException("byteLength < 0");
+        }
+
+        if (source == null) {
+            throw new NullPointerException("source == null");
+        }
+
+        this.source = source;
+        this.unparsedByteLength = byteLength;
     }
 
     public int byteLength() {
+        if (source != null) {
+            return unparsedByteLength;
+        }
+
         return 10 + code.byteLength() + catches.byteLength() +
             attributes.byteLength();
     }
@@ -104,6 +155,7 @@ public final class AttCode extends BaseAttribute {
      * @return &gt;= 0; the maximum stack size
      */
     public int getMaxStack() {
+        parseIfNecessary();
         return maxStack;
     }
 
@@ -113,6 +165,7 @@ public final class AttCode extends BaseAttribute {
      * @return &gt;= 0; the number of locals
      */
     public int getMaxLocals() {
+        parseIfNecessary();
         return maxLocals;
     }
 
@@ -122,6 +175,7 @@ public final class AttCode extends BaseAttribute {
      * @return non-null; the bytecode array
      */
     public BytecodeArray getCode() {
+        parseIfNecessary();
         return code;
     }
 
@@ -131,6 +185,7 @@ public final class AttCode extends BaseAttribute {
      * @return non-null; the exception table
      */
     public ByteCatchList getCatches() {
+        parseIfNecessary();
         return catches;
     }
 
@@ -140,6 +195,39 @@ public final class AttCode extends BaseAttribute {
      * @return non-null; the attribute list
      */
     public AttributeList getAttributes() {
+        parseIfNecessary();
         return attributes;
     }
+
+    /**
+     * Parses the contents from {@link #source}, if that hasn't been
+     * done yet.
+     */
+    private void parseIfNecessary() {
+        if (source == null) {
+            return;
+        }
+
+        AttCode parsed = source.parse();
+
+        maxStack = parsed.maxStack;
+        maxLocals = parsed.maxLocals;
+        code = parsed.code;
+        catches = parsed.catches;
+        attributes = parsed.attributes;
+        source = null;
+    }
+
+    /**
+     * Interface for parsing the contents of an instance only when they
+     * are first asked for.
+     */
+    public interface Source {
+        /**
+         * Parses the contents of the attribute.
+         *
+         * @return non-null; a fully parsed instance
+         */
+        public AttCode parse();
+    }
 }
@@ -19,6 +19,7 @@ package com.android.dx.cf.cst;
 import com.android.dx.cf.iface.ParseException;
 import com.android.dx.cf.iface.ParseObserver;
 import com.android.dx.rop.cst.Constant;
+import com.android.dx.rop.cst.ConstantPool;
 import com.android.dx.rop.cst.CstDouble;
 import com.android.dx.rop.cst.CstFieldRef;
 import com.android.dx.rop.cst.CstFloat;
@@ -47,6 +48,13 @@ public final class ConstantPoolParser {
     /** non-null; actual parsed constant pool contents */
     private final StdConstantPool pool;
 
+    /**
+     * null-ok; the constant pool as seen by users of this instance,
+     * which is either {@link #pool} or a view of it which parses
+     * lazily; set in {@link #parse}
+     */
+    private ConstantPool poolView;
+
     /** non-null; byte offsets to each cst */
     private final int[] offsets;
 
@@ -60,6 +68,12 @@ public final class ConstantPoolParser {
     /** null-ok; parse observer, if any */
     private ParseObserver observer;
 
+    /**
+     * whether to parse each constant only when it is first asked for,
+     * rather than all of them up front
+     */
+    private boolean lazy;
+
     /**
      * Constructs an instance.
      * 
@@ -71,7 +85,9 @@ public final class ConstantPoolParser {
         this.bytes = bytes;
         this.pool = new StdConstantPool(size);
         this.offsets = new int[size];
+        this.poolView = null;
         this.endOffset = -1;
+        this.lazy = false;
     }
 
     /**
@@ -83,6 +99,19 @@ public final class ConstantPoolParser {
         this.observer = observer;
     }
 
+    /**
+     * Sets whether to parse each constant only when it is first asked
+     * for. Constants that nothing refers to are then never parsed at
+     * all, which saves both time and space, but also means that any
+     * problem with one isn't noticed. This has no effect if there is
+     * a parse observer, since it needs to see every constant.
+     *
+     * @param lazy whether to parse lazily
+     */
+    public void setLazy(boolean lazy) {
+        this.lazy = lazy;
+    }
+
     /**
      * Gets the end offset of this constant pool in the <code>byte[]</code>
      * which it came from.
@@ -99,9 +128,9 @@ public final class ConstantPoolParser {
      * 
      * @return non-null; the constant pool
      */
-    public StdConstantPool getPool() {
+    public ConstantPool getPool() {
         parseIfNecessary();
-        return pool;
+        return poolView;
     }
 
     /**
@@ -119,6 +148,11 @@ public final class ConstantPoolParser {
     private void parse() {
         determineOffsets();
 
+        if (lazy && (observer == null)) {
+            poolView = new LazyPool();
+            return;
+        }
+
         if (observer != null) {
             observer.parsed(bytes, 8, 2,
                             "constant_pool_count: " + Hex.u2(offsets.length));
@@ -155,6 +189,9 @@ public final class ConstantPoolParser {
             observer.changeIndent(-1);
             observer.parsed(bytes, endOffset, 0, "end constant_pool");
         }
+
+        pool.setImmutable();
+        poolView = pool;
     }
 
     /**
@@ -332,4 +369,46 @@ public final class ConstantPoolParser {
             throw new ParseException(ex);
         }
     }
+
+    /**
+     * View of the constant pool when parsing lazily, which parses each
+     * constant the first time it is asked for.
+     */
+    private class LazyPool implements ConstantPool {
+        /** {@inheritDoc} */
+        public int size() {
+            return offsets.length;
+        }
+
+        /** {@inheritDoc} */
+        public Constant getOrNull(int n) {
+            if ((n < 0) || (n >= offsets.length) || (offsets[n] == 0)) {
+                // This throws the usual exception if out of range.
+                return pool.getOrNull(n);
+            }
+
+            return parse0(n);
+        }
+
+        /** {@inheritDoc} */
+        public Constant get0Ok(int n) {
+            if (n == 0) {
+                return null;
+            }
+
+            return get(n);
+        }
+
+        /** {@inheritDoc} */
+        public Constant get(int n) {
+            Constant result = getOrNull(n);
+
+            if (result == null) {
+                // This throws the usual exception.
+                return pool.get(n);
+            }
+
+            return result;
+        }
+    }
 }
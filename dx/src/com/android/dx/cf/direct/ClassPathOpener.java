@@ -28,6 +28,8 @@ import java.util.Arrays;
 import java.util.Comparator;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
 
 /**
  * Opens all the class files found in a class path element. Path elements
@@ -35,6 +37,11 @@ import java.util.Collections;
  * class files.
  */
 public class ClassPathOpener {
+    /**
+     * size, in bytes, above which a non-class archive entry is handed to
+     * a {@link LargeEntryConsumer} by reference instead of being read
+     */
+    public static final int LARGE_ENTRY_SIZE = 256 * 1024;
 
     /** non-null; pathname to start with */
     private final String pathname;
@@ -47,6 +54,13 @@ public class ClassPathOpener {
      */
     private final boolean sort;
 
+    /**
+     * &gt;= 0; how many bytes of archive entries may be read ahead of
+     * the consumer on a separate thread; <code>0</code> means to read
+     * entries on the calling thread as they are consumed
+     */
+    private final int readAheadBytes;
+
     /**
      * Callback interface for <code>ClassOpener</code>.
      */
@@ -81,6 +95,26 @@ public class ClassPathOpener {
         void onProcessArchiveStart(File file);
     }
 
+    /**
+     * Callback interface for consumers that can deal with large archive
+     * entries without having their contents read into memory. Entries
+     * larger than {@link #LARGE_ENTRY_SIZE} whose names don't end with
+     * <code>.class</code> are passed to {@link #processLargeEntry}
+     * instead of {@link #processFileBytes}.
+     */
+    public interface LargeEntryConsumer extends Consumer {
+        /**
+         * Provides a large archive entry by reference. The consumer may
+         * read the entry again later, by reopening the archive.
+         *
+         * @param archive non-null; archive file the entry is in
+         * @param entry non-null; the entry
+         * @return true on success; treated the same as the result
+         * from <code>processFileBytes</code>
+         */
+        boolean processLargeEntry(File archive, ZipEntry entry);
+    }
+
     /**
      * Constructs an instance.
      *
@@ -91,9 +125,34 @@ public class ClassPathOpener {
      * @param consumer non-null; callback interface
      */
     public ClassPathOpener(String pathname, boolean sort, Consumer consumer) {
+        this(pathname, sort, consumer, 0);
+    }
+
+    /**
+     * Constructs an instance which may read archive entries ahead of
+     * the consumer. With read-ahead, a separate thread inflates the
+     * entries of each archive into a queue holding at most about
+     * <code>readAheadBytes</code> bytes, while the calling thread hands
+     * them to the consumer, in the same order as without read-ahead.
+     *
+     * @param pathname non-null; path element to process
+     * @param sort if true, sort such that classes appear before their inner
+     * classes and "package-info" occurs before all other classes in that
+     * package.
+     * @param consumer non-null; callback interface
+     * @param readAheadBytes &gt;= 0; maximum number of bytes of archive
+     * entries to read ahead, or <code>0</code> not to read ahead
+     */
+    public ClassPathOpener(String pathname, boolean sort, Consumer consumer,
+            int readAheadBytes) {
+        if (readAheadBytes < 0) {
+            throw new IllegalArgumentException("readAheadBytes < 0");
+        }
+
         this.pathname = pathname;
         this.sort = sort;
         this.consumer = consumer;
+        this.readAheadBytes = readAheadBytes;
     }
 
     /**
@@ -203,49 +262,351 @@ public class ClassPathOpener {
      */
     private boolean processArchive(File file) throws IOException {
         ZipFile zip = new ZipFile(file);
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(40000);
-        byte[] buf = new byte[20000];
-        boolean any = false;
 
-        ArrayList<? extends java.util.zip.ZipEntry> entriesList 
-                = Collections.list(zip.entries());
+        try {
+            ArrayList<? extends java.util.zip.ZipEntry> entriesList
+                    = Collections.list(zip.entries());
+
+            if (sort) {
+                Collections.sort(entriesList, new Comparator<ZipEntry>() {
+                   public int compare (ZipEntry a, ZipEntry b) {
+                       return compareClassNames(a.getName(), b.getName());
+                   }
+                });
+            }
 
-        if (sort) {
-            Collections.sort(entriesList, new Comparator<ZipEntry>() {
-               public int compare (ZipEntry a, ZipEntry b) {
-                   return compareClassNames(a.getName(), b.getName());
-               }
-            });
-        }
+            consumer.onProcessArchiveStart(file);
 
-        consumer.onProcessArchiveStart(file);
+            if (readAheadBytes > 0) {
+                return processEntriesAhead(file, zip, entriesList);
+            }
+
+            EntryReader reader = new EntryReader();
+            boolean any = false;
 
-        for (ZipEntry one: entriesList) {
+            for (ZipEntry one: entriesList) {
+                if (one.isDirectory()) {
+                    continue;
+                }
 
-            if (one.isDirectory()) {
-                continue;
+                byte[] bytes =
+                    isLargeEntry(one) ? null : reader.read(zip, one);
+                any |= processEntry(file, one, bytes);
             }
 
-            String path = one.getName();
-            InputStream in = zip.getInputStream(one);
+            return any;
+        } finally {
+            zip.close();
+        }
+    }
+
+    /**
+     * Processes the given entries of an archive, reading them on a
+     * separate thread ahead of handing them to the consumer.
+     *
+     * @param file non-null; archive file being processed
+     * @param zip non-null; the opened archive
+     * @param entries non-null; entries to process, in order
+     * @return whether any processing actually happened
+     * @throws IOException on i/o problem
+     */
+    private boolean processEntriesAhead(final File file, final ZipFile zip,
+            final List<? extends ZipEntry> entries) throws IOException {
+        final ReadAheadQueue queue = new ReadAheadQueue(readAheadBytes);
+        Thread thread = new Thread("read-ahead " + file.getName()) {
+            public void run() {
+                Throwable failure = null;
+
+                try {
+                    EntryReader reader = new EntryReader();
+
+                    for (ZipEntry one : entries) {
+                        if (one.isDirectory()) {
+                            continue;
+                        }
+
+                        byte[] bytes =
+                            isLargeEntry(one) ? null : reader.read(zip, one);
+
+                        if (!queue.put(one, bytes)) {
+                            // The consumer has given up.
+                            break;
+                        }
+                    }
+                } catch (Throwable ex) {
+                    failure = ex;
+                } finally {
+                    queue.finish(failure);
+                }
+            }
+        };
 
-            baos.reset();
+        thread.setDaemon(true);
+        thread.start();
+
+        boolean any = false;
+
+        try {
             for (;;) {
-                int amt = in.read(buf);
-                if (amt < 0) {
+                ReadAheadQueue.Item item = queue.take();
+
+                if (item == null) {
                     break;
                 }
 
-                baos.write(buf, 0, amt);
+                any |= processEntry(file, item.entry, item.bytes);
             }
+        } finally {
+            /*
+             * Make sure the reader is done with the archive before
+             * letting the caller close it.
+             */
+            queue.close();
+            joinUninterruptibly(thread);
+        }
 
-            in.close();
+        return any;
+    }
 
-            byte[] bytes = baos.toByteArray();
-            any |= consumer.processFileBytes(path, bytes);
+    /**
+     * Hands one archive entry to the consumer.
+     *
+     * @param file non-null; archive file the entry is in
+     * @param entry non-null; the entry
+     * @param bytes null-ok; contents of the entry, or <code>null</code>
+     * if it is a large entry to be passed by reference
+     * @return the consumer's result
+     */
+    private boolean processEntry(File file, ZipEntry entry, byte[] bytes) {
+        if (bytes == null) {
+            return ((LargeEntryConsumer) consumer).processLargeEntry(file,
+                    entry);
         }
 
-        zip.close();
-        return any;
+        return consumer.processFileBytes(entry.getName(), bytes);
+    }
+
+    /**
+     * Returns whether the given archive entry should be handed to the
+     * consumer by reference rather than be read.
+     *
+     * @param entry non-null; the entry
+     * @return whether the entry is to be passed by reference
+     */
+    private boolean isLargeEntry(ZipEntry entry) {
+        return (consumer instanceof LargeEntryConsumer)
+            && (entry.getSize() > LARGE_ENTRY_SIZE)
+            && !entry.getName().endsWith(".class");
+    }
+
+    /**
+     * Waits for the given thread to die, even if interrupted.
+     *
+     * @param thread non-null; the thread to wait for
+     */
+    private static void joinUninterruptibly(Thread thread) {
+        boolean interrupted = false;
+
+        for (;;) {
+            try {
+                thread.join();
+                break;
+            } catch (InterruptedException ex) {
+                interrupted = true;
+            }
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Reader of archive entry contents, which reuses its buffers from
+     * one entry to the next.
+     */
+    private static class EntryReader {
+        /** non-null; buffer for entries of unknown size */
+        private final ByteArrayOutputStream baos =
+            new ByteArrayOutputStream(40000);
+
+        /** non-null; transfer buffer */
+        private final byte[] buf = new byte[20000];
+
+        /**
+         * Reads the contents of the given entry.
+         *
+         * @param zip non-null; the archive
+         * @param entry non-null; the entry to read
+         * @return non-null; the contents of the entry
+         * @throws IOException on i/o problem
+         */
+        public byte[] read(ZipFile zip, ZipEntry entry) throws IOException {
+            InputStream in = zip.getInputStream(entry);
+
+            try {
+                baos.reset();
+                for (;;) {
+                    int amt = in.read(buf);
+                    if (amt < 0) {
+                        break;
+                    }
+
+                    baos.write(buf, 0, amt);
+                }
+            } finally {
+                in.close();
+            }
+
+            return baos.toByteArray();
+        }
+    }
+
+    /**
+     * Queue of read archive entries, bounded by the total size of their
+     * contents, between the read-ahead thread and the consumer. At least
+     * one entry is always let through, however large it is.
+     */
+    private static class ReadAheadQueue {
+        /** &gt; 0; maximum number of bytes to hold */
+        private final int capacity;
+
+        /** non-null; entries read but not yet taken */
+        private final LinkedList<Item> items;
+
+        /** &gt;= 0; total size of the contents of {@link #items} */
+        private int size;
+
+        /** whether the reader has finished */
+        private boolean finished;
+
+        /** null-ok; what made the reader stop early, if anything */
+        private Throwable failure;
+
+        /** whether the consumer has stopped taking entries */
+        private boolean closed;
+
+        /**
+         * Constructs an instance.
+         *
+         * @param capacity &gt; 0; maximum number of bytes to hold
+         */
+        public ReadAheadQueue(int capacity) {
+            this.capacity = capacity;
+            this.items = new LinkedList<Item>();
+            this.size = 0;
+            this.finished = false;
+            this.failure = null;
+            this.closed = false;
+        }
+
+        /**
+         * Adds a read entry, waiting for room if necessary.
+         *
+         * @param entry non-null; the entry
+         * @param bytes null-ok; its contents, if read
+         * @return false if the consumer has stopped taking entries
+         * @throws InterruptedException if interrupted while waiting
+         */
+        public synchronized boolean put(ZipEntry entry, byte[] bytes)
+                throws InterruptedException {
+            int length = (bytes == null) ? 0 : bytes.length;
+
+            while (!closed && !items.isEmpty() && (size + length > capacity)) {
+                wait();
+            }
+
+            if (closed) {
+                return false;
+            }
+
+            items.add(new Item(entry, bytes));
+            size += length;
+            notifyAll();
+            return true;
+        }
+
+        /**
+         * Takes the next entry, waiting for one if necessary. Once all
+         * entries have been taken, this rethrows whatever made the
+         * reader stop early, if anything.
+         *
+         * @return null-ok; the next entry, or <code>null</code> if
+         * there are no more
+         * @throws IOException if reading the archive failed
+         */
+        public synchronized Item take() throws IOException {
+            while (items.isEmpty() && !finished) {
+                try {
+                    wait();
+                } catch (InterruptedException ex) {
+                    throw new IOException("interrupted");
+                }
+            }
+
+            if (!items.isEmpty()) {
+                Item item = items.removeFirst();
+                if (item.bytes != null) {
+                    size -= item.bytes.length;
+                }
+                notifyAll();
+                return item;
+            }
+
+            if (failure instanceof IOException) {
+                throw (IOException) failure;
+            } else if (failure instanceof RuntimeException) {
+                throw (RuntimeException) failure;
+            } else if (failure instanceof Error) {
+                throw (Error) failure;
+            } else if (failure != null) {
+                throw new RuntimeException(failure);
+            }
+
+            return null;
+        }
+
+        /**
+         * Indicates that the reader is done.
+         *
+         * @param failure null-ok; what made it stop early, if anything
+         */
+        public synchronized void finish(Throwable failure) {
+            this.finished = true;
+            this.failure = failure;
+            notifyAll();
+        }
+
+        /**
+         * Indicates that the consumer won't take any more entries.
+         */
+        public synchronized void close() {
+            closed = true;
+            items.clear();
+            size = 0;
+            notifyAll();
+        }
+
+        /**
+         * An entry in the queue.
+         */
+        public static class Item {
+            /** non-null; the archive entry */
+            public final ZipEntry entry;
+
+            /** null-ok; its contents, if read */
+            public final byte[] bytes;
+
+            /**
+             * Constructs an instance.
+             *
+             * @param entry non-null; the archive entry
+             * @param bytes null-ok; its contents, if read
+             */
+            public Item(ZipEntry entry, byte[] bytes) {
+                this.entry = entry;
+                this.bytes = bytes;
+            }
+        }
     }
 }
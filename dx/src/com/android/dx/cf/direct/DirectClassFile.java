@@ -30,7 +30,6 @@ import com.android.dx.rop.code.AccessFlags;
 import com.android.dx.rop.cst.ConstantPool;
 import com.android.dx.rop.cst.CstType;
 import com.android.dx.rop.cst.CstUtf8;
-import com.android.dx.rop.cst.StdConstantPool;
 import com.android.dx.rop.type.StdTypeList;
 import com.android.dx.rop.type.Type;
 import com.android.dx.rop.type.TypeList;
@@ -91,7 +90,7 @@ public class DirectClassFile implements ClassFile {
      * null-ok; the constant pool; only ever <code>null</code>
      * before the constant pool is successfully parsed 
      */
-    private StdConstantPool pool;
+    private ConstantPool pool;
 
     /**
      * the class file field <code>access_flags</code>; will be <code>-1</code>
@@ -144,6 +143,12 @@ public class DirectClassFile implements ClassFile {
     /** null-ok; parse observer, if any */
     private ParseObserver observer;
 
+    /**
+     * whether to parse constants and code only when they are first
+     * asked for
+     */
+    private boolean lazy;
+
     /**
      * Returns the string form of an object or <code>"(none)"</code>
      * (rather than <code>"null"</code>) for <code>null</code>.
@@ -211,6 +216,31 @@ public class DirectClassFile implements ClassFile {
         this.observer = observer;
     }
 
+    /**
+     * Sets whether to parse lazily. If so, each constant is only
+     * parsed when it is first asked for, and likewise the contents of
+     * each <code>Code</code> attribute, which saves the time and space
+     * spent on parts of the file that are never used. On the other
+     * hand, problems with those parts go unnoticed. This has no effect
+     * if there is a parse observer, since it needs to see everything.
+     * It must be called before anything is parsed.
+     * 
+     * @param lazy whether to parse lazily
+     */
+    public void setLazy(boolean lazy) {
+        this.lazy = lazy;
+    }
+
+    /**
+     * Gets whether to parse lazily. This is for the use of attribute
+     * factories.
+     * 
+     * @return whether to parse lazily
+     */
+    public boolean isLazy() {
+        return lazy;
+    }
+
     /**
      * Sets the attribute factory to use.
      * 
@@ -466,8 +496,8 @@ public class DirectClassFile implements ClassFile {
 
         ConstantPoolParser cpParser = new ConstantPoolParser(bytes);
         cpParser.setObserver(observer);
+        cpParser.setLazy(lazy);
         pool = cpParser.getPool();
-        pool.setImmutable();
 
         int at = cpParser.getEndOffset();
         int accessFlags = bytes.getUnsignedShort(at); // u2 access_flags;
@@ -564,7 +594,7 @@ public class DirectClassFile implements ClassFile {
         private final int size;
 
         /** non-null; the constant pool */
-        private final StdConstantPool pool;
+        private final ConstantPool pool;
 
         /**
          * Constructs an instance.
@@ -577,7 +607,7 @@ public class DirectClassFile implements ClassFile {
          * @param observer null-ok; parse observer to use, if any
          */
         public DcfTypeList(ByteArray bytes, int offset, int size,
-                StdConstantPool pool, ParseObserver observer) {
+                ConstantPool pool, ParseObserver observer) {
             if (size < 0) {
                 throw new IllegalArgumentException("size < 0");
             }
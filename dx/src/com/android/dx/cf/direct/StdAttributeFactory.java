@@ -207,9 +207,28 @@ public class StdAttributeFactory
     }
 
     /**
-     * Parses a <code>Code</code> attribute.
+     * Parses a <code>Code</code> attribute. If the class file is being
+     * parsed lazily, this is put off until the contents are first asked
+     * for.
      */
-    private Attribute code(DirectClassFile cf, int offset, int length,
+    private Attribute code(final DirectClassFile cf, final int offset,
+            final int length, ParseObserver observer) {
+        if (cf.isLazy() && (observer == null)) {
+            // The 6 is for the attribute name index and length.
+            return new AttCode(length + 6, new AttCode.Source() {
+                    public AttCode parse() {
+                        return (AttCode) code0(cf, offset, length, null);
+                    }
+                });
+        }
+
+        return code0(cf, offset, length, observer);
+    }
+
+    /**
+     * Helper for {@link #code}, which does the actual parsing.
+     */
+    private Attribute code0(DirectClassFile cf, int offset, int length,
             ParseObserver observer) {
         if (length < 12) {
             return throwSeverelyTruncated();
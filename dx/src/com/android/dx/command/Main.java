@@ -35,12 +35,62 @@ public class Main {
         "[--dump-width=<n>]\n" +
         "  [--dump-method=<name>[*]] [--verbose-dump] [--no-files] " +
         "[--core-library]\n" +
+        "  [--num-threads=<n>] [--cache-dir=<directory>] " +
+        "[--read-ahead=<kb>]\n" +
+        "  [--liveness=<style>] [--profile[=<file>]] " +
+        "[--startup-profile=<file>]\n" +
+        "  [--dedup] [--inline[=<n>]] [--allocator=<style>] " +
+        "[--number-values]\n" +
+        "  [--hoist-loop-invariants]\n" +
         "  [<file>.class | <file>.{zip,jar,apk} | <directory>] ...\n" +
         "    Convert a set of classfiles into a dex file, optionally " +
         "embedded in a\n" +
         "    jar/zip. Output name must end with one of: .dex .jar " +
         ".zip .apk. Positions\n" +
-        "    options: none, important, lines.\n" +
+        "    options: none, important, lines. --num-threads translates " +
+        "classes and\n" +
+        "    lays out the output on <n> threads; the output is the same " +
+        "as for a\n" +
+        "    single thread. --cache-dir keeps translated methods in the " +
+        "given\n" +
+        "    directory, to speed up later runs.\n" +
+        "    --read-ahead reads up to <kb> kilobytes of archive " +
+        "entries ahead of\n" +
+        "    translation on a separate thread. Liveness options: " +
+        "dataflow (the\n" +
+        "    default), per-register; both give the same output. " +
+        "--profile writes\n" +
+        "    the time and memory taken by each phase, and by the " +
+        "slowest methods,\n" +
+        "    as JSON to the given file (default: stdout). " +
+        "--startup-profile\n" +
+        "    places the code and strings of the classes and methods " +
+        "listed in the\n" +
+        "    given file, one per line, first in the output. --dedup " +
+        "keeps one\n" +
+        "    copy of code and debug info that comes out identical for " +
+        "several\n" +
+        "    methods. --inline replaces calls to getters, setters and " +
+        "other methods\n" +
+        "    of at most <n> (default 4) instructions with their " +
+        "bodies, which take\n" +
+        "    the line number of the call. Allocator options: " +
+        "first-fit (the\n" +
+        "    default), coalescing, which assigns copies the same " +
+        "register where\n" +
+        "    that can't cost registers elsewhere, so fewer moves are " +
+        "needed.\n" +
+        "    --number-values removes instructions that compute a value " +
+        "already\n" +
+        "    computed on every path to them; the output may get " +
+        "larger.\n" +
+        "    --hoist-loop-invariants moves arithmetic whose result is " +
+        "the same on\n" +
+        "    every iteration of a loop out of it; the output may get " +
+        "larger.\n" +
+        "  dx --merge [--verbose] --output=<file>.dex <file>.dex ...\n" +
+        "    Combine dex files into one, without translating their " +
+        "code again.\n" +
         "  dx --annotool --annotation=<class> [--element=<element types>]\n" +
         "  [--print=<print types>]\n" +
         "  dx --dump [--debug] [--strict] [--bytes] [--basic-blocks | " +
@@ -89,6 +139,9 @@ public class Main {
                 } else if (arg.equals("--dump")) {
                     com.android.dx.command.dump.Main.main(without(args, i));
                     break;
+                } else if (arg.equals("--merge")) {
+                    com.android.dx.command.merger.Main.main(without(args, i));
+                    break;
                 } else if (arg.equals("--annotool")) {
                     com.android.dx.command.annotool.Main.main(
                             without(args, i));
@@ -24,31 +24,43 @@ import com.android.dx.command.UsageException;
 import com.android.dx.dex.cf.CfOptions;
 import com.android.dx.dex.cf.CfTranslator;
 import com.android.dx.dex.cf.CodeStatistics;
+import com.android.dx.dex.cf.TranslationCache;
 import com.android.dx.dex.code.PositionList;
 import com.android.dx.dex.file.ClassDefItem;
 import com.android.dx.dex.file.DexFile;
 import com.android.dx.dex.file.EncodedMethod;
+import com.android.dx.dex.file.StartupProfile;
 import com.android.dx.rop.annotation.Annotation;
 import com.android.dx.rop.annotation.Annotations;
 import com.android.dx.rop.annotation.AnnotationsList;
 import com.android.dx.rop.cst.CstNat;
 import com.android.dx.rop.cst.CstUtf8;
+import com.android.dx.ssa.InlinableMethods;
+import com.android.dx.util.Profile;
 
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.util.Arrays;
 import java.util.ArrayList;
-import java.util.Map;
 import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.jar.Attributes;
 import java.util.jar.JarEntry;
 import java.util.jar.JarOutputStream;
 import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 /**
  * Main class for the class file translator.
@@ -84,6 +96,15 @@ public class Main {
         "xml"
     };
 
+    /** number of slowest methods to list in the profile report */
+    private static final int PROFILE_TOP_COUNT = 20;
+
+    /**
+     * the largest size, in instructions, of a method to be inlined
+     * into its callers, when <code>--inline</code> doesn't say
+     */
+    private static final int DEFAULT_INLINE_MAX_SIZE = 4;
+
     /** number of warnings during processing */
     private static int warnings = 0;
 
@@ -102,6 +123,32 @@ public class Main {
      */
     private static TreeMap<String, byte[]> outputResources;
 
+    /**
+     * null-ok; map of resources to include in the output which are too
+     * large to keep in memory, and are instead copied straight from
+     * their archives when writing the output; <code>null</code> if
+     * resources are being ignored
+     */
+    private static TreeMap<String, ArchivedResource> largeResources;
+
+    /**
+     * null-ok; pool of threads translating classes, or <code>null</code>
+     * if classes are being translated on the calling thread
+     */
+    private static ExecutorService classTranslatorPool;
+
+    /**
+     * null-ok; translations submitted to {@link #classTranslatorPool}
+     * but not yet added to {@link #outputDex}, in submission order
+     */
+    private static ArrayList<Future<ClassDefItem>> pendingClasses;
+
+    /**
+     * null-ok; cache of previously translated methods, or
+     * <code>null</code> if every class is to be translated anew
+     */
+    private static TranslationCache translationCache;
+
     /**
      * This class is uninstantiable.
      */
@@ -155,6 +202,10 @@ public class Main {
             }
         }
 
+        if ((args.profileOutName != null) && !writeProfile()) {
+            return 4;
+        }
+
         return 0;
     }
 
@@ -169,15 +220,39 @@ public class Main {
 
         if (args.jarOutput) {
             outputResources = new TreeMap<String, byte[]>();
+            largeResources = new TreeMap<String, ArchivedResource>();
         }
 
         if (args.dumpWidth != 0) {
             outputDex.setDumpWidth(args.dumpWidth);
         }
 
+        if (args.cacheDir != null) {
+            translationCache =
+                new TranslationCache(new File(args.cacheDir), args.cfOptions);
+        } else {
+            translationCache = null;
+        }
+
+        if (args.numThreads > 1) {
+            classTranslatorPool = Executors.newFixedThreadPool(args.numThreads);
+            pendingClasses = new ArrayList<Future<ClassDefItem>>();
+        }
+
         boolean any = false;
         String[] fileNames = args.fileNames;
 
+        if (args.optimize && (args.inlineMaxSize >= 0)) {
+            InlinableMethods methods =
+                new InlinableMethods(args.inlineMaxSize);
+
+            for (int i = 0; i < fileNames.length; i++) {
+                findInlinableMethods(fileNames[i], methods);
+            }
+
+            args.cfOptions.inlinableMethods = methods;
+        }
+
         try {
             for (int i = 0; i < fileNames.length; i++) {
                 any |= processOne(fileNames[i]);
@@ -187,6 +262,13 @@ public class Main {
              * Ignore it and just let the warning/error reporting do
              * their things.
              */
+        } finally {
+            if (classTranslatorPool != null) {
+                addPendingClasses(true);
+                classTranslatorPool.shutdown();
+                classTranslatorPool = null;
+                pendingClasses = null;
+            }
         }
 
         if (warnings != 0) {
@@ -209,6 +291,20 @@ public class Main {
             CodeStatistics.dumpStatistics(DxConsole.out);
         }
 
+        InlinableMethods inlinableMethods = args.cfOptions.inlinableMethods;
+
+        if (args.verbose && (inlinableMethods != null)) {
+            DxConsole.out.println("inlined " +
+                    inlinableMethods.getInlinedCount() + " calls to " +
+                    inlinableMethods.size() + " inlinable methods");
+        }
+
+        if (args.verbose && (translationCache != null)) {
+            DxConsole.out.println("translation cache: " +
+                    translationCache.getHitCount() + " hits, " +
+                    translationCache.getMissCount() + " misses");
+        }
+
         return true;
     }
 
@@ -223,10 +319,13 @@ public class Main {
         ClassPathOpener opener;
 
         opener = new ClassPathOpener(pathname, false,
-                new ClassPathOpener.Consumer() {
+                new ClassPathOpener.LargeEntryConsumer() {
             public boolean processFileBytes(String name, byte[] bytes) {
                 return Main.processFileBytes(name, bytes);
             }
+            public boolean processLargeEntry(File archive, ZipEntry entry) {
+                return Main.processLargeEntry(archive, entry);
+            }
             public void onException(Exception ex) {
                 if (ex instanceof StopProcessing) {
                     throw (StopProcessing) ex;
@@ -240,11 +339,50 @@ public class Main {
                     DxConsole.out.println("processing archive " + file + "...");
                 }
             }
-        });
+        }, args.readAhead * 1024);
 
         return opener.process();     
     }
 
+    /**
+     * Reads the classes in one pathname element, adding their inlinable
+     * methods to the given instance. Anything wrong with a class is
+     * left to be reported when it is processed for real.
+     *
+     * @param pathname non-null; the pathname to read
+     * @param methods non-null; where to add the methods
+     */
+    private static void findInlinableMethods(String pathname,
+            final InlinableMethods methods) {
+        ClassPathOpener opener;
+
+        opener = new ClassPathOpener(pathname, false,
+                new ClassPathOpener.Consumer() {
+            public boolean processFileBytes(String name, byte[] bytes) {
+                if (!name.endsWith(".class")) {
+                    return false;
+                }
+
+                try {
+                    CfTranslator.findInlinableMethods(fixPath(name), bytes,
+                            args.cfOptions, methods);
+                } catch (ParseException ex) {
+                    return false;
+                }
+
+                return true;
+            }
+            public void onException(Exception ex) {
+                // Processing the file for real reports the problem.
+            }
+            public void onProcessArchiveStart(File file) {
+                // This space intentionally left blank.
+            }
+        });
+
+        opener.process();
+    }
+
     /**
      * Processes one file, which may be either a class or a resource.
      *
@@ -272,14 +410,45 @@ public class Main {
         if (isClass) {
             if (keepResources && args.keepClassesInJar) {
                 outputResources.put(fixedName, bytes);
+                largeResources.remove(fixedName);
             }
             return processClass(fixedName, bytes);
         } else {
             outputResources.put(fixedName, bytes);
+            largeResources.remove(fixedName);
             return true;
         }
     }
 
+    /**
+     * Processes one large resource in an archive, which is remembered
+     * rather than read, so that it can be copied to the output later.
+     *
+     * @param archive non-null; the archive the resource is in
+     * @param entry non-null; the resource's entry in the archive
+     * @return whether processing was successful
+     */
+    private static boolean processLargeEntry(File archive, ZipEntry entry) {
+        String name = entry.getName();
+
+        if (outputResources == null) {
+            if (args.verbose) {
+                DxConsole.out.println("ignored resource " + name);
+            }
+            return false;
+        }
+
+        if (args.verbose) {
+            DxConsole.out.println("processing " + name + "...");
+        }
+
+        String fixedName = fixPath(name);
+
+        largeResources.put(fixedName, new ArchivedResource(archive, name));
+        outputResources.remove(fixedName);
+        return true;
+    }
+
     /**
      * Processes one classfile.
      *
@@ -292,10 +461,15 @@ public class Main {
         if (! args.coreLibrary) {
             checkClassName(name);
         }
-        
+
+        if (classTranslatorPool != null) {
+            submitClass(name, bytes);
+            return true;
+        }
+
         try {
-            ClassDefItem clazz =
-                CfTranslator.translate(name, bytes, args.cfOptions);
+            ClassDefItem clazz = CfTranslator.translate(name, bytes,
+                    args.cfOptions, translationCache);
             outputDex.add(clazz);
             return true;
         } catch (ParseException ex) {
@@ -311,6 +485,82 @@ public class Main {
         return false;
     }
 
+    /**
+     * Hands one classfile off to {@link #classTranslatorPool}. The
+     * result is added to {@link #outputDex} later, by
+     * {@link #addPendingClasses}, in the same order that the classes
+     * were submitted, so that the output doesn't depend on which
+     * worker happens to finish first.
+     *
+     * @param name non-null; name of the file
+     * @param bytes non-null; contents of the file
+     */
+    private static void submitClass(final String name, final byte[] bytes) {
+        final CfOptions cfOptions = args.cfOptions;
+        final TranslationCache cache = translationCache;
+
+        pendingClasses.add(classTranslatorPool.submit(
+                new Callable<ClassDefItem>() {
+            public ClassDefItem call() {
+                return CfTranslator.translate(name, bytes, cfOptions, cache);
+            }
+        }));
+
+        /*
+         * Opportunistically retire whatever has already finished, so
+         * that the translated classes don't all pile up until the end.
+         */
+        addPendingClasses(false);
+    }
+
+    /**
+     * Adds the results of finished translations to {@link #outputDex},
+     * in submission order. Failures are reported just as they would
+     * have been had the class been translated on the calling thread.
+     *
+     * @param wait whether to wait for all outstanding translations,
+     * as opposed to stopping at the first one that isn't yet done
+     */
+    private static void addPendingClasses(boolean wait) {
+        while (!pendingClasses.isEmpty()) {
+            Future<ClassDefItem> future = pendingClasses.get(0);
+
+            if (!wait && !future.isDone()) {
+                break;
+            }
+
+            pendingClasses.remove(0);
+
+            ClassDefItem clazz;
+            try {
+                clazz = future.get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(
+                        "interrupted while translating classes", ex);
+            } catch (ExecutionException ex) {
+                Throwable cause = ex.getCause();
+
+                if (cause instanceof ParseException) {
+                    DxConsole.err.println("\ntrouble processing:");
+                    if (args.debug) {
+                        cause.printStackTrace(DxConsole.err);
+                    } else {
+                        ((ParseException) cause).printContext(DxConsole.err);
+                    }
+                    warnings++;
+                } else {
+                    DxConsole.err.println("\nUNEXPECTED TOP-LEVEL EXCEPTION:");
+                    cause.printStackTrace(DxConsole.err);
+                    errors++;
+                }
+                continue;
+            }
+
+            outputDex.add(clazz);
+        }
+    }
+
     /**
      * Check the class name to make sure it's not a "core library"
      * class. If there is a problem, this updates the error count and
@@ -374,8 +624,9 @@ public class Main {
      * it out to the proper file (if any), and also do whatever human-oriented
      * dumping is required.
      *
-     * @return null-ok; the converted <code>byte[]</code> or <code>null</code>
-     * if there was a problem
+     * @return null-ok; the converted <code>byte[]</code>, which is empty
+     * if it was written straight to the output file without being built
+     * in memory, or <code>null</code> if there was a problem
      */
     private static byte[] writeDex() {
         byte[] outArray = null;
@@ -384,7 +635,16 @@ public class Main {
             OutputStream out = null;
             OutputStream humanOutRaw = null;
             OutputStreamWriter humanOut = null;
+            File tempFile = null;
             try {
+                outputDex.setDedup(args.dedup);
+                outputDex.setNumThreads(args.numThreads);
+
+                if (args.startupProfile != null) {
+                    outputDex.setStartupProfile(
+                            StartupProfile.read(args.startupProfile));
+                }
+
                 if (args.humanOutName != null) {
                     humanOutRaw = openOutput(args.humanOutName);
                     humanOut = new OutputStreamWriter(humanOutRaw);
@@ -403,12 +663,47 @@ public class Main {
                      * This is the usual case: Create an output .dex file,
                      * and write it, dump it, etc.
                      */
-                    outArray = outputDex.toDex(humanOut, args.verboseDump);
+                    Profile profile = args.cfOptions.profile;
+                    Profile.Mark mark = profile.start();
+
+                    if ((humanOut == null) && (args.outName != null)
+                            && !args.jarOutput) {
+                        /*
+                         * Nothing else needs the whole file, so don't
+                         * build it in memory. It's written under a
+                         * temporary name and only renamed into place once
+                         * complete, so that a failure partway through
+                         * doesn't leave a truncated file behind.
+                         */
+                        if (isStandardOutput(args.outName)) {
+                            out = System.out;
+                            outputDex.writeTo(out);
+                        } else {
+                            File outFile = new File(args.outName);
+                            tempFile = File.createTempFile(outFile.getName(),
+                                    ".tmp", outFile.getAbsoluteFile()
+                                    .getParentFile());
+                            FileOutputStream fileOut =
+                                new FileOutputStream(tempFile);
+                            out = fileOut;
+                            outputDex.writeTo(fileOut.getChannel());
+                            closeOutput(out);
+                            out = null;
+                            renameOutput(tempFile, outFile);
+                            tempFile = null;
+                        }
+                        outArray = new byte[0];
+                    } else {
+                        outArray = outputDex.toDex(humanOut,
+                                args.verboseDump);
 
-                    if ((args.outName != null) && !args.jarOutput) {
-                        out = openOutput(args.outName);
-                        out.write(outArray);
+                        if ((args.outName != null) && !args.jarOutput) {
+                            out = openOutput(args.outName);
+                            out.write(outArray);
+                        }
                     }
+
+                    profile.stop(Profile.Phase.WRITE_DEX, mark);
                 }
 
                 if (args.statistics) {
@@ -420,6 +715,9 @@ public class Main {
                 }
                 closeOutput(out);
                 closeOutput(humanOutRaw);
+                if (tempFile != null) {
+                    tempFile.delete();
+                }
             }
         } catch (Exception ex) {
             if (args.debug) {
@@ -455,12 +753,21 @@ public class Main {
             JarOutputStream jarOut = new JarOutputStream(out, manifest);
 
             outputResources.put(DEX_IN_JAR_NAME, dexArray);
+            largeResources.remove(DEX_IN_JAR_NAME);
+
+            TreeSet<String> names = new TreeSet<String>();
+            names.addAll(outputResources.keySet());
+            names.addAll(largeResources.keySet());
 
             try {
-                for (Map.Entry<String, byte[]> e :
-                         outputResources.entrySet()) {
-                    String name = e.getKey();
-                    byte[] contents = e.getValue();
+                for (String name : names) {
+                    byte[] contents = outputResources.get(name);
+
+                    if (contents == null) {
+                        largeResources.get(name).copyTo(name, jarOut);
+                        continue;
+                    }
+
                     JarEntry entry = new JarEntry(name);
 
                     if (args.verbose) {
@@ -528,6 +835,36 @@ public class Main {
         return manifest;
     }
 
+    /**
+     * Writes the profile report to the file named in the arguments.
+     *
+     * @return whether the report was written
+     */
+    private static boolean writeProfile() {
+        try {
+            OutputStream out = openOutput(args.profileOutName);
+            try {
+                OutputStreamWriter writer =
+                    new OutputStreamWriter(out, "UTF-8");
+                args.cfOptions.profile.writeJson(writer);
+                writer.flush();
+            } finally {
+                closeOutput(out);
+            }
+        } catch (IOException ex) {
+            if (args.debug) {
+                DxConsole.err.println("\ntrouble writing profile:");
+                ex.printStackTrace(DxConsole.err);
+            } else {
+                DxConsole.err.println("\ntrouble writing profile: " +
+                                   ex.getMessage());
+            }
+            return false;
+        }
+
+        return true;
+    }
+
     /**
      * Opens and returns the named file for writing, treating "-" specially.
      *
@@ -535,14 +872,44 @@ public class Main {
      * @return non-null; the opened file
      */
     private static OutputStream openOutput(String name) throws IOException {
-        if (name.equals("-") ||
-                name.startsWith("-.")) {
+        if (isStandardOutput(name)) {
             return System.out;
         }
 
         return new FileOutputStream(name);
     }
 
+    /**
+     * Returns whether the given output name stands for
+     * {@link System#out} rather than for a file.
+     *
+     * @param name non-null; the name
+     * @return whether it names the standard output
+     */
+    private static boolean isStandardOutput(String name) {
+        return name.equals("-") || name.startsWith("-.");
+    }
+
+    /**
+     * Moves a completely written output file into place, replacing
+     * any file already there.
+     *
+     * @param from non-null; the file as written
+     * @param to non-null; where it goes
+     */
+    private static void renameOutput(File from, File to) throws IOException {
+        if (from.renameTo(to)) {
+            return;
+        }
+
+        // Some platforms won't rename over an existing file.
+        to.delete();
+
+        if (!from.renameTo(to)) {
+            throw new IOException("unable to rename " + from + " to " + to);
+        }
+    }
+
     /**
      * Flushes and closes the given output stream, except if it happens to be
      * {@link System#out} in which case this method does the flush but not
@@ -696,6 +1063,81 @@ public class Main {
         pw.flush();
     }
 
+    /**
+     * Reference to a resource in an input archive.
+     */
+    private static class ArchivedResource {
+        /** non-null; the archive */
+        private final File archive;
+
+        /** non-null; name of the resource's entry in the archive */
+        private final String entryName;
+
+        /**
+         * Constructs an instance.
+         *
+         * @param archive non-null; the archive
+         * @param entryName non-null; name of the entry in the archive
+         */
+        public ArchivedResource(File archive, String entryName) {
+            this.archive = archive;
+            this.entryName = entryName;
+        }
+
+        /**
+         * Copies the resource to the given output jar, a buffer at a
+         * time.
+         *
+         * @param name non-null; name to give it in the output
+         * @param jarOut non-null; where to write it
+         * @throws IOException on i/o problem
+         */
+        public void copyTo(String name, JarOutputStream jarOut)
+                throws IOException {
+            ZipFile zip = new ZipFile(archive);
+
+            try {
+                ZipEntry source = zip.getEntry(entryName);
+
+                if (source == null) {
+                    throw new IOException(entryName + " disappeared from " +
+                            archive);
+                }
+
+                JarEntry entry = new JarEntry(name);
+                long size = source.getSize();
+
+                if (args.verbose) {
+                    DxConsole.out.println("writing " + name + "; size " +
+                                       size + "...");
+                }
+
+                entry.setSize(size);
+                jarOut.putNextEntry(entry);
+
+                InputStream in = zip.getInputStream(source);
+                byte[] buf = new byte[20000];
+
+                try {
+                    for (;;) {
+                        int amt = in.read(buf);
+                        if (amt < 0) {
+                            break;
+                        }
+
+                        jarOut.write(buf, 0, amt);
+                    }
+                } finally {
+                    in.close();
+                }
+
+                jarOut.closeEntry();
+            } finally {
+                zip.close();
+            }
+        }
+    }
+
     /**
      * Exception class used to halt processing prematurely.
      */
@@ -773,6 +1215,68 @@ public class Main {
         /** Whether to print statistics to stdout at end of compile cycle */
         public boolean statistics;
 
+        /**
+         * whether to analyze register liveness one register at a time,
+         * as opposed to for all registers at once
+         */
+        public boolean perRegisterLiveness = false;
+
+        /** whether to remove instructions that recompute available values */
+        public boolean numberValues = false;
+
+        /** whether to move loop-invariant instructions out of loops */
+        public boolean hoistLoopInvariants = false;
+
+        /**
+         * whether to allocate registers by coalescing copies, as
+         * opposed to first fit
+         */
+        public boolean coalesceRegisters = false;
+
+        /**
+         * number of threads to translate classes on; <code>1</code>
+         * means to translate on the calling thread
+         */
+        public int numThreads = 1;
+
+        /**
+         * null-ok; directory in which to cache translated methods
+         * between runs, or <code>null</code> not to cache them
+         */
+        public String cacheDir = null;
+
+        /**
+         * how many kilobytes of archive entries to read ahead of
+         * translation on a separate thread; <code>0</code> means not
+         * to read ahead
+         */
+        public int readAhead = 0;
+
+        /**
+         * null-ok; where to write a report of the time taken by each
+         * phase, or <code>null</code> not to keep track of that
+         */
+        public String profileOutName = null;
+
+        /**
+         * null-ok; name of the file listing the classes and methods
+         * used at startup, to be placed first in the output, or
+         * <code>null</code> to use the usual layout
+         */
+        public String startupProfile = null;
+
+        /**
+         * whether methods with identical code or debug info share one
+         * copy of it in the output
+         */
+        public boolean dedup = false;
+
+        /**
+         * the largest size, in instructions, of a method to be inlined
+         * into its callers, or <code>-1</code> not to inline methods
+         */
+        public int inlineMaxSize = -1;
+
         /** Options for dex.cf.* */
         public CfOptions cfOptions;
 
@@ -859,6 +1363,68 @@ public class Main {
                     }
                 } else if (arg.equals("--no-locals")) {
                     localInfo = false;
+                } else if (arg.startsWith("--liveness=")) {
+                    String lstr = arg.substring(arg.indexOf('=') + 1);
+                    if (lstr.equals("dataflow")) {
+                        perRegisterLiveness = false;
+                    } else if (lstr.equals("per-register")) {
+                        perRegisterLiveness = true;
+                    } else {
+                        System.err.println("unknown liveness option: " +
+                                           lstr);
+                        throw new UsageException();
+                    }
+                } else if (arg.startsWith("--allocator=")) {
+                    String astr = arg.substring(arg.indexOf('=') + 1);
+                    if (astr.equals("first-fit")) {
+                        coalesceRegisters = false;
+                    } else if (astr.equals("coalescing")) {
+                        coalesceRegisters = true;
+                    } else {
+                        System.err.println("unknown allocator option: " +
+                                           astr);
+                        throw new UsageException();
+                    }
+                } else if (arg.equals("--hoist-loop-invariants")) {
+                    hoistLoopInvariants = true;
+                } else if (arg.equals("--profile")) {
+                    profileOutName = "-";
+                } else if (arg.startsWith("--profile=")) {
+                    profileOutName = arg.substring(arg.indexOf('=') + 1);
+                } else if (arg.equals("--dedup")) {
+                    dedup = true;
+                } else if (arg.equals("--inline")) {
+                    inlineMaxSize = DEFAULT_INLINE_MAX_SIZE;
+                } else if (arg.startsWith("--inline=")) {
+                    arg = arg.substring(arg.indexOf('=') + 1);
+                    inlineMaxSize = Integer.parseInt(arg);
+                    if (inlineMaxSize < 0) {
+                        System.err.println("bad --inline value: " +
+                                           inlineMaxSize);
+                        throw new UsageException();
+                    }
+                } else if (arg.equals("--number-values")) {
+                    numberValues = true;
+                } else if (arg.startsWith("--startup-profile=")) {
+                    startupProfile = arg.substring(arg.indexOf('=') + 1);
+                } else if (arg.startsWith("--cache-dir=")) {
+                    cacheDir = arg.substring(arg.indexOf('=') + 1);
+                } else if (arg.startsWith("--read-ahead=")) {
+                    arg = arg.substring(arg.indexOf('=') + 1);
+                    readAhead = Integer.parseInt(arg);
+                    if (readAhead < 0) {
+                        System.err.println("bad --read-ahead value: " +
+                                           readAhead);
+                        throw new UsageException();
+                    }
+                } else if (arg.startsWith("--num-threads=")) {
+                    arg = arg.substring(arg.indexOf('=') + 1);
+                    numThreads = Integer.parseInt(arg);
+                    if (numThreads < 1) {
+                        System.err.println("bad --num-threads value: " +
+                                           numThreads);
+                        throw new UsageException();
+                    }
                 } else {
                     System.err.println("unknown option: " + arg);
                     throw new UsageException();
@@ -899,6 +1465,14 @@ public class Main {
             cfOptions.optimizeListFile = optimizeListFile;
             cfOptions.dontOptimizeListFile = dontOptimizeListFile;
             cfOptions.statistics = statistics;
+            cfOptions.perRegisterLiveness = perRegisterLiveness;
+            cfOptions.coalesceRegisters = coalesceRegisters;
+            cfOptions.numberValues = numberValues;
+            cfOptions.hoistLoopInvariants = hoistLoopInvariants;
+
+            if (profileOutName != null) {
+                cfOptions.profile = new Profile(PROFILE_TOP_COUNT);
+            }
             cfOptions.warn = DxConsole.err;
         }
     }
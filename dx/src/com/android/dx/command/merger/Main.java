@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.command.merger;
+
+import com.android.dx.command.DxConsole;
+import com.android.dx.command.UsageException;
+import com.android.dx.merge.DexMerger;
+import com.android.dx.util.FileUtils;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Main class for the dex file merger.
+ */
+public class Main {
+    /**
+     * This class is uninstantiable.
+     */
+    private Main() {
+        // This space intentionally left blank.
+    }
+
+    /**
+     * Run and exit if something unexpected happened.
+     *
+     * @param args the command line arguments
+     */
+    public static void main(String[] args) throws IOException {
+        boolean verbose = false;
+        String outName = null;
+        int at = 0;
+
+        for (/*at*/; at < args.length; at++) {
+            String arg = args[at];
+            if (arg.equals("--") || !arg.startsWith("--")) {
+                break;
+            } else if (arg.equals("--verbose")) {
+                verbose = true;
+            } else if (arg.startsWith("--output=")) {
+                outName = arg.substring(arg.indexOf('=') + 1);
+                if (!outName.endsWith(".dex")) {
+                    System.err.println("unknown output extension: " +
+                                       outName);
+                    throw new UsageException();
+                }
+            } else {
+                System.err.println("unknown option: " + arg);
+                throw new UsageException();
+            }
+        }
+
+        if (outName == null) {
+            System.err.println("no output file specified");
+            throw new UsageException();
+        }
+
+        if (at == args.length) {
+            System.err.println("no input files specified");
+            throw new UsageException();
+        }
+
+        DexMerger merger = new DexMerger();
+
+        for (/*at*/; at < args.length; at++) {
+            String name = args[at];
+
+            if (verbose) {
+                DxConsole.out.println("merging " + name + "...");
+            }
+
+            int count = merger.add(FileUtils.readFile(name));
+
+            if (verbose) {
+                DxConsole.out.println("  " + count + " classes");
+            }
+        }
+
+        FileOutputStream out = new FileOutputStream(outName);
+
+        try {
+            merger.getDexFile().writeTo(out.getChannel());
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -17,8 +17,12 @@
 package com.android.dx.dex.cf;
 
 import com.android.dx.dex.code.PositionList;
+import com.android.dx.ssa.InlinableMethods;
+import com.android.dx.ssa.Optimizer;
+import com.android.dx.util.Profile;
 
 import java.io.PrintStream;
+import java.util.EnumSet;
 
 /**
  * A class to contain options passed into dex.cf
@@ -45,6 +49,73 @@ public class CfOptions {
     /** whether to print statistics to stdout at end of compile cycle */
     public boolean statistics;
 
+    /**
+     * whether to analyze register liveness one register at a time,
+     * as opposed to for all registers at once
+     */
+    public boolean perRegisterLiveness = false;
+
+    /** whether to remove instructions that recompute available values */
+    public boolean numberValues = false;
+
+    /** whether to move loop-invariant instructions out of loops */
+    public boolean hoistLoopInvariants = false;
+
+    /**
+     * whether to allocate registers by coalescing copies, as opposed
+     * to first fit
+     */
+    public boolean coalesceRegisters = false;
+
+    /**
+     * null-ok; trivial methods of the classes being translated, to be
+     * inlined into their callers, or <code>null</code> not to inline
+     */
+    public InlinableMethods inlinableMethods = null;
+
+    /** non-null; where to record the time taken by each phase */
+    public Profile profile = Profile.NONE;
+
     /** where to issue warnings to */
     public PrintStream warn = System.err;
+
+    /**
+     * null-ok; optimize lists, loaded from the files named above on
+     * first use
+     */
+    private OptimizerOptions optimizerOptions;
+
+    /**
+     * Gets the optimize lists named by this instance, loading them on
+     * first use.
+     *
+     * @return non-null; the optimizer options
+     */
+    public synchronized OptimizerOptions getOptimizerOptions() {
+        if (optimizerOptions == null) {
+            optimizerOptions =
+                new OptimizerOptions(optimizeListFile, dontOptimizeListFile);
+        }
+
+        return optimizerOptions;
+    }
+
+    /**
+     * Gets the optional optimizer steps to run.
+     *
+     * @return non-null; a new set of the steps
+     */
+    public EnumSet<Optimizer.OptionalStep> getOptimizerSteps() {
+        EnumSet<Optimizer.OptionalStep> steps = Optimizer.getDefaultSteps();
+
+        if (numberValues) {
+            steps.add(Optimizer.OptionalStep.VALUE_NUMBERING);
+        }
+
+        if (hoistLoopInvariants) {
+            steps.add(Optimizer.OptionalStep.LOOP_INVARIANT_MOVER);
+        }
+
+        return steps;
+    }
 }
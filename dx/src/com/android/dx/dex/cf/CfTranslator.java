@@ -51,8 +51,15 @@ import com.android.dx.rop.cst.CstUtf8;
 import com.android.dx.rop.cst.TypedConstant;
 import com.android.dx.rop.type.Type;
 import com.android.dx.rop.type.TypeList;
+import com.android.dx.ssa.InlinableMethods;
 import com.android.dx.ssa.Optimizer;
+import com.android.dx.ssa.OptimizerContext;
 import com.android.dx.util.ExceptionWithContext;
+import com.android.dx.util.Profile;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
 
 /**
  * Static method that turns <code>byte[]</code>s containing Java
@@ -62,6 +69,12 @@ public class CfTranslator {
     /** set to <code>true</code> to enable development-time debugging code */
     private static final boolean DEBUG = false;
 
+    /**
+     * how many bytes of Java bytecode a method may have per instruction
+     * of the size budget for inlining, before it's not even looked at
+     */
+    private static final int MAX_BYTES_PER_INLINED_INSN = 4;
+
     /**
      * This class is uninstantiable.
      */
@@ -81,14 +94,107 @@ public class CfTranslator {
      */
     public static ClassDefItem translate(String filePath, byte[] bytes,
             CfOptions args) {
+        return translate(filePath, bytes, args, null);
+    }
+
+    /**
+     * Takes a <code>byte[]</code>, interprets it as a Java classfile, and
+     * translates it into a {@link ClassDefItem}, reusing previously
+     * translated methods from the given cache when possible.
+     *
+     * @param filePath non-null; the file path for the class,
+     * excluding any base directory specification
+     * @param bytes non-null; contents of the file
+     * @param args command-line arguments
+     * @param cache null-ok; cache of translated methods, or
+     * <code>null</code> to translate everything
+     * @return non-null; the translated class
+     */
+    public static ClassDefItem translate(String filePath, byte[] bytes,
+            CfOptions args, TranslationCache cache) {
         try {
-            return translate0(filePath, bytes, args);
+            return translate0(filePath, bytes, args, cache);
         } catch (RuntimeException ex) {
             String msg = "...while processing " + filePath;
             throw ExceptionWithContext.withContext(ex, msg);
         }
     }
 
+    /**
+     * Takes a <code>byte[]</code>, interprets it as a Java classfile, and
+     * records its members, and any of its methods that may be inlined,
+     * in the given instance. This is done for all the classes that go
+     * in a dex file before any of them are translated.
+     *
+     * @param filePath non-null; the file path for the class,
+     * excluding any base directory specification
+     * @param bytes non-null; contents of the file
+     * @param args command-line arguments
+     * @param methods non-null; where to record the methods
+     */
+    public static void findInlinableMethods(String filePath, byte[] bytes,
+            CfOptions args, InlinableMethods methods) {
+        DirectClassFile cf =
+            new DirectClassFile(bytes, filePath, args.strictNameCheck);
+
+        cf.setAttributeFactory(StdAttributeFactory.THE_ONE);
+        cf.setLazy(true);
+        cf.getMagic();
+
+        CstType thisClass = cf.getThisClass();
+        int classAccessFlags = cf.getAccessFlags();
+        FieldList fields = cf.getFields();
+        MethodList methodList = cf.getMethods();
+        boolean hasClassInit = false;
+
+        for (int i = 0; i < fields.size(); i++) {
+            Field one = fields.get(i);
+            methods.addMember(new CstFieldRef(thisClass, one.getNat()),
+                    one.getAccessFlags());
+        }
+
+        for (int i = 0; i < methodList.size(); i++) {
+            Method one = methodList.get(i);
+            CstMethodRef meth = new CstMethodRef(thisClass, one.getNat());
+            int accessFlags = one.getAccessFlags();
+
+            methods.addMember(meth, accessFlags);
+            hasClassInit |= meth.isClassInit();
+
+            if (!methods.isCandidate(meth, accessFlags, classAccessFlags)) {
+                continue;
+            }
+
+            try {
+                ConcreteMethod concrete =
+                    new ConcreteMethod(one, cf, false, false);
+
+                /*
+                 * Nothing much longer than this can fit the size
+                 * budget, and this saves converting it to find out.
+                 */
+                if (concrete.getCode().size()
+                        > MAX_BYTES_PER_INLINED_INSN
+                        * (methods.getMaxSize() + 1)) {
+                    continue;
+                }
+
+                RopMethod rmeth =
+                    Ropper.convert(concrete, DexTranslationAdvice.THE_ONE);
+                methods.addMethod(meth, AccessFlags.isStatic(accessFlags),
+                        rmeth);
+            } catch (RuntimeException ex) {
+                /*
+                 * The method just doesn't get inlined. Translating the
+                 * class reports the problem.
+                 */
+            }
+        }
+
+        methods.addClass(thisClass, classAccessFlags, cf.getSuperclass(),
+                hasClassInit);
+    }
+
     /**
      * Performs the main act of translation. This method is separated
      * from {@link #translate} just to keep things a bit simpler in
@@ -98,18 +204,20 @@ public class CfTranslator {
      * excluding any base directory specification
      * @param bytes non-null; contents of the file
      * @param args command-line arguments
+     * @param cache null-ok; cache of translated methods
      * @return non-null; the translated class
      */
     private static ClassDefItem translate0(String filePath, byte[] bytes,
-            CfOptions args) {
+            CfOptions args, TranslationCache cache) {
+        Profile.Mark mark = args.profile.start();
         DirectClassFile cf =
             new DirectClassFile(bytes, filePath, args.strictNameCheck);
 
         cf.setAttributeFactory(StdAttributeFactory.THE_ONE);
+        cf.setLazy(true);
         cf.getMagic();
-
-        OptimizerOptions.loadOptimizeLists(args.optimizeListFile,
-                args.dontOptimizeListFile);
+        cf.getAttributes();
+        args.profile.stop(Profile.Phase.PARSE, mark);
 
         // Build up a class to output.
 
@@ -127,8 +235,31 @@ public class CfTranslator {
             out.setClassAnnotations(classAnnotations);
         }
         
+        /*
+         * The statistics compare optimized and unoptimized forms of each
+         * method, which the cache doesn't keep, so it's bypassed for them.
+         * It's also bypassed when inlining, since the translation then
+         * depends on other classes.
+         */
+        String cacheKey = null;
+        Map<String, RopMethod> cachedMethods = null;
+        HashMap<String, RopMethod> translatedMethods = null;
+
+        if ((cache != null) && !args.statistics
+                && (args.inlinableMethods == null)) {
+            cacheKey = cache.keyFor(bytes);
+            cachedMethods = cache.get(cacheKey);
+            if (cachedMethods == null) {
+                translatedMethods = new HashMap<String, RopMethod>();
+            }
+        }
+
         processFields(cf, out);
-        processMethods(cf, args, out);
+        processMethods(cf, args, out, cachedMethods, translatedMethods);
+
+        if (translatedMethods != null) {
+            cache.put(cacheKey, translatedMethods);
+        }
 
         return out;
     }
@@ -210,23 +341,66 @@ public class CfTranslator {
         }
     }
 
+    /**
+     * Finds the final fields of the given class.
+     *
+     * @param cf non-null; class being translated
+     * @return non-null; the fields
+     */
+    private static HashSet<CstFieldRef> findFinalFields(DirectClassFile cf) {
+        CstType thisClass = cf.getThisClass();
+        FieldList fields = cf.getFields();
+        int sz = fields.size();
+        HashSet<CstFieldRef> result = new HashSet<CstFieldRef>();
+
+        for (int i = 0; i < sz; i++) {
+            Field one = fields.get(i);
+
+            if ((one.getAccessFlags() & AccessFlags.ACC_FINAL) != 0) {
+                result.add(new CstFieldRef(thisClass, one.getNat()));
+            }
+        }
+
+        return result;
+    }
+
     /**
      * Processes the methods of the given class.
      *
      * @param cf non-null; class being translated
      * @param args non-null; command-line args
      * @param out non-null; output class
+     * @param cachedMethods null-ok; previously translated methods to
+     * use instead of translating them anew, keyed by name plus descriptor
+     * @param translatedMethods null-ok; if non-null, where to put each
+     * newly translated method, keyed by name plus descriptor
      */
     private static void processMethods(DirectClassFile cf,
-            CfOptions args, ClassDefItem out) {
+            CfOptions args, ClassDefItem out,
+            Map<String, RopMethod> cachedMethods,
+            Map<String, RopMethod> translatedMethods) {
         CstType thisClass = cf.getThisClass();
         MethodList methods = cf.getMethods();
         int sz = methods.size();
+        OptimizerOptions optimizerOptions = args.getOptimizerOptions();
+        TranslationAdvice advice = DexTranslationAdvice.THE_ONE;
+        Profile profile = args.profile;
+        OptimizerContext context = new OptimizerContext(args.localInfo,
+                advice, args.perRegisterLiveness, profile,
+                args.inlinableMethods, thisClass, findFinalFields(cf),
+                args.coalesceRegisters);
+        OptimizerContext comparison = args.statistics
+            ? context.forComparison(!args.coalesceRegisters) : null;
 
         for (int i = 0; i < sz; i++) {
             Method one = methods.get(i);
             try {
                 CstMethodRef meth = new CstMethodRef(thisClass, one.getNat());
+
+                if (profile.isEnabled()) {
+                    profile.startMethod(meth.toHuman());
+                }
+
                 int accessFlags = one.getAccessFlags();
                 boolean isStatic = AccessFlags.isStatic(accessFlags);
                 boolean isPrivate = AccessFlags.isPrivate(accessFlags);
@@ -240,43 +414,62 @@ public class CfTranslator {
                     // There's no code for native or abstract methods.
                     code = null;
                 } else {
-                    ConcreteMethod concrete =
-                        new ConcreteMethod(one, cf,
-                                (args.positionInfo != PositionList.NONE),
-                                args.localInfo);
-
-                    TranslationAdvice advice;
-
-                    advice = DexTranslationAdvice.THE_ONE;
-
-                    RopMethod rmeth = Ropper.convert(concrete, advice);
-                    RopMethod nonOptRmeth = null;
                     int paramSize;
 
                     paramSize = meth.getParameterWordCount(isStatic);
-    
-                    String canonicalName 
-                            = thisClass.getClassType().getDescriptor()
-                                + "." + one.getName().getString();
-
-                    if (args.optimize &&
-                            OptimizerOptions.shouldOptimize(canonicalName)) {
-                        if (DEBUG) {
-                            System.err.println("Optimizing " + canonicalName);
-                        }
 
-                        nonOptRmeth = rmeth;
-                        rmeth = Optimizer.optimize(rmeth,
-                                paramSize, isStatic, args.localInfo, advice);
+                    String methodKey = one.getName().getString()
+                            + one.getDescriptor().getString();
+                    RopMethod rmeth = (cachedMethods == null) ? null
+                            : cachedMethods.get(methodKey);
+                    RopMethod nonOptRmeth = null;
+                    ConcreteMethod concrete = null;
 
-                        if (DEBUG) {
-                            OptimizerOptions.compareOptimizerStep(nonOptRmeth,
-                                    paramSize, isStatic, args, advice, rmeth);
+                    if (rmeth == null) {
+                        concrete = new ConcreteMethod(one, cf,
+                                (args.positionInfo != PositionList.NONE),
+                                args.localInfo);
+
+                        Profile.Mark mark = profile.start();
+                        rmeth = Ropper.convert(concrete, advice);
+                        profile.stop(Profile.Phase.ROP, mark);
+
+                        String canonicalName
+                                = thisClass.getClassType().getDescriptor()
+                                    + "." + one.getName().getString();
+
+                        if (args.optimize &&
+                                optimizerOptions.shouldOptimize(
+                                        canonicalName)) {
+                            if (DEBUG) {
+                                System.err.println("Optimizing "
+                                        + canonicalName);
+                            }
+
+                            int hoisted = context.getHoistedCount();
+
+                            nonOptRmeth = rmeth;
+                            rmeth = Optimizer.optimize(rmeth,
+                                    paramSize, isStatic, context,
+                                    args.getOptimizerSteps());
+
+                            if (DEBUG) {
+                                OptimizerOptions.compareOptimizerStep(
+                                        nonOptRmeth, paramSize, isStatic,
+                                        args, advice, rmeth);
+                            }
+
+                            if (args.statistics) {
+                                CodeStatistics.updateRopStatistics(
+                                        nonOptRmeth, rmeth);
+                                CodeStatistics.updateHoistStatistics(
+                                        meth.toHuman(),
+                                        context.getHoistedCount() - hoisted);
+                            }
                         }
 
-                        if (args.statistics) {
-                            CodeStatistics.updateRopStatistics(
-                                    nonOptRmeth, rmeth);
+                        if (translatedMethods != null) {
+                            translatedMethods.put(methodKey, rmeth);
                         }
                     }
 
@@ -286,12 +479,15 @@ public class CfTranslator {
                         locals = LocalVariableExtractor.extract(rmeth);
                     }
 
+                    Profile.Mark mark = profile.start();
                     code = RopTranslator.translate(rmeth, args.positionInfo,
                             locals, paramSize);
+                    profile.stop(Profile.Phase.ROP_TO_DEX, mark);
 
                     if (args.statistics && nonOptRmeth != null) {
                         updateDexStatistics(args, rmeth, nonOptRmeth, locals,
-                                paramSize, concrete.getCode().size());
+                                paramSize, isStatic, comparison,
+                                concrete.getCode().size());
                     }
                 }
 
@@ -338,16 +534,21 @@ public class CfTranslator {
                 String msg = "...while processing " + one.getName().toHuman() +
                     " " + one.getDescriptor().toHuman();
                 throw ExceptionWithContext.withContext(ex, msg);
+            } finally {
+                profile.stopMethod();
             }
         }
     }
 
     /**
-     * Helper that updates the dex statistics.
+     * Helper that updates the dex statistics. The moves are counted
+     * with registers allocated both ways, so the method is optimized
+     * again with the allocator that wasn't used.
      */
     private static void updateDexStatistics(CfOptions args,
             RopMethod optRmeth, RopMethod nonOptRmeth,
-            LocalVariableInfo locals, int paramSize, int originalByteCount) {
+            LocalVariableInfo locals, int paramSize, boolean isStatic,
+            OptimizerContext comparison, int originalByteCount) {
         /*
          * Run rop->dex again on optimized vs. non-optimized method to
          * collect statistics. We have to totally convert both ways,
@@ -360,6 +561,12 @@ public class CfTranslator {
                 args.positionInfo, locals, paramSize);
         DalvCode nonOptCode = RopTranslator.translate(nonOptRmeth,
                 args.positionInfo, locals, paramSize);
+        RopMethod otherRmeth = Optimizer.optimize(nonOptRmeth, paramSize,
+                isStatic, comparison, args.getOptimizerSteps());
+        LocalVariableInfo otherLocals = args.localInfo
+            ? LocalVariableExtractor.extract(otherRmeth) : null;
+        DalvCode otherCode = RopTranslator.translate(otherRmeth,
+                args.positionInfo, otherLocals, paramSize);
 
         /*
          * Fake out the indices, so code.getInsns() can work well enough
@@ -376,8 +583,16 @@ public class CfTranslator {
 
         optCode.assignIndices(callback);
         nonOptCode.assignIndices(callback);
+        otherCode.assignIndices(callback);
 
         CodeStatistics.updateDexStatistics(nonOptCode, optCode);
+
+        if (args.coalesceRegisters) {
+            CodeStatistics.updateMoveStatistics(otherCode, optCode);
+        } else {
+            CodeStatistics.updateMoveStatistics(optCode, otherCode);
+        }
+
         CodeStatistics.updateOriginalByteCount(originalByteCount);
     }
 }
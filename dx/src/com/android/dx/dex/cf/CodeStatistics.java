@@ -17,9 +17,14 @@
 package com.android.dx.dex.cf;
 
 import com.android.dx.dex.code.DalvCode;
+import com.android.dx.dex.code.DalvInsnList;
+import com.android.dx.dex.code.DalvOps;
 import com.android.dx.rop.code.RopMethod;
 
 import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 
 /**
  * Static methods and variables for collecting statistics on generated
@@ -66,6 +71,28 @@ public final class CodeStatistics {
     /** running sum of original class bytecode bytes */
     public static int runningOriginalBytes = 0;
 
+    /** running sum of the number of insns moved out of loops */
+    public static int runningHoistedInsns = 0;
+
+    /**
+     * running sum of the number of dex move insns in optimized code
+     * whose registers were allocated first fit
+     */
+    public static int dexRunningFirstFitMoves = 0;
+
+    /**
+     * running sum of the number of dex move insns in optimized code
+     * whose registers were allocated by coalescing copies
+     */
+    public static int dexRunningCoalescingMoves = 0;
+
+    /**
+     * non-null; the methods that had insns moved out of loops, with
+     * how many
+     */
+    private static final ArrayList<HoistRecord> hoistRecords =
+        new ArrayList<HoistRecord>();
+
     /**
      * This class is uninstantiable.
      */
@@ -78,7 +105,7 @@ public final class CodeStatistics {
      * 
      * @param count &gt;= 0; the number of bytes to add
      */
-    public static void updateOriginalByteCount(int count) {
+    public static synchronized void updateOriginalByteCount(int count) {
         runningOriginalBytes += count;
     }
 
@@ -88,7 +115,7 @@ public final class CodeStatistics {
      * @param nonOptCode non-optimized code block
      * @param code optimized code block
      */
-    public static void updateDexStatistics(DalvCode nonOptCode,
+    public static synchronized void updateDexStatistics(DalvCode nonOptCode,
             DalvCode code) {
         if (DEBUG) {
             System.err.println("dex insns (old/new) "
@@ -111,13 +138,52 @@ public final class CodeStatistics {
         dexRunningTotalInsns += code.getInsns().codeSize();
     }
 
+    /**
+     * Updates the counts of move insns.
+     *
+     * @param firstFitCode non-null; optimized code block, with
+     * registers allocated first fit
+     * @param coalescingCode non-null; the same, with registers
+     * allocated by coalescing copies
+     */
+    public static synchronized void updateMoveStatistics(
+            DalvCode firstFitCode, DalvCode coalescingCode) {
+        dexRunningFirstFitMoves += countMoves(firstFitCode);
+        dexRunningCoalescingMoves += countMoves(coalescingCode);
+    }
+
+    /**
+     * Counts the move insns of a code block, of all widths.
+     *
+     * @param code non-null; the code block
+     * @return &gt;= 0; the number of moves
+     */
+    private static int countMoves(DalvCode code) {
+        DalvInsnList insns = code.getInsns();
+        int sz = insns.size();
+        int count = 0;
+
+        for (int i = 0; i < sz; i++) {
+            switch (insns.get(i).getOpcode().getFamily()) {
+                case DalvOps.MOVE:
+                case DalvOps.MOVE_WIDE:
+                case DalvOps.MOVE_OBJECT: {
+                    count++;
+                    break;
+                }
+            }
+        }
+
+        return count;
+    }
+
     /**
      * Updates the ROP statistics.
      *
      * @param nonOptRmeth non-optimized method
      * @param rmeth optimized method
      */
-    public static void updateRopStatistics(RopMethod nonOptRmeth,
+    public static synchronized void updateRopStatistics(RopMethod nonOptRmeth,
             RopMethod rmeth) {
         int oldCountInsns
                 = nonOptRmeth.getBlocks().getEffectiveInstructionCount();
@@ -143,12 +209,28 @@ public final class CodeStatistics {
         runningTotalInsns += newCountInsns;
     }
 
+    /**
+     * Updates the number of insns moved out of loops.
+     *
+     * @param method non-null; human name of the method
+     * @param count &gt;= 0; the number of insns moved out of its loops
+     */
+    public static synchronized void updateHoistStatistics(String method,
+            int count) {
+        if (count == 0) {
+            return;
+        }
+
+        runningHoistedInsns += count;
+        hoistRecords.add(new HoistRecord(method, count));
+    }
+
     /**
      * Prints out the collected statistics.
      * 
      * @param out non-null; where to output to
      */
-    public static void dumpStatistics(PrintStream out) {
+    public static synchronized void dumpStatistics(PrintStream out) {
         out.printf("Optimizer Delta Rop Insns: %d total: %d "
                 + "(%.2f%%) Delta Registers: %d\n",
                 runningDeltaInsns,
@@ -168,5 +250,46 @@ public final class CodeStatistics {
 
         out.printf("Original bytecode byte count: %d\n",
                 runningOriginalBytes);
+
+        out.printf("Dex moves: first-fit allocator: %d "
+                + "coalescing allocator: %d (%d removed)\n",
+                dexRunningFirstFitMoves, dexRunningCoalescingMoves,
+                dexRunningFirstFitMoves - dexRunningCoalescingMoves);
+
+        out.printf("Loop-invariant insns moved: %d in %d methods\n",
+                runningHoistedInsns, hoistRecords.size());
+
+        Collections.sort(hoistRecords, new Comparator<HoistRecord>() {
+            public int compare(HoistRecord a, HoistRecord b) {
+                if (a.count != b.count) {
+                    return b.count - a.count;
+                }
+
+                return a.method.compareTo(b.method);
+            }
+        });
+
+        for (HoistRecord record : hoistRecords) {
+            out.printf("  %5d %s\n", record.count, record.method);
+        }
+    }
+
+    /**
+     * The number of insns moved out of the loops of one method.
+     */
+    private static class HoistRecord {
+        /** non-null; human name of the method */
+        public final String method;
+
+        /** &gt; 0; the number of insns */
+        public final int count;
+
+        /**
+         * Constructs an instance.
+         */
+        public HoistRecord(String method, int count) {
+            this.method = method;
+            this.count = count;
+        }
     }
 }
@@ -27,44 +27,33 @@ import java.util.EnumSet;
 import java.util.HashSet;
 
 /**
- * Settings for optimization of code.
+ * Settings for optimization of code. Instances are immutable once
+ * constructed, so compilations with different settings may run side
+ * by side.
  */
 public class OptimizerOptions {
     /**
      * null-ok; hash set of class name + method names that should be optimized.
      * null if this constraint was not specified on the command line
      */
-    private static HashSet<String> optimizeList;
+    private final HashSet<String> optimizeList;
 
     /**
      * null-ok; hash set of class name + method names that should NOT
      * be optimized.  null if this constraint was not specified on the
      * command line
      */
-    private static HashSet<String> dontOptimizeList;
-
-    /** true if the above lists have been loaded */
-    private static boolean optimizeListsLoaded;
-
-    /**
-     * This class is uninstantiable.
-     */
-    private OptimizerOptions() {
-        // This space intentionally left blank.
-    }
+    private final HashSet<String> dontOptimizeList;
 
     /**
-     * Loads the optimize/don't optimize lists from files.
+     * Constructs an instance, loading the optimize/don't optimize lists
+     * from files.
      * 
-     * @param optimizeListFile Pathname
-     * @param dontOptimizeListFile Pathname
+     * @param optimizeListFile null-ok; Pathname
+     * @param dontOptimizeListFile null-ok; Pathname
      */
-    public static void loadOptimizeLists(String optimizeListFile,
+    public OptimizerOptions(String optimizeListFile,
             String dontOptimizeListFile) {
-        if (optimizeListsLoaded) {
-            return;
-        }
-
         if (optimizeListFile != null && dontOptimizeListFile != null) {
             /*
              * We shouldn't get this far. The condition should have
@@ -74,15 +63,11 @@ public class OptimizerOptions {
                     + " are mutually exclusive.");
         }
 
-        if (optimizeListFile != null) {
-            optimizeList = loadStringsFromFile(optimizeListFile);
-        }
-
-        if (dontOptimizeListFile != null) {
-            dontOptimizeList = loadStringsFromFile(dontOptimizeListFile);
-        }
+        optimizeList = (optimizeListFile == null) ? null :
+            loadStringsFromFile(optimizeListFile);
 
-        optimizeListsLoaded = true;
+        dontOptimizeList = (dontOptimizeListFile == null) ? null :
+            loadStringsFromFile(dontOptimizeListFile);
     }
 
     /**
@@ -130,7 +115,7 @@ public class OptimizerOptions {
             TranslationAdvice advice, RopMethod rmeth) {
         EnumSet<Optimizer.OptionalStep> steps;
 
-        steps = EnumSet.allOf(Optimizer.OptionalStep.class);
+        steps = args.getOptimizerSteps();
 
         // This is the step to skip.
         steps.remove(Optimizer.OptionalStep.CONST_COLLECTOR);
@@ -162,7 +147,7 @@ public class OptimizerOptions {
      * @param canonicalMethodName name of method being considered
      * @return true if it should be optimized
      */
-    public static boolean shouldOptimize(String canonicalMethodName) {
+    public boolean shouldOptimize(String canonicalMethodName) {
         // Optimize only what's in the optimize list.
         if (optimizeList != null) {
             return optimizeList.contains(canonicalMethodName);
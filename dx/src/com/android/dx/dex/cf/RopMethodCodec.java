@@ -0,0 +1,780 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.dex.cf;
+
+import com.android.dx.rop.code.BasicBlock;
+import com.android.dx.rop.code.BasicBlockList;
+import com.android.dx.rop.code.FillArrayDataInsn;
+import com.android.dx.rop.code.Insn;
+import com.android.dx.rop.code.InsnList;
+import com.android.dx.rop.code.LocalItem;
+import com.android.dx.rop.code.PlainCstInsn;
+import com.android.dx.rop.code.PlainInsn;
+import com.android.dx.rop.code.RegisterSpec;
+import com.android.dx.rop.code.RegisterSpecList;
+import com.android.dx.rop.code.Rop;
+import com.android.dx.rop.code.RopMethod;
+import com.android.dx.rop.code.SourcePosition;
+import com.android.dx.rop.code.SwitchInsn;
+import com.android.dx.rop.code.ThrowingCstInsn;
+import com.android.dx.rop.code.ThrowingInsn;
+import com.android.dx.rop.cst.Constant;
+import com.android.dx.rop.cst.CstBoolean;
+import com.android.dx.rop.cst.CstByte;
+import com.android.dx.rop.cst.CstChar;
+import com.android.dx.rop.cst.CstDouble;
+import com.android.dx.rop.cst.CstFieldRef;
+import com.android.dx.rop.cst.CstFloat;
+import com.android.dx.rop.cst.CstInteger;
+import com.android.dx.rop.cst.CstInterfaceMethodRef;
+import com.android.dx.rop.cst.CstKnownNull;
+import com.android.dx.rop.cst.CstLong;
+import com.android.dx.rop.cst.CstMemberRef;
+import com.android.dx.rop.cst.CstMethodRef;
+import com.android.dx.rop.cst.CstNat;
+import com.android.dx.rop.cst.CstShort;
+import com.android.dx.rop.cst.CstString;
+import com.android.dx.rop.cst.CstType;
+import com.android.dx.rop.cst.CstUtf8;
+import com.android.dx.rop.type.StdTypeList;
+import com.android.dx.rop.type.Type;
+import com.android.dx.rop.type.TypeBearer;
+import com.android.dx.rop.type.TypeList;
+import com.android.dx.util.ByteArray;
+import com.android.dx.util.IntList;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Binary encoding of {@link RopMethod} instances, used by
+ * {@link TranslationCache} to keep translated methods on disk. Decoded
+ * methods are equal to (and, once translated, produce the same code
+ * as) the originals; interned objects such as types are re-interned
+ * as they are read back.
+ */
+public final class RopMethodCodec {
+    /** tag for a {@link PlainInsn} */
+    private static final int INSN_PLAIN = 0;
+
+    /** tag for a {@link PlainCstInsn} */
+    private static final int INSN_PLAIN_CST = 1;
+
+    /** tag for a {@link ThrowingInsn} */
+    private static final int INSN_THROWING = 2;
+
+    /** tag for a {@link ThrowingCstInsn} */
+    private static final int INSN_THROWING_CST = 3;
+
+    /** tag for a {@link SwitchInsn} */
+    private static final int INSN_SWITCH = 4;
+
+    /** tag for a {@link FillArrayDataInsn} */
+    private static final int INSN_FILL_ARRAY_DATA = 5;
+
+    /** tag for a type which is interned by descriptor */
+    private static final int TYPE_PLAIN = 0;
+
+    /** tag for an uninitialized type */
+    private static final int TYPE_UNINITIALIZED = 1;
+
+    /** tag for a register type that is a plain {@link Type} */
+    private static final int BEARER_TYPE = 0;
+
+    /** tag for a register type that is a {@link Constant} */
+    private static final int BEARER_CONSTANT = 1;
+
+    /** tags for the constants */
+    private static final int CST_BOOLEAN = 0;
+    private static final int CST_BYTE = 1;
+    private static final int CST_CHAR = 2;
+    private static final int CST_SHORT = 3;
+    private static final int CST_INTEGER = 4;
+    private static final int CST_LONG = 5;
+    private static final int CST_FLOAT = 6;
+    private static final int CST_DOUBLE = 7;
+    private static final int CST_KNOWN_NULL = 8;
+    private static final int CST_UTF8 = 9;
+    private static final int CST_STRING = 10;
+    private static final int CST_TYPE = 11;
+    private static final int CST_NAT = 12;
+    private static final int CST_FIELD_REF = 13;
+    private static final int CST_METHOD_REF = 14;
+    private static final int CST_INTERFACE_METHOD_REF = 15;
+
+    /**
+     * This class is uninstantiable.
+     */
+    private RopMethodCodec() {
+        // This space intentionally left blank.
+    }
+
+    /**
+     * Writes the given method.
+     *
+     * @param out non-null; where to write to
+     * @param method non-null; the method to write
+     * @throws IllegalArgumentException thrown if the method contains
+     * something that this class doesn't know how to encode
+     */
+    public static void write(DataOutputStream out, RopMethod method)
+            throws IOException {
+        BasicBlockList blocks = method.getBlocks();
+        int sz = blocks.size();
+
+        out.writeInt(method.getFirstLabel());
+        out.writeInt(sz);
+
+        for (int i = 0; i < sz; i++) {
+            BasicBlock block = blocks.get(i);
+            InsnList insns = block.getInsns();
+            int insnSz = insns.size();
+
+            out.writeInt(block.getLabel());
+            out.writeInt(block.getPrimarySuccessor());
+            writeIntList(out, block.getSuccessors());
+            out.writeInt(insnSz);
+
+            for (int j = 0; j < insnSz; j++) {
+                writeInsn(out, insns.get(j));
+            }
+        }
+    }
+
+    /**
+     * Reads a method.
+     *
+     * @param in non-null; where to read from
+     * @return non-null; the method
+     */
+    public static RopMethod read(DataInputStream in) throws IOException {
+        int firstLabel = in.readInt();
+        int sz = in.readInt();
+        BasicBlockList blocks = new BasicBlockList(sz);
+
+        for (int i = 0; i < sz; i++) {
+            int label = in.readInt();
+            int primarySuccessor = in.readInt();
+            IntList successors = readIntList(in);
+            int insnSz = in.readInt();
+            InsnList insns = new InsnList(insnSz);
+
+            for (int j = 0; j < insnSz; j++) {
+                insns.set(j, readInsn(in));
+            }
+
+            insns.setImmutable();
+            blocks.set(i,
+                    new BasicBlock(label, insns, successors, primarySuccessor));
+        }
+
+        blocks.setImmutable();
+        return new RopMethod(blocks, firstLabel);
+    }
+
+    /**
+     * Writes one instruction.
+     *
+     * @param out non-null; where to write to
+     * @param insn non-null; the instruction
+     */
+    private static void writeInsn(DataOutputStream out, Insn insn)
+            throws IOException {
+        Class<?> clazz = insn.getClass();
+
+        if (clazz == PlainInsn.class) {
+            out.writeByte(INSN_PLAIN);
+        } else if (clazz == PlainCstInsn.class) {
+            out.writeByte(INSN_PLAIN_CST);
+        } else if (clazz == ThrowingInsn.class) {
+            out.writeByte(INSN_THROWING);
+        } else if (clazz == ThrowingCstInsn.class) {
+            out.writeByte(INSN_THROWING_CST);
+        } else if (clazz == SwitchInsn.class) {
+            out.writeByte(INSN_SWITCH);
+        } else if (clazz == FillArrayDataInsn.class) {
+            out.writeByte(INSN_FILL_ARRAY_DATA);
+        } else {
+            throw new IllegalArgumentException("unknown insn: " + clazz);
+        }
+
+        writeRop(out, insn.getOpcode());
+        writePosition(out, insn.getPosition());
+        writeOptionalSpec(out, insn.getResult());
+
+        RegisterSpecList sources = insn.getSources();
+        int sz = sources.size();
+        out.writeInt(sz);
+        for (int i = 0; i < sz; i++) {
+            writeSpec(out, sources.get(i));
+        }
+
+        if (clazz == ThrowingInsn.class || clazz == ThrowingCstInsn.class) {
+            writeTypeList(out, insn.getCatches());
+        }
+
+        if (clazz == SwitchInsn.class) {
+            writeIntList(out, ((SwitchInsn) insn).getCases());
+        } else if (clazz == FillArrayDataInsn.class) {
+            FillArrayDataInsn fill = (FillArrayDataInsn) insn;
+            ArrayList<Constant> values = fill.getInitValues();
+            out.writeInt(values.size());
+            for (Constant value : values) {
+                writeConstant(out, value);
+            }
+            writeConstant(out, fill.getConstant());
+        } else if (clazz == PlainCstInsn.class) {
+            writeConstant(out, ((PlainCstInsn) insn).getConstant());
+        } else if (clazz == ThrowingCstInsn.class) {
+            writeConstant(out, ((ThrowingCstInsn) insn).getConstant());
+        }
+    }
+
+    /**
+     * Reads one instruction.
+     *
+     * @param in non-null; where to read from
+     * @return non-null; the instruction
+     */
+    private static Insn readInsn(DataInputStream in) throws IOException {
+        int tag = in.readByte();
+        Rop opcode = readRop(in);
+        SourcePosition position = readPosition(in);
+        RegisterSpec result = readOptionalSpec(in);
+        int sz = in.readInt();
+        RegisterSpecList sources = new RegisterSpecList(sz);
+
+        for (int i = 0; i < sz; i++) {
+            sources.set(i, readSpec(in));
+        }
+
+        sources.setImmutable();
+
+        switch (tag) {
+            case INSN_PLAIN: {
+                return new PlainInsn(opcode, position, result, sources);
+            }
+            case INSN_PLAIN_CST: {
+                return new PlainCstInsn(opcode, position, result, sources,
+                        readConstant(in));
+            }
+            case INSN_THROWING: {
+                return new ThrowingInsn(opcode, position, sources,
+                        readTypeList(in));
+            }
+            case INSN_THROWING_CST: {
+                TypeList catches = readTypeList(in);
+                return new ThrowingCstInsn(opcode, position, sources, catches,
+                        readConstant(in));
+            }
+            case INSN_SWITCH: {
+                return new SwitchInsn(opcode, position, result, sources,
+                        readIntList(in));
+            }
+            case INSN_FILL_ARRAY_DATA: {
+                int count = in.readInt();
+                ArrayList<Constant> values = new ArrayList<Constant>(count);
+                for (int i = 0; i < count; i++) {
+                    values.add(readConstant(in));
+                }
+                return new FillArrayDataInsn(opcode, position, sources,
+                        values, readConstant(in));
+            }
+        }
+
+        throw new IOException("bad insn tag: " + tag);
+    }
+
+    /**
+     * Writes a rop. This writes out all of its parts rather than
+     * trying to map it back onto one of the shared instances in
+     * {@link com.android.dx.rop.code.Rops}, since rops compare by
+     * value anyway.
+     *
+     * @param out non-null; where to write to
+     * @param rop non-null; the rop
+     */
+    private static void writeRop(DataOutputStream out, Rop rop)
+            throws IOException {
+        out.writeInt(rop.getOpcode());
+        writeType(out, rop.getResult());
+        writeTypeList(out, rop.getSources());
+        writeTypeList(out, rop.getExceptions());
+        out.writeInt(rop.getBranchingness());
+        out.writeBoolean(rop.isCallLike());
+
+        String nickname = rop.getNickname();
+        out.writeBoolean(nickname != null);
+        if (nickname != null) {
+            out.writeUTF(nickname);
+        }
+    }
+
+    /**
+     * Reads a rop.
+     *
+     * @param in non-null; where to read from
+     * @return non-null; the rop
+     */
+    private static Rop readRop(DataInputStream in) throws IOException {
+        int opcode = in.readInt();
+        Type result = readType(in);
+        TypeList sources = readTypeList(in);
+        TypeList exceptions = readTypeList(in);
+        int branchingness = in.readInt();
+        boolean isCallLike = in.readBoolean();
+        String nickname = in.readBoolean() ? in.readUTF() : null;
+
+        return new Rop(opcode, result, sources, exceptions, branchingness,
+                isCallLike, nickname);
+    }
+
+    /**
+     * Writes a source position.
+     *
+     * @param out non-null; where to write to
+     * @param position non-null; the position
+     */
+    private static void writePosition(DataOutputStream out,
+            SourcePosition position) throws IOException {
+        writeOptionalUtf8(out, position.getSourceFile());
+        out.writeInt(position.getAddress());
+        out.writeInt(position.getLine());
+    }
+
+    /**
+     * Reads a source position.
+     *
+     * @param in non-null; where to read from
+     * @return non-null; the position
+     */
+    private static SourcePosition readPosition(DataInputStream in)
+            throws IOException {
+        CstUtf8 sourceFile = readOptionalUtf8(in);
+        int address = in.readInt();
+        int line = in.readInt();
+
+        if ((sourceFile == null) && (address == -1) && (line == -1)) {
+            return SourcePosition.NO_INFO;
+        }
+
+        return new SourcePosition(sourceFile, address, line);
+    }
+
+    /**
+     * Writes a register spec which may be <code>null</code>.
+     *
+     * @param out non-null; where to write to
+     * @param spec null-ok; the spec
+     */
+    private static void writeOptionalSpec(DataOutputStream out,
+            RegisterSpec spec) throws IOException {
+        out.writeBoolean(spec != null);
+        if (spec != null) {
+            writeSpec(out, spec);
+        }
+    }
+
+    /**
+     * Reads a register spec which may be <code>null</code>.
+     *
+     * @param in non-null; where to read from
+     * @return null-ok; the spec
+     */
+    private static RegisterSpec readOptionalSpec(DataInputStream in)
+            throws IOException {
+        return in.readBoolean() ? readSpec(in) : null;
+    }
+
+    /**
+     * Writes a register spec.
+     *
+     * @param out non-null; where to write to
+     * @param spec non-null; the spec
+     */
+    private static void writeSpec(DataOutputStream out, RegisterSpec spec)
+            throws IOException {
+        out.writeInt(spec.getReg());
+
+        TypeBearer type = spec.getTypeBearer();
+        if (type instanceof Type) {
+            out.writeByte(BEARER_TYPE);
+            writeType(out, (Type) type);
+        } else if (type instanceof Constant) {
+            out.writeByte(BEARER_CONSTANT);
+            writeConstant(out, (Constant) type);
+        } else {
+            throw new IllegalArgumentException("unknown type bearer: " +
+                    type.getClass());
+        }
+
+        LocalItem local = spec.getLocalItem();
+        out.writeBoolean(local != null);
+        if (local != null) {
+            writeOptionalUtf8(out, local.getName());
+            writeOptionalUtf8(out, local.getSignature());
+        }
+    }
+
+    /**
+     * Reads a register spec.
+     *
+     * @param in non-null; where to read from
+     * @return non-null; the spec
+     */
+    private static RegisterSpec readSpec(DataInputStream in)
+            throws IOException {
+        int reg = in.readInt();
+        int bearerTag = in.readByte();
+        TypeBearer type;
+
+        if (bearerTag == BEARER_TYPE) {
+            type = readType(in);
+        } else if (bearerTag == BEARER_CONSTANT) {
+            type = (TypeBearer) readConstant(in);
+        } else {
+            throw new IOException("bad type bearer tag: " + bearerTag);
+        }
+
+        LocalItem local = null;
+        if (in.readBoolean()) {
+            CstUtf8 name = readOptionalUtf8(in);
+            CstUtf8 signature = readOptionalUtf8(in);
+            local = LocalItem.make(name, signature);
+        }
+
+        return RegisterSpec.makeLocalOptional(reg, type, local);
+    }
+
+    /**
+     * Writes a type.
+     *
+     * @param out non-null; where to write to
+     * @param type non-null; the type
+     */
+    private static void writeType(DataOutputStream out, Type type)
+            throws IOException {
+        if (type.isUninitialized()) {
+            out.writeByte(TYPE_UNINITIALIZED);
+            out.writeInt(type.getNewAt());
+            writeType(out, type.getInitializedType());
+        } else {
+            out.writeByte(TYPE_PLAIN);
+            out.writeUTF(type.getDescriptor());
+        }
+    }
+
+    /**
+     * Reads a type.
+     *
+     * @param in non-null; where to read from
+     * @return non-null; the type
+     */
+    private static Type readType(DataInputStream in) throws IOException {
+        int tag = in.readByte();
+
+        if (tag == TYPE_UNINITIALIZED) {
+            int newAt = in.readInt();
+            return readType(in).asUninitialized(newAt);
+        } else if (tag != TYPE_PLAIN) {
+            throw new IOException("bad type tag: " + tag);
+        }
+
+        String descriptor = in.readUTF();
+
+        // These aren't in the intern table, so they get special treatment.
+        if (descriptor.equals(Type.VOID.getDescriptor())) {
+            return Type.VOID;
+        } else if (descriptor.equals(Type.KNOWN_NULL.getDescriptor())) {
+            return Type.KNOWN_NULL;
+        } else if (descriptor.equals(Type.RETURN_ADDRESS.getDescriptor())) {
+            return Type.RETURN_ADDRESS;
+        }
+
+        return Type.intern(descriptor);
+    }
+
+    /**
+     * Writes a type list.
+     *
+     * @param out non-null; where to write to
+     * @param list non-null; the list
+     */
+    private static void writeTypeList(DataOutputStream out, TypeList list)
+            throws IOException {
+        int sz = list.size();
+
+        out.writeInt(sz);
+        for (int i = 0; i < sz; i++) {
+            writeType(out, list.getType(i));
+        }
+    }
+
+    /**
+     * Reads a type list.
+     *
+     * @param in non-null; where to read from
+     * @return non-null; the list
+     */
+    private static TypeList readTypeList(DataInputStream in)
+            throws IOException {
+        int sz = in.readInt();
+
+        if (sz == 0) {
+            return StdTypeList.EMPTY;
+        }
+
+        StdTypeList result = new StdTypeList(sz);
+        for (int i = 0; i < sz; i++) {
+            result.set(i, readType(in));
+        }
+
+        result.setImmutable();
+        return result;
+    }
+
+    /**
+     * Writes an int list.
+     *
+     * @param out non-null; where to write to
+     * @param list non-null; the list
+     */
+    private static void writeIntList(DataOutputStream out, IntList list)
+            throws IOException {
+        int sz = list.size();
+
+        out.writeInt(sz);
+        out.writeBoolean(list.isSorted());
+        for (int i = 0; i < sz; i++) {
+            out.writeInt(list.get(i));
+        }
+    }
+
+    /**
+     * Reads an immutable int list.
+     *
+     * @param in non-null; where to read from
+     * @return non-null; the list
+     */
+    private static IntList readIntList(DataInputStream in)
+            throws IOException {
+        int sz = in.readInt();
+        boolean sorted = in.readBoolean();
+        IntList result = new IntList(sz);
+
+        if (sorted) {
+            for (int i = 0; i < sz; i++) {
+                result.add(in.readInt());
+            }
+        } else {
+            // Setting the values leaves the list marked unsorted.
+            for (int i = 0; i < sz; i++) {
+                result.add(0);
+            }
+            for (int i = 0; i < sz; i++) {
+                result.set(i, in.readInt());
+            }
+        }
+
+        result.setImmutable();
+        return result;
+    }
+
+    /**
+     * Writes a string constant which may be <code>null</code>. The raw
+     * bytes are written, so that strings which aren't valid UTF-16
+     * survive the round trip.
+     *
+     * @param out non-null; where to write to
+     * @param utf8 null-ok; the string
+     */
+    private static void writeOptionalUtf8(DataOutputStream out, CstUtf8 utf8)
+            throws IOException {
+        if (utf8 == null) {
+            out.writeInt(-1);
+            return;
+        }
+
+        ByteArray bytes = utf8.getBytes();
+        int sz = bytes.size();
+
+        out.writeInt(sz);
+        for (int i = 0; i < sz; i++) {
+            out.writeByte(bytes.getByte(i));
+        }
+    }
+
+    /**
+     * Reads a string constant which may be <code>null</code>.
+     *
+     * @param in non-null; where to read from
+     * @return null-ok; the string
+     */
+    private static CstUtf8 readOptionalUtf8(DataInputStream in)
+            throws IOException {
+        int sz = in.readInt();
+
+        if (sz < 0) {
+            return null;
+        }
+
+        byte[] bytes = new byte[sz];
+        in.readFully(bytes);
+        return new CstUtf8(new ByteArray(bytes));
+    }
+
+    /**
+     * Writes a constant.
+     *
+     * @param out non-null; where to write to
+     * @param cst non-null; the constant
+     * @throws IllegalArgumentException thrown if <code>cst</code> isn't
+     * of a kind that can appear in code
+     */
+    private static void writeConstant(DataOutputStream out, Constant cst)
+            throws IOException {
+        if (cst instanceof CstBoolean) {
+            out.writeByte(CST_BOOLEAN);
+            out.writeBoolean(((CstBoolean) cst).getValue());
+        } else if (cst instanceof CstByte) {
+            out.writeByte(CST_BYTE);
+            out.writeInt(((CstByte) cst).getIntBits());
+        } else if (cst instanceof CstChar) {
+            out.writeByte(CST_CHAR);
+            out.writeInt(((CstChar) cst).getIntBits());
+        } else if (cst instanceof CstShort) {
+            out.writeByte(CST_SHORT);
+            out.writeInt(((CstShort) cst).getIntBits());
+        } else if (cst instanceof CstInteger) {
+            out.writeByte(CST_INTEGER);
+            out.writeInt(((CstInteger) cst).getIntBits());
+        } else if (cst instanceof CstLong) {
+            out.writeByte(CST_LONG);
+            out.writeLong(((CstLong) cst).getLongBits());
+        } else if (cst instanceof CstFloat) {
+            out.writeByte(CST_FLOAT);
+            out.writeInt(((CstFloat) cst).getIntBits());
+        } else if (cst instanceof CstDouble) {
+            out.writeByte(CST_DOUBLE);
+            out.writeLong(((CstDouble) cst).getLongBits());
+        } else if (cst instanceof CstKnownNull) {
+            out.writeByte(CST_KNOWN_NULL);
+        } else if (cst instanceof CstUtf8) {
+            out.writeByte(CST_UTF8);
+            writeOptionalUtf8(out, (CstUtf8) cst);
+        } else if (cst instanceof CstString) {
+            out.writeByte(CST_STRING);
+            writeOptionalUtf8(out, ((CstString) cst).getString());
+        } else if (cst instanceof CstType) {
+            out.writeByte(CST_TYPE);
+            writeType(out, ((CstType) cst).getClassType());
+        } else if (cst instanceof CstNat) {
+            out.writeByte(CST_NAT);
+            writeNat(out, (CstNat) cst);
+        } else if (cst.getClass() == CstFieldRef.class) {
+            out.writeByte(CST_FIELD_REF);
+            writeMemberRef(out, (CstMemberRef) cst);
+        } else if (cst.getClass() == CstMethodRef.class) {
+            out.writeByte(CST_METHOD_REF);
+            writeMemberRef(out, (CstMemberRef) cst);
+        } else if (cst.getClass() == CstInterfaceMethodRef.class) {
+            out.writeByte(CST_INTERFACE_METHOD_REF);
+            writeMemberRef(out, (CstMemberRef) cst);
+        } else {
+            throw new IllegalArgumentException("unknown constant: " +
+                    cst.getClass());
+        }
+    }
+
+    /**
+     * Reads a constant.
+     *
+     * @param in non-null; where to read from
+     * @return non-null; the constant
+     */
+    private static Constant readConstant(DataInputStream in)
+            throws IOException {
+        int tag = in.readByte();
+
+        switch (tag) {
+            case CST_BOOLEAN: return CstBoolean.make(in.readBoolean());
+            case CST_BYTE: return CstByte.make(in.readInt());
+            case CST_CHAR: return CstChar.make(in.readInt());
+            case CST_SHORT: return CstShort.make(in.readInt());
+            case CST_INTEGER: return CstInteger.make(in.readInt());
+            case CST_LONG: return CstLong.make(in.readLong());
+            case CST_FLOAT: return CstFloat.make(in.readInt());
+            case CST_DOUBLE: return CstDouble.make(in.readLong());
+            case CST_KNOWN_NULL: return CstKnownNull.THE_ONE;
+            case CST_UTF8: return readOptionalUtf8(in);
+            case CST_STRING: return new CstString(readOptionalUtf8(in));
+            case CST_TYPE: return CstType.intern(readType(in));
+            case CST_NAT: return readNat(in);
+            case CST_FIELD_REF: {
+                CstType definer = CstType.intern(readType(in));
+                return new CstFieldRef(definer, readNat(in));
+            }
+            case CST_METHOD_REF: {
+                CstType definer = CstType.intern(readType(in));
+                return new CstMethodRef(definer, readNat(in));
+            }
+            case CST_INTERFACE_METHOD_REF: {
+                CstType definer = CstType.intern(readType(in));
+                return new CstInterfaceMethodRef(definer, readNat(in));
+            }
+        }
+
+        throw new IOException("bad constant tag: " + tag);
+    }
+
+    /**
+     * Writes a name-and-type constant.
+     *
+     * @param out non-null; where to write to
+     * @param nat non-null; the constant
+     */
+    private static void writeNat(DataOutputStream out, CstNat nat)
+            throws IOException {
+        writeOptionalUtf8(out, nat.getName());
+        writeOptionalUtf8(out, nat.getDescriptor());
+    }
+
+    /**
+     * Reads a name-and-type constant.
+     *
+     * @param in non-null; where to read from
+     * @return non-null; the constant
+     */
+    private static CstNat readNat(DataInputStream in) throws IOException {
+        CstUtf8 name = readOptionalUtf8(in);
+        return new CstNat(name, readOptionalUtf8(in));
+    }
+
+    /**
+     * Writes the parts of a member reference constant.
+     *
+     * @param out non-null; where to write to
+     * @param ref non-null; the constant
+     */
+    private static void writeMemberRef(DataOutputStream out, CstMemberRef ref)
+            throws IOException {
+        writeType(out, ref.getDefiningClass().getClassType());
+        writeNat(out, ref.getNat());
+    }
+}
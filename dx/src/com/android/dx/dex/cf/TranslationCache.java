@@ -0,0 +1,360 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.dex.cf;
+
+import com.android.dx.Version;
+import com.android.dx.rop.code.RopMethod;
+import com.android.dx.util.FileUtils;
+import com.android.dx.util.Hex;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * On-disk cache of translated methods, used to make repeated
+ * translations of mostly-unchanged inputs cheaper. Entries are keyed
+ * by a SHA-1 hash of a class's bytes together with the options that
+ * affect translation, and each entry holds the final (optimized, if
+ * requested) rop form of every concrete method of the class. On a hit,
+ * {@link CfTranslator} skips running {@link
+ * com.android.dx.cf.code.Ropper} and the {@link
+ * com.android.dx.ssa.Optimizer} for the class, which is where most
+ * of the translation time goes.
+ *
+ * <p>The key also covers the code of dx itself, as found on the class
+ * path, so that entries made by a different build of the translator are
+ * never used. Should that code not be found, only the version number
+ * is used, and the cache directory has to be cleared whenever dx is
+ * changed.</p>
+ *
+ * <p>The final rop-to-dex step can't be cached, since the shape of
+ * the resulting code depends on the constant indices assigned when
+ * the whole output file is laid out.</p>
+ *
+ * <p>Instances are safe to share between threads. Entries are written
+ * to a temporary file and then renamed into place, so several
+ * processes may share a cache directory.</p>
+ */
+public final class TranslationCache {
+    /** magic number at the start of each entry file */
+    private static final int MAGIC = 0x64786301;
+
+    /** non-null; directory holding the entries */
+    private final File directory;
+
+    /** non-null; hash of the options that affect translation */
+    private final byte[] optionsHash;
+
+    /** non-null; number of lookups that found an entry */
+    private final AtomicInteger hits;
+
+    /** non-null; number of lookups that didn't find an entry */
+    private final AtomicInteger misses;
+
+    /**
+     * Constructs an instance, creating the cache directory if necessary.
+     *
+     * @param directory non-null; directory to hold the cache entries
+     * @param options non-null; options that translation will use
+     */
+    public TranslationCache(File directory, CfOptions options) {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new RuntimeException("unable to create cache directory: " +
+                    directory);
+        }
+
+        this.directory = directory;
+        this.optionsHash = hashOptions(options);
+        this.hits = new AtomicInteger();
+        this.misses = new AtomicInteger();
+    }
+
+    /**
+     * Gets the cache key for the class with the given bytes.
+     *
+     * @param classBytes non-null; contents of the class file
+     * @return non-null; the key
+     */
+    public String keyFor(byte[] classBytes) {
+        MessageDigest digest = newDigest();
+
+        digest.update(optionsHash);
+        digest.update(classBytes);
+
+        byte[] hash = digest.digest();
+        StringBuilder sb = new StringBuilder(hash.length * 2);
+
+        for (byte b : hash) {
+            sb.append(Hex.u1(b));
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Gets the translated methods stored under the given key, if any.
+     * An entry that can't be read is treated as absent.
+     *
+     * @param key non-null; the key, as returned by {@link #keyFor}
+     * @return null-ok; map from method name plus descriptor to the
+     * translated method, or <code>null</code> if there is no entry
+     */
+    public Map<String, RopMethod> get(String key) {
+        File file = new File(directory, key);
+
+        if (!file.isFile()) {
+            misses.incrementAndGet();
+            return null;
+        }
+
+        try {
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(file)));
+
+            try {
+                if (in.readInt() != MAGIC) {
+                    throw new IOException("bad magic");
+                }
+
+                int count = in.readInt();
+                HashMap<String, RopMethod> result =
+                    new HashMap<String, RopMethod>(count * 2);
+
+                for (int i = 0; i < count; i++) {
+                    String name = in.readUTF();
+                    result.put(name, RopMethodCodec.read(in));
+                }
+
+                hits.incrementAndGet();
+                return result;
+            } finally {
+                in.close();
+            }
+        } catch (IOException ex) {
+            // Fall through.
+        } catch (RuntimeException ex) {
+            // Fall through.
+        }
+
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Stores the given translated methods under the given key. Failure
+     * to write the entry isn't fatal; it just means that the class will
+     * be translated again the next time around.
+     *
+     * @param key non-null; the key, as returned by {@link #keyFor}
+     * @param methods non-null; map from method name plus descriptor
+     * to the translated method
+     */
+    public void put(String key, Map<String, RopMethod> methods) {
+        File temp = null;
+
+        try {
+            temp = File.createTempFile(key, ".tmp", directory);
+
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(temp)));
+
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(methods.size());
+
+                for (Map.Entry<String, RopMethod> e : methods.entrySet()) {
+                    out.writeUTF(e.getKey());
+                    RopMethodCodec.write(out, e.getValue());
+                }
+            } finally {
+                out.close();
+            }
+
+            if (temp.renameTo(new File(directory, key))) {
+                temp = null;
+            }
+        } catch (IOException ex) {
+            // Ignore it; see above.
+        } catch (IllegalArgumentException ex) {
+            // Something in the code couldn't be encoded; ditto.
+        } finally {
+            if (temp != null) {
+                temp.delete();
+            }
+        }
+    }
+
+    /**
+     * Gets the number of lookups that found an entry.
+     *
+     * @return &gt;= 0; the hit count
+     */
+    public int getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Gets the number of lookups that didn't find an entry.
+     *
+     * @return &gt;= 0; the miss count
+     */
+    public int getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Hashes the parts of the given options that affect the translated
+     * form of methods, along with the version and code of this tool.
+     *
+     * @param options non-null; the options
+     * @return non-null; the hash
+     */
+    private static byte[] hashOptions(CfOptions options) {
+        MessageDigest digest = newDigest();
+        StringBuilder sb = new StringBuilder();
+
+        sb.append(Version.VERSION);
+        sb.append(';').append(options.positionInfo);
+        sb.append(';').append(options.localInfo);
+        sb.append(';').append(options.optimize);
+        sb.append(';').append(options.coalesceRegisters);
+        sb.append(';').append(options.hoistLoopInvariants);
+        sb.append(';').append(options.numberValues);
+
+        /*
+         * The two liveness analyses give the same results, but keeping
+         * their entries apart costs nothing and keeps a difference from
+         * going unnoticed. The other options either bypass the cache
+         * (statistics, inlining) or don't affect the translated methods.
+         */
+        sb.append(';').append(options.perRegisterLiveness);
+        digest.update(sb.toString().getBytes());
+
+        hashFile(digest, options.optimizeListFile);
+        hashFile(digest, options.dontOptimizeListFile);
+        hashTool(digest);
+
+        return digest.digest();
+    }
+
+    /**
+     * Adds the code of this tool to the given digest: the jar file it
+     * was loaded from, or every class file under the directory it was
+     * loaded from. Nothing is added if neither can be found.
+     *
+     * @param digest non-null; the digest
+     */
+    private static void hashTool(MessageDigest digest) {
+        File location;
+
+        try {
+            CodeSource source =
+                TranslationCache.class.getProtectionDomain().getCodeSource();
+            if ((source == null) || (source.getLocation() == null)) {
+                return;
+            }
+            location = new File(source.getLocation().toURI());
+        } catch (SecurityException ex) {
+            return;
+        } catch (URISyntaxException ex) {
+            return;
+        } catch (IllegalArgumentException ex) {
+            // Not a file: URL.
+            return;
+        }
+
+        if (location.isFile()) {
+            digest.update(FileUtils.readFile(location));
+        } else if (location.isDirectory()) {
+            hashDirectory(digest, location, "");
+        }
+    }
+
+    /**
+     * Helper for {@link #hashTool}, which adds the names and contents
+     * of the class files under a directory, in a fixed order.
+     *
+     * @param digest non-null; the digest
+     * @param directory non-null; the directory
+     * @param prefix non-null; path of the directory relative to where
+     * the walk started
+     */
+    private static void hashDirectory(MessageDigest digest, File directory,
+            String prefix) {
+        String[] names = directory.list();
+
+        if (names == null) {
+            return;
+        }
+
+        Arrays.sort(names);
+
+        for (String name : names) {
+            File file = new File(directory, name);
+            String path = prefix + name;
+
+            if (file.isDirectory()) {
+                hashDirectory(digest, file, path + '/');
+            } else if (name.endsWith(".class")) {
+                digest.update(path.getBytes());
+                digest.update(FileUtils.readFile(file));
+            }
+        }
+    }
+
+    /**
+     * Adds the contents of the named file, if any, to the given digest.
+     *
+     * @param digest non-null; the digest
+     * @param fileName null-ok; the file name
+     */
+    private static void hashFile(MessageDigest digest, String fileName) {
+        if (fileName == null) {
+            digest.update((byte) 0);
+        } else {
+            digest.update((byte) 1);
+            digest.update(FileUtils.readFile(fileName));
+        }
+    }
+
+    /**
+     * Makes a new SHA-1 digest.
+     *
+     * @return non-null; the digest
+     */
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.dex.cf._tests;
+
+import java.util.List;
+
+/**
+ * Methods whose class file the tests of the translation cache
+ * translate, between them using every kind of instruction and
+ * constant that a translated method can hold. What matters is the
+ * shape of the code javac makes of them, not what they compute.
+ */
+class CodecSamples {
+    private static int counter;
+    private long total;
+
+    static int catches(Object o, int[] a) {
+        try {
+            return o.hashCode() + a.length;
+        } catch (NullPointerException ex) {
+            return -1;
+        } catch (RuntimeException ex) {
+            return -2;
+        } finally {
+            counter++;
+        }
+    }
+
+    long wide(long a, double b) {
+        total += a;
+
+        double d = b * 2.5;
+        long c = a << 3;
+
+        return (long) d + c + 1234567890123L;
+    }
+
+    static Object constants(int i) {
+        switch (i) {
+            case 1: return "one";
+            case 2: return null;
+            case 3: return Float.valueOf(1.5f);
+            case 4: return Boolean.TRUE;
+        }
+
+        switch (i) {
+            case 10: return Character.valueOf('c');
+            case 1000: return Short.valueOf((short) 1000);
+            case 100000: return Byte.valueOf((byte) -1);
+        }
+
+        return CodecSamples.class;
+    }
+
+    static int arrays(int i) {
+        int[] a = { 1, 2, 3, 4, 5 };
+        char[] c = { 'a', 'b', 'c' };
+        long[] l = { 1L, -1L };
+
+        return a[i] + c[i] + (int) l[i & 1];
+    }
+
+    static Object objects(String s, List<String> list) {
+        StringBuilder sb = new StringBuilder(s);
+
+        sb.append(list.size());
+        return sb;
+    }
+}
@@ -0,0 +1,520 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.dex.cf._tests;
+
+import com.android.dx.cf.code.ConcreteMethod;
+import com.android.dx.cf.code.Ropper;
+import com.android.dx.cf.direct.ClassPathOpener;
+import com.android.dx.cf.direct.DirectClassFile;
+import com.android.dx.cf.direct.StdAttributeFactory;
+import com.android.dx.cf.iface.Method;
+import com.android.dx.cf.iface.MethodList;
+import com.android.dx.command.dexer.Main;
+import com.android.dx.dex.cf.CfOptions;
+import com.android.dx.dex.cf.CfTranslator;
+import com.android.dx.dex.code.PositionList;
+import com.android.dx.dex.code.RopTranslator;
+import com.android.dx.dex.file.DexFile;
+import com.android.dx.rop.code.AccessFlags;
+import com.android.dx.rop.code.DexTranslationAdvice;
+import com.android.dx.rop.code.RopMethod;
+import com.android.dx.rop.code.TranslationAdvice;
+import com.android.dx.rop.cst.CstMethodRef;
+import com.android.dx.ssa.DeadCodeRemover;
+import com.android.dx.ssa.Optimizer;
+import com.android.dx.ssa.OptimizerContext;
+import com.android.dx.ssa.SCCP;
+import com.android.dx.ssa.SsaConverter;
+import com.android.dx.ssa.SsaMethod;
+import com.android.dx.util.IntList;
+import com.android.dx.util.Profile;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.BitSet;
+
+/**
+ * Benchmark of the translation pipeline, phase by phase and end to
+ * end, over a fixed corpus of class files. Each round runs every phase
+ * over the whole corpus, feeding it the output of the phase before; the
+ * best time and the smallest allocation of each phase over all rounds
+ * are reported, after a round of warm-up. Run it as
+ * <code>java -cp dx.jar com.android.dx.dex.cf._tests.TranslationBenchmark
+ * [--rounds=&lt;n&gt;] [--baseline=&lt;file&gt;] [--tolerance=&lt;percent&gt;]
+ * [--write-baseline=&lt;file&gt;] &lt;path&gt;...</code>.
+ *
+ * <p>With <code>--baseline</code>, the results are compared to ones
+ * previously saved with <code>--write-baseline</code>, and the exit
+ * status is <code>1</code> if any phase takes more time or allocates
+ * more memory than that by more than the tolerance (default 10%).
+ * A baseline is only meaningful for the same corpus on the same
+ * machine; <code>dx/etc/translation-benchmark-baseline.txt</code> says
+ * which ones the checked-in results are for.</p>
+ */
+public class TranslationBenchmark {
+    /** default number of timed rounds */
+    private static final int DEFAULT_ROUNDS = 5;
+
+    /** default allowed slowdown, in percent, before failing */
+    private static final int DEFAULT_TOLERANCE = 10;
+
+    /** non-null; advice used for all translation */
+    private static final TranslationAdvice ADVICE =
+        DexTranslationAdvice.THE_ONE;
+
+    /** the phases measured, in the order they run */
+    private enum Step {
+        PARSE("parse"),
+        ROP("rop"),
+        SSA_CONVERSION("ssa-conversion"),
+        SCCP("sccp"),
+        DEAD_CODE_REMOVAL("dead-code-removal"),
+        OPTIMIZE("optimize"),
+        ROP_TO_DEX("rop-to-dex"),
+        WRITE_DEX("write-dex"),
+        END_TO_END("end-to-end");
+
+        /** non-null; name used in reports and baselines */
+        final String reportName;
+
+        Step(String reportName) {
+            this.reportName = reportName;
+        }
+    }
+
+    /** non-null; names of the class files in the corpus */
+    private final ArrayList<String> names = new ArrayList<String>();
+
+    /** non-null; contents of the class files, parallel to names */
+    private final ArrayList<byte[]> contents = new ArrayList<byte[]>();
+
+    /** non-null; paths the corpus was read from */
+    private final String[] paths;
+
+    /** non-null; best time of each phase, indexed by ordinal */
+    private final long[] bestNanos;
+
+    /** non-null; smallest allocation of each phase, indexed by ordinal */
+    private final long[] leastBytes;
+
+    /** number of concrete methods in the corpus */
+    private int methodCount;
+
+    /** time at which the phase being measured started */
+    private long stepStartNanos;
+
+    /** allocation count at which the phase being measured started */
+    private long stepStartBytes;
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args command-line arguments
+     */
+    public static void main(String[] args) throws IOException {
+        int rounds = DEFAULT_ROUNDS;
+        int tolerance = DEFAULT_TOLERANCE;
+        String baseline = null;
+        String writeBaseline = null;
+        int at = 0;
+
+        for (/*at*/; at < args.length; at++) {
+            String arg = args[at];
+            String value = arg.substring(arg.indexOf('=') + 1);
+
+            if (arg.startsWith("--rounds=")) {
+                rounds = Integer.parseInt(value);
+            } else if (arg.startsWith("--tolerance=")) {
+                tolerance = Integer.parseInt(value);
+            } else if (arg.startsWith("--baseline=")) {
+                baseline = value;
+            } else if (arg.startsWith("--write-baseline=")) {
+                writeBaseline = value;
+            } else {
+                break;
+            }
+        }
+
+        if ((at == args.length) || (rounds < 1) || (tolerance < 0)) {
+            System.err.println("usage: TranslationBenchmark " +
+                    "[--rounds=<n>] [--baseline=<file>] " +
+                    "[--tolerance=<percent>]\n" +
+                    "  [--write-baseline=<file>] <path>...");
+            System.exit(2);
+        }
+
+        String[] paths = new String[args.length - at];
+        System.arraycopy(args, at, paths, 0, paths.length);
+
+        TranslationBenchmark benchmark = new TranslationBenchmark(paths);
+
+        benchmark.round();
+        for (int i = 0; i < rounds; i++) {
+            benchmark.round();
+        }
+
+        benchmark.report();
+
+        if (writeBaseline != null) {
+            benchmark.writeBaseline(writeBaseline);
+        }
+
+        if ((baseline != null)
+                && !benchmark.compareToBaseline(baseline, tolerance)) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Constructs an instance, reading in the corpus.
+     *
+     * @param paths non-null; class files, directories and archives
+     * to read
+     */
+    private TranslationBenchmark(String[] paths) {
+        int stepCount = Step.values().length;
+
+        this.paths = paths;
+        this.bestNanos = new long[stepCount];
+        this.leastBytes = new long[stepCount];
+
+        for (int i = 0; i < stepCount; i++) {
+            bestNanos[i] = Long.MAX_VALUE;
+            leastBytes[i] = Long.MAX_VALUE;
+        }
+
+        for (String path : paths) {
+            new ClassPathOpener(path, false, new ClassPathOpener.Consumer() {
+                public boolean processFileBytes(String name, byte[] bytes) {
+                    if (name.endsWith(".class")) {
+                        names.add(name);
+                        contents.add(bytes);
+                    }
+                    return true;
+                }
+
+                public void onException(Exception ex) {
+                    throw new RuntimeException(ex);
+                }
+
+                public void onProcessArchiveStart(File file) {
+                    // This space intentionally left blank.
+                }
+            }).process();
+        }
+    }
+
+    /**
+     * Runs one round over the whole corpus, keeping the best results.
+     */
+    private void round() throws IOException {
+        int classCount = names.size();
+        OptimizerContext context = new OptimizerContext(false, ADVICE);
+
+        startStep();
+        DirectClassFile[] classes = new DirectClassFile[classCount];
+        for (int i = 0; i < classCount; i++) {
+            DirectClassFile cf =
+                new DirectClassFile(contents.get(i), names.get(i), false);
+
+            cf.setAttributeFactory(StdAttributeFactory.THE_ONE);
+            cf.getMagic();
+            cf.getAttributes();
+            classes[i] = cf;
+        }
+        endStep(Step.PARSE);
+
+        ArrayList<RopMethod> ropMethods = new ArrayList<RopMethod>();
+        IntList paramWidths = new IntList();
+        BitSet statics = new BitSet();
+
+        startStep();
+        for (DirectClassFile cf : classes) {
+            MethodList methods = cf.getMethods();
+            int sz = methods.size();
+
+            for (int i = 0; i < sz; i++) {
+                Method one = methods.get(i);
+                int accessFlags = one.getAccessFlags();
+
+                if (AccessFlags.isNative(accessFlags)
+                        || AccessFlags.isAbstract(accessFlags)) {
+                    continue;
+                }
+
+                boolean isStatic = AccessFlags.isStatic(accessFlags);
+                CstMethodRef meth =
+                    new CstMethodRef(cf.getThisClass(), one.getNat());
+                ConcreteMethod concrete =
+                    new ConcreteMethod(one, cf, true, false);
+
+                statics.set(ropMethods.size(), isStatic);
+                paramWidths.add(meth.getParameterWordCount(isStatic));
+                ropMethods.add(Ropper.convert(concrete, ADVICE));
+            }
+        }
+        endStep(Step.ROP);
+
+        int sz = ropMethods.size();
+        SsaMethod[] ssaMethods = new SsaMethod[sz];
+        RopMethod[] optimized = new RopMethod[sz];
+
+        methodCount = sz;
+
+        startStep();
+        for (int i = 0; i < sz; i++) {
+            ssaMethods[i] = SsaConverter.convertToSsaMethod(ropMethods.get(i),
+                    paramWidths.get(i), statics.get(i), context);
+        }
+        endStep(Step.SSA_CONVERSION);
+
+        startStep();
+        for (int i = 0; i < sz; i++) {
+            SCCP.process(ssaMethods[i]);
+        }
+        endStep(Step.SCCP);
+
+        startStep();
+        for (int i = 0; i < sz; i++) {
+            DeadCodeRemover.process(ssaMethods[i]);
+        }
+        endStep(Step.DEAD_CODE_REMOVAL);
+
+        ssaMethods = null;
+
+        startStep();
+        for (int i = 0; i < sz; i++) {
+            optimized[i] = Optimizer.optimize(ropMethods.get(i),
+                    paramWidths.get(i), statics.get(i), context);
+        }
+        endStep(Step.OPTIMIZE);
+
+        startStep();
+        for (int i = 0; i < sz; i++) {
+            RopTranslator.translate(optimized[i], PositionList.LINES, null,
+                    paramWidths.get(i));
+        }
+        endStep(Step.ROP_TO_DEX);
+
+        optimized = null;
+
+        CfOptions cfOptions = new CfOptions();
+        DexFile dex = new DexFile();
+
+        cfOptions.optimize = true;
+        for (int i = 0; i < classCount; i++) {
+            dex.add(CfTranslator.translate(names.get(i), contents.get(i),
+                            cfOptions));
+        }
+
+        startStep();
+        dex.writeTo(new ByteArrayOutputStream(), null, false);
+        endStep(Step.WRITE_DEX);
+
+        File output = File.createTempFile("benchmark", ".dex");
+        Main.Arguments arguments = new Main.Arguments();
+
+        arguments.fileNames = paths;
+        arguments.outName = output.getPath();
+
+        try {
+            startStep();
+            int result = Main.run(arguments);
+            endStep(Step.END_TO_END);
+
+            if (result != 0) {
+                throw new RuntimeException("dx failed: " + result);
+            }
+        } finally {
+            output.delete();
+        }
+    }
+
+    /**
+     * Starts measuring a phase, after collecting garbage so that
+     * collections caused by earlier phases don't count against it.
+     */
+    private void startStep() {
+        System.gc();
+        stepStartBytes = Profile.getAllocatedBytes();
+        stepStartNanos = System.nanoTime();
+    }
+
+    /**
+     * Finishes measuring a phase, keeping the result if it's the best
+     * so far.
+     *
+     * @param step non-null; the phase
+     */
+    private void endStep(Step step) {
+        long nanos = System.nanoTime() - stepStartNanos;
+        long bytes = Profile.getAllocatedBytes() - stepStartBytes;
+        int index = step.ordinal();
+
+        bestNanos[index] = Math.min(bestNanos[index], nanos);
+        leastBytes[index] = Math.min(leastBytes[index], bytes);
+    }
+
+    /**
+     * Gets the smallest allocation of a phase, in kilobytes.
+     *
+     * @param index the phase ordinal
+     * @return the number of kilobytes, or <code>-1</code> if unknown
+     */
+    private long kilobytes(int index) {
+        return Profile.isAllocationTracked() ? (leastBytes[index] / 1024)
+            : -1;
+    }
+
+    /**
+     * Prints the results to stdout.
+     */
+    private void report() {
+        Step[] steps = Step.values();
+        long endToEnd = bestNanos[Step.END_TO_END.ordinal()];
+
+        System.out.printf("%d classes, %d methods; end to end %.0f " +
+                "classes/s\n", names.size(), methodCount,
+                names.size() / (endToEnd / 1e9));
+        System.out.println("step                    best ms  alloc kb");
+
+        for (int i = 0; i < steps.length; i++) {
+            System.out.printf("%-20s  %9.1f  %8d\n", steps[i].reportName,
+                    bestNanos[i] / 1e6, kilobytes(i));
+        }
+    }
+
+    /**
+     * Writes the results in the form read by {@link #compareToBaseline}:
+     * a line per phase with its name, best time in milliseconds, and
+     * allocation in kilobytes.
+     *
+     * @param fileName non-null; file to write
+     */
+    private void writeBaseline(String fileName) throws IOException {
+        PrintWriter out = new PrintWriter(new FileWriter(fileName));
+        Step[] steps = Step.values();
+
+        try {
+            out.println("# TranslationBenchmark results: " + names.size() +
+                    " classes, " + methodCount + " methods");
+            out.println("# step  best-ms  alloc-kb");
+
+            for (int i = 0; i < steps.length; i++) {
+                out.println(steps[i].reportName + " " +
+                        (bestNanos[i] / 1000000) + " " + kilobytes(i));
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Compares the results to a baseline, printing any phase that has
+     * regressed by more than the tolerance. Allocations are only
+     * compared if they are known both now and in the baseline.
+     *
+     * @param fileName non-null; file written by {@link #writeBaseline}
+     * @param tolerance &gt;= 0; allowed regression, in percent
+     * @return whether nothing regressed
+     */
+    private boolean compareToBaseline(String fileName, int tolerance)
+            throws IOException {
+        BufferedReader in = new BufferedReader(new FileReader(fileName));
+        boolean ok = true;
+
+        try {
+            for (;;) {
+                String line = in.readLine();
+
+                if (line == null) {
+                    break;
+                }
+
+                line = line.trim();
+                if ((line.length() == 0) || line.startsWith("#")) {
+                    continue;
+                }
+
+                String[] fields = line.split("\\s+");
+                int index = indexOf(fields[0]);
+
+                if (index < 0) {
+                    continue;
+                }
+
+                long baseMs = Long.parseLong(fields[1]);
+                long baseKb = Long.parseLong(fields[2]);
+                long ms = bestNanos[index] / 1000000;
+                long kb = kilobytes(index);
+
+                if (exceeds(ms, baseMs, tolerance)) {
+                    System.out.println("regression: " + fields[0] + " took " +
+                            ms + " ms; baseline " + baseMs + " ms");
+                    ok = false;
+                }
+
+                if ((kb >= 0) && (baseKb >= 0)
+                        && exceeds(kb, baseKb, tolerance)) {
+                    System.out.println("regression: " + fields[0] +
+                            " allocated " + kb + " kb; baseline " + baseKb +
+                            " kb");
+                    ok = false;
+                }
+            }
+        } finally {
+            in.close();
+        }
+
+        return ok;
+    }
+
+    /**
+     * Tells whether a value exceeds its baseline by more than the
+     * given percentage.
+     *
+     * @param value the value
+     * @param base the baseline value
+     * @param tolerance &gt;= 0; allowed excess, in percent
+     * @return whether the value is too big
+     */
+    private static boolean exceeds(long value, long base, int tolerance) {
+        return (value * 100) > (base * (100 + tolerance));
+    }
+
+    /**
+     * Finds the phase with the given report name.
+     *
+     * @param name non-null; the name
+     * @return the phase ordinal, or <code>-1</code> if there is none
+     */
+    private static int indexOf(String name) {
+        for (Step step : Step.values()) {
+            if (step.reportName.equals(name)) {
+                return step.ordinal();
+            }
+        }
+
+        return -1;
+    }
+}
@@ -0,0 +1,346 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.dex.cf._tests;
+
+import com.android.dx.cf.code.ConcreteMethod;
+import com.android.dx.cf.code.Ropper;
+import com.android.dx.cf.direct.DirectClassFile;
+import com.android.dx.cf.direct.StdAttributeFactory;
+import com.android.dx.cf.iface.Method;
+import com.android.dx.cf.iface.MethodList;
+import com.android.dx.dex.cf.RopMethodCodec;
+import com.android.dx.rop.code.AccessFlags;
+import com.android.dx.rop.code.BasicBlock;
+import com.android.dx.rop.code.BasicBlockList;
+import com.android.dx.rop.code.CstInsn;
+import com.android.dx.rop.code.DexTranslationAdvice;
+import com.android.dx.rop.code.FillArrayDataInsn;
+import com.android.dx.rop.code.Insn;
+import com.android.dx.rop.code.InsnList;
+import com.android.dx.rop.code.LocalItem;
+import com.android.dx.rop.code.RegisterSpec;
+import com.android.dx.rop.code.RegisterSpecList;
+import com.android.dx.rop.code.RopMethod;
+import com.android.dx.rop.code.SourcePosition;
+import com.android.dx.rop.code.SwitchInsn;
+import com.android.dx.rop.cst.CstUtf8;
+import com.android.dx.rop.type.StdTypeList;
+import com.android.dx.ssa.Optimizer;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+
+/**
+ * Test the class <code>com.android.dx.dex.cf.RopMethodCodec</code>, by
+ * encoding and decoding the methods of {@link CodecSamples} in the
+ * forms the translation cache keeps them in.
+ */
+public class _RopMethodCodec
+        extends TestCase {
+    /** non-null; name of the class file of the samples */
+    private static final String SAMPLES =
+        "/com/android/dx/dex/cf/_tests/CodecSamples.class";
+
+    /** whether a method read so far had an instruction that catches */
+    private boolean sawCatches;
+
+    /** whether a method read so far had a wide register */
+    private boolean sawWide;
+
+    /** whether a method read so far had a local variable */
+    private boolean sawLocal;
+
+    /** whether a method read so far had a line number */
+    private boolean sawLine;
+
+    public void test_unoptimized() throws IOException {
+        for (RopMethod rmeth : translateAll(false)) {
+            assertSameMethod(rmeth, roundTrip(rmeth));
+        }
+
+        assertTrue(sawCatches);
+        assertTrue(sawWide);
+        assertTrue(sawLine);
+    }
+
+    public void test_optimized() throws IOException {
+        for (RopMethod rmeth : translateAll(true)) {
+            assertSameMethod(rmeth, roundTrip(rmeth));
+        }
+
+        assertTrue(sawCatches);
+        assertTrue(sawWide);
+        assertTrue(sawLine);
+    }
+
+    public void test_locals() throws IOException {
+        /*
+         * Whether the samples have a local variable table depends on
+         * how they were compiled, so every result gets a local here;
+         * half of them with a signature.
+         */
+        for (RopMethod rmeth : translateAll(true)) {
+            rmeth = withLocals(rmeth);
+            assertSameMethod(rmeth, roundTrip(rmeth));
+        }
+
+        assertTrue(sawLocal);
+    }
+
+    public void test_sequence() throws IOException {
+        // Methods are read back from one stream, in order.
+        ArrayList<RopMethod> methods = translateAll(true);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        for (RopMethod rmeth : methods) {
+            RopMethodCodec.write(out, rmeth);
+        }
+
+        out.close();
+
+        DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(bytes.toByteArray()));
+
+        for (RopMethod rmeth : methods) {
+            assertSameMethod(rmeth, RopMethodCodec.read(in));
+        }
+
+        assertEquals(-1, in.read());
+    }
+
+    /**
+     * Translates every method of {@link CodecSamples} with line
+     * numbers and, if asked, the default optimizations.
+     *
+     * @param optimize whether to optimize the methods
+     * @return non-null; the methods
+     */
+    private static ArrayList<RopMethod> translateAll(boolean optimize)
+            throws IOException {
+        DirectClassFile cf =
+            new DirectClassFile(readResource(SAMPLES), SAMPLES, false);
+        cf.setAttributeFactory(StdAttributeFactory.THE_ONE);
+
+        MethodList methods = cf.getMethods();
+        int sz = methods.size();
+        ArrayList<RopMethod> result = new ArrayList<RopMethod>(sz);
+
+        for (int i = 0; i < sz; i++) {
+            Method one = methods.get(i);
+            boolean isStatic = AccessFlags.isStatic(one.getAccessFlags());
+            ConcreteMethod concrete = new ConcreteMethod(one, cf, true, true);
+            RopMethod rmeth =
+                Ropper.convert(concrete, DexTranslationAdvice.THE_ONE);
+
+            if (optimize) {
+                int paramWidth = concrete.getEffectiveDescriptor()
+                    .getParameterTypes().getWordCount();
+                rmeth = Optimizer.optimize(rmeth, paramWidth, isStatic, true,
+                        DexTranslationAdvice.THE_ONE);
+            }
+
+            result.add(rmeth);
+        }
+
+        return result;
+    }
+
+    /**
+     * Gets a copy of a method in which every result register holds a
+     * local variable.
+     *
+     * @param rmeth non-null; the method
+     * @return non-null; the copy
+     */
+    private static RopMethod withLocals(RopMethod rmeth) {
+        BasicBlockList blocks = rmeth.getBlocks();
+        int sz = blocks.size();
+        BasicBlockList newBlocks = new BasicBlockList(sz);
+
+        for (int i = 0; i < sz; i++) {
+            BasicBlock block = blocks.get(i);
+            InsnList insns = block.getInsns();
+            int insnSz = insns.size();
+            InsnList newInsns = new InsnList(insnSz);
+
+            for (int j = 0; j < insnSz; j++) {
+                Insn insn = insns.get(j);
+                RegisterSpec result = insn.getResult();
+
+                if ((result != null) && (result.getLocalItem() == null)) {
+                    int reg = result.getReg();
+                    CstUtf8 name = new CstUtf8("v" + reg);
+                    CstUtf8 signature = ((reg & 1) == 0) ? null
+                            : new CstUtf8("TT" + reg + ";");
+
+                    insn = insn.withNewRegisters(result.withLocalItem(
+                                    LocalItem.make(name, signature)),
+                            insn.getSources());
+                }
+
+                newInsns.set(j, insn);
+            }
+
+            newInsns.setImmutable();
+            newBlocks.set(i, new BasicBlock(block.getLabel(), newInsns,
+                            block.getSuccessors(),
+                            block.getPrimarySuccessor()));
+        }
+
+        newBlocks.setImmutable();
+        return new RopMethod(newBlocks, rmeth.getFirstLabel());
+    }
+
+    /**
+     * Encodes and decodes a method.
+     *
+     * @param rmeth non-null; the method
+     * @return non-null; the decoded method
+     */
+    private static RopMethod roundTrip(RopMethod rmeth) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        RopMethodCodec.write(out, rmeth);
+        out.close();
+
+        DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(bytes.toByteArray()));
+        RopMethod result = RopMethodCodec.read(in);
+
+        assertEquals(-1, in.read());
+        return result;
+    }
+
+    /**
+     * Checks that a decoded method is equal to the original, block by
+     * block and instruction by instruction, and notes what was seen.
+     *
+     * @param expected non-null; the original
+     * @param actual non-null; the decoded method
+     */
+    private void assertSameMethod(RopMethod expected, RopMethod actual) {
+        BasicBlockList blocks = expected.getBlocks();
+        BasicBlockList actualBlocks = actual.getBlocks();
+        int sz = blocks.size();
+
+        assertEquals(expected.getFirstLabel(), actual.getFirstLabel());
+        assertEquals(sz, actualBlocks.size());
+
+        for (int i = 0; i < sz; i++) {
+            BasicBlock block = blocks.get(i);
+            BasicBlock actualBlock = actualBlocks.get(i);
+            InsnList insns = block.getInsns();
+            InsnList actualInsns = actualBlock.getInsns();
+            int insnSz = insns.size();
+
+            assertEquals(block.getLabel(), actualBlock.getLabel());
+            assertEquals(block.getSuccessors(), actualBlock.getSuccessors());
+            assertEquals(block.getPrimarySuccessor(),
+                    actualBlock.getPrimarySuccessor());
+            assertEquals(insnSz, actualInsns.size());
+
+            for (int j = 0; j < insnSz; j++) {
+                assertSameInsn(insns.get(j), actualInsns.get(j));
+            }
+        }
+    }
+
+    /**
+     * Checks that a decoded instruction is equal to the original.
+     * <code>Insn.contentEquals()</code> isn't used, since it compares
+     * rops by identity, and decoded rops are new instances.
+     *
+     * @param expected non-null; the original
+     * @param actual non-null; the decoded instruction
+     */
+    private void assertSameInsn(Insn expected, Insn actual) {
+        String where = expected.toString();
+        RegisterSpec result = expected.getResult();
+        RegisterSpecList sources = expected.getSources();
+        SourcePosition position = expected.getPosition();
+
+        assertSame(where, expected.getClass(), actual.getClass());
+        assertEquals(where, expected.getOpcode(), actual.getOpcode());
+        assertEquals(where, expected.getOpcode().getNickname(),
+                actual.getOpcode().getNickname());
+        assertEquals(where, position, actual.getPosition());
+        assertEquals(where, result, actual.getResult());
+        assertEquals(where, sources, actual.getSources());
+        assertTrue(where, StdTypeList.equalContents(expected.getCatches(),
+                        actual.getCatches()));
+        assertEquals(where, actual.toString());
+
+        if (expected instanceof CstInsn) {
+            assertEquals(where, ((CstInsn) expected).getConstant(),
+                    ((CstInsn) actual).getConstant());
+        }
+
+        if (expected instanceof SwitchInsn) {
+            assertEquals(where, ((SwitchInsn) expected).getCases(),
+                    ((SwitchInsn) actual).getCases());
+        }
+
+        if (expected instanceof FillArrayDataInsn) {
+            assertEquals(where,
+                    ((FillArrayDataInsn) expected).getInitValues(),
+                    ((FillArrayDataInsn) actual).getInitValues());
+            assertEquals(where,
+                    ((FillArrayDataInsn) expected).getConstant(),
+                    ((FillArrayDataInsn) actual).getConstant());
+        }
+
+        sawCatches |= (expected.getCatches().size() != 0);
+        sawLine |= (position.getLine() >= 0);
+
+        if (result != null) {
+            sawWide |= (result.getCategory() == 2);
+            sawLocal |= (result.getLocalItem() != null);
+        }
+    }
+
+    /**
+     * Reads a class file from the class path.
+     */
+    private static byte[] readResource(String name) throws IOException {
+        InputStream in = _RopMethodCodec.class.getResourceAsStream(name);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+
+        try {
+            for (;;) {
+                int count = in.read(buf);
+                if (count < 0) {
+                    break;
+                }
+                out.write(buf, 0, count);
+            }
+        } finally {
+            in.close();
+        }
+
+        return out.toByteArray();
+    }
+}
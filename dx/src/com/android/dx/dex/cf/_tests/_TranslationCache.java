@@ -0,0 +1,398 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.dex.cf._tests;
+
+import com.android.dx.dex.cf.CfOptions;
+import com.android.dx.dex.cf.CfTranslator;
+import com.android.dx.dex.cf.TranslationCache;
+import com.android.dx.dex.file.DexFile;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.security.CodeSource;
+import java.util.Arrays;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Test the class <code>com.android.dx.dex.cf.TranslationCache</code>:
+ * that what it serves makes the same dex file as translating afresh,
+ * and that each input to its keys changes them.
+ */
+public class _TranslationCache
+        extends TestCase {
+    /** non-null; classes to translate */
+    private static final String[] CLASSES = {
+        "com/android/dx/dex/cf/_tests/CodecSamples",
+        "com/android/dx/util/IntList",
+        "com/android/dx/rop/code/RegisterSpec",
+        "com/android/dx/dex/cf/RopMethodCodec"
+    };
+
+    /**
+     * non-null; options that don't affect the translated methods: the
+     * name check only decides whether a class is rejected, and
+     * translation for statistics bypasses the cache
+     */
+    private static final String[] NOT_KEYED = {
+        "strictNameCheck",
+        "statistics"
+    };
+
+    /** null-ok; directory holding files made by the current test */
+    private File tempDir;
+
+    @Override
+    protected void setUp() throws IOException {
+        tempDir = File.createTempFile("dxcache", null);
+        tempDir.delete();
+        tempDir.mkdir();
+    }
+
+    @Override
+    protected void tearDown() {
+        delete(tempDir);
+    }
+
+    public void test_warmRunMatchesColdRun() throws IOException {
+        CfOptions options = new CfOptions();
+        options.localInfo = true;
+        options.optimize = true;
+        checkWarmRun(options);
+
+        options.optimize = false;
+        checkWarmRun(options);
+    }
+
+    public void test_sameInputsSameKey() throws IOException {
+        byte[] bytes = readResource("/" + CLASSES[0] + ".class");
+        String key = newCache(new CfOptions()).keyFor(bytes);
+
+        assertEquals(key, newCache(new CfOptions()).keyFor(bytes));
+        assertFalse(key.equals(newCache(new CfOptions()).keyFor(
+                readResource("/" + CLASSES[1] + ".class"))));
+    }
+
+    public void test_optionsChangeKey() throws Exception {
+        /*
+         * Every option that can be given on the command line is
+         * covered, so that one that's added without being keyed on
+         * fails here rather than serving stale methods.
+         */
+        byte[] bytes = readResource("/" + CLASSES[0] + ".class");
+        String key = newCache(new CfOptions()).keyFor(bytes);
+        int count = 0;
+
+        for (Field field : CfOptions.class.getFields()) {
+            Class<?> type = field.getType();
+
+            if (Modifier.isStatic(field.getModifiers())
+                    || Arrays.asList(NOT_KEYED).contains(field.getName())) {
+                continue;
+            }
+
+            CfOptions options = new CfOptions();
+
+            if (type == boolean.class) {
+                field.setBoolean(options, !field.getBoolean(options));
+            } else if (type == int.class) {
+                field.setInt(options, field.getInt(options) + 1);
+            } else {
+                // The files are covered below; the rest aren't options.
+                continue;
+            }
+
+            assertFalse(field.getName(),
+                    key.equals(newCache(options).keyFor(bytes)));
+            count++;
+        }
+
+        assertTrue(count > 0);
+    }
+
+    public void test_optimizeListsChangeKey() throws IOException {
+        byte[] bytes = readResource("/" + CLASSES[0] + ".class");
+        File list = new File(tempDir, "list");
+        CfOptions options = new CfOptions();
+        String key = newCache(options).keyFor(bytes);
+
+        writeFile(list, "Lfoo;.bar\n");
+        options.optimizeListFile = list.getPath();
+        String optimizeKey = newCache(options).keyFor(bytes);
+
+        options.optimizeListFile = null;
+        options.dontOptimizeListFile = list.getPath();
+        String dontOptimizeKey = newCache(options).keyFor(bytes);
+
+        // The contents count, not just the name.
+        writeFile(list, "Lfoo;.baz\n");
+        String changedKey = newCache(options).keyFor(bytes);
+
+        assertFalse(key.equals(optimizeKey));
+        assertFalse(key.equals(dontOptimizeKey));
+        assertFalse(optimizeKey.equals(dontOptimizeKey));
+        assertFalse(dontOptimizeKey.equals(changedKey));
+    }
+
+    public void test_toolChangesKey() throws Exception {
+        /*
+         * The cache and its options are loaded again from copies of
+         * where dx was loaded from: an exact one, which makes the same
+         * keys, and one with a class file added, which doesn't.
+         */
+        byte[] bytes = readResource("/" + CLASSES[0] + ".class");
+        String key = newCache(new CfOptions()).keyFor(bytes);
+
+        assertEquals(key, keyFromCopy(bytes, false));
+        assertFalse(key.equals(keyFromCopy(bytes, true)));
+    }
+
+    /**
+     * Translates {@link #CLASSES} twice, each time with a new cache
+     * over the same directory, and checks that the second time every
+     * class came from the cache and the dex file came out the same.
+     *
+     * @param options non-null; the options
+     */
+    private void checkWarmRun(CfOptions options) throws IOException {
+        File dir = new File(tempDir, "cache" + options.optimize);
+        TranslationCache cold = new TranslationCache(dir, options);
+        byte[] coldDex = build(options, cold);
+        TranslationCache warm = new TranslationCache(dir, options);
+        byte[] warmDex = build(options, warm);
+
+        assertEquals(CLASSES.length, cold.getMissCount());
+        assertEquals(CLASSES.length, warm.getHitCount());
+        assertEquals(0, warm.getMissCount());
+        assertTrue(Arrays.equals(coldDex, warmDex));
+
+        // And the same as without a cache at all.
+        assertTrue(Arrays.equals(build(options, null), warmDex));
+    }
+
+    /**
+     * Builds a dex file of {@link #CLASSES}.
+     *
+     * @param options non-null; the options
+     * @param cache null-ok; the cache to use
+     * @return non-null; the file
+     */
+    private static byte[] build(CfOptions options, TranslationCache cache)
+            throws IOException {
+        DexFile file = new DexFile();
+
+        for (String name : CLASSES) {
+            String path = name + ".class";
+            file.add(CfTranslator.translate(path, readResource("/" + path),
+                            options, cache));
+        }
+
+        return file.toDex(null, false);
+    }
+
+    /**
+     * Makes a cache with the given options in the test's directory.
+     */
+    private TranslationCache newCache(CfOptions options) {
+        return new TranslationCache(new File(tempDir, "keys"), options);
+    }
+
+    /**
+     * Gets the key for a class from a cache with the default options,
+     * loaded from a copy of where this class's dx was loaded from.
+     *
+     * @param bytes non-null; the class
+     * @param addClass whether to add a class file to the copy
+     * @return non-null; the key
+     */
+    private String keyFromCopy(byte[] bytes, boolean addClass)
+            throws Exception {
+        CodeSource source =
+            TranslationCache.class.getProtectionDomain().getCodeSource();
+        File location = new File(source.getLocation().toURI());
+        File copy = new File(tempDir, "tool" + addClass);
+        String extra = "com/android/dx/Extra.class";
+
+        if (location.isDirectory()) {
+            copyDirectory(location, copy);
+            if (addClass) {
+                File file = new File(copy, extra);
+                writeFile(file, "extra");
+            }
+        } else {
+            copyJar(location, copy, addClass ? extra : null);
+        }
+
+        ClassLoader loader =
+            new URLClassLoader(new URL[] { copy.toURI().toURL() }, null);
+        Class<?> optionsClass = loader.loadClass(CfOptions.class.getName());
+        Class<?> cacheClass =
+            loader.loadClass(TranslationCache.class.getName());
+
+        assertNotSame(TranslationCache.class, cacheClass);
+
+        Object cache = cacheClass.getConstructor(File.class, optionsClass)
+            .newInstance(new File(tempDir, "keys"),
+                    optionsClass.newInstance());
+
+        return (String) cacheClass.getMethod("keyFor", byte[].class)
+            .invoke(cache, bytes);
+    }
+
+    /**
+     * Copies a directory tree.
+     */
+    private static void copyDirectory(File from, File to) throws IOException {
+        to.mkdirs();
+
+        for (File file : from.listFiles()) {
+            File target = new File(to, file.getName());
+
+            if (file.isDirectory()) {
+                copyDirectory(file, target);
+            } else {
+                InputStream in = new FileInputStream(file);
+                try {
+                    copy(in, target);
+                } finally {
+                    in.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Copies a jar file entry by entry, adding an empty entry with the
+     * given name at the end if asked.
+     */
+    private static void copyJar(File from, File to, String extra)
+            throws IOException {
+        ZipInputStream in = new ZipInputStream(new FileInputStream(from));
+        ZipOutputStream out = new ZipOutputStream(new FileOutputStream(to));
+        byte[] buf = new byte[4096];
+
+        try {
+            for (;;) {
+                ZipEntry entry = in.getNextEntry();
+                if (entry == null) {
+                    break;
+                }
+                out.putNextEntry(new ZipEntry(entry.getName()));
+                for (;;) {
+                    int count = in.read(buf);
+                    if (count < 0) {
+                        break;
+                    }
+                    out.write(buf, 0, count);
+                }
+            }
+
+            if (extra != null) {
+                out.putNextEntry(new ZipEntry(extra));
+            }
+        } finally {
+            in.close();
+            out.close();
+        }
+    }
+
+    /**
+     * Copies a stream to a file.
+     */
+    private static void copy(InputStream in, File to) throws IOException {
+        OutputStream out = new FileOutputStream(to);
+        byte[] buf = new byte[4096];
+
+        try {
+            for (;;) {
+                int count = in.read(buf);
+                if (count < 0) {
+                    break;
+                }
+                out.write(buf, 0, count);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Writes a string to a file, making its directory if need be.
+     */
+    private static void writeFile(File file, String contents)
+            throws IOException {
+        file.getParentFile().mkdirs();
+
+        OutputStream out = new FileOutputStream(file);
+
+        try {
+            out.write(contents.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Deletes a file, or a directory and everything in it.
+     */
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+
+        if (files != null) {
+            for (File one : files) {
+                delete(one);
+            }
+        }
+
+        file.delete();
+    }
+
+    /**
+     * Reads a class file from the class path.
+     */
+    private static byte[] readResource(String name) throws IOException {
+        InputStream in = _TranslationCache.class.getResourceAsStream(name);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+
+        try {
+            for (;;) {
+                int count = in.read(buf);
+                if (count < 0) {
+                    break;
+                }
+                out.write(buf, 0, count);
+            }
+        } finally {
+            in.close();
+        }
+
+        return out.toByteArray();
+    }
+}
@@ -42,7 +42,10 @@ public final class CatchStructs {
      */
     private static final int TRY_ITEM_WRITE_SIZE = 4 + (2 * 2);
 
-    /** non-null; code that contains the catches */
+    /**
+     * null-ok; code that contains the catches, if the table is to be
+     * gotten from it
+     */
     private final DalvCode code;
     
     /**
@@ -82,6 +85,23 @@ public final class CatchStructs {
         this.handlerOffsets = null;
     }
 
+    /**
+     * Constructs an instance from an already-built table.
+     * 
+     * @param table non-null; the table of catches
+     */
+    public CatchStructs(CatchTable table) {
+        if (table == null) {
+            throw new NullPointerException("table == null");
+        }
+
+        this.code = null;
+        this.table = table;
+        this.encodedHandlers = null;
+        this.encodedHandlerHeaderSize = 0;
+        this.handlerOffsets = null;
+    }
+
     /**
      * Finish processing the catches, if necessary.
      */
@@ -229,6 +229,15 @@ public final class ClassDefItem extends IndexedItem {
         return thisClass;
     }
 
+    /**
+     * Gets the class data of this class.
+     *
+     * @return non-null; the class data
+     */
+    /*package*/ ClassDataItem getClassData() {
+        return classData;
+    }
+
     /**
      * Gets the access flags.
      * 
@@ -31,6 +31,7 @@ import com.android.dx.rop.type.StdTypeList;
 import com.android.dx.rop.type.Type;
 import com.android.dx.rop.type.TypeList;
 import com.android.dx.util.AnnotatedOutput;
+import com.android.dx.util.ByteArrayAnnotatedOutput;
 import com.android.dx.util.ExceptionWithContext;
 import com.android.dx.util.Hex;
 
@@ -72,6 +73,12 @@ public final class CodeItem extends OffsettedItem {
      */
     private DebugInfoItem debugInfo;
 
+    /**
+     * whether the indices of the code's constants have been assigned;
+     * set in {@link #encode}
+     */
+    private boolean indicesAssigned;
+
     /**
      * Constructs an instance.
      * 
@@ -104,6 +111,7 @@ public final class CodeItem extends OffsettedItem {
         this.throwsList = throwsList;
         this.catches = null;
         this.debugInfo = null;
+        this.indicesAssigned = false;
     }
 
     /** {@inheritDoc} */
@@ -156,6 +164,70 @@ public final class CodeItem extends OffsettedItem {
         return ref;
     }
 
+    /**
+     * Gets the constants referred to by the instructions of this
+     * instance.
+     *
+     * @return non-null; the constants
+     */
+    /*package*/ HashSet<Constant> getInsnConstants() {
+        return code.getInsnConstants();
+    }
+
+    /**
+     * Gets the debug info of this instance.
+     *
+     * @return null-ok; the debug info, or <code>null</code> if there
+     * is none
+     */
+    /*package*/ DebugInfoItem getDebugInfo() {
+        return debugInfo;
+    }
+
+    /**
+     * Replaces the debug info of this instance with an identical
+     * copy, so that the one copy may be shared.
+     *
+     * @param debugInfo non-null; the replacement debug info
+     */
+    /*package*/ void setDebugInfo(DebugInfoItem debugInfo) {
+        if (debugInfo == null) {
+            throw new NullPointerException("debugInfo == null");
+        }
+
+        this.debugInfo = debugInfo;
+    }
+
+    /**
+     * Gets the contents of this instance, as they will be written,
+     * except that the debug info offset is left zero. Two instances
+     * with the same contents and the same debug info are
+     * interchangeable.
+     *
+     * @param file non-null; file this instance is part of
+     * @return non-null; the contents
+     */
+    /*package*/ byte[] getContents(DexFile file) {
+        ByteArrayAnnotatedOutput out = new ByteArrayAnnotatedOutput();
+
+        encode(file);
+        writeTo0(file, out, 0);
+        return out.toByteArray();
+    }
+
+    /**
+     * Puts the code into its final form, which otherwise happens when
+     * this instance is placed. This may be called on several instances
+     * at once, as long as the indices of all the constants in the file
+     * have been assigned.
+     *
+     * @param file non-null; file this instance is part of
+     */
+    /*package*/ void finish(DexFile file) {
+        encode(file);
+        code.getInsns();
+    }
+
     /**
      * Does a human-friendly dump of this instance.
      * 
@@ -191,25 +263,11 @@ public final class CodeItem extends OffsettedItem {
     /** {@inheritDoc} */
     @Override
     protected void place0(Section addedTo, int offset) {
-        final DexFile file = addedTo.getFile();
         int catchesSize;
-        
-        /*
-         * In order to get the catches and insns, all the code's
-         * constants need to be assigned indices.
-         */
-        code.assignIndices(new DalvCode.AssignIndicesCallback() {
-                public int getIndex(Constant cst) {
-                    IndexedItem item = file.findItemOrNull(cst);
-                    if (item == null) {
-                        return -1;
-                    }
-                    return item.getIndex();
-                }
-            });
+
+        encode(addedTo.getFile());
 
         if (catches != null) {
-            catches.encode(file);
             catchesSize = catches.writeSize();
         } else {
             catchesSize = 0;
@@ -229,9 +287,57 @@ public final class CodeItem extends OffsettedItem {
         setWriteSize(HEADER_SIZE + (insnsSize * 2) + catchesSize);
     }
 
+    /**
+     * Helper for {@link #place0} and {@link #getContents}, which
+     * assigns the indices of the code's constants and encodes the
+     * catches, so that the final form of the code is known.
+     *
+     * @param file non-null; file this instance is part of
+     */
+    private void encode(final DexFile file) {
+        /*
+         * In order to get the catches and insns, all the code's
+         * constants need to be assigned indices. That can only be done
+         * once, since it's part of processing the code into its final
+         * form.
+         */
+        if (!indicesAssigned) {
+            code.assignIndices(new DalvCode.AssignIndicesCallback() {
+                    public int getIndex(Constant cst) {
+                        IndexedItem item = file.findItemOrNull(cst);
+                        if (item == null) {
+                            return -1;
+                        }
+                        return item.getIndex();
+                    }
+                });
+            indicesAssigned = true;
+        }
+
+        if (catches != null) {
+            catches.encode(file);
+        }
+    }
+
     /** {@inheritDoc} */
     @Override
     protected void writeTo0(DexFile file, AnnotatedOutput out) {
+        int debugOff = (debugInfo == null) ? 0 : debugInfo.getAbsoluteOffset();
+
+        writeTo0(file, out, debugOff);
+    }
+
+    /**
+     * Helper for {@link #writeTo0(DexFile,AnnotatedOutput)} and
+     * {@link #getContents}, which writes this instance with the given
+     * debug info offset.
+     *
+     * @param file non-null; file we are part of
+     * @param out non-null; where to write to
+     * @param debugOff &gt;= 0; offset of the debug info, or
+     * <code>0</code> if there is none
+     */
+    private void writeTo0(DexFile file, AnnotatedOutput out, int debugOff) {
         boolean annotates = out.annotates();
         int regSz = getRegistersSize();
         int outsSz = getOutsSize();
@@ -239,7 +345,6 @@ public final class CodeItem extends OffsettedItem {
         int insnsSz = code.getInsns().codeSize();
         boolean needPadding = (insnsSz & 1) != 0;
         int triesSz = (catches == null) ? 0 : catches.triesSize();
-        int debugOff = (debugInfo == null) ? 0 : debugInfo.getAbsoluteOffset();
 
         if (annotates) {
             out.annotate(0, offsetString() + ' ' + ref.toHuman());
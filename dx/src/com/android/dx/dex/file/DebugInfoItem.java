@@ -70,11 +70,38 @@ public class DebugInfoItem extends OffsettedItem {
     /** {@inheritDoc} */
     @Override
     protected void place0(Section addedTo, int offset) {
-        // Encode the data and note the size.
+        // Encode the data, if that isn't done yet, and note the size.
+
+        finish(addedTo.getFile());
+        setWriteSize(encoded.length);
+    }
+
+    /**
+     * Encodes the data, which otherwise happens when this instance is
+     * placed. This may be called on several instances at once, as long
+     * as the code they are for is in its final form.
+     *
+     * @param file non-null; file this instance is part of
+     */
+    /*package*/ void finish(DexFile file) {
+        if (encoded == null) {
+            encoded = getContents(file);
+        }
+    }
+
+    /**
+     * Gets the contents of this instance, as they will be written.
+     *
+     * @param file non-null; file this instance is part of
+     * @return non-null; the contents
+     */
+    /*package*/ byte[] getContents(DexFile file) {
+        if (encoded != null) {
+            return encoded;
+        }
 
         try {
-            encoded = encode(addedTo.getFile(), null, null, null, false);
-            setWriteSize(encoded.length);
+            return encode(file, null, null, null, false);
         } catch (RuntimeException ex) {
             throw ExceptionWithContext.withContext(ex,
                     "...while placing debug info for " + ref.toHuman());
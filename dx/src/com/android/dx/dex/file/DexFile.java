@@ -20,20 +20,37 @@ import com.android.dx.rop.cst.Constant;
 import com.android.dx.rop.cst.CstBaseMethodRef;
 import com.android.dx.rop.cst.CstEnumRef;
 import com.android.dx.rop.cst.CstFieldRef;
+import com.android.dx.rop.cst.CstMemberRef;
 import com.android.dx.rop.cst.CstString;
 import com.android.dx.rop.cst.CstType;
 import com.android.dx.rop.cst.CstUtf8;
 import com.android.dx.rop.type.Type;
+import com.android.dx.util.AnnotatedOutput;
 import com.android.dx.util.ByteArrayAnnotatedOutput;
 import com.android.dx.util.ExceptionWithContext;
+import com.android.dx.util.StreamingAnnotatedOutput;
 
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.security.DigestException;
+import java.security.DigestOutputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.zip.Adler32;
+import java.util.zip.CheckedOutputStream;
 
 import static com.android.dx.dex.file.MixedItemSection.SortType;
 
@@ -101,6 +118,24 @@ public final class DexFile {
     /** &gt;= 40; maximum width of the file dump */
     private int dumpWidth;
 
+    /**
+     * null-ok; classes and methods to place first, or <code>null</code>
+     * to lay the file out in the usual order
+     */
+    private StartupProfile startupProfile;
+
+    /**
+     * whether methods with identical code, or identical debug info,
+     * are to share one copy of it
+     */
+    private boolean dedup;
+
+    /**
+     * &gt;= 1; number of threads to use for the per-item work of
+     * laying out the file
+     */
+    private int numThreads;
+
     /**
      * Constructs an instance. It is initially empty.
      */
@@ -131,6 +166,7 @@ public final class DexFile {
         
         fileSize = -1;
         dumpWidth = 79;
+        numThreads = 1;
     }
 
     /**
@@ -182,6 +218,56 @@ public final class DexFile {
         }
     }
 
+    /**
+     * Writes the contents of this instance as a <code>.dex</code> file
+     * to the given channel, from its start, truncating anything past
+     * the end. Unlike {@link #writeTo(OutputStream, Writer, boolean)},
+     * this doesn't build the whole file in memory: once the file is
+     * laid out, the sections are written straight to the channel, while
+     * the signature and checksum are computed, and those are then
+     * filled into the header.
+     *
+     * @param channel non-null; where to write to
+     */
+    public void writeTo(FileChannel channel) throws IOException {
+        layout();
+
+        byte[] headerBytes = headerBytes();
+        Signer signer = new Signer();
+        OutputStream out = Channels.newOutputStream(channel);
+
+        channel.position(0);
+        out.write(headerBytes, 0, 32);
+        writeSigned(signer.wrap(out), headerBytes);
+        signer.sign(headerBytes, fileSize);
+        channel.write(ByteBuffer.wrap(headerBytes, 8, 24), 8);
+        channel.truncate(fileSize);
+    }
+
+    /**
+     * Writes the contents of this instance as a <code>.dex</code> file
+     * to the given stream, without building the whole file in memory.
+     * Since the header comes first but holds the signature and checksum
+     * of the rest of the file, the rest is generated twice: once to
+     * compute those, and once to write it. Prefer {@link
+     * #writeTo(FileChannel)} when writing to a file.
+     *
+     * @param out non-null; where to write to
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        layout();
+
+        byte[] headerBytes = headerBytes();
+        Signer signer = new Signer();
+
+        writeSigned(signer.wrap(new NullOutputStream()), headerBytes);
+        signer.sign(headerBytes, fileSize);
+
+        out.write(headerBytes, 0, 32);
+        writeSigned(out, headerBytes);
+        out.flush();
+    }
+
     /**
      * Returns the contents of this instance as a <code>.dex</code> file,
      * in <code>byte[]</code> form.
@@ -215,6 +301,49 @@ public final class DexFile {
         this.dumpWidth = dumpWidth;
     }
 
+    /**
+     * Sets the profile of the classes and methods used at startup,
+     * whose code, class data and strings are to be placed ahead of
+     * the rest, in the order given by the profile. This must be called
+     * before the file is written.
+     *
+     * @param startupProfile null-ok; the profile, or <code>null</code>
+     * to lay the file out in the usual order
+     */
+    public void setStartupProfile(StartupProfile startupProfile) {
+        this.startupProfile = startupProfile;
+    }
+
+    /**
+     * Sets whether methods whose code is byte-for-byte identical in the
+     * output are to share one copy of it, and likewise for debug info.
+     * (Type lists, encoded arrays and annotations are always shared,
+     * since they are interned as they are added.) This must be called
+     * before the file is written.
+     *
+     * @param dedup whether to share identical code and debug info
+     */
+    public void setDedup(boolean dedup) {
+        this.dedup = dedup;
+    }
+
+    /**
+     * Sets the number of threads to use for the work of laying out the
+     * file that is independent from item to item, namely putting each
+     * method's code into its final form, encoding its debug info, and
+     * sorting the sections. The output is the same regardless. This
+     * must be called before the file is written.
+     *
+     * @param numThreads &gt;= 1; the number of threads
+     */
+    public void setNumThreads(int numThreads) {
+        if (numThreads < 1) {
+            throw new IllegalArgumentException("numThreads < 1");
+        }
+
+        this.numThreads = numThreads;
+    }
+
     /**
      * Gets the total file size, if known.
      * 
@@ -475,6 +604,37 @@ public final class DexFile {
      */
     private ByteArrayAnnotatedOutput toDex0(boolean annotate,
             boolean verbose) {
+        layout();
+
+        byte[] barr = new byte[fileSize];
+        ByteArrayAnnotatedOutput out = new ByteArrayAnnotatedOutput(barr);
+
+        if (annotate) {
+            out.enableAnnotations(dumpWidth, verbose);
+        }
+
+        writeSections(out, 0);
+
+        // Perform final bookkeeping.
+        
+        calcSignature(barr);
+        calcChecksum(barr);
+
+        if (annotate) {
+            wordData.writeIndexAnnotation(out, ItemType.TYPE_CODE_ITEM,
+                    "\nmethod code index:\n\n");
+            getStatistics().writeAnnotation(out);
+            out.finishAnnotating();
+        }
+
+        return out;
+    }
+
+    /**
+     * Prepares all the sections and places them, and the items in
+     * them, within the file, which also determines the file size.
+     */
+    private void layout() {
         /*
          * The following is ordered so that the prepare() calls which
          * add items happen before the calls to the sections that get
@@ -494,6 +654,37 @@ public final class DexFile {
         stringData.prepare();
         header.prepare();
 
+        ExecutorService pool = (numThreads > 1) ?
+            Executors.newFixedThreadPool(numThreads) : null;
+
+        try {
+            /*
+             * The ranking reads the constants of the code, which is only
+             * possible before the code is finished, so it comes before
+             * both the finishing and the deduplication; the ranks of
+             * removed copies are passed on to their originals.
+             */
+            if (startupProfile != null) {
+                rankStartupItems();
+            }
+
+            if (pool != null) {
+                finishItems(pool);
+            }
+
+            if (dedup) {
+                dedupItems();
+            }
+
+            if (pool != null) {
+                sortItems(pool);
+            }
+        } finally {
+            if (pool != null) {
+                pool.shutdown();
+            }
+        }
+
         // Place the sections within the file.
 
         int count = sections.length;
@@ -532,17 +723,388 @@ public final class DexFile {
             }
         }
 
-        // Write out all the sections.
-
         fileSize = offset;
-        byte[] barr = new byte[fileSize];
-        ByteArrayAnnotatedOutput out = new ByteArrayAnnotatedOutput(barr);
+    }
 
-        if (annotate) {
-            out.enableAnnotations(dumpWidth, verbose);
+    /**
+     * Helper for {@link #layout}, which puts the code of each method
+     * into its final form and then encodes its debug info, ahead of
+     * placement, spreading the work over a pool of threads. This is
+     * done after the indices of all the constants are known, at which
+     * point the items can be processed independently of one another.
+     * The debug info depends on the final form of the code, so it is
+     * only started once all the code is done.
+     *
+     * @param pool non-null; the threads to use
+     */
+    private void finishItems(ExecutorService pool) {
+        final DexFile file = this;
+        ArrayList<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+
+        for (Item item : wordData.items()) {
+            if (item instanceof CodeItem) {
+                final CodeItem code = (CodeItem) item;
+                tasks.add(new Callable<Object>() {
+                    public Object call() {
+                        try {
+                            code.finish(file);
+                        } catch (RuntimeException ex) {
+                            throw ExceptionWithContext.withContext(ex,
+                                    "...while placing " + code);
+                        }
+                        return null;
+                    }
+                });
+            }
         }
 
-        for (int i = 0; i < count; i++) {
+        runAll(pool, tasks);
+        tasks.clear();
+
+        for (Item item : byteData.items()) {
+            if (item instanceof DebugInfoItem) {
+                final DebugInfoItem debug = (DebugInfoItem) item;
+                tasks.add(new Callable<Object>() {
+                    public Object call() {
+                        debug.finish(file);
+                        return null;
+                    }
+                });
+            }
+        }
+
+        runAll(pool, tasks);
+    }
+
+    /**
+     * Helper for {@link #layout}, which sorts the items of the
+     * sections that get sorted, each on its own thread, ahead of
+     * placement.
+     *
+     * @param pool non-null; the threads to use
+     */
+    private void sortItems(ExecutorService pool) {
+        ArrayList<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+
+        for (final MixedItemSection section :
+                 new MixedItemSection[] { wordData, stringData, byteData }) {
+            tasks.add(new Callable<Object>() {
+                public Object call() {
+                    section.sortItems();
+                    return null;
+                }
+            });
+        }
+
+        runAll(pool, tasks);
+    }
+
+    /**
+     * Helper for {@link #finishItems} and {@link #sortItems}, which
+     * runs a list of tasks and waits for all of them to be done. A
+     * failure of any task is rethrown here, as if the task had been
+     * run directly.
+     *
+     * @param pool non-null; the threads to use
+     * @param tasks non-null; the tasks
+     */
+    private static void runAll(ExecutorService pool,
+            ArrayList<Callable<Object>> tasks) {
+        List<Future<Object>> futures;
+
+        try {
+            futures = pool.invokeAll(tasks);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("interrupted while laying out file",
+                    ex);
+        }
+
+        for (Future<Object> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(
+                        "interrupted while laying out file", ex);
+            } catch (ExecutionException ex) {
+                Throwable cause = ex.getCause();
+
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                } else if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+
+                throw new RuntimeException(cause);
+            }
+        }
+    }
+
+    /**
+     * Helper for {@link #layout}, which finds the code and debug info
+     * items whose contents are identical to those of others, points
+     * everything that refers to them at the first such item instead,
+     * and removes them. This is done after the indices of all the
+     * constants are known, since they are part of the contents, but
+     * before anything is placed, since the offsets of the debug info
+     * aren't. An original is given the rank of the highest-ranked of
+     * its copies, if that is ahead of its own.
+     */
+    private void dedupItems() {
+        IdentityHashMap<OffsettedItem, OffsettedItem> copies =
+            new IdentityHashMap<OffsettedItem, OffsettedItem>();
+
+        /*
+         * The code has to be encoded first, since encoding the debug
+         * info depends on it.
+         */
+        IdentityHashMap<Item, byte[]> codeContents =
+            new IdentityHashMap<Item, byte[]>();
+
+        for (Item item : wordData.items()) {
+            if (item instanceof CodeItem) {
+                codeContents.put(item, ((CodeItem) item).getContents(this));
+            } else if (item instanceof PrebuiltCodeItem) {
+                codeContents.put(item,
+                        ((PrebuiltCodeItem) item).getContents(this));
+            }
+        }
+
+        /*
+         * The two kinds of debug info are kept apart, since each kind
+         * of code item can only refer to its own.
+         */
+        HashMap<ByteBuffer, OffsettedItem> debugOriginals =
+            new HashMap<ByteBuffer, OffsettedItem>();
+        HashMap<ByteBuffer, OffsettedItem> prebuiltDebugOriginals =
+            new HashMap<ByteBuffer, OffsettedItem>();
+
+        for (Item item : byteData.items()) {
+            if (item instanceof DebugInfoItem) {
+                DebugInfoItem debug = (DebugInfoItem) item;
+                findOriginal(debugOriginals, copies, debug,
+                        debug.getContents(this));
+            } else if (item instanceof PrebuiltDebugInfoItem) {
+                PrebuiltDebugInfoItem debug = (PrebuiltDebugInfoItem) item;
+                findOriginal(prebuiltDebugOriginals, copies, debug,
+                        debug.getContents(this));
+            }
+        }
+
+        /*
+         * Code items are compared with the (now distinct) debug info
+         * they refer to numbered, and the number standing in for the
+         * as-yet unknown debug_off.
+         */
+        HashMap<ByteBuffer, OffsettedItem> codeOriginals =
+            new HashMap<ByteBuffer, OffsettedItem>();
+        IdentityHashMap<OffsettedItem, Integer> debugNumbers =
+            new IdentityHashMap<OffsettedItem, Integer>();
+
+        for (Item item : wordData.items()) {
+            byte[] contents = codeContents.get(item);
+            OffsettedItem debug;
+
+            if (item instanceof CodeItem) {
+                CodeItem code = (CodeItem) item;
+                DebugInfoItem original = code.getDebugInfo();
+                if ((original != null) && copies.containsKey(original)) {
+                    original = (DebugInfoItem) copies.get(original);
+                    code.setDebugInfo(original);
+                }
+                debug = original;
+            } else if (item instanceof PrebuiltCodeItem) {
+                PrebuiltCodeItem code = (PrebuiltCodeItem) item;
+                PrebuiltDebugInfoItem original = code.getDebugInfo();
+                if ((original != null) && copies.containsKey(original)) {
+                    original = (PrebuiltDebugInfoItem) copies.get(original);
+                    code.setDebugInfo(original);
+                }
+                debug = original;
+            } else {
+                continue;
+            }
+
+            if (debug != null) {
+                Integer number = debugNumbers.get(debug);
+                if (number == null) {
+                    number = debugNumbers.size() + 1;
+                    debugNumbers.put(debug, number);
+                }
+                ByteBuffer.wrap(contents).putInt(8, number);
+            }
+
+            findOriginal(codeOriginals, copies, (OffsettedItem) item,
+                    contents);
+        }
+
+        if (copies.isEmpty()) {
+            return;
+        }
+
+        for (Item item : classDefs.items()) {
+            for (EncodedMethod meth : ((ClassDefItem) item).getMethods()) {
+                OffsettedItem original = copies.get(meth.getCode());
+                if (original != null) {
+                    meth.setCode(original);
+                }
+            }
+        }
+
+        wordData.removeAll(copies);
+        byteData.removeAll(copies);
+    }
+
+    /**
+     * Helper for {@link #dedupItems}, which looks up the first item
+     * with the given contents, noting the item as a copy of it if there
+     * is one, or as the original if not.
+     *
+     * @param originals non-null; the first item with each contents
+     * @param copies non-null; the copies found so far, each mapped to
+     * its original
+     * @param item non-null; the item
+     * @param contents non-null; the item's contents
+     */
+    private static void findOriginal(
+            HashMap<ByteBuffer, OffsettedItem> originals,
+            IdentityHashMap<OffsettedItem, OffsettedItem> copies,
+            OffsettedItem item, byte[] contents) {
+        ByteBuffer key = ByteBuffer.wrap(contents);
+        OffsettedItem original = originals.get(key);
+
+        if (original == null) {
+            originals.put(key, item);
+        } else {
+            copies.put(item, original);
+        }
+    }
+
+    /**
+     * Helper for {@link #layout}, which finds the code, class data and
+     * strings used by the classes and methods of the startup profile,
+     * and has them placed first. The strings are the names of the
+     * listed classes and methods, along with the strings, types and
+     * members referred to by the code of the listed methods.
+     */
+    private void rankStartupItems() {
+        IdentityHashMap<OffsettedItem, Integer> codeRanks =
+            new IdentityHashMap<OffsettedItem, Integer>();
+        IdentityHashMap<OffsettedItem, Integer> classDataRanks =
+            new IdentityHashMap<OffsettedItem, Integer>();
+        IdentityHashMap<OffsettedItem, Integer> stringRanks =
+            new IdentityHashMap<OffsettedItem, Integer>();
+
+        for (Item item : classDefs.items()) {
+            ClassDefItem clazz = (ClassDefItem) item;
+            CstType thisClass = clazz.getThisClass();
+            String className = thisClass.getClassType().toHuman();
+            int classRank = startupProfile.getClassRank(className);
+
+            if (classRank < 0) {
+                // Methods are only listed along with their classes.
+                continue;
+            }
+
+            classDataRanks.put(clazz.getClassData(), classRank);
+            rankString(stringRanks, thisClass.getDescriptor(), classRank);
+
+            for (EncodedMethod meth : clazz.getMethods()) {
+                CstUtf8 name = meth.getName();
+                int rank =
+                    startupProfile.getMethodRank(className, name.getString());
+                OffsettedItem code = meth.getCode();
+
+                if (rank < 0) {
+                    continue;
+                }
+
+                rankString(stringRanks, name, rank);
+
+                if (code == null) {
+                    continue;
+                }
+
+                rankItem(codeRanks, code, rank);
+
+                if (code instanceof CodeItem) {
+                    for (Constant cst : ((CodeItem) code).getInsnConstants()) {
+                        rankStrings(stringRanks, cst, rank);
+                    }
+                }
+            }
+        }
+
+        wordData.setRanks(codeRanks);
+        classData.setRanks(classDataRanks);
+        stringData.setRanks(stringRanks);
+    }
+
+    /**
+     * Helper for {@link #rankStartupItems}, which ranks the strings
+     * that a constant used by code refers to.
+     *
+     * @param ranks non-null; the string ranks to add to
+     * @param cst non-null; the constant
+     * @param rank &gt;= 0; the rank
+     */
+    private void rankStrings(IdentityHashMap<OffsettedItem, Integer> ranks,
+            Constant cst, int rank) {
+        if (cst instanceof CstString) {
+            rankString(ranks, ((CstString) cst).getString(), rank);
+        } else if (cst instanceof CstType) {
+            rankString(ranks, ((CstType) cst).getDescriptor(), rank);
+        } else if (cst instanceof CstMemberRef) {
+            CstMemberRef ref = (CstMemberRef) cst;
+            rankString(ranks, ref.getDefiningClass().getDescriptor(), rank);
+            rankString(ranks, ref.getNat().getName(), rank);
+        }
+    }
+
+    /**
+     * Helper for {@link #rankStartupItems}, which ranks the data of
+     * a string.
+     *
+     * @param ranks non-null; the string ranks to add to
+     * @param string non-null; the string
+     * @param rank &gt;= 0; the rank
+     */
+    private void rankString(IdentityHashMap<OffsettedItem, Integer> ranks,
+            CstUtf8 string, int rank) {
+        StringIdItem id = (StringIdItem) stringIds.get(string);
+        rankItem(ranks, id.getData(), rank);
+    }
+
+    /**
+     * Helper for {@link #rankStartupItems}, which ranks an item, unless
+     * it already has a lower rank.
+     *
+     * @param ranks non-null; the ranks to add to
+     * @param item non-null; the item
+     * @param rank &gt;= 0; the rank
+     */
+    private static void rankItem(IdentityHashMap<OffsettedItem, Integer> ranks,
+            OffsettedItem item, int rank) {
+        Integer old = ranks.get(item);
+
+        if ((old == null) || (rank < old)) {
+            ranks.put(item, rank);
+        }
+    }
+
+    /**
+     * Writes out the sections, from the given one to the end of the
+     * file, padding with zeroes as needed to place each one.
+     *
+     * @param out non-null; where to write to; its cursor must be at
+     * or before the start of the first section to write
+     * @param first &gt;= 0; index of the first section to write
+     */
+    private void writeSections(AnnotatedOutput out, int first) {
+        int count = sections.length;
+
+        for (int i = first; i < count; i++) {
             try {
                 Section one = sections[i];
                 int zeroCount = one.getFileOffset() - out.getCursor();
@@ -567,20 +1129,38 @@ public final class DexFile {
         if (out.getCursor() != fileSize) {
             throw new RuntimeException("foreshortened write");
         }
+    }
 
-        // Perform final bookkeeping.
-        
-        calcSignature(barr);
-        calcChecksum(barr);
+    /**
+     * Writes out the header of the file, once it has been laid out,
+     * with the checksum and signature left zeroed.
+     *
+     * @return non-null; the header
+     */
+    private byte[] headerBytes() {
+        byte[] result = new byte[header.writeSize()];
 
-        if (annotate) {
-            wordData.writeIndexAnnotation(out, ItemType.TYPE_CODE_ITEM,
-                    "\nmethod code index:\n\n");
-            getStatistics().writeAnnotation(out);
-            out.finishAnnotating();
-        }
+        header.writeTo(new ByteArrayAnnotatedOutput(result));
+        return result;
+    }
 
-        return out;
+    /**
+     * Writes out the part of the file covered by the signature, that
+     * is, all of it past the first 32 bytes.
+     *
+     * @param out non-null; where to write to
+     * @param headerBytes non-null; the header, as returned by {@link
+     * #headerBytes}
+     */
+    private void writeSigned(OutputStream out, byte[] headerBytes)
+            throws IOException {
+        int headerSize = headerBytes.length;
+        StreamingAnnotatedOutput sectionsOut =
+            new StreamingAnnotatedOutput(out, headerSize);
+
+        out.write(headerBytes, 32, headerSize - 32);
+        writeSections(sectionsOut, 1);
+        sectionsOut.flush();
     }
 
     /**
@@ -644,4 +1224,119 @@ public final class DexFile {
         bytes[10] = (byte) (sum >> 16);
         bytes[11] = (byte) (sum >> 24);
     }
+
+    /**
+     * Incremental calculation of the signature and checksum of a
+     * <code>.dex</code> file, as it is written past the first 32 bytes.
+     * The checksum also covers the signature, which isn't known until
+     * the end, so the checksum of what's written is computed on its own
+     * and combined with that of the signature afterwards.
+     */
+    private static final class Signer {
+        /** the modulus of Adler-32 */
+        private static final int ADLER_BASE = 65521;
+
+        /** non-null; digest of what has been written */
+        private final MessageDigest digest;
+
+        /** non-null; checksum of what has been written */
+        private final Adler32 checksum;
+
+        /**
+         * Constructs an instance.
+         */
+        public Signer() {
+            try {
+                digest = MessageDigest.getInstance("SHA-1");
+            } catch (NoSuchAlgorithmException ex) {
+                throw new RuntimeException(ex);
+            }
+
+            checksum = new Adler32();
+        }
+
+        /**
+         * Wraps a stream so that what's written to it is signed.
+         *
+         * @param out non-null; the stream
+         * @return non-null; the wrapped stream
+         */
+        public OutputStream wrap(OutputStream out) {
+            return new CheckedOutputStream(new DigestOutputStream(out, digest),
+                    checksum);
+        }
+
+        /**
+         * Fills in the signature and checksum in the given header, once
+         * everything after the first 32 bytes of the file has been
+         * written.
+         *
+         * @param header non-null; the header
+         * @param fileSize &gt;= 32; total size of the file
+         */
+        public void sign(byte[] header, int fileSize) {
+            try {
+                int amt = digest.digest(header, 12, 20);
+                if (amt != 20) {
+                    throw new RuntimeException("unexpected digest write: " +
+                            amt + " bytes");
+                }
+            } catch (DigestException ex) {
+                throw new RuntimeException(ex);
+            }
+
+            Adler32 a32 = new Adler32();
+            a32.update(header, 12, 20);
+
+            int sum = combine(a32.getValue(), checksum.getValue(),
+                    fileSize - 32);
+
+            header[8]  = (byte) sum;
+            header[9]  = (byte) (sum >> 8);
+            header[10] = (byte) (sum >> 16);
+            header[11] = (byte) (sum >> 24);
+        }
+
+        /**
+         * Combines the Adler-32 checksums of two consecutive pieces of
+         * data into the checksum of both together, in the manner of
+         * zlib's <code>adler32_combine()</code>.
+         *
+         * @param adler1 checksum of the first piece
+         * @param adler2 checksum of the second piece
+         * @param len2 &gt;= 0; length of the second piece
+         * @return the checksum of both pieces
+         */
+        private static int combine(long adler1, long adler2, int len2) {
+            long rem = len2 % ADLER_BASE;
+            long sum1 = adler1 & 0xffff;
+            long sum2 = (rem * sum1) % ADLER_BASE;
+
+            sum1 += (adler2 & 0xffff) + ADLER_BASE - 1;
+            sum2 += ((adler1 >> 16) & 0xffff) + ((adler2 >> 16) & 0xffff)
+                + ADLER_BASE - rem;
+
+            sum1 %= ADLER_BASE;
+            sum2 %= ADLER_BASE;
+
+            return (int) ((sum2 << 16) | sum1);
+        }
+    }
+
+    /**
+     * Stream which throws away everything written to it.
+     */
+    private static final class NullOutputStream extends OutputStream {
+        /** {@inheritDoc} */
+        @Override
+        public void write(int b) {
+            // This space intentionally left blank.
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public void write(byte[] b, int off, int len) {
+            // This space intentionally left blank.
+        }
+    }
 }
@@ -37,9 +37,10 @@ public final class EncodedMethod extends EncodedMember
 
     /**
      * null-ok; code for the method, if the method is neither
-     * <code>abstract</code> nor <code>native</code> 
+     * <code>abstract</code> nor <code>native</code>; either a
+     * {@link CodeItem} or a {@link PrebuiltCodeItem}
      */
-    private final CodeItem code;
+    private OffsettedItem code;
 
     /**
      * Constructs an instance.
@@ -69,6 +70,26 @@ public final class EncodedMethod extends EncodedMember
         }
     }
 
+    /**
+     * Constructs an instance whose code has already been translated.
+     * 
+     * @param method non-null; constant for the method
+     * @param accessFlags access flags
+     * @param code null-ok; code for the method, if it is neither
+     * <code>abstract</code> nor <code>native</code>
+     */
+    public EncodedMethod(CstMethodRef method, int accessFlags,
+            PrebuiltCodeItem code) {
+        super(accessFlags);
+
+        if (method == null) {
+            throw new NullPointerException("method == null");
+        }
+
+        this.method = method;
+        this.code = code;
+    }
+
     /** {@inheritDoc} */
     public boolean equals(Object other) {
         if (! (other instanceof EncodedMethod)) {
@@ -140,8 +161,10 @@ public final class EncodedMethod extends EncodedMember
     public void debugPrint(PrintWriter out, boolean verbose) {
         if (code == null) {
             out.println(getRef().toHuman() + ": abstract or native");
+        } else if (code instanceof PrebuiltCodeItem) {
+            ((PrebuiltCodeItem) code).debugPrint(out, "  ", verbose);
         } else {
-            code.debugPrint(out, "  ", verbose);
+            ((CodeItem) code).debugPrint(out, "  ", verbose);
         }
     }
 
@@ -154,6 +177,30 @@ public final class EncodedMethod extends EncodedMember
         return method;
     }
 
+    /**
+     * Gets the code of the method.
+     *
+     * @return null-ok; the code, or <code>null</code> if the method is
+     * abstract or native
+     */
+    /*package*/ OffsettedItem getCode() {
+        return code;
+    }
+
+    /**
+     * Replaces the code of the method with an identical copy, so that
+     * the one copy may be shared.
+     *
+     * @param code non-null; the replacement code
+     */
+    /*package*/ void setCode(OffsettedItem code) {
+        if (code == null) {
+            throw new NullPointerException("code == null");
+        }
+
+        this.code = code;
+    }
+
     /** {@inheritDoc} */
     @Override
     public int encode(DexFile file, AnnotatedOutput out, 
@@ -69,6 +69,16 @@ public final class MixedItemSection extends Section {
     /** non-null; how to sort the items */
     private final SortType sort;
 
+    /**
+     * null-ok; items to place ahead of the others of their type, mapped
+     * to their ranks (lowest first), or <code>null</code> if there are
+     * none
+     */
+    private Map<OffsettedItem, Integer> ranks;
+
+    /** whether the items are already in the order they are placed in */
+    private boolean sorted;
+
     /**
      * &gt;= -1; the current size of this part, in bytes, or <code>-1</code>
      * if not yet calculated
@@ -283,16 +293,68 @@ public final class MixedItemSection extends Section {
     }
 
     /**
-     * Places all the items in this instance at particular offsets. This
-     * will call {@link OffsettedItem#place} on each item. If an item
-     * does not know its write size before the call to <code>place</code>,
-     * it is that call which is responsible for setting the write size.
-     * This method may only be called once per instance; subsequent calls
-     * will throw an exception.
+     * Removes the given copies from this instance, in favor of their
+     * originals. If a removed item is ranked (see {@link #setRanks}),
+     * its original takes over its rank, unless it already has a lower
+     * one. This may only be called before the items are placed.
+     *
+     * @param copies non-null; the items to remove, each mapped to the
+     * item that replaces it; it is expected to compare by identity
      */
-    public void placeItems() {
+    /*package*/ void removeAll(Map<OffsettedItem, OffsettedItem> copies) {
+        ArrayList<OffsettedItem> kept =
+            new ArrayList<OffsettedItem>(items.size());
+
+        for (OffsettedItem item : items) {
+            OffsettedItem original = copies.get(item);
+
+            if (original == null) {
+                kept.add(item);
+            } else if (ranks != null) {
+                Integer rank = ranks.get(item);
+
+                if ((rank != null) && (rank < rankOf(original))) {
+                    ranks.put(original, rank);
+                }
+            }
+        }
+
+        items.clear();
+        items.addAll(kept);
+    }
+
+    /**
+     * Sets the items of this instance that are to be placed ahead of
+     * all the other items of their type. Their order among themselves is
+     * given by their ranks, lowest first; the other items keep the order
+     * they would otherwise have. This may only be called before the items
+     * are placed.
+     *
+     * @param ranks non-null; the items to place first, mapped to their
+     * ranks; it is compared by identity, and is updated by {@link
+     * #removeAll}
+     */
+    /*package*/ void setRanks(Map<OffsettedItem, Integer> ranks) {
+        if (ranks == null) {
+            throw new NullPointerException("ranks == null");
+        }
+
+        this.ranks = ranks;
+    }
+
+    /**
+     * Sorts the items of this instance into the order they are placed
+     * in, if that hasn't already been done. This is called by {@link
+     * #placeItems}, but may be called ahead of it, once the items and
+     * their ranks are final.
+     */
+    /*package*/ void sortItems() {
         throwIfNotPrepared();
 
+        if (sorted) {
+            return;
+        }
+
         switch (sort) {
             case INSTANCE: {
                 Collections.sort(items);
@@ -304,6 +366,42 @@ public final class MixedItemSection extends Section {
             }
         }
 
+        if (ranks != null) {
+            /*
+             * The sort is stable, so this only moves ranked items
+             * ahead. Types are kept together regardless, since the map
+             * describes each type as a single run of items.
+             */
+            Collections.sort(items, new Comparator<OffsettedItem>() {
+                public int compare(OffsettedItem item1,
+                        OffsettedItem item2) {
+                    if (sort != SortType.NONE) {
+                        int result = TYPE_SORTER.compare(item1, item2);
+                        if (result != 0) {
+                            return result;
+                        }
+                    }
+
+                    return rankOf(item1) - rankOf(item2);
+                }
+            });
+        }
+
+        sorted = true;
+    }
+
+    /**
+     * Places all the items in this instance at particular offsets. This
+     * will call {@link OffsettedItem#place} on each item. If an item
+     * does not know its write size before the call to <code>place</code>,
+     * it is that call which is responsible for setting the write size.
+     * This method may only be called once per instance; subsequent calls
+     * will throw an exception.
+     */
+    public void placeItems() {
+        throwIfNotPrepared();
+        sortItems();
+
         int sz = items.size();
         int outAt = 0;
         for (int i = 0; i < sz; i++) {
@@ -326,6 +424,18 @@ public final class MixedItemSection extends Section {
         writeSize = outAt;
     }
 
+    /**
+     * Helper for {@link #placeItems}, which gets the rank of an item,
+     * placing unranked items last.
+     *
+     * @param item non-null; the item
+     * @return &gt;= 0; the rank
+     */
+    private int rankOf(OffsettedItem item) {
+        Integer rank = ranks.get(item);
+        return (rank == null) ? Integer.MAX_VALUE : rank;
+    }
+
     /** {@inheritDoc} */
     @Override
     protected void writeTo0(AnnotatedOutput out) {
@@ -0,0 +1,391 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.dex.file;
+
+import com.android.dx.dex.code.CatchHandlerList;
+import com.android.dx.dex.code.CatchTable;
+import com.android.dx.dex.code.DalvOps;
+import com.android.dx.rop.cst.Constant;
+import com.android.dx.rop.cst.CstMethodRef;
+import com.android.dx.util.AnnotatedOutput;
+import com.android.dx.util.ByteArrayAnnotatedOutput;
+import com.android.dx.util.ExceptionWithContext;
+import com.android.dx.util.Hex;
+
+import java.io.PrintWriter;
+
+/**
+ * Code for a method that has already been translated, as read from an
+ * existing <code>dex</code> file. The bytecode is kept as-is, except
+ * that the constant pool indices in it are rewritten to refer to the
+ * file being written. Since that is done in place, it only works so
+ * long as each index still fits in its instruction; in particular, a
+ * <code>const-string</code> can't refer to a string past the first
+ * 65536 of the file being written.
+ */
+public final class PrebuiltCodeItem extends OffsettedItem {
+    /** file alignment of this class, in bytes */
+    private static final int ALIGNMENT = 4;
+
+    /** write size of the header of this class, in bytes */
+    private static final int HEADER_SIZE = 16;
+
+    /** non-null; method that this code implements */
+    private final CstMethodRef ref;
+
+    /** total number of registers used */
+    private final int registersSize;
+
+    /** number of registers used for the method's arguments */
+    private final int insSize;
+
+    /** number of argument registers needed for calls made by the code */
+    private final int outsSize;
+
+    /** non-null; the bytecode, as originally encoded */
+    private final short[] insns;
+
+    /**
+     * non-null; addresses (in code units) of the instructions which
+     * refer to constants
+     */
+    private final int[] constantAddresses;
+
+    /**
+     * non-null; constants referred to by the instructions at the
+     * corresponding {@link #constantAddresses}
+     */
+    private final Constant[] constants;
+
+    /** non-null; the catch table */
+    private final CatchTable catchTable;
+
+    /** null-ok; the catches, if needed; set in {@link #addContents} */
+    private CatchStructs catches;
+
+    /** null-ok; the debug info or <code>null</code> if there is none */
+    private PrebuiltDebugInfoItem debugInfo;
+
+    /**
+     * null-ok; the bytecode with its indices rewritten; set in
+     * {@link #place0}
+     */
+    private short[] rewrittenInsns;
+
+    /**
+     * Constructs an instance.
+     *
+     * @param ref non-null; method that this code implements
+     * @param registersSize total number of registers used
+     * @param insSize number of registers used for the arguments
+     * @param outsSize number of argument registers needed for calls
+     * @param insns non-null; the bytecode
+     * @param constantAddresses non-null; addresses (in code units) of
+     * the instructions which refer to constants
+     * @param constants non-null; constants referred to by the
+     * instructions at the corresponding addresses
+     * @param catchTable non-null; the catch table
+     * @param debugInfo null-ok; the debug info, if any
+     */
+    public PrebuiltCodeItem(CstMethodRef ref, int registersSize, int insSize,
+            int outsSize, short[] insns, int[] constantAddresses,
+            Constant[] constants, CatchTable catchTable,
+            PrebuiltDebugInfoItem debugInfo) {
+        super(ALIGNMENT, -1);
+
+        if (ref == null) {
+            throw new NullPointerException("ref == null");
+        }
+
+        if (insns == null) {
+            throw new NullPointerException("insns == null");
+        }
+
+        if (constantAddresses.length != constants.length) {
+            throw new IllegalArgumentException("constant array size mismatch");
+        }
+
+        if (catchTable == null) {
+            throw new NullPointerException("catchTable == null");
+        }
+
+        this.ref = ref;
+        this.registersSize = registersSize;
+        this.insSize = insSize;
+        this.outsSize = outsSize;
+        this.insns = insns;
+        this.constantAddresses = constantAddresses;
+        this.constants = constants;
+        this.catchTable = catchTable;
+        this.catches = null;
+        this.debugInfo = debugInfo;
+        this.rewrittenInsns = null;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public ItemType itemType() {
+        return ItemType.TYPE_CODE_ITEM;
+    }
+
+    /** {@inheritDoc} */
+    public void addContents(DexFile file) {
+        MixedItemSection byteData = file.getByteData();
+        TypeIdsSection typeIds = file.getTypeIds();
+
+        if (debugInfo != null) {
+            byteData.add(debugInfo);
+        }
+
+        int size = catchTable.size();
+        if (size != 0) {
+            for (int i = 0; i < size; i++) {
+                CatchHandlerList handlers = catchTable.get(i).getHandlers();
+                int handlersSize = handlers.size();
+                for (int j = 0; j < handlersSize; j++) {
+                    typeIds.intern(handlers.get(j).getExceptionType());
+                }
+            }
+            catches = new CatchStructs(catchTable);
+        }
+
+        for (Constant c : constants) {
+            file.internIfAppropriate(c);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString() {
+        return "PrebuiltCodeItem{" + toHuman() + "}";
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toHuman() {
+        return ref.toHuman();
+    }
+
+    /**
+     * Gets the reference to the method this instance implements.
+     *
+     * @return non-null; the method reference
+     */
+    public CstMethodRef getRef() {
+        return ref;
+    }
+
+    /**
+     * Gets the debug info of this instance.
+     *
+     * @return null-ok; the debug info, or <code>null</code> if there
+     * is none
+     */
+    /*package*/ PrebuiltDebugInfoItem getDebugInfo() {
+        return debugInfo;
+    }
+
+    /**
+     * Replaces the debug info of this instance with an identical
+     * copy, so that the one copy may be shared.
+     *
+     * @param debugInfo non-null; the replacement debug info
+     */
+    /*package*/ void setDebugInfo(PrebuiltDebugInfoItem debugInfo) {
+        if (debugInfo == null) {
+            throw new NullPointerException("debugInfo == null");
+        }
+
+        this.debugInfo = debugInfo;
+    }
+
+    /**
+     * Gets the contents of this instance, as they will be written,
+     * except that the debug info offset is left zero. Two instances
+     * with the same contents and the same debug info are
+     * interchangeable.
+     *
+     * @param file non-null; file this instance is part of
+     * @return non-null; the contents
+     */
+    /*package*/ byte[] getContents(DexFile file) {
+        ByteArrayAnnotatedOutput out = new ByteArrayAnnotatedOutput();
+
+        encode(file);
+        writeTo0(file, out, 0);
+        return out.toByteArray();
+    }
+
+    /**
+     * Does a human-friendly dump of this instance.
+     *
+     * @param out non-null; where to dump
+     * @param prefix non-null; per-line prefix to use
+     * @param verbose whether to be verbose with the output
+     */
+    public void debugPrint(PrintWriter out, String prefix, boolean verbose) {
+        out.println(ref.toHuman() + ":");
+        out.println("regs: " + Hex.u2(registersSize) +
+                "; ins: " + Hex.u2(insSize) + "; outs: " +
+                Hex.u2(outsSize));
+        out.print(prefix);
+        out.println("prebuilt; " + insns.length + " code units");
+
+        String prefix2 = prefix + "  ";
+
+        if (catches != null) {
+            out.print(prefix);
+            out.println("catches");
+            catches.debugPrint(out, prefix2);
+        }
+
+        if (debugInfo != null) {
+            out.print(prefix);
+            out.println("debug info");
+            debugInfo.debugPrint(out, prefix2);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void place0(Section addedTo, int offset) {
+        int catchesSize;
+
+        encode(addedTo.getFile());
+
+        if (catches != null) {
+            catchesSize = catches.writeSize();
+        } else {
+            catchesSize = 0;
+        }
+
+        int insnsSize = insns.length;
+        if ((insnsSize & 1) != 0) {
+            insnsSize++;
+        }
+
+        setWriteSize(HEADER_SIZE + (insnsSize * 2) + catchesSize);
+    }
+
+    /**
+     * Helper for {@link #place0} and {@link #getContents}, which
+     * rewrites the bytecode and encodes the catches, so that the final
+     * form of the code is known.
+     *
+     * @param file non-null; file this instance is part of
+     */
+    private void encode(DexFile file) {
+        try {
+            rewrittenInsns = rewriteIndices(file);
+        } catch (RuntimeException ex) {
+            throw ExceptionWithContext.withContext(ex, "...while placing " +
+                    "instructions for " + ref.toHuman());
+        }
+
+        if (catches != null) {
+            catches.encode(file);
+        }
+    }
+
+    /**
+     * Helper for {@link #encode} which makes a copy of the bytecode
+     * with the indices of all the constants rewritten.
+     *
+     * @param file non-null; file we are part of
+     * @return non-null; the rewritten bytecode
+     */
+    private short[] rewriteIndices(DexFile file) {
+        short[] result = insns.clone();
+
+        for (int i = 0; i < constants.length; i++) {
+            int address = constantAddresses[i];
+            int index = file.findItemOrNull(constants[i]).getIndex();
+            int opcode = insns[address] & 0xff;
+
+            if (opcode == DalvOps.CONST_STRING_JUMBO) {
+                result[address + 1] = (short) index;
+                result[address + 2] = (short) (index >>> 16);
+            } else if (index > 0xffff) {
+                throw new UnsupportedOperationException("index " +
+                        Hex.u4(index) + " for " + constants[i].toHuman() +
+                        " doesn't fit in instruction at " + Hex.u4(address));
+            } else {
+                result[address + 1] = (short) index;
+            }
+        }
+
+        return result;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void writeTo0(DexFile file, AnnotatedOutput out) {
+        int debugOff = (debugInfo == null) ? 0 : debugInfo.getAbsoluteOffset();
+
+        writeTo0(file, out, debugOff);
+    }
+
+    /**
+     * Helper for {@link #writeTo0(DexFile,AnnotatedOutput)} and
+     * {@link #getContents}, which writes this instance with the given
+     * debug info offset.
+     *
+     * @param file non-null; file we are part of
+     * @param out non-null; where to write to
+     * @param debugOff &gt;= 0; offset of the debug info, or
+     * <code>0</code> if there is none
+     */
+    private void writeTo0(DexFile file, AnnotatedOutput out, int debugOff) {
+        boolean annotates = out.annotates();
+        int insnsSz = insns.length;
+        boolean needPadding = (insnsSz & 1) != 0;
+        int triesSz = (catches == null) ? 0 : catches.triesSize();
+
+        if (annotates) {
+            out.annotate(0, offsetString() + ' ' + ref.toHuman());
+            out.annotate(2, "  registers_size: " + Hex.u2(registersSize));
+            out.annotate(2, "  ins_size:       " + Hex.u2(insSize));
+            out.annotate(2, "  outs_size:      " + Hex.u2(outsSize));
+            out.annotate(2, "  tries_size:     " + Hex.u2(triesSz));
+            out.annotate(4, "  debug_off:      " + Hex.u4(debugOff));
+            out.annotate(4, "  insns_size:     " + Hex.u4(insnsSz));
+            out.annotate(insnsSz * 2, "  insns: (prebuilt)");
+        }
+
+        out.writeShort(registersSize);
+        out.writeShort(insSize);
+        out.writeShort(outsSize);
+        out.writeShort(triesSz);
+        out.writeInt(debugOff);
+        out.writeInt(insnsSz);
+
+        for (short unit : rewrittenInsns) {
+            out.writeShort(unit);
+        }
+
+        if (catches != null) {
+            if (needPadding) {
+                if (annotates) {
+                    out.annotate(2, "  padding: 0");
+                }
+                out.writeShort(0);
+            }
+
+            catches.writeTo(file, out);
+        }
+    }
+}
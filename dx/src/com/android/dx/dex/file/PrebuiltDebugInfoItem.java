@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.dex.file;
+
+import com.android.dx.rop.cst.Constant;
+import com.android.dx.rop.cst.CstMethodRef;
+import com.android.dx.rop.cst.CstType;
+import com.android.dx.rop.cst.CstUtf8;
+import com.android.dx.util.AnnotatedOutput;
+import com.android.dx.util.ByteArrayAnnotatedOutput;
+import com.android.dx.util.ExceptionWithContext;
+
+import java.io.PrintWriter;
+
+/**
+ * Debug info that has already been encoded, as read from an existing
+ * <code>dex</code> file. The state machine bytecode is kept as-is,
+ * except that the string and type indices in it (each encoded as a
+ * <code>uleb128p1</code>) are rewritten to refer to the file being
+ * written, which may change their encoded sizes.
+ */
+public final class PrebuiltDebugInfoItem extends OffsettedItem {
+    /** the required alignment for instances of this class */
+    private static final int ALIGNMENT = 1;
+
+    /** non-null; method the debug info is for */
+    private final CstMethodRef ref;
+
+    /** non-null; the debug info, as originally encoded */
+    private final byte[] bytes;
+
+    /** non-null; offsets into {@link #bytes} of the indices to rewrite */
+    private final int[] indexOffsets;
+
+    /** non-null; original encoded sizes of the indices to rewrite */
+    private final int[] indexSizes;
+
+    /**
+     * non-null; constants the indices refer to; each is either a
+     * {@link CstUtf8} or a {@link CstType}
+     */
+    private final Constant[] indexConstants;
+
+    /** null-ok; the rewritten encoding; set in {@link #place0} */
+    private byte[] encoded;
+
+    /**
+     * Constructs an instance.
+     *
+     * @param ref non-null; method the debug info is for
+     * @param bytes non-null; the debug info, as originally encoded
+     * @param indexOffsets non-null; offsets into <code>bytes</code> of the
+     * indices to rewrite, in increasing order
+     * @param indexSizes non-null; original encoded sizes of the indices
+     * to rewrite
+     * @param indexConstants non-null; constants the indices refer to;
+     * each must be either a {@link CstUtf8} or a {@link CstType}
+     */
+    public PrebuiltDebugInfoItem(CstMethodRef ref, byte[] bytes,
+            int[] indexOffsets, int[] indexSizes, Constant[] indexConstants) {
+        super(ALIGNMENT, -1);
+
+        if (ref == null) {
+            throw new NullPointerException("ref == null");
+        }
+
+        if (bytes == null) {
+            throw new NullPointerException("bytes == null");
+        }
+
+        if ((indexOffsets.length != indexSizes.length) ||
+                (indexOffsets.length != indexConstants.length)) {
+            throw new IllegalArgumentException("index array size mismatch");
+        }
+
+        this.ref = ref;
+        this.bytes = bytes;
+        this.indexOffsets = indexOffsets;
+        this.indexSizes = indexSizes;
+        this.indexConstants = indexConstants;
+        this.encoded = null;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public ItemType itemType() {
+        return ItemType.TYPE_DEBUG_INFO_ITEM;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void addContents(DexFile file) {
+        StringIdsSection stringIds = file.getStringIds();
+        TypeIdsSection typeIds = file.getTypeIds();
+
+        for (Constant cst : indexConstants) {
+            if (cst instanceof CstUtf8) {
+                stringIds.intern((CstUtf8) cst);
+            } else {
+                typeIds.intern((CstType) cst);
+            }
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void place0(Section addedTo, int offset) {
+        encoded = getContents(addedTo.getFile());
+        setWriteSize(encoded.length);
+    }
+
+    /**
+     * Gets the contents of this instance, as they will be written.
+     *
+     * @param file non-null; file this instance is part of
+     * @return non-null; the contents
+     */
+    /*package*/ byte[] getContents(DexFile file) {
+        ByteArrayAnnotatedOutput out = new ByteArrayAnnotatedOutput();
+        int at = 0;
+
+        try {
+            for (int i = 0; i < indexOffsets.length; i++) {
+                Constant cst = indexConstants[i];
+                int index;
+
+                if (cst instanceof CstUtf8) {
+                    index = file.getStringIds().indexOf((CstUtf8) cst);
+                } else {
+                    index = file.getTypeIds().indexOf((CstType) cst);
+                }
+
+                out.write(bytes, at, indexOffsets[i] - at);
+                out.writeUnsignedLeb128(index + 1);
+                at = indexOffsets[i] + indexSizes[i];
+            }
+        } catch (RuntimeException ex) {
+            throw ExceptionWithContext.withContext(ex,
+                    "...while placing debug info for " + ref.toHuman());
+        }
+
+        out.write(bytes, at, bytes.length - at);
+        return out.toByteArray();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toHuman() {
+        throw new RuntimeException("unsupported");
+    }
+
+    /**
+     * Does a human-friendly dump of this instance.
+     *
+     * @param out non-null; where to dump
+     * @param prefix non-null; prefix to attach to each line of output
+     */
+    public void debugPrint(PrintWriter out, String prefix) {
+        out.println(prefix + "prebuilt; " + bytes.length + " bytes");
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void writeTo0(DexFile file, AnnotatedOutput out) {
+        if (out.annotates()) {
+            out.annotate(encoded.length, offsetString() +
+                    " debug info (prebuilt) for " + ref.toHuman());
+        }
+
+        out.write(encoded);
+    }
+}
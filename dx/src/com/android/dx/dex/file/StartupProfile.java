@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.dex.file;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.HashMap;
+
+/**
+ * List of the classes and methods used while an application starts
+ * up, in the order they are first used. A {@link DexFile} given one of
+ * these places the code, class data and strings of the listed entries
+ * ahead of everything else in their sections, so that starting up
+ * touches as few pages of the file as possible.
+ *
+ * <p>The list is read from a text file with one entry per line. A
+ * class is named in human form (<code>com.example.Foo</code>), and a
+ * method by its class and name (<code>com.example.Foo.bar</code>),
+ * which covers all overloads. Since method traces tend to be written in
+ * other forms, class descriptors (<code>Lcom/example/Foo;</code>),
+ * internal names (<code>com/example/Foo</code>), <code>-&gt;</code>
+ * between class and method, and a trailing method descriptor are all
+ * accepted as well. Blank lines, and everything from a <code>#</code>
+ * on, are ignored.</p>
+ */
+public final class StartupProfile {
+    /** non-null; the rank of each entry, keyed by normalized name */
+    private final HashMap<String, Integer> ranks;
+
+    /**
+     * Reads a profile from a file.
+     *
+     * @param fileName non-null; name of the file
+     * @return non-null; the profile
+     */
+    public static StartupProfile read(String fileName) throws IOException {
+        StartupProfile result = new StartupProfile();
+        BufferedReader in = new BufferedReader(new FileReader(fileName));
+
+        try {
+            for (;;) {
+                String line = in.readLine();
+
+                if (line == null) {
+                    break;
+                }
+
+                result.add(line);
+            }
+        } finally {
+            in.close();
+        }
+
+        return result;
+    }
+
+    /**
+     * Constructs an empty instance.
+     */
+    public StartupProfile() {
+        ranks = new HashMap<String, Integer>();
+    }
+
+    /**
+     * Adds an entry, ranked after all the entries already added. Adding
+     * an entry that is already present has no effect. A method's class
+     * is implicitly added along with it.
+     *
+     * @param entry non-null; the entry, in any of the forms accepted
+     * in files
+     */
+    public void add(String entry) {
+        int comment = entry.indexOf('#');
+
+        if (comment >= 0) {
+            entry = entry.substring(0, comment);
+        }
+
+        entry = entry.trim();
+
+        if (entry.length() == 0) {
+            return;
+        }
+
+        int paren = entry.indexOf('(');
+
+        if (paren >= 0) {
+            entry = entry.substring(0, paren);
+        }
+
+        int arrow = entry.indexOf("->");
+        String className = (arrow >= 0) ? entry.substring(0, arrow) : entry;
+        String memberName = (arrow >= 0) ? entry.substring(arrow + 2) : null;
+
+        if (className.startsWith("L") && className.endsWith(";")) {
+            className = className.substring(1, className.length() - 1);
+        }
+
+        className = className.replace('/', '.');
+
+        if (memberName != null) {
+            addName(className);
+            addName(className + "." + memberName);
+        } else {
+            int lastDot = className.lastIndexOf('.');
+
+            /*
+             * Without an arrow, there's no telling whether the last
+             * component names a class or a method, so the entry goes
+             * in as both.
+             */
+            if (lastDot > 0) {
+                addName(className.substring(0, lastDot));
+            }
+            addName(className);
+        }
+    }
+
+    /**
+     * Gets the number of distinct names in this instance.
+     *
+     * @return &gt;= 0; the size
+     */
+    public int size() {
+        return ranks.size();
+    }
+
+    /**
+     * Gets the rank of a class, that is, the position of its first
+     * appearance in the list.
+     *
+     * @param className non-null; the class name, in human form
+     * @return the rank, or <code>-1</code> if the class isn't listed
+     */
+    public int getClassRank(String className) {
+        Integer rank = ranks.get(className);
+        return (rank == null) ? -1 : rank;
+    }
+
+    /**
+     * Gets the rank of a method, that is, the position of its first
+     * appearance in the list.
+     *
+     * @param className non-null; the class name, in human form
+     * @param methodName non-null; the method name
+     * @return the rank, or <code>-1</code> if the method isn't listed
+     */
+    public int getMethodRank(String className, String methodName) {
+        Integer rank = ranks.get(className + "." + methodName);
+        return (rank == null) ? -1 : rank;
+    }
+
+    /**
+     * Adds a name, if it isn't already present.
+     *
+     * @param name non-null; the normalized name
+     */
+    private void addName(String name) {
+        if (!ranks.containsKey(name)) {
+            ranks.put(name, ranks.size());
+        }
+    }
+}
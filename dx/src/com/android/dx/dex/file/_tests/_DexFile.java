@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.dex.file._tests;
+
+import com.android.dx.dex.cf.CfOptions;
+import com.android.dx.dex.cf.CfTranslator;
+import com.android.dx.dex.code.PositionList;
+import com.android.dx.dex.file.DexFile;
+import com.android.dx.dex.file.StartupProfile;
+import com.android.dx.merge.DexBuffer;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Test the layout options of the class
+ * <code>com.android.dx.dex.file.DexFile</code>, each combined with the
+ * others, over a few classes of dx itself.
+ */
+public class _DexFile
+    extends TestCase {
+    /**
+     * non-null; classes to translate; all but the first have the same
+     * trivial constructor, which comes out as the same code
+     */
+    private static final String[] CLASSES = {
+        "com/android/dx/util/IntList",
+        "com/android/dx/util/Hex",
+        "com/android/dx/util/HexParser",
+        "com/android/dx/util/Bits"
+    };
+
+    /** non-null; the profile; it names the last class's constructor */
+    private static final String PROFILE =
+        "Lcom/android/dx/util/Bits;-><init>()V";
+
+    public void test_dedupWithStartupProfile() throws IOException {
+        byte[] dex = build(true, 1, true);
+        DexBuffer buffer = new DexBuffer(dex);
+
+        int hexInit = findInitCode(buffer, "Lcom/android/dx/util/Hex;");
+        int bitsInit = findInitCode(buffer, "Lcom/android/dx/util/Bits;");
+
+        // The copy was ranked; its original takes its place.
+        assertEquals(hexInit, bitsInit);
+        assertEquals(findFirstCode(buffer), bitsInit);
+        assertTrue(dex.length < build(false, 1, true).length);
+    }
+
+    public void test_threadsWithStartupProfile() throws IOException {
+        byte[] dex = build(false, 4, true);
+
+        assertTrue(Arrays.equals(build(false, 1, true), dex));
+        assertEquals(findFirstCode(new DexBuffer(dex)),
+                findInitCode(new DexBuffer(dex),
+                        "Lcom/android/dx/util/Bits;"));
+    }
+
+    public void test_threadsWithDedupAndStartupProfile() throws IOException {
+        assertTrue(Arrays.equals(build(true, 1, true), build(true, 4, true)));
+    }
+
+    /**
+     * Builds a dex file of {@link #CLASSES}.
+     *
+     * @param dedup whether to share identical items
+     * @param numThreads &gt;= 1; the number of threads to lay it out with
+     * @param profile whether to use {@link #PROFILE}
+     * @return non-null; the file
+     */
+    private static byte[] build(boolean dedup, int numThreads,
+            boolean profile) throws IOException {
+        CfOptions options = new CfOptions();
+        options.positionInfo = PositionList.NONE;
+
+        DexFile file = new DexFile();
+
+        for (String name : CLASSES) {
+            String path = name + ".class";
+            file.add(CfTranslator.translate(path, readResource("/" + path),
+                            options));
+        }
+
+        file.setDedup(dedup);
+        file.setNumThreads(numThreads);
+
+        if (profile) {
+            StartupProfile startupProfile = new StartupProfile();
+            startupProfile.add(PROFILE);
+            file.setStartupProfile(startupProfile);
+        }
+
+        return file.toDex(null, false);
+    }
+
+    /**
+     * Finds the offset of the code of a class's constructor.
+     *
+     * @param buffer non-null; the file
+     * @param descriptor non-null; the class
+     * @return the offset
+     */
+    private static int findInitCode(DexBuffer buffer, String descriptor) {
+        DexBuffer.ClassData data = buffer.newClassData();
+
+        for (int i = 0; i < buffer.getClassCount(); i++) {
+            int type = buffer.getClassTypeIndex(i);
+            if (!buffer.getString(buffer.getTypeDescriptorIndex(type))
+                    .equals(descriptor)) {
+                continue;
+            }
+
+            data.reset(buffer.getClassDataOffset(i));
+            while (data.next()) {
+                if (data.isMethod() && buffer.getString(
+                        buffer.getMethodNameIndex(data.getMemberIndex()))
+                        .equals("<init>")) {
+                    return data.getCodeOffset();
+                }
+            }
+        }
+
+        fail("no constructor for " + descriptor);
+        return 0;
+    }
+
+    /**
+     * Finds the offset of the first code item of a file.
+     *
+     * @param buffer non-null; the file
+     * @return the offset
+     */
+    private static int findFirstCode(DexBuffer buffer) {
+        DexBuffer.ClassData data = buffer.newClassData();
+        int first = Integer.MAX_VALUE;
+
+        for (int i = 0; i < buffer.getClassCount(); i++) {
+            data.reset(buffer.getClassDataOffset(i));
+            while (data.next()) {
+                int offset = data.getCodeOffset();
+                if ((offset != 0) && (offset < first)) {
+                    first = offset;
+                }
+            }
+        }
+
+        return first;
+    }
+
+    /**
+     * Reads a class file from the class path.
+     */
+    private static byte[] readResource(String name) throws IOException {
+        InputStream in = _DexFile.class.getResourceAsStream(name);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+
+        try {
+            for (;;) {
+                int count = in.read(buf);
+                if (count < 0) {
+                    break;
+                }
+                out.write(buf, 0, count);
+            }
+        } finally {
+            in.close();
+        }
+
+        return out.toByteArray();
+    }
+}
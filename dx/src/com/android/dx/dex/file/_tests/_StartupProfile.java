@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.dex.file._tests;
+
+import com.android.dx.dex.file.StartupProfile;
+
+import junit.framework.TestCase;
+
+/**
+ * Test the class <code>com.android.dx.dex.file.StartupProfile</code>.
+ */
+public class _StartupProfile
+    extends TestCase {
+
+    public void test_forms() {
+        StartupProfile profile = new StartupProfile();
+
+        profile.add("Lcom/example/Foo;->bar(I)V");
+        profile.add("  com/example/Baz  # comment");
+        profile.add("com.example.Foo.quux");
+        profile.add("# nothing");
+        profile.add("");
+
+        assertEquals(0, profile.getClassRank("com.example.Foo"));
+        assertEquals(1, profile.getMethodRank("com.example.Foo", "bar"));
+        assertEquals(4, profile.getMethodRank("com.example.Foo", "quux"));
+        assertEquals(3, profile.getClassRank("com.example.Baz"));
+        assertEquals(-1, profile.getClassRank("com.example.Other"));
+        assertEquals(-1, profile.getMethodRank("com.example.Foo", "other"));
+        assertEquals(5, profile.size());
+    }
+
+    public void test_firstAppearanceWins() {
+        StartupProfile profile = new StartupProfile();
+
+        profile.add("a.B->c");
+        profile.add("a.D");
+        profile.add("a.B->c");
+        profile.add("a.B");
+
+        assertEquals(0, profile.getClassRank("a.B"));
+        assertEquals(1, profile.getMethodRank("a.B", "c"));
+        assertEquals(3, profile.getClassRank("a.D"));
+    }
+}
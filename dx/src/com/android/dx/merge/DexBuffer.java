@@ -0,0 +1,948 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.merge;
+
+import com.android.dx.rop.cst.CstUtf8;
+import com.android.dx.util.ByteArray;
+import com.android.dx.util.ExceptionWithContext;
+import com.android.dx.util.Hex;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Read-only view of a <code>dex</code> file, for tools that only need
+ * to look at it, such as ones that count methods or measure code.
+ * Unlike a {@link DexReader}, nothing is decoded up front: each
+ * accessor reads the item it is asked about straight out of the
+ * buffer, by index or by offset, and returns it as plain
+ * <code>int</code>s, so going over the items of a file allocates
+ * nothing. The only exceptions are {@link #getString}, which has to
+ * make a string, and {@link ClassData}, the cursor for the variable
+ * length class data, one of which can be used for every class in turn.
+ *
+ * <p>Indices and offsets are those of the file itself, and are only
+ * checked as far as they have to be to stay within the buffer. An
+ * instance may be used by several threads at once, since it is never
+ * modified after it is constructed; a {@link ClassData} may not.</p>
+ */
+public final class DexBuffer {
+    /** non-null; the file format magic number */
+    private static final String MAGIC = "dex\n035\0";
+
+    /** size of the header, in bytes */
+    private static final int HEADER_SIZE = 0x70;
+
+    /** the expected value of the <code>endian_tag</code> field */
+    private static final int ENDIAN_TAG = 0x12345678;
+
+    /** value used to indicate the absence of an index */
+    public static final int NO_INDEX = -1;
+
+    /** sizes of the fixed-size items, in bytes */
+    private static final int STRING_ID_SIZE = 4;
+    private static final int TYPE_ID_SIZE = 4;
+    private static final int PROTO_ID_SIZE = 12;
+    private static final int FIELD_ID_SIZE = 8;
+    private static final int METHOD_ID_SIZE = 8;
+    private static final int CLASS_DEF_SIZE = 32;
+    private static final int TRY_ITEM_SIZE = 8;
+
+    /** size of the fixed part of a <code>code_item</code>, in bytes */
+    private static final int CODE_HEADER_SIZE = 16;
+
+    /** non-null; the contents of the file, in little-endian order */
+    private final ByteBuffer buffer;
+
+    /** size of the file, in bytes */
+    private final int fileSize;
+
+    /** number of entries in and offset of each of the id sections */
+    private final int stringIdsSize;
+    private final int stringIdsOff;
+    private final int typeIdsSize;
+    private final int typeIdsOff;
+    private final int protoIdsSize;
+    private final int protoIdsOff;
+    private final int fieldIdsSize;
+    private final int fieldIdsOff;
+    private final int methodIdsSize;
+    private final int methodIdsOff;
+    private final int classDefsSize;
+    private final int classDefsOff;
+
+    /** size and offset of the data section */
+    private final int dataSize;
+    private final int dataOff;
+
+    /**
+     * Maps the given file into memory and makes a view of it. The file
+     * is only read as the view is used, and need not stay open.
+     *
+     * @param file non-null; the <code>dex</code> file
+     * @return non-null; the view
+     */
+    public static DexBuffer map(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+
+        try {
+            FileChannel channel = in.getChannel();
+            return new DexBuffer(
+                    channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                            channel.size()));
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Constructs an instance over a file that is already in memory.
+     *
+     * @param bytes non-null; contents of the <code>dex</code> file
+     */
+    public DexBuffer(byte[] bytes) {
+        this(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * Constructs an instance over the remaining contents of the given
+     * buffer, reading the header. The buffer's position, limit and byte
+     * order are left alone.
+     *
+     * @param buffer non-null; contents of the <code>dex</code> file
+     */
+    public DexBuffer(ByteBuffer buffer) {
+        if (buffer == null) {
+            throw new NullPointerException("buffer == null");
+        }
+
+        this.buffer = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+
+        if (this.buffer.limit() < HEADER_SIZE) {
+            throw new ExceptionWithContext("file too short to be a dex file");
+        }
+
+        for (int i = 0; i < MAGIC.length(); i++) {
+            if (this.buffer.get(i) != MAGIC.charAt(i)) {
+                throw new ExceptionWithContext("bad dex file magic");
+            }
+        }
+
+        fileSize = readInt(0x20);
+
+        if ((fileSize != this.buffer.limit()) ||
+                (readInt(0x24) != HEADER_SIZE) ||
+                (readInt(0x28) != ENDIAN_TAG)) {
+            throw new ExceptionWithContext("bad dex file header");
+        }
+
+        stringIdsSize = readInt(0x38);
+        stringIdsOff = readInt(0x3c);
+        typeIdsSize = readInt(0x40);
+        typeIdsOff = readInt(0x44);
+        protoIdsSize = readInt(0x48);
+        protoIdsOff = readInt(0x4c);
+        fieldIdsSize = readInt(0x50);
+        fieldIdsOff = readInt(0x54);
+        methodIdsSize = readInt(0x58);
+        methodIdsOff = readInt(0x5c);
+        classDefsSize = readInt(0x60);
+        classDefsOff = readInt(0x64);
+        dataSize = readInt(0x68);
+        dataOff = readInt(0x6c);
+
+        checkSection(stringIdsSize, stringIdsOff, STRING_ID_SIZE);
+        checkSection(typeIdsSize, typeIdsOff, TYPE_ID_SIZE);
+        checkSection(protoIdsSize, protoIdsOff, PROTO_ID_SIZE);
+        checkSection(fieldIdsSize, fieldIdsOff, FIELD_ID_SIZE);
+        checkSection(methodIdsSize, methodIdsOff, METHOD_ID_SIZE);
+        checkSection(classDefsSize, classDefsOff, CLASS_DEF_SIZE);
+        checkSection(dataSize, dataOff, 1);
+    }
+
+    /**
+     * Throws an exception if a section of the header doesn't fit in
+     * the file.
+     *
+     * @param size the number of items in the section
+     * @param offset the offset of the section
+     * @param itemSize &gt; 0; the size of each item, in bytes
+     */
+    private void checkSection(int size, int offset, int itemSize) {
+        if ((size < 0) || (offset < 0) ||
+                ((long) offset + (long) size * itemSize > fileSize)) {
+            throw new ExceptionWithContext("bad section in dex file header: " +
+                    Hex.u4(offset) + ", size " + size);
+        }
+    }
+
+    /**
+     * @return the size of the file, in bytes
+     */
+    public int getFileSize() {
+        return fileSize;
+    }
+
+    /**
+     * @return the Adler-32 checksum stored in the header
+     */
+    public int getChecksum() {
+        return readInt(0x08);
+    }
+
+    /**
+     * @return the number of strings in the file
+     */
+    public int getStringCount() {
+        return stringIdsSize;
+    }
+
+    /**
+     * @return the number of types in the file
+     */
+    public int getTypeCount() {
+        return typeIdsSize;
+    }
+
+    /**
+     * @return the number of prototypes in the file
+     */
+    public int getProtoCount() {
+        return protoIdsSize;
+    }
+
+    /**
+     * @return the number of field references in the file
+     */
+    public int getFieldCount() {
+        return fieldIdsSize;
+    }
+
+    /**
+     * @return the number of method references in the file
+     */
+    public int getMethodCount() {
+        return methodIdsSize;
+    }
+
+    /**
+     * @return the number of classes defined in the file
+     */
+    public int getClassCount() {
+        return classDefsSize;
+    }
+
+    /**
+     * @return the size of the data section, in bytes
+     */
+    public int getDataSize() {
+        return dataSize;
+    }
+
+    /**
+     * Gets the offset of the <code>string_data_item</code> of a string.
+     *
+     * @param index &gt;= 0, &lt; getStringCount(); which string
+     * @return the offset
+     */
+    public int getStringDataOffset(int index) {
+        checkIndex(index, stringIdsSize);
+        return readInt(stringIdsOff + index * STRING_ID_SIZE);
+    }
+
+    /**
+     * Gets the length of a string, in UTF-16 code units.
+     *
+     * @param index &gt;= 0, &lt; getStringCount(); which string
+     * @return &gt;= 0; the length
+     */
+    public int getStringLength(int index) {
+        return readUnsignedLeb128(getStringDataOffset(index));
+    }
+
+    /**
+     * Gets a string. Unlike the rest of the accessors, this has to
+     * make a new object each time.
+     *
+     * @param index &gt;= 0, &lt; getStringCount(); which string
+     * @return non-null; the string
+     */
+    public String getString(int index) {
+        int at = getStringDataOffset(index);
+
+        // Skip the utf16_size, which is implied by the data.
+        while ((buffer.get(at) & 0x80) != 0) {
+            at++;
+        }
+        at++;
+
+        int end = at;
+
+        while (buffer.get(end) != 0) {
+            end++;
+        }
+
+        byte[] bytes = new byte[end - at];
+
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(at + i);
+        }
+
+        return CstUtf8.utf8BytesToString(new ByteArray(bytes));
+    }
+
+    /**
+     * Gets the string index of the descriptor of a type.
+     *
+     * @param index &gt;= 0, &lt; getTypeCount(); which type
+     * @return the string index
+     */
+    public int getTypeDescriptorIndex(int index) {
+        checkIndex(index, typeIdsSize);
+        return readInt(typeIdsOff + index * TYPE_ID_SIZE);
+    }
+
+    /**
+     * Gets the string index of the short-form descriptor of a prototype.
+     *
+     * @param index &gt;= 0, &lt; getProtoCount(); which prototype
+     * @return the string index
+     */
+    public int getProtoShortyIndex(int index) {
+        checkIndex(index, protoIdsSize);
+        return readInt(protoIdsOff + index * PROTO_ID_SIZE);
+    }
+
+    /**
+     * Gets the type index of the return type of a prototype.
+     *
+     * @param index &gt;= 0, &lt; getProtoCount(); which prototype
+     * @return the type index
+     */
+    public int getProtoReturnTypeIndex(int index) {
+        checkIndex(index, protoIdsSize);
+        return readInt(protoIdsOff + index * PROTO_ID_SIZE + 4);
+    }
+
+    /**
+     * Gets the offset of the <code>type_list</code> of the parameter
+     * types of a prototype.
+     *
+     * @param index &gt;= 0, &lt; getProtoCount(); which prototype
+     * @return the offset, or <code>0</code> if there are no parameters
+     */
+    public int getProtoParametersOffset(int index) {
+        checkIndex(index, protoIdsSize);
+        return readInt(protoIdsOff + index * PROTO_ID_SIZE + 8);
+    }
+
+    /**
+     * Gets the size of a <code>type_list</code>.
+     *
+     * @param offset offset of the list, or <code>0</code> for an empty
+     * list
+     * @return &gt;= 0; the number of types in it
+     */
+    public int getTypeListSize(int offset) {
+        return (offset == 0) ? 0 : readInt(offset);
+    }
+
+    /**
+     * Gets one type of a <code>type_list</code>.
+     *
+     * @param offset offset of the list
+     * @param n &gt;= 0, &lt; getTypeListSize(offset); which type
+     * @return the type index
+     */
+    public int getTypeListEntry(int offset, int n) {
+        checkIndex(n, getTypeListSize(offset));
+        return readUnsignedShort(offset + 4 + n * 2);
+    }
+
+    /**
+     * Gets the type index of the class that defines a field.
+     *
+     * @param index &gt;= 0, &lt; getFieldCount(); which field
+     * @return the type index
+     */
+    public int getFieldClassIndex(int index) {
+        checkIndex(index, fieldIdsSize);
+        return readUnsignedShort(fieldIdsOff + index * FIELD_ID_SIZE);
+    }
+
+    /**
+     * Gets the type index of the type of a field.
+     *
+     * @param index &gt;= 0, &lt; getFieldCount(); which field
+     * @return the type index
+     */
+    public int getFieldTypeIndex(int index) {
+        checkIndex(index, fieldIdsSize);
+        return readUnsignedShort(fieldIdsOff + index * FIELD_ID_SIZE + 2);
+    }
+
+    /**
+     * Gets the string index of the name of a field.
+     *
+     * @param index &gt;= 0, &lt; getFieldCount(); which field
+     * @return the string index
+     */
+    public int getFieldNameIndex(int index) {
+        checkIndex(index, fieldIdsSize);
+        return readInt(fieldIdsOff + index * FIELD_ID_SIZE + 4);
+    }
+
+    /**
+     * Gets the type index of the class that defines a method.
+     *
+     * @param index &gt;= 0, &lt; getMethodCount(); which method
+     * @return the type index
+     */
+    public int getMethodClassIndex(int index) {
+        checkIndex(index, methodIdsSize);
+        return readUnsignedShort(methodIdsOff + index * METHOD_ID_SIZE);
+    }
+
+    /**
+     * Gets the prototype index of a method.
+     *
+     * @param index &gt;= 0, &lt; getMethodCount(); which method
+     * @return the prototype index
+     */
+    public int getMethodProtoIndex(int index) {
+        checkIndex(index, methodIdsSize);
+        return readUnsignedShort(methodIdsOff + index * METHOD_ID_SIZE + 2);
+    }
+
+    /**
+     * Gets the string index of the name of a method.
+     *
+     * @param index &gt;= 0, &lt; getMethodCount(); which method
+     * @return the string index
+     */
+    public int getMethodNameIndex(int index) {
+        checkIndex(index, methodIdsSize);
+        return readInt(methodIdsOff + index * METHOD_ID_SIZE + 4);
+    }
+
+    /**
+     * Gets the type index of a class defined in the file.
+     *
+     * @param n &gt;= 0, &lt; getClassCount(); which class
+     * @return the type index
+     */
+    public int getClassTypeIndex(int n) {
+        return readClassDef(n, 0);
+    }
+
+    /**
+     * Gets the access flags of a class defined in the file.
+     *
+     * @param n &gt;= 0, &lt; getClassCount(); which class
+     * @return the access flags
+     */
+    public int getClassAccessFlags(int n) {
+        return readClassDef(n, 4);
+    }
+
+    /**
+     * Gets the type index of the superclass of a class defined in the
+     * file.
+     *
+     * @param n &gt;= 0, &lt; getClassCount(); which class
+     * @return the type index, or {@link #NO_INDEX} if it has none
+     */
+    public int getClassSuperclassIndex(int n) {
+        return readClassDef(n, 8);
+    }
+
+    /**
+     * Gets the offset of the <code>type_list</code> of the interfaces
+     * of a class defined in the file.
+     *
+     * @param n &gt;= 0, &lt; getClassCount(); which class
+     * @return the offset, or <code>0</code> if there are none
+     */
+    public int getClassInterfacesOffset(int n) {
+        return readClassDef(n, 12);
+    }
+
+    /**
+     * Gets the string index of the source file name of a class defined
+     * in the file.
+     *
+     * @param n &gt;= 0, &lt; getClassCount(); which class
+     * @return the string index, or {@link #NO_INDEX} if it isn't known
+     */
+    public int getClassSourceFileIndex(int n) {
+        return readClassDef(n, 16);
+    }
+
+    /**
+     * Gets the offset of the annotations directory of a class defined
+     * in the file.
+     *
+     * @param n &gt;= 0, &lt; getClassCount(); which class
+     * @return the offset, or <code>0</code> if it has no annotations
+     */
+    public int getClassAnnotationsOffset(int n) {
+        return readClassDef(n, 20);
+    }
+
+    /**
+     * Gets the offset of the <code>class_data_item</code> of a class
+     * defined in the file, which {@link ClassData#reset} takes.
+     *
+     * @param n &gt;= 0, &lt; getClassCount(); which class
+     * @return the offset, or <code>0</code> if it has no members
+     */
+    public int getClassDataOffset(int n) {
+        return readClassDef(n, 24);
+    }
+
+    /**
+     * Gets the offset of the initial values of the static fields of a
+     * class defined in the file.
+     *
+     * @param n &gt;= 0, &lt; getClassCount(); which class
+     * @return the offset, or <code>0</code> if they are all defaults
+     */
+    public int getClassStaticValuesOffset(int n) {
+        return readClassDef(n, 28);
+    }
+
+    /**
+     * Helper for the <code>getClass*</code> methods, which reads one
+     * field of a <code>class_def_item</code>.
+     *
+     * @param n &gt;= 0, &lt; getClassCount(); which class
+     * @param field offset of the field within the item
+     * @return the value
+     */
+    private int readClassDef(int n, int field) {
+        checkIndex(n, classDefsSize);
+        return readInt(classDefsOff + n * CLASS_DEF_SIZE + field);
+    }
+
+    /**
+     * Gets the number of registers used by a <code>code_item</code>.
+     *
+     * @param offset offset of the item
+     * @return the register count
+     */
+    public int getCodeRegistersSize(int offset) {
+        return readUnsignedShort(offset);
+    }
+
+    /**
+     * Gets the number of words of incoming arguments of a
+     * <code>code_item</code>.
+     *
+     * @param offset offset of the item
+     * @return the word count
+     */
+    public int getCodeInsSize(int offset) {
+        return readUnsignedShort(offset + 2);
+    }
+
+    /**
+     * Gets the number of words of outgoing arguments of a
+     * <code>code_item</code>.
+     *
+     * @param offset offset of the item
+     * @return the word count
+     */
+    public int getCodeOutsSize(int offset) {
+        return readUnsignedShort(offset + 4);
+    }
+
+    /**
+     * Gets the number of <code>try_item</code>s of a
+     * <code>code_item</code>.
+     *
+     * @param offset offset of the item
+     * @return the count
+     */
+    public int getCodeTriesSize(int offset) {
+        return readUnsignedShort(offset + 6);
+    }
+
+    /**
+     * Gets the offset of the debug info of a <code>code_item</code>.
+     *
+     * @param offset offset of the item
+     * @return the offset, or <code>0</code> if it has none
+     */
+    public int getCodeDebugInfoOffset(int offset) {
+        return readInt(offset + 8);
+    }
+
+    /**
+     * Gets the size of the instructions of a <code>code_item</code>.
+     *
+     * @param offset offset of the item
+     * @return &gt;= 0; the size, in 16-bit code units
+     */
+    public int getCodeInsnsSize(int offset) {
+        int result = readInt(offset + 12);
+
+        if (result < 0) {
+            throw new ExceptionWithContext("bad insns_size at " +
+                    Hex.u4(offset));
+        }
+
+        return result;
+    }
+
+    /**
+     * Gets one code unit of the instructions of a <code>code_item</code>.
+     *
+     * @param offset offset of the item
+     * @param n &gt;= 0, &lt; getCodeInsnsSize(offset); which code unit
+     * @return the code unit, as an unsigned value
+     */
+    public int getCodeUnit(int offset, int n) {
+        checkIndex(n, getCodeInsnsSize(offset));
+        return readUnsignedShort(offset + CODE_HEADER_SIZE + n * 2);
+    }
+
+    /**
+     * Gets the total size of a <code>code_item</code>, including its
+     * tries and catch handlers, but not its debug info, which is kept
+     * separately.
+     *
+     * @param offset offset of the item
+     * @return &gt; 0; the size, in bytes
+     */
+    public int getCodeItemSize(int offset) {
+        int insnsSize = getCodeInsnsSize(offset);
+        int triesSize = getCodeTriesSize(offset);
+        int at = offset + CODE_HEADER_SIZE + insnsSize * 2;
+
+        if (triesSize == 0) {
+            return at - offset;
+        }
+
+        if ((insnsSize & 1) != 0) {
+            at += 2; // padding
+        }
+
+        at += triesSize * TRY_ITEM_SIZE;
+
+        int handlersSize = readUnsignedLeb128(at);
+        at = skipLeb128(at);
+
+        for (int i = 0; i < handlersSize; i++) {
+            int size = readSignedLeb128(at);
+            at = skipLeb128(at);
+
+            // Each handler is a type index and an address.
+            for (int j = Math.abs(size) * 2; j > 0; j--) {
+                at = skipLeb128(at);
+            }
+
+            if (size <= 0) {
+                at = skipLeb128(at); // catch_all_addr
+            }
+        }
+
+        return at - offset;
+    }
+
+    /**
+     * Makes a cursor for the class data of this file, initially with
+     * no members.
+     *
+     * @return non-null; the cursor
+     */
+    public ClassData newClassData() {
+        return new ClassData();
+    }
+
+    /**
+     * Throws an exception if an index is out of range.
+     *
+     * @param index the index to check
+     * @param size the number of items indexed
+     */
+    private static void checkIndex(int index, int size) {
+        if ((index < 0) || (index >= size)) {
+            throw new IndexOutOfBoundsException("index < 0 || index >= size");
+        }
+    }
+
+    /**
+     * Reads an unsigned 16-bit value.
+     *
+     * @param offset offset of the value
+     * @return the value
+     */
+    private int readUnsignedShort(int offset) {
+        return buffer.getShort(offset) & 0xffff;
+    }
+
+    /**
+     * Reads a 32-bit value.
+     *
+     * @param offset offset of the value
+     * @return the value
+     */
+    private int readInt(int offset) {
+        return buffer.getInt(offset);
+    }
+
+    /**
+     * Reads an unsigned LEB128 value.
+     *
+     * @param offset offset of the value
+     * @return the value
+     */
+    private int readUnsignedLeb128(int offset) {
+        int result = 0;
+        int shift = 0;
+        int b;
+
+        do {
+            b = buffer.get(offset++) & 0xff;
+            result |= (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+
+        return result;
+    }
+
+    /**
+     * Reads a signed LEB128 value.
+     *
+     * @param offset offset of the value
+     * @return the value
+     */
+    private int readSignedLeb128(int offset) {
+        int result = 0;
+        int shift = 0;
+        int b;
+
+        do {
+            b = buffer.get(offset++) & 0xff;
+            result |= (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+
+        if ((shift < 32) && ((b & 0x40) != 0)) {
+            result |= -1 << shift;
+        }
+
+        return result;
+    }
+
+    /**
+     * Skips over a LEB128 value, signed or not.
+     *
+     * @param offset offset of the value
+     * @return the offset just past it
+     */
+    private int skipLeb128(int offset) {
+        while ((buffer.get(offset) & 0x80) != 0) {
+            offset++;
+        }
+
+        return offset + 1;
+    }
+
+    /**
+     * Cursor over the members listed in a <code>class_data_item</code>:
+     * first the static fields, then the instance fields, then the
+     * direct methods and then the virtual methods. A cursor is reset to
+     * each class in turn with {@link #reset}, and stepped through its
+     * members with {@link #next}, which decodes one member in place.
+     */
+    public final class ClassData {
+        /** offset of the next member to read */
+        private int position;
+
+        /** number of members of each kind */
+        private int staticFieldsSize;
+        private int instanceFieldsSize;
+        private int directMethodsSize;
+        private int virtualMethodsSize;
+
+        /** number of members read so far */
+        private int read;
+
+        /** field or method index of the current member */
+        private int memberIndex;
+
+        /** access flags of the current member */
+        private int accessFlags;
+
+        /** code offset of the current member */
+        private int codeOffset;
+
+        /**
+         * Constructs an instance. Use {@link DexBuffer#newClassData}.
+         */
+        private ClassData() {
+            // This space intentionally left blank.
+        }
+
+        /**
+         * Positions this instance at the start of a class's data.
+         *
+         * @param offset offset of the <code>class_data_item</code>, as
+         * given by {@link DexBuffer#getClassDataOffset}, or
+         * <code>0</code> for a class with no members
+         */
+        public void reset(int offset) {
+            read = 0;
+            memberIndex = 0;
+            accessFlags = 0;
+            codeOffset = 0;
+
+            if (offset == 0) {
+                staticFieldsSize = 0;
+                instanceFieldsSize = 0;
+                directMethodsSize = 0;
+                virtualMethodsSize = 0;
+                position = 0;
+                return;
+            }
+
+            int at = offset;
+
+            staticFieldsSize = readUnsignedLeb128(at);
+            at = skipLeb128(at);
+            instanceFieldsSize = readUnsignedLeb128(at);
+            at = skipLeb128(at);
+            directMethodsSize = readUnsignedLeb128(at);
+            at = skipLeb128(at);
+            virtualMethodsSize = readUnsignedLeb128(at);
+            position = skipLeb128(at);
+        }
+
+        /**
+         * @return the number of static fields of the class
+         */
+        public int getStaticFieldsSize() {
+            return staticFieldsSize;
+        }
+
+        /**
+         * @return the number of instance fields of the class
+         */
+        public int getInstanceFieldsSize() {
+            return instanceFieldsSize;
+        }
+
+        /**
+         * @return the number of direct methods of the class
+         */
+        public int getDirectMethodsSize() {
+            return directMethodsSize;
+        }
+
+        /**
+         * @return the number of virtual methods of the class
+         */
+        public int getVirtualMethodsSize() {
+            return virtualMethodsSize;
+        }
+
+        /**
+         * Moves on to the next member, if there is one.
+         *
+         * @return whether there was another member
+         */
+        public boolean next() {
+            int fieldsSize = staticFieldsSize + instanceFieldsSize;
+            int totalSize = fieldsSize + directMethodsSize +
+                virtualMethodsSize;
+
+            if (read == totalSize) {
+                return false;
+            }
+
+            /*
+             * Indices are stored as differences from the previous
+             * member of the same list, starting over with each list.
+             */
+            if ((read == 0) || (read == staticFieldsSize) ||
+                    (read == fieldsSize) ||
+                    (read == fieldsSize + directMethodsSize)) {
+                memberIndex = 0;
+            }
+
+            memberIndex += readUnsignedLeb128(position);
+            position = skipLeb128(position);
+            accessFlags = readUnsignedLeb128(position);
+            position = skipLeb128(position);
+
+            read++;
+
+            if (read > fieldsSize) {
+                codeOffset = readUnsignedLeb128(position);
+                position = skipLeb128(position);
+            } else {
+                codeOffset = 0;
+            }
+
+            return true;
+        }
+
+        /**
+         * @return whether the current member is a method, as opposed
+         * to a field
+         */
+        public boolean isMethod() {
+            return read > staticFieldsSize + instanceFieldsSize;
+        }
+
+        /**
+         * @return whether the current member is a static field
+         */
+        public boolean isStaticField() {
+            return (read > 0) && (read <= staticFieldsSize);
+        }
+
+        /**
+         * @return the field index of the current member if it is a
+         * field, or its method index if it is a method
+         */
+        public int getMemberIndex() {
+            return memberIndex;
+        }
+
+        /**
+         * @return the access flags of the current member
+         */
+        public int getAccessFlags() {
+            return accessFlags;
+        }
+
+        /**
+         * @return the offset of the <code>code_item</code> of the
+         * current member, or <code>0</code> if it is a field or a
+         * method without code
+         */
+        public int getCodeOffset() {
+            return codeOffset;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.merge;
+
+import com.android.dx.dex.file.ClassDefItem;
+import com.android.dx.dex.file.DexFile;
+import com.android.dx.rop.cst.CstType;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashSet;
+
+/**
+ * Combiner of already-translated <code>dex</code> files into one. The
+ * classes of each input are read back with a {@link DexReader} and
+ * added to a fresh {@link DexFile}, which assigns new indices to all
+ * the strings, types, prototypes, fields and methods when it is
+ * written, and the instructions of each method are rewritten to match.
+ * None of the code is translated again, so merging is much cheaper
+ * than translating all the original classes.
+ */
+public final class DexMerger {
+    /** non-null; the combined file */
+    private final DexFile outputDex;
+
+    /** non-null; the classes added so far */
+    private final HashSet<CstType> classes;
+
+    /**
+     * Constructs an instance, with no classes yet.
+     */
+    public DexMerger() {
+        outputDex = new DexFile();
+        classes = new HashSet<CstType>();
+    }
+
+    /**
+     * Adds all the classes of the given <code>dex</code> file. It is an
+     * error for a class to be defined in more than one of the files.
+     *
+     * @param bytes non-null; contents of the <code>dex</code> file
+     * @return the number of classes added
+     */
+    public int add(byte[] bytes) {
+        DexReader reader = new DexReader(bytes);
+        int count = reader.getClassCount();
+
+        for (int i = 0; i < count; i++) {
+            CstType type = reader.getClassType(i);
+
+            if (!classes.add(type)) {
+                throw new IllegalArgumentException("class " +
+                        type.toHuman() + " is defined more than once");
+            }
+
+            ClassDefItem clazz = reader.readClass(i);
+            outputDex.add(clazz);
+        }
+
+        return count;
+    }
+
+    /**
+     * Gets the combined file, so that it can be written out.
+     *
+     * @return non-null; the combined file
+     */
+    public DexFile getDexFile() {
+        return outputDex;
+    }
+
+    /**
+     * Returns the combined file in <code>byte[]</code> form.
+     *
+     * @param humanOut null-ok; where to write human-oriented output to
+     * @param verbose whether to be verbose when writing human-oriented output
+     * @return non-null; the combined <code>.dex</code> file
+     */
+    public byte[] toDex(Writer humanOut, boolean verbose) throws IOException {
+        return outputDex.toDex(humanOut, verbose);
+    }
+}
@@ -0,0 +1,1122 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.merge;
+
+import com.android.dx.dex.code.CatchHandlerList;
+import com.android.dx.dex.code.CatchTable;
+import com.android.dx.dex.code.DalvOps;
+import com.android.dx.dex.code.Dop;
+import com.android.dx.dex.code.Dops;
+import com.android.dx.dex.code.InsnFormat;
+import com.android.dx.dex.code.form.Form21c;
+import com.android.dx.dex.code.form.Form22c;
+import com.android.dx.dex.code.form.Form31c;
+import com.android.dx.dex.code.form.Form35c;
+import com.android.dx.dex.code.form.Form3rc;
+import com.android.dx.dex.file.ClassDefItem;
+import com.android.dx.dex.file.EncodedField;
+import com.android.dx.dex.file.EncodedMethod;
+import com.android.dx.dex.file.PrebuiltCodeItem;
+import com.android.dx.dex.file.PrebuiltDebugInfoItem;
+import com.android.dx.rop.annotation.Annotation;
+import com.android.dx.rop.annotation.AnnotationVisibility;
+import com.android.dx.rop.annotation.Annotations;
+import com.android.dx.rop.annotation.AnnotationsList;
+import com.android.dx.rop.annotation.NameValuePair;
+import com.android.dx.rop.cst.Constant;
+import com.android.dx.rop.cst.CstAnnotation;
+import com.android.dx.rop.cst.CstArray;
+import com.android.dx.rop.cst.CstBoolean;
+import com.android.dx.rop.cst.CstByte;
+import com.android.dx.rop.cst.CstChar;
+import com.android.dx.rop.cst.CstDouble;
+import com.android.dx.rop.cst.CstEnumRef;
+import com.android.dx.rop.cst.CstFieldRef;
+import com.android.dx.rop.cst.CstFloat;
+import com.android.dx.rop.cst.CstInteger;
+import com.android.dx.rop.cst.CstKnownNull;
+import com.android.dx.rop.cst.CstLong;
+import com.android.dx.rop.cst.CstMethodRef;
+import com.android.dx.rop.cst.CstNat;
+import com.android.dx.rop.cst.CstShort;
+import com.android.dx.rop.cst.CstString;
+import com.android.dx.rop.cst.CstType;
+import com.android.dx.rop.cst.CstUtf8;
+import com.android.dx.rop.type.StdTypeList;
+import com.android.dx.rop.type.Type;
+import com.android.dx.rop.type.TypeList;
+import com.android.dx.util.ByteArray;
+import com.android.dx.util.ExceptionWithContext;
+import com.android.dx.util.Hex;
+import com.android.dx.util.IntList;
+
+import java.util.ArrayList;
+
+/**
+ * Reader for <code>dex</code> files, which turns their classes back
+ * into {@link ClassDefItem}s that can be added to another {@link
+ * com.android.dx.dex.file.DexFile}. Everything but the code of the
+ * methods is turned back into the same constants, annotations and
+ * so on that translation produces. The code is kept in its translated
+ * form, as a {@link PrebuiltCodeItem} which just has its constant
+ * indices rewritten when written out.
+ *
+ * <p>The header and the fixed-size items are read through a {@link
+ * DexBuffer}, which also checks that the file is a <code>dex</code>
+ * file; only the variable-length items are decoded here.</p>
+ *
+ * <p>Only unoptimized <code>dex</code> files can be read, since the
+ * instructions introduced by optimization refer to details of the
+ * particular runtime it was done for.</p>
+ */
+public final class DexReader {
+    /** encoded value type constants; see {@link ValueReader} */
+    private static final int VALUE_BYTE = 0x00;
+    private static final int VALUE_SHORT = 0x02;
+    private static final int VALUE_CHAR = 0x03;
+    private static final int VALUE_INT = 0x04;
+    private static final int VALUE_LONG = 0x06;
+    private static final int VALUE_FLOAT = 0x10;
+    private static final int VALUE_DOUBLE = 0x11;
+    private static final int VALUE_STRING = 0x17;
+    private static final int VALUE_TYPE = 0x18;
+    private static final int VALUE_FIELD = 0x19;
+    private static final int VALUE_METHOD = 0x1a;
+    private static final int VALUE_ENUM = 0x1b;
+    private static final int VALUE_ARRAY = 0x1c;
+    private static final int VALUE_ANNOTATION = 0x1d;
+    private static final int VALUE_NULL = 0x1e;
+    private static final int VALUE_BOOLEAN = 0x1f;
+
+    /** annotation visibility constants, as stored in annotation items */
+    private static final int VISIBILITY_BUILD = 0;
+    private static final int VISIBILITY_RUNTIME = 1;
+    private static final int VISIBILITY_SYSTEM = 2;
+
+    /**
+     * debug info opcodes that have operands; see {@link
+     * com.android.dx.dex.file.DebugInfoConstants}
+     */
+    private static final int DBG_END_SEQUENCE = 0x00;
+    private static final int DBG_ADVANCE_PC = 0x01;
+    private static final int DBG_ADVANCE_LINE = 0x02;
+    private static final int DBG_START_LOCAL = 0x03;
+    private static final int DBG_START_LOCAL_EXTENDED = 0x04;
+    private static final int DBG_END_LOCAL = 0x05;
+    private static final int DBG_RESTART_LOCAL = 0x06;
+    private static final int DBG_SET_FILE = 0x09;
+
+    /** pseudo-instruction identifiers of the data payloads in code */
+    private static final int PACKED_SWITCH_PAYLOAD = 0x0100;
+    private static final int SPARSE_SWITCH_PAYLOAD = 0x0200;
+    private static final int FILL_ARRAY_DATA_PAYLOAD = 0x0300;
+
+    /** non-null; the contents of the file */
+    private final byte[] bytes;
+
+    /** non-null; view of the file, for its header and fixed-size items */
+    private final DexBuffer buffer;
+
+    /** non-null; the strings, indexed by string id */
+    private final CstUtf8[] strings;
+
+    /** non-null; the types, indexed by type id */
+    private final CstType[] types;
+
+    /** non-null; the prototype descriptors, indexed by proto id */
+    private final CstUtf8[] protos;
+
+    /** non-null; the fields, indexed by field id */
+    private final CstFieldRef[] fields;
+
+    /** non-null; the methods, indexed by method id */
+    private final CstMethodRef[] methods;
+
+    /**
+     * Constructs an instance, reading the header and the id sections
+     * of the given file.
+     *
+     * @param bytes non-null; contents of the <code>dex</code> file
+     */
+    public DexReader(byte[] bytes) {
+        if (bytes == null) {
+            throw new NullPointerException("bytes == null");
+        }
+
+        this.bytes = bytes;
+        this.buffer = new DexBuffer(bytes);
+
+        int stringCount = buffer.getStringCount();
+        strings = new CstUtf8[stringCount];
+        for (int i = 0; i < stringCount; i++) {
+            strings[i] = readStringData(buffer.getStringDataOffset(i));
+        }
+
+        int typeCount = buffer.getTypeCount();
+        types = new CstType[typeCount];
+        for (int i = 0; i < typeCount; i++) {
+            String descriptor =
+                strings[buffer.getTypeDescriptorIndex(i)].getString();
+            types[i] = CstType.intern(Type.internReturnType(descriptor));
+        }
+
+        int protoCount = buffer.getProtoCount();
+        protos = new CstUtf8[protoCount];
+        for (int i = 0; i < protoCount; i++) {
+            // The shorty isn't read, since it's derived from the rest.
+            CstType returnType = types[buffer.getProtoReturnTypeIndex(i)];
+            TypeList params = readTypeList(buffer.getProtoParametersOffset(i));
+            StringBuilder sb = new StringBuilder();
+
+            sb.append('(');
+            for (int j = 0; j < params.size(); j++) {
+                sb.append(params.getType(j).getDescriptor());
+            }
+            sb.append(')');
+            sb.append(returnType.getClassType().getDescriptor());
+            protos[i] = new CstUtf8(sb.toString());
+        }
+
+        int fieldCount = buffer.getFieldCount();
+        fields = new CstFieldRef[fieldCount];
+        for (int i = 0; i < fieldCount; i++) {
+            CstType definer = types[buffer.getFieldClassIndex(i)];
+            CstType type = types[buffer.getFieldTypeIndex(i)];
+            CstUtf8 name = strings[buffer.getFieldNameIndex(i)];
+            fields[i] = new CstFieldRef(definer,
+                    new CstNat(name, type.getDescriptor()));
+        }
+
+        int methodCount = buffer.getMethodCount();
+        methods = new CstMethodRef[methodCount];
+        for (int i = 0; i < methodCount; i++) {
+            CstType definer = types[buffer.getMethodClassIndex(i)];
+            CstUtf8 proto = protos[buffer.getMethodProtoIndex(i)];
+            CstUtf8 name = strings[buffer.getMethodNameIndex(i)];
+            methods[i] = new CstMethodRef(definer, new CstNat(name, proto));
+        }
+    }
+
+    /**
+     * Gets the number of classes defined in the file.
+     *
+     * @return &gt;= 0; the class count
+     */
+    public int getClassCount() {
+        return buffer.getClassCount();
+    }
+
+    /**
+     * Gets the type of the class with the given index, without reading
+     * the rest of its definition.
+     *
+     * @param n &gt;= 0, &lt; getClassCount(); which class
+     * @return non-null; the class's type
+     */
+    public CstType getClassType(int n) {
+        return types[buffer.getClassTypeIndex(n)];
+    }
+
+    /**
+     * Reads the class with the given index.
+     *
+     * @param n &gt;= 0, &lt; getClassCount(); which class
+     * @return non-null; the class
+     */
+    public ClassDefItem readClass(int n) {
+        CstType thisClass = types[buffer.getClassTypeIndex(n)];
+        int superclassIdx = buffer.getClassSuperclassIndex(n);
+        int sourceFileIdx = buffer.getClassSourceFileIndex(n);
+        int annotationsOff = buffer.getClassAnnotationsOffset(n);
+        int classDataOff = buffer.getClassDataOffset(n);
+
+        try {
+            CstType superclass = (superclassIdx == DexBuffer.NO_INDEX) ?
+                null : types[superclassIdx];
+            CstUtf8 sourceFile = (sourceFileIdx == DexBuffer.NO_INDEX) ?
+                null : strings[sourceFileIdx];
+            ClassDefItem result = new ClassDefItem(thisClass,
+                    buffer.getClassAccessFlags(n), superclass,
+                    readTypeList(buffer.getClassInterfacesOffset(n)),
+                    sourceFile);
+
+            if (classDataOff != 0) {
+                readClassData(result, classDataOff,
+                        buffer.getClassStaticValuesOffset(n));
+            }
+
+            if (annotationsOff != 0) {
+                readAnnotationsDirectory(result, annotationsOff);
+            }
+
+            return result;
+        } catch (RuntimeException ex) {
+            throw ExceptionWithContext.withContext(ex,
+                    "...while reading class " + thisClass.toHuman());
+        }
+    }
+
+    /**
+     * Makes a cursor positioned at the given offset.
+     *
+     * @param offset &gt;= 0; offset into the file
+     * @return non-null; the cursor
+     */
+    private Cursor at(int offset) {
+        if ((offset < 0) || (offset > bytes.length)) {
+            throw new ExceptionWithContext("bad offset: " + Hex.u4(offset));
+        }
+
+        return new Cursor(offset);
+    }
+
+    /**
+     * Reads a <code>string_data_item</code>.
+     *
+     * @param offset offset of the item
+     * @return non-null; the string
+     */
+    private CstUtf8 readStringData(int offset) {
+        Cursor in = at(offset);
+
+        in.readUnsignedLeb128(); // utf16_size; implied by the data
+
+        int start = in.getPosition();
+        int end = start;
+
+        while (bytes[end] != 0) {
+            end++;
+        }
+
+        return new CstUtf8(new ByteArray(bytes, start, end));
+    }
+
+    /**
+     * Reads a <code>type_list</code>.
+     *
+     * @param offset offset of the list, or <code>0</code> for an empty list
+     * @return non-null; the list
+     */
+    private TypeList readTypeList(int offset) {
+        if (offset == 0) {
+            return StdTypeList.EMPTY;
+        }
+
+        Cursor in = at(offset);
+        int size = in.readInt();
+        StdTypeList result = new StdTypeList(size);
+
+        for (int i = 0; i < size; i++) {
+            result.set(i, types[in.readUnsignedShort()].getClassType());
+        }
+
+        result.setImmutable();
+        return result;
+    }
+
+    /**
+     * Reads a <code>class_data_item</code> into the given class.
+     *
+     * @param clazz non-null; the class being read
+     * @param offset offset of the item
+     * @param staticValuesOff offset of the static field values, or
+     * <code>0</code> if they are all defaults
+     */
+    private void readClassData(ClassDefItem clazz, int offset,
+            int staticValuesOff) {
+        Cursor in = at(offset);
+        int staticFieldsSize = in.readUnsignedLeb128();
+        int instanceFieldsSize = in.readUnsignedLeb128();
+        int directMethodsSize = in.readUnsignedLeb128();
+        int virtualMethodsSize = in.readUnsignedLeb128();
+        CstArray.List staticValues = null;
+
+        if (staticValuesOff != 0) {
+            staticValues = new ValueReader(at(staticValuesOff))
+                .readArrayContents().getList();
+        }
+
+        int fieldIdx = 0;
+        for (int i = 0; i < staticFieldsSize; i++) {
+            fieldIdx += in.readUnsignedLeb128();
+            int accessFlags = in.readUnsignedLeb128();
+            Constant value = null;
+
+            if ((staticValues != null) && (i < staticValues.size())) {
+                value = staticValues.get(i);
+            }
+
+            clazz.addStaticField(
+                    new EncodedField(fields[fieldIdx], accessFlags), value);
+        }
+
+        fieldIdx = 0;
+        for (int i = 0; i < instanceFieldsSize; i++) {
+            fieldIdx += in.readUnsignedLeb128();
+            int accessFlags = in.readUnsignedLeb128();
+            clazz.addInstanceField(
+                    new EncodedField(fields[fieldIdx], accessFlags));
+        }
+
+        int methodIdx = 0;
+        for (int i = 0; i < directMethodsSize; i++) {
+            methodIdx += in.readUnsignedLeb128();
+            clazz.addDirectMethod(readMethod(in, methodIdx));
+        }
+
+        methodIdx = 0;
+        for (int i = 0; i < virtualMethodsSize; i++) {
+            methodIdx += in.readUnsignedLeb128();
+            clazz.addVirtualMethod(readMethod(in, methodIdx));
+        }
+    }
+
+    /**
+     * Reads the rest of an <code>encoded_method</code>, after its
+     * index.
+     *
+     * @param in non-null; cursor positioned at the access flags
+     * @param methodIdx the method's index
+     * @return non-null; the method
+     */
+    private EncodedMethod readMethod(Cursor in, int methodIdx) {
+        CstMethodRef ref = methods[methodIdx];
+        int accessFlags = in.readUnsignedLeb128();
+        int codeOff = in.readUnsignedLeb128();
+        PrebuiltCodeItem code = null;
+
+        if (codeOff != 0) {
+            try {
+                code = readCode(ref, codeOff);
+            } catch (RuntimeException ex) {
+                throw ExceptionWithContext.withContext(ex,
+                        "...while reading code for " + ref.toHuman());
+            }
+        }
+
+        return new EncodedMethod(ref, accessFlags, code);
+    }
+
+    /**
+     * Reads a <code>code_item</code>.
+     *
+     * @param ref non-null; the method the code is for
+     * @param offset offset of the item
+     * @return non-null; the code
+     */
+    private PrebuiltCodeItem readCode(CstMethodRef ref, int offset) {
+        Cursor in = at(offset);
+        int registersSize = in.readUnsignedShort();
+        int insSize = in.readUnsignedShort();
+        int outsSize = in.readUnsignedShort();
+        int triesSize = in.readUnsignedShort();
+        int debugInfoOff = in.readInt();
+        int insnsSize = in.readInt();
+        short[] insns = new short[insnsSize];
+
+        for (int i = 0; i < insnsSize; i++) {
+            insns[i] = (short) in.readUnsignedShort();
+        }
+
+        IntList constantAddresses = new IntList();
+        ArrayList<Constant> constants = new ArrayList<Constant>();
+
+        scanInsns(insns, constantAddresses, constants);
+
+        CatchTable catches = CatchTable.EMPTY;
+
+        if (triesSize != 0) {
+            if ((insnsSize & 1) != 0) {
+                in.readUnsignedShort(); // padding
+            }
+
+            int handlersOff = in.getPosition() + triesSize * 8;
+
+            catches = new CatchTable(triesSize);
+            for (int i = 0; i < triesSize; i++) {
+                int start = in.readInt();
+                int count = in.readUnsignedShort();
+                int handlerOff = in.readUnsignedShort();
+                catches.set(i, new CatchTable.Entry(start, start + count,
+                                readCatchHandlers(handlersOff + handlerOff)));
+            }
+            catches.setImmutable();
+        }
+
+        PrebuiltDebugInfoItem debugInfo = null;
+
+        if (debugInfoOff != 0) {
+            debugInfo = readDebugInfo(ref, debugInfoOff);
+        }
+
+        return new PrebuiltCodeItem(ref, registersSize, insSize, outsSize,
+                insns, toArray(constantAddresses),
+                constants.toArray(new Constant[constants.size()]),
+                catches, debugInfo);
+    }
+
+    /**
+     * Finds the instructions in the given bytecode that refer to
+     * constants, skipping over the data payloads.
+     *
+     * @param insns non-null; the bytecode
+     * @param addresses non-null; list to add the addresses of the
+     * instructions to
+     * @param constants non-null; list to add the constants they refer
+     * to to
+     */
+    private void scanInsns(short[] insns, IntList addresses,
+            ArrayList<Constant> constants) {
+        int at = 0;
+
+        while (at < insns.length) {
+            int unit = insns[at] & 0xffff;
+            int opcode = unit & 0xff;
+
+            if ((opcode == DalvOps.NOP) && (unit != 0)) {
+                at += payloadSize(insns, at);
+                continue;
+            }
+
+            Dop dop;
+
+            try {
+                dop = Dops.get(opcode);
+            } catch (IllegalArgumentException ex) {
+                throw new ExceptionWithContext("unknown opcode " +
+                        Hex.u1(opcode) + " at " + Hex.u4(at) +
+                        " (optimized dex file?)");
+            }
+
+            InsnFormat format = dop.getFormat();
+
+            if ((format instanceof Form21c) || (format instanceof Form22c) ||
+                    (format instanceof Form35c) ||
+                    (format instanceof Form3rc)) {
+                int index = insns[at + 1] & 0xffff;
+                addresses.add(at);
+                constants.add(insnConstant(dop.getFamily(), index));
+            } else if (format instanceof Form31c) {
+                int index = (insns[at + 1] & 0xffff) | (insns[at + 2] << 16);
+                addresses.add(at);
+                constants.add(insnConstant(dop.getFamily(), index));
+            }
+
+            at += format.codeSize();
+        }
+    }
+
+    /**
+     * Gets the size of the data payload at the given address.
+     *
+     * @param insns non-null; the bytecode
+     * @param at address of the payload
+     * @return &gt; 0; its size, in code units
+     */
+    private static int payloadSize(short[] insns, int at) {
+        int ident = insns[at] & 0xffff;
+
+        switch (ident) {
+            case PACKED_SWITCH_PAYLOAD: {
+                int size = insns[at + 1] & 0xffff;
+                return 4 + (size * 2);
+            }
+            case SPARSE_SWITCH_PAYLOAD: {
+                int size = insns[at + 1] & 0xffff;
+                return 2 + (size * 4);
+            }
+            case FILL_ARRAY_DATA_PAYLOAD: {
+                int width = insns[at + 1] & 0xffff;
+                int size = (insns[at + 2] & 0xffff) | (insns[at + 3] << 16);
+                return 4 + ((size * width) + 1) / 2;
+            }
+        }
+
+        throw new ExceptionWithContext("unknown payload " + Hex.u2(ident) +
+                " at " + Hex.u4(at));
+    }
+
+    /**
+     * Gets the constant an instruction of the given family refers to by
+     * the given index.
+     *
+     * @param family the opcode family, as defined by {@link DalvOps}
+     * @param index the index
+     * @return non-null; the constant
+     */
+    private Constant insnConstant(int family, int index) {
+        if (family == DalvOps.CONST_STRING) {
+            return new CstString(strings[index]);
+        } else if ((family >= DalvOps.IGET) && (family <= DalvOps.SPUT_SHORT)) {
+            return fields[index];
+        } else if ((family >= DalvOps.INVOKE_VIRTUAL) &&
+                (family <= DalvOps.INVOKE_INTERFACE)) {
+            return methods[index];
+        } else {
+            return types[index];
+        }
+    }
+
+    /**
+     * Reads an <code>encoded_catch_handler</code>.
+     *
+     * @param offset offset of the handler
+     * @return non-null; the list of handlers
+     */
+    private CatchHandlerList readCatchHandlers(int offset) {
+        Cursor in = at(offset);
+        int size = in.readSignedLeb128();
+        boolean catchesAll = (size <= 0);
+        int count = Math.abs(size);
+        CatchHandlerList result =
+            new CatchHandlerList(catchesAll ? count + 1 : count);
+
+        for (int i = 0; i < count; i++) {
+            CstType type = types[in.readUnsignedLeb128()];
+            result.set(i, type, in.readUnsignedLeb128());
+        }
+
+        if (catchesAll) {
+            result.set(count, CstType.OBJECT, in.readUnsignedLeb128());
+        }
+
+        result.setImmutable();
+        return result;
+    }
+
+    /**
+     * Reads a <code>debug_info_item</code>, noting where in it the
+     * string and type indices are.
+     *
+     * @param ref non-null; the method the debug info is for
+     * @param offset offset of the item
+     * @return non-null; the debug info
+     */
+    private PrebuiltDebugInfoItem readDebugInfo(CstMethodRef ref,
+            int offset) {
+        Cursor in = at(offset);
+        IntList indexOffsets = new IntList();
+        IntList indexSizes = new IntList();
+        ArrayList<Constant> indexConstants = new ArrayList<Constant>();
+        DebugIndexReader indices = new DebugIndexReader(in, offset,
+                indexOffsets, indexSizes, indexConstants);
+
+        in.readUnsignedLeb128(); // line_start
+        int parametersSize = in.readUnsignedLeb128();
+
+        for (int i = 0; i < parametersSize; i++) {
+            indices.readString();
+        }
+
+        for (;;) {
+            int opcode = in.readUnsignedByte();
+
+            if (opcode == DBG_END_SEQUENCE) {
+                break;
+            }
+
+            switch (opcode) {
+                case DBG_ADVANCE_PC:
+                case DBG_END_LOCAL:
+                case DBG_RESTART_LOCAL: {
+                    in.readUnsignedLeb128();
+                    break;
+                }
+                case DBG_ADVANCE_LINE: {
+                    in.readSignedLeb128();
+                    break;
+                }
+                case DBG_START_LOCAL: {
+                    in.readUnsignedLeb128(); // register_num
+                    indices.readString();
+                    indices.readType();
+                    break;
+                }
+                case DBG_START_LOCAL_EXTENDED: {
+                    in.readUnsignedLeb128(); // register_num
+                    indices.readString();
+                    indices.readType();
+                    indices.readString();
+                    break;
+                }
+                case DBG_SET_FILE: {
+                    indices.readString();
+                    break;
+                }
+                default: {
+                    // No operands.
+                    break;
+                }
+            }
+        }
+
+        int size = in.getPosition() - offset;
+        byte[] encoded = new byte[size];
+        System.arraycopy(bytes, offset, encoded, 0, size);
+
+        return new PrebuiltDebugInfoItem(ref, encoded,
+                toArray(indexOffsets), toArray(indexSizes),
+                indexConstants.toArray(new Constant[indexConstants.size()]));
+    }
+
+    /**
+     * Reads an <code>annotations_directory_item</code> into the given
+     * class.
+     *
+     * @param clazz non-null; the class being read
+     * @param offset offset of the item
+     */
+    private void readAnnotationsDirectory(ClassDefItem clazz, int offset) {
+        Cursor in = at(offset);
+        int classAnnotationsOff = in.readInt();
+        int fieldsSize = in.readInt();
+        int methodsSize = in.readInt();
+        int parametersSize = in.readInt();
+
+        if (classAnnotationsOff != 0) {
+            clazz.setClassAnnotations(readAnnotationSet(classAnnotationsOff));
+        }
+
+        for (int i = 0; i < fieldsSize; i++) {
+            CstFieldRef field = fields[in.readInt()];
+            clazz.addFieldAnnotations(field, readAnnotationSet(in.readInt()));
+        }
+
+        for (int i = 0; i < methodsSize; i++) {
+            CstMethodRef method = methods[in.readInt()];
+            clazz.addMethodAnnotations(method,
+                    readAnnotationSet(in.readInt()));
+        }
+
+        for (int i = 0; i < parametersSize; i++) {
+            CstMethodRef method = methods[in.readInt()];
+            clazz.addParameterAnnotations(method,
+                    readAnnotationSetRefList(in.readInt()));
+        }
+    }
+
+    /**
+     * Reads an <code>annotation_set_ref_list</code>.
+     *
+     * @param offset offset of the list
+     * @return non-null; the list
+     */
+    private AnnotationsList readAnnotationSetRefList(int offset) {
+        Cursor in = at(offset);
+        int size = in.readInt();
+        AnnotationsList result = new AnnotationsList(size);
+
+        for (int i = 0; i < size; i++) {
+            int setOff = in.readInt();
+            result.set(i, (setOff == 0) ? Annotations.EMPTY
+                    : readAnnotationSet(setOff));
+        }
+
+        result.setImmutable();
+        return result;
+    }
+
+    /**
+     * Reads an <code>annotation_set_item</code>.
+     *
+     * @param offset offset of the set
+     * @return non-null; the annotations
+     */
+    private Annotations readAnnotationSet(int offset) {
+        Cursor in = at(offset);
+        int size = in.readInt();
+        Annotations result = new Annotations();
+
+        for (int i = 0; i < size; i++) {
+            Cursor item = at(in.readInt());
+            AnnotationVisibility visibility;
+
+            switch (item.readUnsignedByte()) {
+                case VISIBILITY_BUILD: {
+                    visibility = AnnotationVisibility.BUILD;
+                    break;
+                }
+                case VISIBILITY_RUNTIME: {
+                    visibility = AnnotationVisibility.RUNTIME;
+                    break;
+                }
+                case VISIBILITY_SYSTEM: {
+                    visibility = AnnotationVisibility.SYSTEM;
+                    break;
+                }
+                default: {
+                    throw new ExceptionWithContext("bad annotation visibility");
+                }
+            }
+
+            result.add(new ValueReader(item).readAnnotation(visibility));
+        }
+
+        result.setImmutable();
+        return result;
+    }
+
+    /**
+     * Converts a list of ints to an array.
+     *
+     * @param list non-null; the list
+     * @return non-null; the array
+     */
+    private static int[] toArray(IntList list) {
+        int size = list.size();
+        int[] result = new int[size];
+
+        for (int i = 0; i < size; i++) {
+            result[i] = list.get(i);
+        }
+
+        return result;
+    }
+
+    /**
+     * Cursor over the little-endian data of the file.
+     */
+    private final class Cursor {
+        /** current offset into the file */
+        private int position;
+
+        /**
+         * Constructs an instance.
+         *
+         * @param position initial offset into the file
+         */
+        public Cursor(int position) {
+            this.position = position;
+        }
+
+        /**
+         * @return the current offset into the file
+         */
+        public int getPosition() {
+            return position;
+        }
+
+        /**
+         * Reads an unsigned byte.
+         *
+         * @return the value
+         */
+        public int readUnsignedByte() {
+            return bytes[position++] & 0xff;
+        }
+
+        /**
+         * Reads an unsigned 16-bit value.
+         *
+         * @return the value
+         */
+        public int readUnsignedShort() {
+            int result = (bytes[position] & 0xff) |
+                ((bytes[position + 1] & 0xff) << 8);
+            position += 2;
+            return result;
+        }
+
+        /**
+         * Reads a 32-bit value.
+         *
+         * @return the value
+         */
+        public int readInt() {
+            int result = (bytes[position] & 0xff) |
+                ((bytes[position + 1] & 0xff) << 8) |
+                ((bytes[position + 2] & 0xff) << 16) |
+                (bytes[position + 3] << 24);
+            position += 4;
+            return result;
+        }
+
+        /**
+         * Reads an unsigned LEB128 value.
+         *
+         * @return the value
+         */
+        public int readUnsignedLeb128() {
+            int result = 0;
+            int shift = 0;
+            int b;
+
+            do {
+                b = bytes[position++] & 0xff;
+                result |= (b & 0x7f) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+
+            return result;
+        }
+
+        /**
+         * Reads a signed LEB128 value.
+         *
+         * @return the value
+         */
+        public int readSignedLeb128() {
+            int result = 0;
+            int shift = 0;
+            int b;
+
+            do {
+                b = bytes[position++] & 0xff;
+                result |= (b & 0x7f) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+
+            if ((shift < 32) && ((b & 0x40) != 0)) {
+                // Sign-extend.
+                result |= -1 << shift;
+            }
+
+            return result;
+        }
+
+        /**
+         * Reads an integral value of the given size, in bytes.
+         *
+         * @param size 1..8; the size
+         * @param signExtend whether to sign-extend it
+         * @return the value
+         */
+        public long readIntegral(int size, boolean signExtend) {
+            long result = 0;
+
+            for (int i = 0; i < size; i++) {
+                result |= ((long) (bytes[position++] & 0xff)) << (i * 8);
+            }
+
+            if (signExtend) {
+                int shift = 64 - (size * 8);
+                result = (result << shift) >> shift;
+            }
+
+            return result;
+        }
+    }
+
+    /**
+     * Reader of <code>encoded_value</code>s and parts thereof.
+     */
+    private final class ValueReader {
+        /** non-null; where to read from */
+        private final Cursor in;
+
+        /**
+         * Constructs an instance.
+         *
+         * @param in non-null; where to read from
+         */
+        public ValueReader(Cursor in) {
+            this.in = in;
+        }
+
+        /**
+         * Reads an <code>encoded_value</code>.
+         *
+         * @return non-null; the value
+         */
+        public Constant readValue() {
+            int header = in.readUnsignedByte();
+            int type = header & 0x1f;
+            int arg = header >> 5;
+
+            switch (type) {
+                case VALUE_BYTE: {
+                    return CstByte.make((int) in.readIntegral(1, true));
+                }
+                case VALUE_SHORT: {
+                    return CstShort.make((int) in.readIntegral(arg + 1, true));
+                }
+                case VALUE_CHAR: {
+                    return CstChar.make((int) in.readIntegral(arg + 1, false));
+                }
+                case VALUE_INT: {
+                    return CstInteger.make(
+                            (int) in.readIntegral(arg + 1, true));
+                }
+                case VALUE_LONG: {
+                    return CstLong.make(in.readIntegral(arg + 1, true));
+                }
+                case VALUE_FLOAT: {
+                    // The bytes are the high-order ones.
+                    long bits = in.readIntegral(arg + 1, false);
+                    return CstFloat.make((int) (bits << ((3 - arg) * 8)));
+                }
+                case VALUE_DOUBLE: {
+                    long bits = in.readIntegral(arg + 1, false);
+                    return CstDouble.make(bits << ((7 - arg) * 8));
+                }
+                case VALUE_STRING: {
+                    return new CstString(strings[readIndex(arg)]);
+                }
+                case VALUE_TYPE: {
+                    return types[readIndex(arg)];
+                }
+                case VALUE_FIELD: {
+                    return fields[readIndex(arg)];
+                }
+                case VALUE_METHOD: {
+                    return methods[readIndex(arg)];
+                }
+                case VALUE_ENUM: {
+                    return new CstEnumRef(fields[readIndex(arg)].getNat());
+                }
+                case VALUE_ARRAY: {
+                    return readArrayContents();
+                }
+                case VALUE_ANNOTATION: {
+                    return new CstAnnotation(
+                            readAnnotation(AnnotationVisibility.EMBEDDED));
+                }
+                case VALUE_NULL: {
+                    return CstKnownNull.THE_ONE;
+                }
+                case VALUE_BOOLEAN: {
+                    return CstBoolean.make(arg);
+                }
+            }
+
+            throw new ExceptionWithContext("bad encoded value type " +
+                    Hex.u1(type));
+        }
+
+        /**
+         * Reads an unsigned index of the given size.
+         *
+         * @param arg the value argument, one less than the size in bytes
+         * @return the index
+         */
+        private int readIndex(int arg) {
+            return (int) in.readIntegral(arg + 1, false);
+        }
+
+        /**
+         * Reads an <code>encoded_array</code>.
+         *
+         * @return non-null; the array
+         */
+        public CstArray readArrayContents() {
+            int size = in.readUnsignedLeb128();
+            CstArray.List list = new CstArray.List(size);
+
+            for (int i = 0; i < size; i++) {
+                list.set(i, readValue());
+            }
+
+            list.setImmutable();
+            return new CstArray(list);
+        }
+
+        /**
+         * Reads an <code>encoded_annotation</code>.
+         *
+         * @param visibility non-null; the visibility to give it
+         * @return non-null; the annotation
+         */
+        public Annotation readAnnotation(AnnotationVisibility visibility) {
+            CstType type = types[in.readUnsignedLeb128()];
+            int size = in.readUnsignedLeb128();
+            Annotation result = new Annotation(type, visibility);
+
+            for (int i = 0; i < size; i++) {
+                CstUtf8 name = strings[in.readUnsignedLeb128()];
+                result.add(new NameValuePair(name, readValue()));
+            }
+
+            result.setImmutable();
+            return result;
+        }
+    }
+
+    /**
+     * Reader of the <code>uleb128p1</code> string and type indices in
+     * debug info, which notes where each one is.
+     */
+    private final class DebugIndexReader {
+        /** non-null; where to read from */
+        private final Cursor in;
+
+        /** offset of the start of the debug info */
+        private final int base;
+
+        /** non-null; list to add the offsets of the indices to */
+        private final IntList offsets;
+
+        /** non-null; list to add the encoded sizes of the indices to */
+        private final IntList sizes;
+
+        /** non-null; list to add the constants referred to to */
+        private final ArrayList<Constant> constants;
+
+        /**
+         * Constructs an instance.
+         *
+         * @param in non-null; where to read from
+         * @param base offset of the start of the debug info
+         * @param offsets non-null; list to add index offsets to
+         * @param sizes non-null; list to add index sizes to
+         * @param constants non-null; list to add constants to
+         */
+        public DebugIndexReader(Cursor in, int base, IntList offsets,
+                IntList sizes, ArrayList<Constant> constants) {
+            this.in = in;
+            this.base = base;
+            this.offsets = offsets;
+            this.sizes = sizes;
+            this.constants = constants;
+        }
+
+        /**
+         * Reads a string index.
+         */
+        public void readString() {
+            int start = in.getPosition();
+            int index = in.readUnsignedLeb128() - 1;
+
+            if (index != DexBuffer.NO_INDEX) {
+                note(start, strings[index]);
+            }
+        }
+
+        /**
+         * Reads a type index.
+         */
+        public void readType() {
+            int start = in.getPosition();
+            int index = in.readUnsignedLeb128() - 1;
+
+            if (index != DexBuffer.NO_INDEX) {
+                note(start, types[index]);
+            }
+        }
+
+        /**
+         * Notes the index that was just read.
+         *
+         * @param start offset of the index in the file
+         * @param cst non-null; the constant it refers to
+         */
+        private void note(int start, Constant cst) {
+            offsets.add(start - base);
+            sizes.add(in.getPosition() - start);
+            constants.add(cst);
+        }
+    }
+}
@@ -0,0 +1,286 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.merge._tests;
+
+import com.android.dx.merge.DexBuffer;
+import com.android.dx.merge.DexReader;
+import com.android.dx.util.FileUtils;
+import com.android.dx.util.Profile;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+
+/**
+ * Benchmark of the ways of finding out what a <code>dex</code> file
+ * contains, by counting the methods it defines and the code units of
+ * their code: going over it with a {@link DexBuffer}, reading all its
+ * classes back in with a {@link DexReader}, and, if given the path of
+ * <code>dexdump</code>, parsing that tool's output. That is the host
+ * build of <code>dalvik/dexdump</code> (<code>DexDump.c</code>), which
+ * the build puts at <code>out/host/&lt;os&gt;/bin/dexdump</code>. The
+ * best time and the smallest allocation of each over all rounds are
+ * reported, after a round of warm-up. Run it as
+ * <code>java -cp dx.jar com.android.dx.merge._tests.DexBufferBenchmark
+ * [--rounds=&lt;n&gt;] [--dexdump=&lt;path&gt;] &lt;file.dex&gt;</code>.
+ */
+public class DexBufferBenchmark {
+    /** default number of timed rounds */
+    private static final int DEFAULT_ROUNDS = 10;
+
+    /** prefix of the line <code>dexdump</code> prints for each method */
+    private static final String DEXDUMP_CODE = "      code          ";
+
+    /** prefix of the line <code>dexdump</code> prints for each code size */
+    private static final String DEXDUMP_INSNS_SIZE = "      insns size    : ";
+
+    /** the ways measured */
+    private enum Way {
+        DEX_BUFFER("DexBuffer"),
+        DEX_READER("DexReader"),
+        DEXDUMP("dexdump");
+
+        /** non-null; name used in the report */
+        final String reportName;
+
+        Way(String reportName) {
+            this.reportName = reportName;
+        }
+    }
+
+    /** non-null; the file */
+    private final File file;
+
+    /** null-ok; path of <code>dexdump</code>, if it is to be measured */
+    private final String dexdump;
+
+    /** non-null; best time of each way, indexed by ordinal */
+    private final long[] bestNanos;
+
+    /** non-null; smallest allocation of each way, indexed by ordinal */
+    private final long[] leastBytes;
+
+    /** number of methods counted by the last way run */
+    private int methodCount;
+
+    /** number of code units counted by the last way run, or -1 */
+    private long codeUnits;
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args command-line arguments
+     */
+    public static void main(String[] args) throws IOException {
+        int rounds = DEFAULT_ROUNDS;
+        String dexdump = null;
+        int at = 0;
+
+        for (/*at*/; at < args.length; at++) {
+            String arg = args[at];
+
+            if (arg.startsWith("--rounds=")) {
+                rounds = Integer.parseInt(arg.substring(arg.indexOf('=') + 1));
+            } else if (arg.startsWith("--dexdump=")) {
+                dexdump = arg.substring(arg.indexOf('=') + 1);
+            } else {
+                break;
+            }
+        }
+
+        if (at != args.length - 1) {
+            System.err.println("usage: DexBufferBenchmark [--rounds=<n>] " +
+                    "[--dexdump=<path>] <file.dex>");
+            System.err.println("  --dexdump: the host dexdump built from " +
+                    "dalvik/dexdump");
+            System.exit(2);
+        }
+
+        new DexBufferBenchmark(new File(args[at]), dexdump).run(rounds);
+    }
+
+    /**
+     * Constructs an instance.
+     *
+     * @param file non-null; the file
+     * @param dexdump null-ok; path of <code>dexdump</code>, if it is
+     * to be measured
+     */
+    private DexBufferBenchmark(File file, String dexdump) {
+        int count = Way.values().length;
+
+        this.file = file;
+        this.dexdump = dexdump;
+        this.bestNanos = new long[count];
+        this.leastBytes = new long[count];
+
+        for (int i = 0; i < count; i++) {
+            bestNanos[i] = Long.MAX_VALUE;
+            leastBytes[i] = Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * Runs the given number of timed rounds, after a round of warm-up,
+     * and prints the results.
+     *
+     * @param rounds &gt; 0; the number of rounds
+     */
+    private void run(int rounds) throws IOException {
+        for (int i = 0; i <= rounds; i++) {
+            for (Way way : Way.values()) {
+                if ((way == Way.DEXDUMP) && (dexdump == null)) {
+                    continue;
+                }
+
+                long startBytes = Profile.getAllocatedBytes();
+                long startNanos = System.nanoTime();
+
+                runOne(way);
+
+                long nanos = System.nanoTime() - startNanos;
+                long bytes = Profile.getAllocatedBytes() - startBytes;
+
+                if (i != 0) {
+                    int index = way.ordinal();
+                    bestNanos[index] = Math.min(bestNanos[index], nanos);
+                    leastBytes[index] = Math.min(leastBytes[index], bytes);
+                }
+
+                if (i == rounds) {
+                    report(way);
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs one way over the file once.
+     *
+     * @param way non-null; the way to run
+     */
+    private void runOne(Way way) throws IOException {
+        switch (way) {
+            case DEX_BUFFER: countWithDexBuffer(); break;
+            case DEX_READER: countWithDexReader(); break;
+            case DEXDUMP: countWithDexdump(); break;
+        }
+    }
+
+    /**
+     * Prints the results for one way.
+     *
+     * @param way non-null; the way
+     */
+    private void report(Way way) {
+        int index = way.ordinal();
+        String units = (codeUnits < 0) ? "-" : Long.toString(codeUnits);
+        String kb = Profile.isAllocationTracked() ?
+            Long.toString(leastBytes[index] / 1024) : "-";
+
+        System.out.printf("%-10s %9.2f ms %10s KB %8d methods %10s units\n",
+                way.reportName, bestNanos[index] / 1e6, kb, methodCount,
+                units);
+    }
+
+    /**
+     * Counts with a {@link DexBuffer} over the mapped file.
+     */
+    private void countWithDexBuffer() throws IOException {
+        DexBuffer dex = DexBuffer.map(file);
+        DexBuffer.ClassData data = dex.newClassData();
+        int classCount = dex.getClassCount();
+
+        methodCount = 0;
+        codeUnits = 0;
+
+        for (int i = 0; i < classCount; i++) {
+            data.reset(dex.getClassDataOffset(i));
+
+            while (data.next()) {
+                if (!data.isMethod()) {
+                    continue;
+                }
+
+                methodCount++;
+
+                int codeOff = data.getCodeOffset();
+                if (codeOff != 0) {
+                    codeUnits += dex.getCodeInsnsSize(codeOff);
+                }
+            }
+        }
+    }
+
+    /**
+     * Counts by reading every class back in with a {@link DexReader}.
+     * Code sizes aren't exposed by what it reads, so only the methods
+     * are counted.
+     */
+    private void countWithDexReader() throws IOException {
+        DexReader reader = new DexReader(FileUtils.readFile(file));
+        int classCount = reader.getClassCount();
+
+        methodCount = 0;
+        codeUnits = -1;
+
+        for (int i = 0; i < classCount; i++) {
+            methodCount += reader.readClass(i).getMethods().size();
+        }
+    }
+
+    /**
+     * Counts by running <code>dexdump</code> over the file and parsing
+     * what it prints.
+     */
+    private void countWithDexdump() throws IOException {
+        Process process = new ProcessBuilder(dexdump, file.getPath())
+            .redirectErrorStream(true).start();
+        BufferedReader in = new BufferedReader(
+                new InputStreamReader(process.getInputStream()));
+
+        methodCount = 0;
+        codeUnits = 0;
+
+        try {
+            for (;;) {
+                String line = in.readLine();
+
+                if (line == null) {
+                    break;
+                }
+
+                if (line.startsWith(DEXDUMP_INSNS_SIZE)) {
+                    int end = line.indexOf(' ', DEXDUMP_INSNS_SIZE.length());
+                    codeUnits += Integer.parseInt(
+                            line.substring(DEXDUMP_INSNS_SIZE.length(), end));
+                } else if (line.startsWith(DEXDUMP_CODE)) {
+                    methodCount++;
+                }
+            }
+        } finally {
+            in.close();
+        }
+
+        try {
+            process.waitFor();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
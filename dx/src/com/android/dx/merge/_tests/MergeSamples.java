@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.merge._tests;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Class whose <code>dex</code> form the tests of the merger read back
+ * and write out again. Between them its members have most of what a
+ * class's definition and code can hold: static values, annotations,
+ * a signature, an inner class, exceptions thrown and caught, switch and
+ * array data payloads and every kind of constant reference. What
+ * matters is the shape of the code javac makes of them, not what they
+ * compute.
+ */
+class MergeSamples<T> implements Comparable<MergeSamples<T>> {
+    /** the last string of any file; see {@link #last} */
+    static final String LAST = "\uffff";
+
+    static final int COUNT = 42;
+    static final long BIG = 1234567890123L;
+    /**
+     * the name the implicit <code>this</code> arguments get in the
+     * local variable info, which the debug info itself never refers
+     * to; this keeps it in a merged file
+     */
+    static final String NAME = "this";
+    static final Class<?> TYPE = MergeSamples.class;
+
+    @Deprecated
+    static int counter;
+
+    private final List<T> items = new ArrayList<T>();
+
+    /**
+     * Nested class, for the inner class annotations.
+     */
+    static class Node {
+        Node next;
+        Object value;
+    }
+
+    @Deprecated
+    void add(T item) throws IOException {
+        if (item == null) {
+            throw new IOException("null");
+        }
+        items.add(item);
+        counter++;
+    }
+
+    int size(int bias) {
+        try {
+            return items.size() + bias;
+        } catch (RuntimeException ex) {
+            return -1;
+        } finally {
+            counter++;
+        }
+    }
+
+    static String describe(int i) {
+        switch (i) {
+            case 1: return "one";
+            case 2: return "two";
+            case 3: return NAME;
+        }
+
+        switch (i) {
+            case 10: return "ten";
+            case 1000: return "thousand";
+            case 100000: return "lots";
+        }
+
+        return String.valueOf(i);
+    }
+
+    static int sum(int i) {
+        int[] a = { 1, 2, 3, 4, 5 };
+        long[] l = { BIG, -1L };
+        double d = 2.5 * i;
+
+        return a[i] + (int) l[i & 1] + (int) d;
+    }
+
+    static Node link(Node first, Object value) {
+        Node result = new Node();
+        result.next = first;
+        result.value = value;
+        return result;
+    }
+
+    /**
+     * Gets {@link #LAST}, with a <code>const-string</code> rather than
+     * a <code>const-string/jumbo</code> in any file with fewer than
+     * 65536 strings.
+     */
+    static String last() {
+        return LAST;
+    }
+
+    public int compareTo(MergeSamples<T> other) {
+        return items.size() - other.items.size();
+    }
+}
@@ -0,0 +1,412 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.merge._tests;
+
+import com.android.dx.cf.direct.DirectClassFile;
+import com.android.dx.cf.direct.StdAttributeFactory;
+import com.android.dx.cf.iface.Field;
+import com.android.dx.cf.iface.FieldList;
+import com.android.dx.cf.iface.Method;
+import com.android.dx.cf.iface.MethodList;
+import com.android.dx.dex.cf.CfOptions;
+import com.android.dx.dex.cf.CfTranslator;
+import com.android.dx.dex.file.DexFile;
+import com.android.dx.merge.DexBuffer;
+import com.android.dx.rop.code.AccessFlags;
+import com.android.dx.rop.type.TypeList;
+import com.android.dx.util.ExceptionWithContext;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.zip.Adler32;
+
+/**
+ * Test the class <code>com.android.dx.merge.DexBuffer</code>, by
+ * reading back a file that dx wrote of a few of its own classes and
+ * checking each section against the class files it was made from.
+ */
+public class _DexBuffer
+        extends TestCase {
+    /** non-null; classes to translate */
+    private static final String[] CLASSES = {
+        "com/android/dx/util/IntList",
+        "com/android/dx/util/Hex",
+        "com/android/dx/merge/DexBuffer",
+        "com/android/dx/merge/DexBuffer$ClassData"
+    };
+
+    public void test_header() throws IOException {
+        byte[] dex = build();
+        DexBuffer buffer = new DexBuffer(dex);
+        Adler32 adler = new Adler32();
+
+        adler.update(dex, 12, dex.length - 12);
+        assertEquals(dex.length, buffer.getFileSize());
+        assertEquals((int) adler.getValue(), buffer.getChecksum());
+        assertEquals(CLASSES.length, buffer.getClassCount());
+        assertTrue(buffer.getDataSize() > 0);
+    }
+
+    public void test_stringsAndTypes() throws IOException {
+        DexBuffer buffer = new DexBuffer(build());
+        int stringCount = buffer.getStringCount();
+        int typeCount = buffer.getTypeCount();
+        String last = null;
+
+        // Strings are sorted, and each has the length it claims.
+        for (int i = 0; i < stringCount; i++) {
+            String string = buffer.getString(i);
+
+            assertEquals(string.length(), buffer.getStringLength(i));
+            if (last != null) {
+                assertTrue(string, last.compareTo(string) < 0);
+            }
+            last = string;
+        }
+
+        // Types are sorted by their descriptors' indices.
+        int lastIndex = -1;
+        for (int i = 0; i < typeCount; i++) {
+            int index = buffer.getTypeDescriptorIndex(i);
+
+            assertTrue(index > lastIndex);
+            assertTrue(index < stringCount);
+            lastIndex = index;
+        }
+
+        assertTrue(typeCount > CLASSES.length);
+    }
+
+    public void test_idsInRange() throws IOException {
+        DexBuffer buffer = new DexBuffer(build());
+        int stringCount = buffer.getStringCount();
+        int typeCount = buffer.getTypeCount();
+        int protoCount = buffer.getProtoCount();
+
+        for (int i = 0; i < protoCount; i++) {
+            String shorty = buffer.getString(buffer.getProtoShortyIndex(i));
+            int paramsOff = buffer.getProtoParametersOffset(i);
+            int paramCount =
+                (paramsOff == 0) ? 0 : buffer.getTypeListSize(paramsOff);
+
+            assertTrue(buffer.getProtoReturnTypeIndex(i) < typeCount);
+            assertEquals(paramCount + 1, shorty.length());
+            for (int j = 0; j < paramCount; j++) {
+                assertTrue(buffer.getTypeListEntry(paramsOff, j) < typeCount);
+            }
+        }
+
+        for (int i = 0; i < buffer.getFieldCount(); i++) {
+            assertTrue(buffer.getFieldClassIndex(i) < typeCount);
+            assertTrue(buffer.getFieldTypeIndex(i) < typeCount);
+            assertTrue(buffer.getFieldNameIndex(i) < stringCount);
+        }
+
+        for (int i = 0; i < buffer.getMethodCount(); i++) {
+            assertTrue(buffer.getMethodClassIndex(i) < typeCount);
+            assertTrue(buffer.getMethodProtoIndex(i) < protoCount);
+            assertTrue(buffer.getMethodNameIndex(i) < stringCount);
+        }
+    }
+
+    public void test_classDefs() throws IOException {
+        DexBuffer buffer = new DexBuffer(build());
+        HashSet<String> seen = new HashSet<String>();
+
+        for (int i = 0; i < buffer.getClassCount(); i++) {
+            String descriptor = typeDescriptor(buffer,
+                    buffer.getClassTypeIndex(i));
+            String name = descriptor.substring(1, descriptor.length() - 1);
+            DirectClassFile cf = parse(name);
+            TypeList interfaces = cf.getInterfaces();
+            int interfacesOff = buffer.getClassInterfacesOffset(i);
+
+            assertTrue(descriptor, seen.add(name));
+            assertEquals(descriptor,
+                    cf.getAccessFlags() & ~AccessFlags.ACC_SUPER,
+                    buffer.getClassAccessFlags(i));
+            assertEquals(descriptor,
+                    cf.getSuperclass().getClassType().getDescriptor(),
+                    typeDescriptor(buffer,
+                            buffer.getClassSuperclassIndex(i)));
+            assertEquals(descriptor, cf.getSourceFile().getString(),
+                    buffer.getString(buffer.getClassSourceFileIndex(i)));
+            assertEquals(descriptor, interfaces.size(),
+                    (interfacesOff == 0) ? 0 :
+                    buffer.getTypeListSize(interfacesOff));
+            for (int j = 0; j < interfaces.size(); j++) {
+                assertEquals(descriptor,
+                        interfaces.getType(j).getDescriptor(),
+                        typeDescriptor(buffer,
+                                buffer.getTypeListEntry(interfacesOff, j)));
+            }
+        }
+
+        assertEquals(CLASSES.length, seen.size());
+    }
+
+    public void test_classData() throws IOException {
+        DexBuffer buffer = new DexBuffer(build());
+        DexBuffer.ClassData data = buffer.newClassData();
+
+        for (int i = 0; i < buffer.getClassCount(); i++) {
+            String descriptor = typeDescriptor(buffer,
+                    buffer.getClassTypeIndex(i));
+            DirectClassFile cf =
+                parse(descriptor.substring(1, descriptor.length() - 1));
+            HashSet<String> expected = new HashSet<String>();
+            HashSet<String> actual = new HashSet<String>();
+            FieldList fields = cf.getFields();
+            MethodList methods = cf.getMethods();
+
+            for (int j = 0; j < fields.size(); j++) {
+                Field one = fields.get(j);
+                expected.add(one.getName().getString() + ":" +
+                        one.getDescriptor().getString() + " " +
+                        one.getAccessFlags());
+            }
+
+            for (int j = 0; j < methods.size(); j++) {
+                Method one = methods.get(j);
+                int accessFlags = one.getAccessFlags();
+
+                if (one.getName().getString().equals("<init>") ||
+                        one.getName().getString().equals("<clinit>")) {
+                    accessFlags |= AccessFlags.ACC_CONSTRUCTOR;
+                }
+
+                expected.add(one.getName().getString() +
+                        one.getDescriptor().getString() + " " + accessFlags);
+            }
+
+            data.reset(buffer.getClassDataOffset(i));
+            assertEquals(fields.size(), data.getStaticFieldsSize() +
+                    data.getInstanceFieldsSize());
+            assertEquals(methods.size(), data.getDirectMethodsSize() +
+                    data.getVirtualMethodsSize());
+
+            while (data.next()) {
+                int index = data.getMemberIndex();
+
+                if (data.isMethod()) {
+                    boolean hasCode = (data.getAccessFlags() &
+                            (AccessFlags.ACC_ABSTRACT |
+                                    AccessFlags.ACC_NATIVE)) == 0;
+
+                    assertEquals(descriptor, buffer.getClassTypeIndex(i),
+                            buffer.getMethodClassIndex(index));
+                    assertEquals(hasCode, data.getCodeOffset() != 0);
+                    actual.add(buffer.getString(
+                                    buffer.getMethodNameIndex(index)) +
+                            protoDescriptor(buffer,
+                                    buffer.getMethodProtoIndex(index)) +
+                            " " + data.getAccessFlags());
+                } else {
+                    boolean isStatic = (data.getAccessFlags() &
+                            AccessFlags.ACC_STATIC) != 0;
+
+                    assertEquals(descriptor, buffer.getClassTypeIndex(i),
+                            buffer.getFieldClassIndex(index));
+                    assertEquals(isStatic, data.isStaticField());
+                    assertEquals(0, data.getCodeOffset());
+                    actual.add(buffer.getString(
+                                    buffer.getFieldNameIndex(index)) +
+                            ":" + typeDescriptor(buffer,
+                                    buffer.getFieldTypeIndex(index)) +
+                            " " + data.getAccessFlags());
+                }
+            }
+
+            assertEquals(descriptor, expected, actual);
+        }
+    }
+
+    public void test_codeItems() throws IOException {
+        byte[] dex = build();
+        DexBuffer buffer = new DexBuffer(dex);
+        DexBuffer.ClassData data = buffer.newClassData();
+        ArrayList<Integer> offsets = new ArrayList<Integer>();
+        int dataStart = buffer.getFileSize() - buffer.getDataSize();
+
+        for (int i = 0; i < buffer.getClassCount(); i++) {
+            data.reset(buffer.getClassDataOffset(i));
+
+            while (data.next()) {
+                int offset = data.getCodeOffset();
+
+                if (offset == 0) {
+                    continue;
+                }
+
+                int insnsSize = buffer.getCodeInsnsSize(offset);
+
+                assertTrue(offset >= dataStart);
+                assertTrue(insnsSize > 0);
+                assertTrue(buffer.getCodeInsSize(offset) <=
+                        buffer.getCodeRegistersSize(offset));
+                offsets.add(offset);
+            }
+        }
+
+        /*
+         * The items are laid out one after another, aligned to four
+         * bytes, so each one's size has to take it to the start of the
+         * next, give or take the padding, which is zeroes.
+         */
+        Collections.sort(offsets);
+        for (int i = 0; i < offsets.size() - 1; i++) {
+            int offset = offsets.get(i);
+            int end = offset + buffer.getCodeItemSize(offset);
+            int next = offsets.get(i + 1);
+
+            assertEquals(next, (end + 3) & ~3);
+            for (int j = end; j < next; j++) {
+                assertEquals(0, dex[j]);
+            }
+        }
+
+        assertFalse(offsets.isEmpty());
+    }
+
+    public void test_badFiles() throws IOException {
+        byte[] dex = build();
+        byte[] copy = dex.clone();
+
+        copy[3] = '9';
+        assertBad(copy);
+
+        // Too short, or not the size the header says.
+        assertBad(new byte[0x20]);
+        copy = new byte[dex.length - 1];
+        System.arraycopy(dex, 0, copy, 0, copy.length);
+        assertBad(copy);
+
+        // A section that runs off the end.
+        copy = dex.clone();
+        copy[0x39] = 0x7f;
+        assertBad(copy);
+
+        // A buffer's position is where the file starts.
+        ByteBuffer wrapped = ByteBuffer.allocate(dex.length + 4);
+        wrapped.position(4);
+        wrapped.put(dex);
+        wrapped.position(4);
+        assertEquals(dex.length, new DexBuffer(wrapped).getFileSize());
+    }
+
+    /**
+     * Checks that a file is rejected.
+     *
+     * @param dex non-null; the file
+     */
+    private static void assertBad(byte[] dex) {
+        try {
+            new DexBuffer(dex);
+            fail("expected ExceptionWithContext");
+        } catch (ExceptionWithContext expected) {
+        }
+    }
+
+    /**
+     * Gets the descriptor of a type.
+     */
+    private static String typeDescriptor(DexBuffer buffer, int index) {
+        return buffer.getString(buffer.getTypeDescriptorIndex(index));
+    }
+
+    /**
+     * Gets the method descriptor a prototype stands for.
+     */
+    private static String protoDescriptor(DexBuffer buffer, int index) {
+        StringBuilder sb = new StringBuilder("(");
+        int paramsOff = buffer.getProtoParametersOffset(index);
+
+        if (paramsOff != 0) {
+            for (int i = 0; i < buffer.getTypeListSize(paramsOff); i++) {
+                sb.append(typeDescriptor(buffer,
+                                buffer.getTypeListEntry(paramsOff, i)));
+            }
+        }
+
+        sb.append(')');
+        sb.append(typeDescriptor(buffer,
+                        buffer.getProtoReturnTypeIndex(index)));
+        return sb.toString();
+    }
+
+    /**
+     * Builds a dex file of {@link #CLASSES}.
+     *
+     * @return non-null; the file
+     */
+    private static byte[] build() throws IOException {
+        DexFile file = new DexFile();
+
+        for (String name : CLASSES) {
+            String path = name + ".class";
+            file.add(CfTranslator.translate(path, readResource("/" + path),
+                            new CfOptions()));
+        }
+
+        return file.toDex(null, false);
+    }
+
+    /**
+     * Parses one of {@link #CLASSES}.
+     *
+     * @param name non-null; the class's internal name
+     * @return non-null; the parsed class file
+     */
+    private static DirectClassFile parse(String name) throws IOException {
+        String path = name + ".class";
+        DirectClassFile cf =
+            new DirectClassFile(readResource("/" + path), path, false);
+
+        cf.setAttributeFactory(StdAttributeFactory.THE_ONE);
+        return cf;
+    }
+
+    /**
+     * Reads a class file from the class path.
+     */
+    private static byte[] readResource(String name) throws IOException {
+        InputStream in = _DexBuffer.class.getResourceAsStream(name);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+
+        try {
+            for (;;) {
+                int count = in.read(buf);
+                if (count < 0) {
+                    break;
+                }
+                out.write(buf, 0, count);
+            }
+        } finally {
+            in.close();
+        }
+
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.merge._tests;
+
+import com.android.dx.dex.cf.CfOptions;
+import com.android.dx.dex.cf.CfTranslator;
+import com.android.dx.dex.code.PositionList;
+import com.android.dx.dex.file.ClassDefItem;
+import com.android.dx.dex.file.DexFile;
+import com.android.dx.merge.DexMerger;
+import com.android.dx.rop.annotation.Annotation;
+import com.android.dx.rop.annotation.AnnotationVisibility;
+import com.android.dx.rop.annotation.Annotations;
+import com.android.dx.rop.annotation.NameValuePair;
+import com.android.dx.rop.code.AccessFlags;
+import com.android.dx.rop.cst.CstArray;
+import com.android.dx.rop.cst.CstString;
+import com.android.dx.rop.cst.CstType;
+import com.android.dx.rop.cst.CstUtf8;
+import com.android.dx.rop.type.StdTypeList;
+import com.android.dx.rop.type.Type;
+import com.android.dx.util.ExceptionWithContext;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Test the class <code>com.android.dx.merge.DexMerger</code>, and with
+ * it <code>DexReader</code> and the prebuilt code and debug info items,
+ * by merging files dx wrote of {@link MergeSamples} and a few of dx's
+ * own classes and comparing the result, byte for byte, with translating
+ * all of them in one go.
+ */
+public class _DexMerger
+        extends TestCase {
+    /** non-null; classes to put in the first file */
+    private static final String[] FIRST = {
+        "com/android/dx/merge/_tests/MergeSamples",
+        "com/android/dx/merge/_tests/MergeSamples$Node"
+    };
+
+    /** non-null; classes to put in the second file */
+    private static final String[] SECOND = {
+        "com/android/dx/util/IntList",
+        "com/android/dx/util/Hex",
+        "com/android/dx/util/Bits"
+    };
+
+    public void test_mergeMatchesOnePass() throws IOException {
+        byte[] merged = merge(build(FIRST, true), build(SECOND, true));
+        byte[] onePass = build(union(FIRST, SECOND), true);
+
+        assertTrue(Arrays.equals(onePass, merged));
+    }
+
+    public void test_mergeWithoutDebugInfo() throws IOException {
+        byte[] merged = merge(build(FIRST, false), build(SECOND, false));
+        byte[] onePass = build(union(FIRST, SECOND), false);
+
+        assertTrue(Arrays.equals(onePass, merged));
+    }
+
+    public void test_orderDoesntMatter() throws IOException {
+        byte[] first = build(FIRST, true);
+        byte[] second = build(SECOND, true);
+
+        assertTrue(Arrays.equals(merge(first, second), merge(second, first)));
+    }
+
+    public void test_mergeIsIdempotent() throws IOException {
+        byte[] merged = merge(build(FIRST, true), build(SECOND, true));
+
+        assertTrue(Arrays.equals(merged, merge(merged)));
+    }
+
+    public void test_classDefinedTwice() throws IOException {
+        DexMerger merger = new DexMerger();
+        byte[] first = build(FIRST, true);
+
+        assertEquals(FIRST.length, merger.add(first));
+
+        try {
+            merger.add(first);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    public void test_constStringPastTheFirst65536() throws IOException {
+        /*
+         * With more than 65536 strings before it, the string that
+         * <code>last()</code> loads can't be referred to by the
+         * <code>const-string</code> it was translated to, and the merge
+         * has to fail rather than write out a truncated index.
+         */
+        DexMerger merger = new DexMerger();
+
+        merger.add(build(FIRST, true));
+        merger.add(manyStrings(0x10000));
+
+        try {
+            merger.toDex(null, false);
+            fail("expected ExceptionWithContext");
+        } catch (ExceptionWithContext expected) {
+            assertTrue(expected.getCause()
+                    instanceof UnsupportedOperationException);
+            assertTrue(expected.getMessage(),
+                    expected.getMessage().indexOf("doesn't fit") >= 0);
+            assertTrue(expected.getContext(),
+                    expected.getContext().indexOf("MergeSamples.last") >= 0);
+        }
+
+        // With as many as make it the 65536th string, it just fits.
+        byte[] first = build(FIRST, true);
+        int baseCount = getStringCount(merge(first, manyStrings(0)));
+
+        assertEquals(0x10000, getStringCount(merge(first,
+                                manyStrings(0x10000 - baseCount))));
+    }
+
+    /**
+     * Builds a dex file of the given classes.
+     *
+     * @param classes non-null; the classes
+     * @param debugInfo whether to keep line numbers and local variables
+     * @return non-null; the file
+     */
+    private static byte[] build(String[] classes, boolean debugInfo)
+            throws IOException {
+        CfOptions options = new CfOptions();
+        DexFile file = new DexFile();
+
+        options.localInfo = debugInfo;
+        if (!debugInfo) {
+            options.positionInfo = PositionList.NONE;
+        }
+
+        for (String name : classes) {
+            String path = name + ".class";
+            file.add(CfTranslator.translate(path, readResource("/" + path),
+                            options));
+        }
+
+        return file.toDex(null, false);
+    }
+
+    /**
+     * Builds a dex file of a class with an annotation holding the given
+     * number of strings, all of which sort after every other string
+     * but {@link MergeSamples#LAST}. Only the string ids grow with it,
+     * and only the index of that last string is pushed past what its
+     * instruction holds.
+     *
+     * @param count &gt;= 0; the number of strings
+     * @return non-null; the file
+     */
+    private static byte[] manyStrings(int count) throws IOException {
+        CstType type = CstType.intern(
+                Type.intern("Lcom/android/dx/merge/_tests/ManyStrings;"));
+        ClassDefItem clazz = new ClassDefItem(type, AccessFlags.ACC_PUBLIC,
+                CstType.OBJECT, StdTypeList.EMPTY, null);
+        Annotation annotation = new Annotation(CstType.intern(
+                        Type.intern("Lcom/android/dx/merge/_tests/Strings;")),
+                AnnotationVisibility.BUILD);
+        CstArray.List strings = new CstArray.List(count);
+        Annotations annotations = new Annotations();
+        DexFile file = new DexFile();
+
+        for (int i = 0; i < count; i++) {
+            strings.set(i, new CstString("\uff00" + i));
+        }
+        strings.setImmutable();
+
+        annotation.put(new NameValuePair(new CstUtf8("value"),
+                        new CstArray(strings)));
+        annotation.setImmutable();
+        annotations.add(annotation);
+        annotations.setImmutable();
+        clazz.setClassAnnotations(annotations);
+
+        file.add(clazz);
+        return file.toDex(null, false);
+    }
+
+    /**
+     * Merges the given files.
+     *
+     * @param files non-null; the files
+     * @return non-null; the merged file
+     */
+    private static byte[] merge(byte[]... files) throws IOException {
+        DexMerger merger = new DexMerger();
+
+        for (byte[] file : files) {
+            merger.add(file);
+        }
+
+        return merger.toDex(null, false);
+    }
+
+    /**
+     * Gets the number of strings in a file, from its header.
+     *
+     * @param dex non-null; the file
+     * @return the string count
+     */
+    private static int getStringCount(byte[] dex) {
+        return (dex[0x38] & 0xff) | ((dex[0x39] & 0xff) << 8) |
+            ((dex[0x3a] & 0xff) << 16) | ((dex[0x3b] & 0xff) << 24);
+    }
+
+    /**
+     * Gets the classes of both lists in one.
+     */
+    private static String[] union(String[] first, String[] second) {
+        String[] result = new String[first.length + second.length];
+
+        System.arraycopy(first, 0, result, 0, first.length);
+        System.arraycopy(second, 0, result, first.length, second.length);
+        return result;
+    }
+
+    /**
+     * Reads a class file from the class path.
+     */
+    private static byte[] readResource(String name) throws IOException {
+        InputStream in = _DexMerger.class.getResourceAsStream(name);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+
+        try {
+            for (;;) {
+                int count = in.read(buf);
+                if (count < 0) {
+                    break;
+                }
+                out.write(buf, 0, count);
+            }
+        } finally {
+            in.close();
+        }
+
+        return out.toByteArray();
+    }
+}
@@ -20,10 +20,9 @@ import com.android.dx.rop.cst.Constant;
 import com.android.dx.rop.cst.CstUtf8;
 import com.android.dx.rop.type.Type;
 import com.android.dx.rop.type.TypeBearer;
+import com.android.dx.util.InternTable;
 import com.android.dx.util.ToHuman;
 
-import java.util.HashMap;
-
 /**
  * Combination of a register number and a type, used as the sources and
  * destinations of register-based operations.
@@ -34,11 +33,17 @@ public final class RegisterSpec
     public static final String PREFIX = "v";
 
     /** non-null; intern table for instances */
-    private static final HashMap<Object, RegisterSpec> theInterns =
-        new HashMap<Object, RegisterSpec>(1000);
-
-    /** non-null; common comparison instance used while interning */
-    private static final ForComparison theInterningItem = new ForComparison();
+    private static final InternTable<ForComparison, RegisterSpec> theInterns =
+        new InternTable<ForComparison, RegisterSpec>(1000);
+
+    /** non-null; per-thread comparison instance used while interning */
+    private static final ThreadLocal<ForComparison> theInterningItem =
+        new ThreadLocal<ForComparison>() {
+            @Override
+            protected ForComparison initialValue() {
+                return new ForComparison();
+            }
+        };
 
     /** &gt;= 0; register number */
     private final int reg;
@@ -60,16 +65,20 @@ public final class RegisterSpec
      */
     private static RegisterSpec intern(int reg, TypeBearer type,
             LocalItem local) {
-        theInterningItem.set(reg, type, local);
-        RegisterSpec found = theInterns.get(theInterningItem);
+        ForComparison interningItem = theInterningItem.get();
+        interningItem.set(reg, type, local);
+        RegisterSpec found = theInterns.get(interningItem);
 
         if (found != null) {
             return found;
         }
 
-        found = theInterningItem.toRegisterSpec();
-        theInterns.put(found, found);
-        return found;
+        /*
+         * The table's key has to be a copy of the probe that doesn't
+         * refer to the instance, so that the instance can be collected.
+         */
+        found = interningItem.toRegisterSpec();
+        return theInterns.intern(interningItem.copy(), found);
     }
 
     /**
@@ -532,9 +541,28 @@ public final class RegisterSpec
             return new RegisterSpec(reg, type, local);
         }
 
+        /**
+         * Construct a new instance with the same contents as this one.
+         *
+         * @return non-null; an appropriately-constructed instance
+         */
+        public ForComparison copy() {
+            ForComparison result = new ForComparison();
+            result.set(reg, type, local);
+            return result;
+        }
+
         /** {@inheritDoc} */
         @Override
         public boolean equals(Object other) {
+            if (other instanceof ForComparison) {
+                ForComparison fc = (ForComparison) other;
+                return (reg == fc.reg)
+                    && type.equals(fc.type)
+                    && ((local == fc.local)
+                            || ((local != null) && local.equals(fc.local)));
+            }
+
             if (!(other instanceof RegisterSpec)) {
                 return false;
             }
@@ -17,16 +17,15 @@
 package com.android.dx.rop.cst;
 
 import com.android.dx.rop.type.Type;
-
-import java.util.HashMap;
+import com.android.dx.util.InternTable;
 
 /**
  * Constants that represent an arbitrary type (reference or primitive).
  */
 public final class CstType extends TypedConstant {
     /** non-null; map of interned types */
-    private static final HashMap<Type, CstType> interns =
-        new HashMap<Type, CstType>(100);
+    private static final InternTable<Type, CstType> interns =
+        new InternTable<Type, CstType>(100);
 
     /** non-null; instance corresponding to the class <code>Object</code> */
     public static final CstType OBJECT = intern(Type.OBJECT);
@@ -126,8 +125,7 @@ public final class CstType extends TypedConstant {
         CstType cst = interns.get(type);
 
         if (cst == null) {
-            cst = new CstType(type);
-            interns.put(type, cst);
+            cst = interns.intern(type, new CstType(type));
         }
 
         return cst;
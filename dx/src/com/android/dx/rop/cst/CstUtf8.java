@@ -29,12 +29,13 @@ public final class CstUtf8 extends Constant {
      */
     public static final CstUtf8 EMPTY_STRING = new CstUtf8("");
     
-    /** non-null; the UTF-8 value as a string */
+    /**
+     * non-null; the UTF-8 value as a string; the bytes aren't kept as
+     * well, since they are easily recreated when needed, and the
+     * bytes parsed out of a class file would keep the whole file alive
+     */
     private final String string;
 
-    /** non-null; the UTF-8 value as bytes */
-    private final ByteArray bytes;
-
     /**
      * Converts a string into its Java-style UTF-8 form. Java-style UTF-8
      * differs from normal UTF-8 in the handling of character '\0' and
@@ -70,6 +71,31 @@ public final class CstUtf8 extends Constant {
         return result;
     }
 
+    /**
+     * Gets the size of the Java-style UTF-8 form of a string, without
+     * actually converting it.
+     *
+     * @param string non-null; the string
+     * @return &gt;= 0; the number of UTF-8 bytes for it
+     */
+    private static int utf8Size(String string) {
+        int len = string.length();
+        int result = 0;
+
+        for (int i = 0; i < len; i++) {
+            char c = string.charAt(i);
+            if ((c != 0) && (c < 0x80)) {
+                result++;
+            } else if (c < 0x800) {
+                result += 2;
+            } else {
+                result += 3;
+            }
+        }
+
+        return result;
+    }
+
     /**
      * Converts an array of UTF-8 bytes into a string.
      * 
@@ -183,7 +209,6 @@ public final class CstUtf8 extends Constant {
         }
 
         this.string = string.intern();
-        this.bytes = new ByteArray(stringToUtf8Bytes(string));
     }
 
     /**
@@ -196,7 +221,6 @@ public final class CstUtf8 extends Constant {
             throw new NullPointerException("bytes == null");
         }
 
-        this.bytes = bytes;
         this.string = utf8BytesToString(bytes).intern();
     }
 
@@ -339,12 +363,13 @@ public final class CstUtf8 extends Constant {
     }
 
     /**
-     * Gets the UTF-8 value as UTF-8 encoded bytes.
+     * Gets the UTF-8 value as UTF-8 encoded bytes. The bytes are
+     * converted anew on each call.
      * 
      * @return non-null; an array of the UTF-8 bytes
      */
     public ByteArray getBytes() {
-        return bytes;
+        return new ByteArray(stringToUtf8Bytes(string));
     }
 
     /**
@@ -354,7 +379,7 @@ public final class CstUtf8 extends Constant {
      * @return &gt;= 0; the UTF-8 size
      */
     public int getUtf8Size() {
-        return bytes.size();
+        return utf8Size(string);
     }
 
     /**
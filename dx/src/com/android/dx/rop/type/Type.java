@@ -17,8 +17,7 @@
 package com.android.dx.rop.type;
 
 import com.android.dx.util.Hex;
-
-import java.util.HashMap;
+import com.android.dx.util.InternTable;
 
 /**
  * Representation of a value type, such as may appear in a field, in a
@@ -28,8 +27,8 @@ import java.util.HashMap;
  */
 public final class Type implements TypeBearer, Comparable<Type> {
     /** non-null; intern table mapping string descriptors to instances */
-    private static final HashMap<String, Type> internTable = 
-        new HashMap<String, Type>(500);
+    private static final InternTable<String, Type> internTable =
+        new InternTable<String, Type>(500);
 
     /** basic type constant for <code>void</code> */
     public static final int BT_VOID = 0;
@@ -842,14 +841,6 @@ public final class Type implements TypeBearer, Comparable<Type> {
      * @return non-null; the actual interned object
      */
     private static Type putIntern(Type type) {
-        synchronized (internTable) {
-            String descriptor = type.getDescriptor();
-            Type already = internTable.get(descriptor);
-            if (already != null) {
-                return already;
-            }
-            internTable.put(descriptor, type);
-            return type;
-        }
+        return internTable.intern(type.getDescriptor(), type);
     }
 }
@@ -0,0 +1,326 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.ssa;
+
+import com.android.dx.rop.code.AccessFlags;
+import com.android.dx.rop.code.RopMethod;
+import com.android.dx.rop.cst.Constant;
+import com.android.dx.rop.cst.CstBaseMethodRef;
+import com.android.dx.rop.cst.CstMemberRef;
+import com.android.dx.rop.cst.CstType;
+import com.android.dx.rop.type.Type;
+
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The classes that go into one dex file, as far as inlining calls
+ * between them is concerned: the access flags of all their members,
+ * and the bodies of the methods that {@link MethodInliner} may inline.
+ * An instance is filled in by one thread before any methods are
+ * optimized, and from then on may be read from any number of them.
+ *
+ * <p>Since the inlined code runs in the caller's class, where the
+ * verifier checks access all over again, a method is only inlined into
+ * callers that can see everything it refers to. Nothing outside the
+ * dex file is taken to be visible, since its access flags aren't
+ * known. In particular, a synthetic <code>access$NNN</code> method
+ * that exists to reach a private member is never inlined outside the
+ * member's own class.</p>
+ */
+public final class InlinableMethods {
+    /** the largest body size, in instructions, of an inlinable method */
+    private final int maxSize;
+
+    /** non-null; information about each class, by type */
+    private final HashMap<Type, ClassInfo> classes;
+
+    /** non-null; access flags of each member of the classes */
+    private final HashMap<CstMemberRef, Integer> memberFlags;
+
+    /** non-null; the inlinable methods */
+    private final HashMap<CstBaseMethodRef, TrivialMethod> methods;
+
+    /** non-null; the number of calls inlined so far */
+    private final AtomicInteger inlinedCount;
+
+    /**
+     * Constructs an empty instance.
+     *
+     * @param maxSize &gt;= 0; the largest body size, in instructions
+     * other than moves, of an inlinable method
+     */
+    public InlinableMethods(int maxSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("maxSize < 0");
+        }
+
+        this.maxSize = maxSize;
+        this.classes = new HashMap<Type, ClassInfo>();
+        this.memberFlags = new HashMap<CstMemberRef, Integer>();
+        this.methods = new HashMap<CstBaseMethodRef, TrivialMethod>();
+        this.inlinedCount = new AtomicInteger();
+    }
+
+    /**
+     * Gets the largest body size of an inlinable method.
+     *
+     * @return &gt;= 0; the size, in instructions other than moves
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Adds a class.
+     *
+     * @param type non-null; the class
+     * @param accessFlags the class's access flags
+     * @param superclass null-ok; the superclass, if any
+     * @param hasClassInit whether the class has a static initializer
+     */
+    public void addClass(CstType type, int accessFlags, CstType superclass,
+            boolean hasClassInit) {
+        classes.put(type.getClassType(),
+                new ClassInfo(accessFlags, superclass, hasClassInit));
+    }
+
+    /**
+     * Adds a field or method of a class.
+     *
+     * @param member non-null; the member
+     * @param accessFlags the member's access flags
+     */
+    public void addMember(CstMemberRef member, int accessFlags) {
+        memberFlags.put(member, accessFlags);
+    }
+
+    /**
+     * Tells whether a method is worth looking at as a candidate for
+     * inlining, that is, whether it has code and can't be overridden.
+     *
+     * @param method non-null; the method
+     * @param accessFlags the method's access flags
+     * @param classAccessFlags the access flags of the method's class
+     * @return whether it's a candidate
+     */
+    public boolean isCandidate(CstBaseMethodRef method, int accessFlags,
+            int classAccessFlags) {
+        if (method.isInstanceInit() || method.isClassInit()
+                || AccessFlags.isSynchronized(accessFlags)
+                || AccessFlags.isNative(accessFlags)
+                || AccessFlags.isAbstract(accessFlags)) {
+            return false;
+        }
+
+        return AccessFlags.isStatic(accessFlags)
+            || AccessFlags.isPrivate(accessFlags)
+            || ((accessFlags & AccessFlags.ACC_FINAL) != 0)
+            || ((classAccessFlags & AccessFlags.ACC_FINAL) != 0);
+    }
+
+    /**
+     * Adds a method that {@link #isCandidate} accepted. It is only
+     * kept if its body qualifies.
+     *
+     * @param method non-null; the method
+     * @param isStatic whether the method is static
+     * @param rmeth non-null; the method's code
+     * @return whether the method was kept
+     */
+    public boolean addMethod(CstBaseMethodRef method, boolean isStatic,
+            RopMethod rmeth) {
+        TrivialMethod trivial =
+            TrivialMethod.make(method, isStatic, rmeth, maxSize);
+
+        if (trivial == null) {
+            return false;
+        }
+
+        methods.put(method, trivial);
+        return true;
+    }
+
+    /**
+     * Gets the inlinable method with the given reference.
+     *
+     * @param method non-null; the method
+     * @return null-ok; its body, or <code>null</code> if it
+     * isn't inlinable
+     */
+    public TrivialMethod get(CstBaseMethodRef method) {
+        return methods.get(method);
+    }
+
+    /**
+     * @return &gt;= 0; the number of inlinable methods
+     */
+    public int size() {
+        return methods.size();
+    }
+
+    /**
+     * Notes that a call has been inlined.
+     */
+    /*package*/ void noteInlined() {
+        inlinedCount.incrementAndGet();
+    }
+
+    /**
+     * @return &gt;= 0; the number of calls inlined so far
+     */
+    public int getInlinedCount() {
+        return inlinedCount.get();
+    }
+
+    /**
+     * Tells whether code in the given class may refer to the given
+     * constant. Constants other than types and member references are
+     * always accessible.
+     *
+     * @param caller non-null; the class of the code
+     * @param cst non-null; the constant
+     * @return whether it's accessible
+     */
+    public boolean isAccessible(CstType caller, Constant cst) {
+        if (cst instanceof CstType) {
+            Type type = ((CstType) cst).getClassType();
+
+            while (type.isArray()) {
+                type = type.getComponentType();
+            }
+
+            return type.isPrimitive() || isAccessible(caller, type);
+        }
+
+        if (!(cst instanceof CstMemberRef)) {
+            return true;
+        }
+
+        CstMemberRef member = (CstMemberRef) cst;
+        CstType definer = member.getDefiningClass();
+
+        if (definer.equals(caller)) {
+            return true;
+        }
+
+        Integer flags = memberFlags.get(member);
+
+        if ((flags == null)
+                || !isAccessible(caller, definer.getClassType())) {
+            return false;
+        }
+
+        if (AccessFlags.isPrivate(flags)) {
+            return false;
+        }
+
+        return AccessFlags.isPublic(flags)
+            || samePackage(caller.getClassType(), definer.getClassType());
+    }
+
+    /**
+     * Tells whether code in the given class may refer to the given
+     * class.
+     *
+     * @param caller non-null; the class of the code
+     * @param type non-null; the class referred to
+     * @return whether it's accessible
+     */
+    private boolean isAccessible(CstType caller, Type type) {
+        if (type.equals(caller.getClassType())) {
+            return true;
+        }
+
+        ClassInfo info = classes.get(type);
+
+        if (info == null) {
+            return false;
+        }
+
+        return AccessFlags.isPublic(info.accessFlags)
+            || samePackage(caller.getClassType(), type);
+    }
+
+    /**
+     * Tells whether initializing the given class is sure to run no
+     * code, so that whether or not it gets initialized at some point
+     * makes no difference.
+     *
+     * @param clazz non-null; the class
+     * @return whether that's so
+     */
+    public boolean hasTrivialInit(CstType clazz) {
+        for (;;) {
+            if (clazz.getClassType().equals(Type.OBJECT)) {
+                return true;
+            }
+
+            ClassInfo info = classes.get(clazz.getClassType());
+
+            if ((info == null) || info.hasClassInit) {
+                return false;
+            }
+
+            if (info.superclass == null) {
+                return true;
+            }
+
+            clazz = info.superclass;
+        }
+    }
+
+    /**
+     * Tells whether two classes are in the same package.
+     *
+     * @param type1 non-null; one class
+     * @param type2 non-null; the other class
+     * @return whether they're in the same package
+     */
+    private static boolean samePackage(Type type1, Type type2) {
+        String name1 = type1.getClassName();
+        String name2 = type2.getClassName();
+        int slash1 = name1.lastIndexOf('/');
+        int slash2 = name2.lastIndexOf('/');
+
+        return (slash1 == slash2) && name1.regionMatches(0, name2, 0, slash1 + 1);
+    }
+
+    /**
+     * What's known about a class.
+     */
+    private static class ClassInfo {
+        /** the class's access flags */
+        public final int accessFlags;
+
+        /** null-ok; the superclass */
+        public final CstType superclass;
+
+        /** whether the class has a static initializer */
+        public final boolean hasClassInit;
+
+        /**
+         * Constructs an instance.
+         */
+        public ClassInfo(int accessFlags, CstType superclass,
+                boolean hasClassInit) {
+            this.accessFlags = accessFlags;
+            this.superclass = superclass;
+            this.hasClassInit = hasClassInit;
+        }
+    }
+}
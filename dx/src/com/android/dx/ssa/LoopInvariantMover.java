@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.ssa;
+
+import com.android.dx.rop.code.Insn;
+import com.android.dx.rop.code.RegisterSpec;
+import com.android.dx.rop.code.RegisterSpecList;
+import com.android.dx.rop.code.Rop;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+
+/**
+ * Moves instructions whose results are the same on every iteration of
+ * a loop out of the loop, into its preheader (see {@link
+ * LoopNest.Loop#getPreheader}). Loops are done from the innermost
+ * out, so that an instruction can make its way out of several.
+ *
+ * <p>Only instructions that can't throw and do nothing but compute
+ * their result are moved: arithmetic, logical, comparison and
+ * conversion operations. Constants are left to {@link
+ * ConstCollector}, which places them with the whole method in view;
+ * moving them here only lengthens their live ranges. Since the
+ * instructions moved have no effect that can be seen, running one
+ * before the loop is fine even if the loop would only have run it on
+ * some paths, or not at all. When local variable information is being
+ * preserved, instructions whose results are local variables stay where
+ * they are, as do those whose results feed phi functions.</p>
+ */
+public class LoopInvariantMover {
+    /** method we're processing */
+    private final SsaMethod ssaMeth;
+
+    /** whether local variable information is being preserved */
+    private final boolean preserveLocals;
+
+    /**
+     * non-null; the index of the block defining each register, or
+     * <code>-1</code> for registers with no definition
+     */
+    private final int[] defBlocks;
+
+    /**
+     * Processes a method.
+     *
+     * @param ssaMethod non-null; method to process
+     * @return &gt;= 0; the number of instructions moved
+     */
+    public static int process(SsaMethod ssaMethod) {
+        return new LoopInvariantMover(ssaMethod).run();
+    }
+
+    private LoopInvariantMover(SsaMethod ssaMethod) {
+        this.ssaMeth = ssaMethod;
+        this.preserveLocals = ssaMethod.getContext().getPreserveLocals();
+        this.defBlocks = new int[ssaMethod.getRegCount()];
+    }
+
+    /**
+     * Runs the optimization.
+     *
+     * @return &gt;= 0; the number of instructions moved
+     */
+    private int run() {
+        LoopNest nest = LoopNest.find(ssaMeth);
+
+        if (nest.getLoops().isEmpty()) {
+            return 0;
+        }
+
+        for (int i = 0; i < defBlocks.length; i++) {
+            defBlocks[i] = -1;
+        }
+
+        for (SsaBasicBlock block : ssaMeth.getBlocks()) {
+            for (SsaInsn insn : block.getInsns()) {
+                RegisterSpec result = insn.getResult();
+
+                if (result != null) {
+                    defBlocks[result.getReg()] = block.getIndex();
+                }
+            }
+        }
+
+        int count = 0;
+
+        for (LoopNest.Loop loop : nest.getLoops()) {
+            SsaBasicBlock preheader = loop.getPreheader();
+
+            if (preheader != null) {
+                count += hoist(loop, preheader);
+            }
+        }
+
+        if (count != 0) {
+            ssaMeth.onInsnsChanged();
+        }
+
+        return count;
+    }
+
+    /**
+     * Moves the invariant instructions of a loop into its preheader,
+     * ahead of the branch that ends the preheader. Moving one
+     * instruction may make others invariant, so the loop is gone over
+     * until nothing more moves.
+     *
+     * @param loop non-null; the loop
+     * @param preheader non-null; its preheader
+     * @return &gt;= 0; the number of instructions moved
+     */
+    private int hoist(LoopNest.Loop loop, SsaBasicBlock preheader) {
+        ArrayList<SsaBasicBlock> blocks = ssaMeth.getBlocks();
+        BitSet loopBlocks = loop.getBlocks();
+        ArrayList<SsaInsn> preheaderInsns = preheader.getInsns();
+        int count = 0;
+        boolean changed;
+
+        do {
+            changed = false;
+
+            for (int b = loopBlocks.nextSetBit(0); b >= 0;
+                 b = loopBlocks.nextSetBit(b + 1)) {
+                SsaBasicBlock block = blocks.get(b);
+                ArrayList<SsaInsn> insns = block.getInsns();
+
+                for (int i = block.getPhiInsns().size(); i < insns.size();
+                     i++) {
+                    SsaInsn insn = insns.get(i);
+
+                    if (!isInvariant(insn, loopBlocks)) {
+                        continue;
+                    }
+
+                    insns.remove(i);
+                    i--;
+                    preheaderInsns.add(preheaderInsns.size() - 1,
+                            new NormalSsaInsn(insn.toRopInsn(), preheader));
+                    defBlocks[insn.getResult().getReg()] =
+                        preheader.getIndex();
+                    count++;
+                    changed = true;
+                }
+            }
+        } while (changed);
+
+        return count;
+    }
+
+    /**
+     * Tells whether an instruction of a loop may be moved out of it.
+     *
+     * @param insn non-null; the instruction
+     * @param loopBlocks non-null; the blocks of the loop
+     * @return whether it may be moved
+     */
+    private boolean isInvariant(SsaInsn insn, BitSet loopBlocks) {
+        Insn ropInsn = insn.getOriginalRopInsn();
+
+        if ((ropInsn == null) || (insn.getResult() == null)) {
+            return false;
+        }
+
+        Rop rop = ropInsn.getOpcode();
+        int opcode = rop.getOpcode();
+
+        if (rop.canThrow() || (rop.getBranchingness() != Rop.BRANCH_NONE)
+                || !ValueNumberer.isPureOpcode(opcode)) {
+            return false;
+        }
+
+        RegisterSpecList sources = insn.getSources();
+        int sz = sources.size();
+
+        for (int i = 0; i < sz; i++) {
+            int defBlock = defBlocks[sources.get(i).getReg()];
+
+            if ((defBlock >= 0) && loopBlocks.get(defBlock)) {
+                return false;
+            }
+        }
+
+        RegisterSpec result = insn.getResult();
+
+        if (preserveLocals && ssaMeth.isRegALocal(result)) {
+            return false;
+        }
+
+        /*
+         * A value that flows into a phi gets copied into the phi's
+         * register anyway, so computing it ahead of time only adds a
+         * move and a register.
+         */
+        for (SsaInsn use : ssaMeth.getUseListForRegister(result.getReg())) {
+            if (use instanceof PhiInsn) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,377 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.ssa;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+
+/**
+ * The natural loops of an {@link SsaMethod}, found from the dominator
+ * tree that SSA conversion leaves on the blocks. A loop is made of a
+ * header block, which dominates the rest of it, and every block that
+ * reaches one of the header's predecessors within the loop (the
+ * sources of its back edges) without going through the header. Loops
+ * with the same header are merged, so the loops of a method are either
+ * disjoint or nested.
+ *
+ * <p>An instance describes the method as it was when the instance was
+ * made, and isn't updated as the method changes.</p>
+ */
+public final class LoopNest {
+    /** non-null; orders loops from the most deeply nested out */
+    private static final Comparator<Loop> INNERMOST_FIRST =
+        new Comparator<Loop>() {
+            public int compare(Loop a, Loop b) {
+                if (a.depth != b.depth) {
+                    return b.depth - a.depth;
+                }
+
+                return a.header.getIndex() - b.header.getIndex();
+            }
+        };
+
+    /** non-null; the method */
+    private final SsaMethod ssaMeth;
+
+    /**
+     * non-null; position of each block in a preorder walk of the
+     * dominator tree, indexed by block index, or <code>-1</code> for
+     * blocks not reached
+     */
+    private final int[] preorder;
+
+    /**
+     * non-null; the largest preorder position among the blocks each
+     * block dominates, indexed by block index
+     */
+    private final int[] lastDominated;
+
+    /** non-null; the loops, innermost first */
+    private final ArrayList<Loop> loops;
+
+    /**
+     * Finds the loops of a method.
+     *
+     * @param ssaMeth non-null; the method
+     * @return non-null; its loops
+     */
+    public static LoopNest find(SsaMethod ssaMeth) {
+        LoopNest result = new LoopNest(ssaMeth);
+
+        result.numberDomTree();
+        result.findLoops();
+        return result;
+    }
+
+    private LoopNest(SsaMethod ssaMeth) {
+        int blockCount = ssaMeth.getBlocks().size();
+
+        this.ssaMeth = ssaMeth;
+        this.preorder = new int[blockCount];
+        this.lastDominated = new int[blockCount];
+        this.loops = new ArrayList<Loop>();
+    }
+
+    /**
+     * Gets the loops, with each loop ahead of any that contain it.
+     *
+     * @return non-null; the loops
+     */
+    public ArrayList<Loop> getLoops() {
+        return loops;
+    }
+
+    /**
+     * Gets the innermost loop that a block is in.
+     *
+     * @param block non-null; the block
+     * @return null-ok; the loop, or <code>null</code> if the block
+     * isn't in any
+     */
+    public Loop getLoopFor(SsaBasicBlock block) {
+        // The first loop found is the innermost one.
+        for (Loop loop : loops) {
+            if (loop.contains(block)) {
+                return loop;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Tells whether one block dominates another. Every block dominates
+     * itself.
+     *
+     * @param dominator non-null; the block that may dominate
+     * @param block non-null; the block that may be dominated
+     * @return whether that's so
+     */
+    public boolean dominates(SsaBasicBlock dominator, SsaBasicBlock block) {
+        int at = preorder[block.getIndex()];
+        int from = preorder[dominator.getIndex()];
+
+        return (at >= 0) && (from >= 0) && (at >= from)
+            && (at <= lastDominated[dominator.getIndex()]);
+    }
+
+    /**
+     * Numbers the blocks in preorder over the dominator tree, so that
+     * the blocks a block dominates are the ones numbered from its own
+     * number to its {@link #lastDominated} number. The walk keeps its
+     * own stack, since the tree of a long method can be deep.
+     */
+    private void numberDomTree() {
+        ArrayList<SsaBasicBlock> stack = new ArrayList<SsaBasicBlock>();
+        BitSet entered = new BitSet(preorder.length);
+        int count = 0;
+
+        for (int i = 0; i < preorder.length; i++) {
+            preorder[i] = -1;
+        }
+
+        stack.add(ssaMeth.getEntryBlock());
+
+        while (!stack.isEmpty()) {
+            SsaBasicBlock block = stack.remove(stack.size() - 1);
+            int index = block.getIndex();
+
+            if (entered.get(index)) {
+                lastDominated[index] = count - 1;
+                continue;
+            }
+
+            entered.set(index);
+            preorder[index] = count++;
+            stack.add(block);
+
+            // The entry block is listed as its own child.
+            for (SsaBasicBlock child : block.getDomChildren()) {
+                if (child != block) {
+                    stack.add(child);
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds the loops from the back edges, that is, the edges to a
+     * block from one it dominates, and works out how they nest.
+     */
+    private void findLoops() {
+        ArrayList<SsaBasicBlock> blocks = ssaMeth.getBlocks();
+        Loop[] byHeader = new Loop[blocks.size()];
+
+        for (SsaBasicBlock block : blocks) {
+            BitSet succs = block.getSuccessors();
+
+            for (int i = succs.nextSetBit(0); i >= 0;
+                 i = succs.nextSetBit(i + 1)) {
+                SsaBasicBlock header = blocks.get(i);
+
+                if (!dominates(header, block)) {
+                    continue;
+                }
+
+                Loop loop = byHeader[i];
+
+                if (loop == null) {
+                    loop = new Loop(header, blocks.size());
+                    byHeader[i] = loop;
+                    loops.add(loop);
+                }
+
+                addBody(loop, block);
+            }
+        }
+
+        /*
+         * A loop's parent is the smallest other loop that contains its
+         * header. Going from the largest loops to the smallest means
+         * each loop's parent is done before the loop itself.
+         */
+        Collections.sort(loops, new Comparator<Loop>() {
+            public int compare(Loop a, Loop b) {
+                return b.size - a.size;
+            }
+        });
+
+        int sz = loops.size();
+
+        for (int i = 0; i < sz; i++) {
+            Loop loop = loops.get(i);
+
+            for (int j = i - 1; j >= 0; j--) {
+                Loop outer = loops.get(j);
+
+                if (outer.contains(loop.header)) {
+                    loop.parent = outer;
+                    loop.depth = outer.depth + 1;
+                    break;
+                }
+            }
+        }
+
+        Collections.sort(loops, INNERMOST_FIRST);
+    }
+
+    /**
+     * Adds the source of a back edge to a loop, along with every block
+     * that reaches it without going through the loop's header.
+     *
+     * @param loop non-null; the loop
+     * @param tail non-null; the source of the back edge
+     */
+    private void addBody(Loop loop, SsaBasicBlock tail) {
+        ArrayList<SsaBasicBlock> blocks = ssaMeth.getBlocks();
+        ArrayList<SsaBasicBlock> worklist = new ArrayList<SsaBasicBlock>();
+
+        worklist.add(tail);
+
+        while (!worklist.isEmpty()) {
+            SsaBasicBlock block = worklist.remove(worklist.size() - 1);
+            int index = block.getIndex();
+
+            if (loop.blocks.get(index)) {
+                continue;
+            }
+
+            loop.blocks.set(index);
+            loop.size++;
+
+            BitSet preds = block.getPredecessors();
+
+            for (int i = preds.nextSetBit(0); i >= 0;
+                 i = preds.nextSetBit(i + 1)) {
+                if (!loop.blocks.get(i)) {
+                    worklist.add(blocks.get(i));
+                }
+            }
+        }
+    }
+
+    /**
+     * A natural loop.
+     */
+    public static final class Loop {
+        /** non-null; the header */
+        private final SsaBasicBlock header;
+
+        /** non-null; the blocks of the loop, by index */
+        private final BitSet blocks;
+
+        /** &gt; 0; the number of blocks */
+        private int size;
+
+        /** null-ok; the innermost loop containing this one */
+        private Loop parent;
+
+        /** &gt;= 0; the number of loops containing this one */
+        private int depth;
+
+        /**
+         * Constructs an instance with just the header in it.
+         *
+         * @param header non-null; the header
+         * @param blockCount the number of blocks in the method
+         */
+        private Loop(SsaBasicBlock header, int blockCount) {
+            this.header = header;
+            this.blocks = new BitSet(blockCount);
+            this.size = 1;
+
+            blocks.set(header.getIndex());
+        }
+
+        /**
+         * @return non-null; the header, which every path into the loop
+         * goes through
+         */
+        public SsaBasicBlock getHeader() {
+            return header;
+        }
+
+        /**
+         * @return non-null; the blocks of the loop, by index; must not
+         * be modified
+         */
+        public BitSet getBlocks() {
+            return blocks;
+        }
+
+        /**
+         * @return null-ok; the innermost loop containing this one, if any
+         */
+        public Loop getParent() {
+            return parent;
+        }
+
+        /**
+         * @return &gt;= 0; the number of loops containing this one
+         */
+        public int getDepth() {
+            return depth;
+        }
+
+        /**
+         * Tells whether a block is in this loop.
+         *
+         * @param block non-null; the block
+         * @return whether it's in the loop
+         */
+        public boolean contains(SsaBasicBlock block) {
+            return blocks.get(block.getIndex());
+        }
+
+        /**
+         * Gets the block that code may be moved to so that it runs
+         * once before the loop rather than on every iteration: the
+         * only block outside the loop that leads to the header, as
+         * long as the header is its only successor.
+         *
+         * @return null-ok; the preheader, or <code>null</code> if
+         * there isn't one
+         */
+        public SsaBasicBlock getPreheader() {
+            SsaMethod ssaMeth = header.getParent();
+            BitSet preds = header.getPredecessors();
+            SsaBasicBlock result = null;
+
+            for (int i = preds.nextSetBit(0); i >= 0;
+                 i = preds.nextSetBit(i + 1)) {
+                if (blocks.get(i)) {
+                    continue;
+                }
+
+                if (result != null) {
+                    return null;
+                }
+
+                result = ssaMeth.getBlocks().get(i);
+            }
+
+            if ((result == null)
+                    || (result.getSuccessors().cardinality() != 1)) {
+                return null;
+            }
+
+            return result;
+        }
+    }
+}
@@ -0,0 +1,403 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.ssa;
+
+import com.android.dx.rop.code.CstInsn;
+import com.android.dx.rop.code.Insn;
+import com.android.dx.rop.code.PlainCstInsn;
+import com.android.dx.rop.code.PlainInsn;
+import com.android.dx.rop.code.RegOps;
+import com.android.dx.rop.code.RegisterSpec;
+import com.android.dx.rop.code.RegisterSpecList;
+import com.android.dx.rop.code.Rops;
+import com.android.dx.rop.code.SourcePosition;
+import com.android.dx.rop.code.ThrowingCstInsn;
+import com.android.dx.rop.cst.Constant;
+import com.android.dx.rop.cst.CstBaseMethodRef;
+import com.android.dx.rop.cst.CstInteger;
+import com.android.dx.rop.cst.CstType;
+import com.android.dx.rop.type.StdTypeList;
+import com.android.dx.rop.type.TypeList;
+
+import java.util.ArrayList;
+
+/**
+ * Replaces calls to trivial methods (getters, setters, methods that
+ * return a constant, and the like) with the bodies of the methods,
+ * which are found in the {@link InlinableMethods} of the method's
+ * {@link OptimizerContext}.
+ *
+ * <p>A call is only replaced when doing so can't be told apart from
+ * the call, other than by its absence from stack traces: the callee
+ * can't be overridden; it refers to nothing the caller can't see; if
+ * the call would have thrown for a <code>null</code> receiver, the
+ * body does the same or the receiver is <code>this</code>; and if the
+ * call would have initialized the callee's class, the body does the
+ * same or initializing it makes no difference. The inlined
+ * instructions all take the source position of the call, so line
+ * numbers in the caller stay as they were.</p>
+ */
+public class MethodInliner {
+    /** the most instructions that inlining may add to one method */
+    private static final int MAX_GROWTH = 64;
+
+    /** method we're processing */
+    private final SsaMethod ssaMeth;
+
+    /** non-null; the methods that may be inlined */
+    private final InlinableMethods methods;
+
+    /** non-null; the class of the method we're processing */
+    private final CstType thisClass;
+
+    /**
+     * Processes a method. This does nothing unless the method's
+     * context has inlinable methods.
+     *
+     * @param ssaMethod non-null; method to process
+     */
+    public static void process(SsaMethod ssaMethod) {
+        OptimizerContext context = ssaMethod.getContext();
+
+        if (context.getInlinableMethods() == null) {
+            return;
+        }
+
+        new MethodInliner(ssaMethod).run();
+    }
+
+    private MethodInliner(SsaMethod ssaMethod) {
+        OptimizerContext context = ssaMethod.getContext();
+
+        this.ssaMeth = ssaMethod;
+        this.methods = context.getInlinableMethods();
+        this.thisClass = context.getThisClass();
+    }
+
+    /**
+     * Runs the inliner.
+     */
+    private void run() {
+        int thisReg = findThisReg();
+        ArrayList<NormalSsaInsn> calls = new ArrayList<NormalSsaInsn>();
+        ArrayList<TrivialMethod> callees = new ArrayList<TrivialMethod>();
+        int growth = 0;
+
+        /*
+         * All the calls are found before any are replaced, since the
+         * replacing invalidates the definitions that findCallee()
+         * looks at.
+         */
+        for (SsaBasicBlock block : ssaMeth.getBlocks()) {
+            ArrayList<SsaInsn> insns = block.getInsns();
+
+            if (insns.isEmpty()) {
+                continue;
+            }
+
+            SsaInsn last = insns.get(insns.size() - 1);
+            TrivialMethod callee = findCallee(last, thisReg);
+
+            if (callee == null) {
+                continue;
+            }
+
+            // The body takes the place of the call.
+            int added = Math.max(callee.getSize() - 1, 0);
+
+            if (growth + added > MAX_GROWTH) {
+                continue;
+            }
+
+            growth += added;
+            calls.add((NormalSsaInsn) last);
+            callees.add(callee);
+        }
+
+        int sz = calls.size();
+
+        for (int i = 0; i < sz; i++) {
+            inline(calls.get(i), callees.get(i));
+            ssaMeth.getContext().noteInlined();
+        }
+
+        if (sz != 0) {
+            ssaMeth.onInsnsChanged();
+        }
+    }
+
+    /**
+     * Finds the register that holds <code>this</code> on entry.
+     *
+     * @return the register, or <code>-1</code> if the method is static
+     */
+    private int findThisReg() {
+        if (ssaMeth.isStatic()) {
+            return -1;
+        }
+
+        for (SsaBasicBlock block : ssaMeth.getBlocks()) {
+            for (SsaInsn insn : block.getInsns()) {
+                Insn ropInsn = insn.getOriginalRopInsn();
+
+                if ((ropInsn != null)
+                        && (ropInsn.getOpcode().getOpcode()
+                                == RegOps.MOVE_PARAM)
+                        && (((CstInteger) ((CstInsn) ropInsn).getConstant())
+                                .getValue() == 0)) {
+                    return insn.getResult().getReg();
+                }
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Tells whether the given register is sure to hold
+     * <code>this</code>.
+     *
+     * @param reg the register
+     * @param thisReg the register that holds <code>this</code> on
+     * entry, or <code>-1</code>
+     * @return whether it's so
+     */
+    private boolean isThis(int reg, int thisReg) {
+        for (;;) {
+            if (reg == thisReg) {
+                return thisReg >= 0;
+            }
+
+            SsaInsn def = ssaMeth.getDefinitionForRegister(reg);
+
+            if ((def == null) || !def.isNormalMoveInsn()) {
+                return false;
+            }
+
+            reg = def.getSources().get(0).getReg();
+        }
+    }
+
+    /**
+     * Gets the method to inline in place of the given instruction.
+     *
+     * @param insn non-null; the last instruction of a block
+     * @param thisReg the register that holds <code>this</code> on
+     * entry, or <code>-1</code>
+     * @return null-ok; the method, or <code>null</code> if the
+     * instruction isn't a call that may be replaced
+     */
+    private TrivialMethod findCallee(SsaInsn insn, int thisReg) {
+        Insn ropInsn = insn.getOriginalRopInsn();
+
+        if (ropInsn == null) {
+            return null;
+        }
+
+        int opcode = ropInsn.getOpcode().getOpcode();
+
+        switch (opcode) {
+            case RegOps.INVOKE_STATIC:
+            case RegOps.INVOKE_DIRECT:
+            case RegOps.INVOKE_VIRTUAL: {
+                break;
+            }
+            default: {
+                return null;
+            }
+        }
+
+        CstBaseMethodRef method =
+            (CstBaseMethodRef) ((CstInsn) ropInsn).getConstant();
+        TrivialMethod callee = methods.get(method);
+
+        if ((callee == null)
+                || (callee.isStatic() != (opcode == RegOps.INVOKE_STATIC))) {
+            return null;
+        }
+
+        for (Insn bodyInsn : callee.getBody()) {
+            if ((bodyInsn instanceof CstInsn) && !methods.isAccessible(
+                    thisClass, ((CstInsn) bodyInsn).getConstant())) {
+                return null;
+            }
+        }
+
+        if (callee.isStatic()) {
+            CstType definer = method.getDefiningClass();
+
+            if (!(definer.equals(thisClass)
+                            || methods.hasTrivialInit(definer)
+                            || callee.initializes(definer))) {
+                return null;
+            }
+        } else if (!(callee.checksThis()
+                        || isThis(insn.getSources().get(0).getReg(),
+                                thisReg))) {
+            return null;
+        }
+
+        SsaBasicBlock block = insn.getBlock();
+        SsaBasicBlock next = block.getPrimarySuccessor();
+
+        if ((next == null) || (next.getPredecessors().cardinality() != 1)) {
+            return null;
+        }
+
+        /*
+         * A body that can't throw turns the call into a goto, which
+         * can't have exception handlers.
+         */
+        if ((callee.getThrowingIndex() < 0)
+                && (block.getSuccessors().cardinality() != 1)) {
+            return null;
+        }
+
+        return callee;
+    }
+
+    /**
+     * Replaces a call with the body of the method called. The
+     * instructions up to and including the one that can throw take
+     * the place of the call at the end of its block, and the rest
+     * take the place of the <code>move-result</code>, if any, at the
+     * start of the following block.
+     *
+     * @param call non-null; the call
+     * @param callee non-null; the method called
+     */
+    private void inline(NormalSsaInsn call, TrivialMethod callee) {
+        SsaBasicBlock block = call.getBlock();
+        SsaBasicBlock next = block.getPrimarySuccessor();
+        ArrayList<SsaInsn> blockInsns = block.getInsns();
+        ArrayList<SsaInsn> nextInsns = next.getInsns();
+        Insn callInsn = call.getOriginalRopInsn();
+        SourcePosition position = callInsn.getPosition();
+        RegisterSpecList args = call.getSources();
+        RegisterSpec result = null;
+        int nextAt = next.getPhiInsns().size();
+
+        if (nextInsns.size() > nextAt) {
+            SsaInsn first = nextInsns.get(nextAt);
+
+            if (first.getOpcode().getOpcode() == RegOps.MOVE_RESULT) {
+                result = first.getResult();
+                nextInsns.remove(nextAt);
+            }
+        }
+
+        blockInsns.remove(blockInsns.size() - 1);
+
+        ArrayList<Insn> body = callee.getBody();
+        int throwingIndex = callee.getThrowingIndex();
+        int returnValue = callee.getReturnValue();
+        RegisterSpec[] values = new RegisterSpec[callee.getValueCount()];
+        int sz = body.size();
+
+        for (int i = 0; i < args.size(); i++) {
+            values[i] = args.get(i);
+        }
+
+        for (int i = 0; i < sz; i++) {
+            Insn insn = body.get(i);
+            RegisterSpecList sources = insn.getSources();
+            int sourceCount = sources.size();
+            RegisterSpecList newSources = new RegisterSpecList(sourceCount);
+
+            for (int j = 0; j < sourceCount; j++) {
+                newSources.set(j, values[sources.get(j).getReg()]);
+            }
+
+            newSources.setImmutable();
+
+            RegisterSpec oldResult = insn.getResult();
+            RegisterSpec newResult = null;
+
+            if (oldResult != null) {
+                int value = oldResult.getReg();
+
+                if ((value == returnValue) && (result != null)) {
+                    newResult = result;
+                } else {
+                    newResult = oldResult.withReg(ssaMeth.makeNewSsaReg());
+                }
+
+                values[value] = newResult;
+            }
+
+            TypeList catches = (i == throwingIndex)
+                ? callInsn.getCatches() : StdTypeList.EMPTY;
+            Insn newInsn =
+                copyInsn(insn, position, newResult, newSources, catches);
+
+            if (i <= throwingIndex) {
+                blockInsns.add(new NormalSsaInsn(newInsn, block));
+            } else {
+                nextInsns.add(nextAt, new NormalSsaInsn(newInsn, next));
+                nextAt++;
+            }
+        }
+
+        if (throwingIndex < 0) {
+            blockInsns.add(new NormalSsaInsn(
+                    new PlainInsn(Rops.GOTO, position, null,
+                            RegisterSpecList.EMPTY), block));
+        }
+
+        /*
+         * A method that returns one of its arguments leaves nothing
+         * defining the result, so it gets a move.
+         */
+        if ((result != null) && (returnValue >= 0)
+                && (values[returnValue] != result)) {
+            Insn move = new PlainInsn(Rops.opMove(result.getType()),
+                    position, result, values[returnValue]);
+            nextInsns.add(nextAt, new NormalSsaInsn(move, next));
+        }
+    }
+
+    /**
+     * Makes a copy of an instruction of an inlined body, with new
+     * registers, position, and catches.
+     *
+     * @param insn non-null; the instruction
+     * @param position non-null; the new position
+     * @param result null-ok; the new result
+     * @param sources non-null; the new sources
+     * @param catches non-null; the new catches, for an instruction
+     * that can throw
+     * @return non-null; the copy
+     */
+    private static Insn copyInsn(Insn insn, SourcePosition position,
+            RegisterSpec result, RegisterSpecList sources,
+            TypeList catches) {
+        if (insn instanceof PlainInsn) {
+            return new PlainInsn(insn.getOpcode(), position, result,
+                    sources);
+        }
+
+        Constant cst = ((CstInsn) insn).getConstant();
+
+        if (insn instanceof PlainCstInsn) {
+            return new PlainCstInsn(insn.getOpcode(), position, result,
+                    sources, cst);
+        }
+
+        return new ThrowingCstInsn(insn.getOpcode(), position, sources,
+                catches, cst);
+    }
+}
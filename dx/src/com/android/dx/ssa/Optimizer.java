@@ -20,6 +20,7 @@ import com.android.dx.rop.code.RopMethod;
 import com.android.dx.rop.code.TranslationAdvice;
 import com.android.dx.ssa.back.SsaToRop;
 import com.android.dx.ssa.back.LivenessAnalyzer;
+import com.android.dx.util.Profile;
 
 import java.util.EnumSet;
 import java.util.BitSet;
@@ -30,28 +31,10 @@ import java.util.ArrayList;
  * and returns it to rop form.
  */
 public class Optimizer {
-    private static boolean preserveLocals = true;
-
-    private static TranslationAdvice advice;
-
     /** optional optimizer steps */
     public enum OptionalStep {
-        MOVE_PARAM_COMBINER,SCCP,LITERAL_UPGRADE,CONST_COLLECTOR
-    }
-
-    /**
-     * @return true if local variable information should be preserved, even
-     * at code size/register size cost
-     */
-    public static boolean getPreserveLocals() {
-        return preserveLocals;
-    }
-
-    /**
-     * @return non-null; translation advice
-     */
-    public static TranslationAdvice getAdvice() {
-        return advice;
+        METHOD_INLINER,MOVE_PARAM_COMBINER,SCCP,VALUE_NUMBERING,
+        LITERAL_UPGRADE,LOOP_INVARIANT_MOVER,CONST_COLLECTOR
     }
 
     /**
@@ -72,7 +55,7 @@ public class Optimizer {
             TranslationAdvice inAdvice) {
 
         return optimize(rmeth, paramWidth, isStatic, inPreserveLocals, inAdvice, 
-                EnumSet.allOf(OptionalStep.class));
+                getDefaultSteps());
     }
 
     /**
@@ -92,22 +75,77 @@ public class Optimizer {
     public static RopMethod optimize(RopMethod rmeth, int paramWidth,
             boolean isStatic, boolean inPreserveLocals,
             TranslationAdvice inAdvice, EnumSet<OptionalStep> steps) {
-        SsaMethod ssaMeth = null;
 
-        preserveLocals = inPreserveLocals;
-        advice = inAdvice;
+        return optimize(rmeth, paramWidth, isStatic,
+                new OptimizerContext(inPreserveLocals, inAdvice), steps);
+    }
 
-        ssaMeth = SsaConverter.convertToSsaMethod(rmeth, paramWidth, isStatic);
-        runSsaFormSteps(ssaMeth, steps);
+    /**
+     * Runs optimization algorthims over this method, and returns a new
+     * instance of RopMethod with the changes.
+     *
+     * @param rmeth method to process
+     * @param paramWidth the total width, in register-units, of this method's
+     * parameters
+     * @param isStatic true if this method has no 'this' pointer argument.
+     * @param context non-null; settings for this optimizer run
+     * @return optimized method
+     */
+    public static RopMethod optimize(RopMethod rmeth, int paramWidth,
+            boolean isStatic, OptimizerContext context) {
+
+        return optimize(rmeth, paramWidth, isStatic, context,
+                getDefaultSteps());
+    }
+
+    /**
+     * Gets the optional steps run when none are asked for: all of them
+     * but {@link OptionalStep#VALUE_NUMBERING} and
+     * {@link OptionalStep#LOOP_INVARIANT_MOVER}, whose longer live ranges
+     * can cost more moves and spills than the instructions they
+     * remove.
+     *
+     * @return non-null; a new set of the steps
+     */
+    public static EnumSet<OptionalStep> getDefaultSteps() {
+        EnumSet<OptionalStep> steps = EnumSet.allOf(OptionalStep.class);
+
+        steps.remove(OptionalStep.VALUE_NUMBERING);
+        steps.remove(OptionalStep.LOOP_INVARIANT_MOVER);
+        return steps;
+    }
+
+    /**
+     * Runs optimization algorthims over this method, and returns a new
+     * instance of RopMethod with the changes.
+     *
+     * @param rmeth method to process
+     * @param paramWidth the total width, in register-units, of this method's
+     * parameters
+     * @param isStatic true if this method has no 'this' pointer argument.
+     * @param context non-null; settings for this optimizer run
+     * @param steps set of optional optimization steps to run
+     * @return optimized method
+     */
+    public static RopMethod optimize(RopMethod rmeth, int paramWidth,
+            boolean isStatic, OptimizerContext context,
+            EnumSet<OptionalStep> steps) {
+        SsaMethod ssaMeth = null;
+
+        ssaMeth = convertToSsaMethod(rmeth, paramWidth, isStatic, context);
+        int hoisted = runSsaFormSteps(ssaMeth, steps);
 
         RopMethod resultMeth = SsaToRop.convertToRopMethod(ssaMeth, false);
 
         if (resultMeth.getBlocks().getRegCount()
-                > advice.getMaxOptimalRegisterCount()) {
+                > context.getAdvice().getMaxOptimalRegisterCount()) {
             // Try to see if we can squeeze it under the register count bar
             resultMeth = optimizeMinimizeRegisters(rmeth, paramWidth, isStatic,
-                    steps);
+                    context, steps);
+            hoisted = 0;
         }
+
+        context.noteHoisted(hoisted);
         return resultMeth;
     }
 
@@ -123,17 +161,17 @@ public class Optimizer {
      * @param paramWidth the total width, in register-units, of this method's
      * parameters
      * @param isStatic true if this method has no 'this' pointer argument.
+     * @param context non-null; settings for this optimizer run
      * @param steps set of optional optimization steps to run
      * @return optimized method
      */
     private static RopMethod optimizeMinimizeRegisters(RopMethod rmeth,
-            int paramWidth, boolean isStatic,
+            int paramWidth, boolean isStatic, OptimizerContext context,
             EnumSet<OptionalStep> steps) {
         SsaMethod ssaMeth;
         RopMethod resultMeth;
 
-        ssaMeth = SsaConverter.convertToSsaMethod(
-                rmeth, paramWidth, isStatic);
+        ssaMeth = convertToSsaMethod(rmeth, paramWidth, isStatic, context);
 
         EnumSet<OptionalStep> newSteps = steps.clone();
 
@@ -143,22 +181,74 @@ public class Optimizer {
          */
         newSteps.remove(OptionalStep.CONST_COLLECTOR);
 
+        // Nor is LOOP_INVARIANT_MOVER, which stretches live ranges.
+        newSteps.remove(OptionalStep.LOOP_INVARIANT_MOVER);
+
         runSsaFormSteps(ssaMeth, newSteps);
 
         resultMeth = SsaToRop.convertToRopMethod(ssaMeth, true);
         return resultMeth;
     }
 
-    private static void runSsaFormSteps(SsaMethod ssaMeth,
+    /**
+     * Converts a method to SSA form, recording the time taken.
+     *
+     * @param rmeth method to process
+     * @param paramWidth the total width, in register-units, of this method's
+     * parameters
+     * @param isStatic true if this method has no 'this' pointer argument.
+     * @param context non-null; settings for this optimizer run
+     * @return non-null; the method in SSA form
+     */
+    private static SsaMethod convertToSsaMethod(RopMethod rmeth,
+            int paramWidth, boolean isStatic, OptimizerContext context) {
+        Profile profile = context.getProfile();
+        Profile.Mark mark = profile.start();
+        SsaMethod result = SsaConverter.convertToSsaMethod(rmeth,
+                paramWidth, isStatic, context);
+
+        profile.stop(Profile.Phase.SSA_CONVERSION, mark);
+        return result;
+    }
+
+    /**
+     * Runs the optional steps, and the ones that always run, over a
+     * method in SSA form.
+     *
+     * @param ssaMeth non-null; method to process
+     * @param steps non-null; optional steps to run
+     * @return &gt;= 0; the number of instructions moved out of loops
+     */
+    private static int runSsaFormSteps(SsaMethod ssaMeth,
             EnumSet<OptionalStep> steps) {
+        Profile profile = ssaMeth.getContext().getProfile();
         boolean needsDeadCodeRemover = true;
+        int hoisted = 0;
+        Profile.Mark mark = profile.start();
+
+        /*
+         * The inliner goes first, so that what it brings in gets
+         * optimized along with the rest. It only does anything if
+         * the context has methods to inline.
+         */
+        if (steps.contains(OptionalStep.METHOD_INLINER)) {
+            MethodInliner.process(ssaMeth);
+        }
 
         if (steps.contains(OptionalStep.MOVE_PARAM_COMBINER)) {
             MoveParamCombiner.process(ssaMeth);
         }
 
         if (steps.contains(OptionalStep.SCCP)) {
+            profile.stop(Profile.Phase.SSA_OPTIMIZATION, mark);
+            mark = profile.start();
             SCCP.process(ssaMeth);
+            profile.stop(Profile.Phase.SCCP, mark);
+            mark = profile.start();
+        }
+
+        if (steps.contains(OptionalStep.VALUE_NUMBERING)) {
+            ValueNumberer.process(ssaMeth);
         }
 
         if (steps.contains(OptionalStep.LITERAL_UPGRADE)) {
@@ -167,6 +257,16 @@ public class Optimizer {
             needsDeadCodeRemover = false;
         }
 
+        /*
+         * This goes after the literal upgrade, so that operations on
+         * constants use their literal forms, which depend only on the
+         * other operand. The constants themselves are left to the
+         * const collector.
+         */
+        if (steps.contains(OptionalStep.LOOP_INVARIANT_MOVER)) {
+            hoisted = LoopInvariantMover.process(ssaMeth);
+        }
+
         if (steps.contains(OptionalStep.CONST_COLLECTOR)) {
             ConstCollector.process(ssaMeth);
             DeadCodeRemover.process(ssaMeth);
@@ -179,36 +279,41 @@ public class Optimizer {
         }
 
         PhiTypeResolver.process(ssaMeth);
+        profile.stop(Profile.Phase.SSA_OPTIMIZATION, mark);
+        return hoisted;
     }
 
     public static SsaMethod debugEdgeSplit(RopMethod rmeth, int paramWidth,
             boolean isStatic, boolean inPreserveLocals,
             TranslationAdvice inAdvice) {
 
-        preserveLocals = inPreserveLocals;
-        advice = inAdvice;
+        OptimizerContext context =
+            new OptimizerContext(inPreserveLocals, inAdvice);
 
-        return SsaConverter.testEdgeSplit(rmeth, paramWidth, isStatic);
+        return SsaConverter.testEdgeSplit(rmeth, paramWidth, isStatic,
+                context);
     }
 
     public static SsaMethod debugPhiPlacement(RopMethod rmeth, int paramWidth,
             boolean isStatic, boolean inPreserveLocals,
             TranslationAdvice inAdvice) {
 
-        preserveLocals = inPreserveLocals;
-        advice = inAdvice;
+        OptimizerContext context =
+            new OptimizerContext(inPreserveLocals, inAdvice);
 
-        return SsaConverter.testPhiPlacement(rmeth, paramWidth, isStatic);
+        return SsaConverter.testPhiPlacement(rmeth, paramWidth, isStatic,
+                context);
     }
 
     public static SsaMethod debugRenaming(RopMethod rmeth, int paramWidth,
             boolean isStatic, boolean inPreserveLocals,
             TranslationAdvice inAdvice) {
 
-        preserveLocals = inPreserveLocals;
-        advice = inAdvice;
+        OptimizerContext context =
+            new OptimizerContext(inPreserveLocals, inAdvice);
 
-        return SsaConverter.convertToSsaMethod(rmeth, paramWidth, isStatic);
+        return SsaConverter.convertToSsaMethod(rmeth, paramWidth, isStatic,
+                context);
     }
 
     public static SsaMethod debugDeadCodeRemover(RopMethod rmeth,
@@ -217,10 +322,11 @@ public class Optimizer {
 
         SsaMethod ssaMeth;
 
-        preserveLocals = inPreserveLocals;
-        advice = inAdvice;
+        OptimizerContext context =
+            new OptimizerContext(inPreserveLocals, inAdvice);
 
-        ssaMeth = SsaConverter.convertToSsaMethod(rmeth, paramWidth, isStatic);
+        ssaMeth = SsaConverter.convertToSsaMethod(rmeth, paramWidth, isStatic,
+                context);
         DeadCodeRemover.process(ssaMeth);
 
         return ssaMeth;
@@ -230,12 +336,21 @@ public class Optimizer {
             int paramWidth, boolean isStatic, boolean inPreserveLocals,
             TranslationAdvice inAdvice, EnumSet<OptionalStep> steps) {
 
-        SsaMethod ssaMeth;
+        OptimizerContext context =
+            new OptimizerContext(inPreserveLocals, inAdvice);
+
+        return debugNoRegisterAllocation(rmeth, paramWidth, isStatic,
+                context, steps);
+    }
 
-        preserveLocals = inPreserveLocals;
-        advice = inAdvice;
+    public static SsaMethod debugNoRegisterAllocation(RopMethod rmeth,
+            int paramWidth, boolean isStatic, OptimizerContext context,
+            EnumSet<OptionalStep> steps) {
+
+        SsaMethod ssaMeth;
 
-        ssaMeth = SsaConverter.convertToSsaMethod(rmeth, paramWidth, isStatic);
+        ssaMeth = SsaConverter.convertToSsaMethod(rmeth, paramWidth, isStatic,
+                context);
 
         runSsaFormSteps(ssaMeth, steps);
 
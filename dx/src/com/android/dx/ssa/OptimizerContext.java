@@ -0,0 +1,274 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.ssa;
+
+import com.android.dx.rop.code.TranslationAdvice;
+import com.android.dx.rop.cst.CstFieldRef;
+import com.android.dx.rop.cst.CstType;
+import com.android.dx.util.Profile;
+
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Settings that apply to one run of the {@link Optimizer}. An instance
+ * is attached to every {@link SsaMethod} it creates, so that the SSA
+ * passes and register allocators can consult it without any global
+ * state. Apart from a running count of the instructions the optimizer
+ * has moved out of loops, instances are immutable, and they may be
+ * shared between threads.
+ */
+public final class OptimizerContext {
+    /**
+     * whether local variable information should be preserved, even
+     * at code size/register size cost
+     */
+    private final boolean preserveLocals;
+
+    /** non-null; translation advice */
+    private final TranslationAdvice advice;
+
+    /**
+     * whether to use the original per-register liveness analysis
+     * instead of the block-level dataflow one; both produce the same
+     * results, so this is only of use for comparing them
+     */
+    private final boolean perRegisterLiveness;
+
+    /** non-null; where to record the time taken by each pass */
+    private final Profile profile;
+
+    /** null-ok; methods that may be inlined, if inlining is to be done */
+    private final InlinableMethods inlinableMethods;
+
+    /**
+     * null-ok; the class of the methods being optimized; non-null if
+     * {@link #inlinableMethods} is
+     */
+    private final CstType thisClass;
+
+    /**
+     * null-ok; the final fields of {@link #thisClass}, whose values the
+     * optimizer may take to never change once read, if known
+     */
+    private final Set<CstFieldRef> finalFields;
+
+    /**
+     * whether to allocate registers with the coalescing allocator
+     * rather than the first-fit one
+     */
+    private final boolean coalesceRegisters;
+
+    /**
+     * whether this instance only exists to compare register allocators
+     * with, in which case the calls it inlines aren't counted
+     */
+    private final boolean forComparison;
+
+    /** non-null; the number of instructions moved out of loops so far */
+    private final AtomicInteger hoistedCount;
+
+    /**
+     * Constructs an instance with the default settings: dataflow
+     * liveness analysis, no profiling, no inlining, no known final
+     * fields and first-fit register allocation.
+     *
+     * @param preserveLocals true if local variable info should be
+     * preserved, at the cost of some registers and insns
+     * @param advice non-null; translation advice
+     */
+    public OptimizerContext(boolean preserveLocals,
+            TranslationAdvice advice) {
+        this(preserveLocals, advice, false, Profile.NONE, null, null, null,
+                false);
+    }
+
+    /**
+     * Constructs an instance, with every setting given.
+     *
+     * @param preserveLocals true if local variable info should be
+     * preserved, at the cost of some registers and insns
+     * @param advice non-null; translation advice
+     * @param perRegisterLiveness true if liveness should be analyzed
+     * one register at a time, rather than for all registers at once
+     * @param profile non-null; where to record the time taken by each
+     * pass
+     * @param inlinableMethods null-ok; methods that may be inlined into
+     * the ones being optimized, or <code>null</code> not to inline
+     * @param thisClass null-ok; the class of the methods being
+     * optimized; must be non-null if <code>inlinableMethods</code> is
+     * @param finalFields null-ok; the final, non-volatile fields of
+     * <code>thisClass</code>, or <code>null</code> if unknown
+     * @param coalesceRegisters true if registers should be allocated
+     * by coalescing copies, rather than first fit
+     */
+    public OptimizerContext(boolean preserveLocals,
+            TranslationAdvice advice, boolean perRegisterLiveness,
+            Profile profile, InlinableMethods inlinableMethods,
+            CstType thisClass, Set<CstFieldRef> finalFields,
+            boolean coalesceRegisters) {
+        if (advice == null) {
+            throw new NullPointerException("advice == null");
+        }
+
+        if (profile == null) {
+            throw new NullPointerException("profile == null");
+        }
+
+        if ((inlinableMethods != null) && (thisClass == null)) {
+            throw new NullPointerException("thisClass == null");
+        }
+
+        this.preserveLocals = preserveLocals;
+        this.advice = advice;
+        this.perRegisterLiveness = perRegisterLiveness;
+        this.profile = profile;
+        this.inlinableMethods = inlinableMethods;
+        this.thisClass = thisClass;
+        this.finalFields = finalFields;
+        this.coalesceRegisters = coalesceRegisters;
+        this.forComparison = false;
+        this.hoistedCount = new AtomicInteger();
+    }
+
+    /**
+     * Constructs an instance for {@link #forComparison}.
+     *
+     * @param original non-null; the instance to copy the settings of
+     * @param coalesceRegisters true if registers should be allocated
+     * by coalescing copies, rather than first fit
+     */
+    private OptimizerContext(OptimizerContext original,
+            boolean coalesceRegisters) {
+        this.preserveLocals = original.preserveLocals;
+        this.advice = original.advice;
+        this.perRegisterLiveness = original.perRegisterLiveness;
+        this.profile = original.profile;
+        this.inlinableMethods = original.inlinableMethods;
+        this.thisClass = original.thisClass;
+        this.finalFields = original.finalFields;
+        this.coalesceRegisters = coalesceRegisters;
+        this.forComparison = true;
+        this.hoistedCount = new AtomicInteger();
+    }
+
+    /**
+     * Gets an instance with the same settings as this one, other than
+     * which register allocator to use, for comparing the output of the
+     * two allocators. The new instance has its own running counts, and
+     * doesn't count the calls it inlines.
+     *
+     * @param coalesceRegisters true if registers should be allocated
+     * by coalescing copies, rather than first fit
+     * @return non-null; the new instance
+     */
+    public OptimizerContext forComparison(boolean coalesceRegisters) {
+        return new OptimizerContext(this, coalesceRegisters);
+    }
+
+    /**
+     * @return true if local variable information should be preserved, even
+     * at code size/register size cost
+     */
+    public boolean getPreserveLocals() {
+        return preserveLocals;
+    }
+
+    /**
+     * @return non-null; translation advice
+     */
+    public TranslationAdvice getAdvice() {
+        return advice;
+    }
+
+    /**
+     * @return true if liveness should be analyzed one register at a
+     * time, rather than for all registers at once
+     */
+    public boolean getPerRegisterLiveness() {
+        return perRegisterLiveness;
+    }
+
+    /**
+     * @return non-null; where to record the time taken by each pass
+     */
+    public Profile getProfile() {
+        return profile;
+    }
+
+    /**
+     * @return null-ok; methods that may be inlined, or
+     * <code>null</code> if inlining isn't to be done
+     */
+    public InlinableMethods getInlinableMethods() {
+        return inlinableMethods;
+    }
+
+    /**
+     * @return null-ok; the class of the methods being optimized, if
+     * known
+     */
+    public CstType getThisClass() {
+        return thisClass;
+    }
+
+    /**
+     * @return null-ok; the final fields of the class of the methods
+     * being optimized, if known
+     */
+    public Set<CstFieldRef> getFinalFields() {
+        return finalFields;
+    }
+
+    /**
+     * @return true if registers should be allocated by coalescing
+     * copies, rather than first fit
+     */
+    public boolean getCoalesceRegisters() {
+        return coalesceRegisters;
+    }
+
+    /**
+     * Notes that a call has been inlined.
+     */
+    /*package*/ void noteInlined() {
+        if (!forComparison) {
+            inlinableMethods.noteInlined();
+        }
+    }
+
+    /**
+     * Notes that instructions have been moved out of loops.
+     *
+     * @param count &gt;= 0; the number of instructions
+     */
+    /*package*/ void noteHoisted(int count) {
+        hoistedCount.addAndGet(count);
+    }
+
+    /**
+     * Gets the number of instructions moved out of loops in the
+     * methods optimized with this instance so far. The difference
+     * between the counts before and after optimizing a method is the
+     * number for that method.
+     *
+     * @return &gt;= 0; the number of instructions
+     */
+    public int getHoistedCount() {
+        return hoistedCount.get();
+    }
+}
@@ -303,7 +303,8 @@ public final class PhiInsn extends SsaInsn {
 
     /** {@inheritDoc} */
     @Override public boolean hasSideEffect() {
-        return Optimizer.getPreserveLocals() && getLocalAssignment() != null;
+        return block.getParent().getContext().getPreserveLocals()
+                && getLocalAssignment() != null;
     }
 
     /** {@inheritDoc} */
@@ -36,13 +36,16 @@ public class SsaConverter {
      * parameters
      * @param isStatic true if this method has no 'this'
      * pointer argument
+     * @param context non-null; settings for the optimizer run
      * @return output in SSA form
      */
     public static SsaMethod convertToSsaMethod(RopMethod rmeth, 
-            int paramWidth, boolean isStatic) {
+            int paramWidth, boolean isStatic,
+            OptimizerContext context) {
         SsaMethod result;
 
-        result = SsaMethod.newFromRopMethod(rmeth, paramWidth, isStatic);
+        result = SsaMethod.newFromRopMethod(rmeth, paramWidth, isStatic,
+                context);
 
         edgeSplit(result);
 
@@ -65,13 +68,16 @@ public class SsaConverter {
      * @param rmeth method to process
      * @param paramWidth width of all arguments in the method
      * @param isStatic true if this method has no 'this' pointer argument
+     * @param context non-null; settings for the optimizer run
      * @return an SSA represention with only the edge-splitter run.
      */
     public static SsaMethod testEdgeSplit (RopMethod rmeth, int paramWidth,
-            boolean isStatic) {
+            boolean isStatic,
+            OptimizerContext context) {
         SsaMethod result;
 
-        result = SsaMethod.newFromRopMethod(rmeth, paramWidth, isStatic);
+        result = SsaMethod.newFromRopMethod(rmeth, paramWidth, isStatic,
+                context);
 
         edgeSplit(result);
         return result;
@@ -83,13 +89,16 @@ public class SsaConverter {
      * @param rmeth method to process
      * @param paramWidth width of all arguments in the method
      * @param isStatic true if this method has no 'this' pointer argument
+     * @param context non-null; settings for the optimizer run
      * @return an SSA represention with only the edge-splitter run.
      */
     public static SsaMethod testPhiPlacement (RopMethod rmeth, int paramWidth,
-            boolean isStatic) {
+            boolean isStatic,
+            OptimizerContext context) {
         SsaMethod result;
 
-        result = SsaMethod.newFromRopMethod(rmeth, paramWidth, isStatic);
+        result = SsaMethod.newFromRopMethod(rmeth, paramWidth, isStatic,
+                context);
 
         edgeSplit(result);
 
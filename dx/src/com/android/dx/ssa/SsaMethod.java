@@ -65,6 +65,9 @@ public final class SsaMethod {
     /** true if this method has no 'this' pointer argument */
     private final boolean isStatic;
 
+    /** non-null; settings of the optimizer run that created this method */
+    private final OptimizerContext context;
+
     /**
      * indexed by register: the insn where said register is defined or null
      * if undefined. null until (lazily) created.
@@ -90,13 +93,14 @@ public final class SsaMethod {
      * @param paramWidth the total width, in register-units, of the
      * method's parameters
      * @param isStatic true if this method has no 'this' pointer argument
+     * @param context non-null; settings for the optimizer run
      * @return SsaMethod representation
      */
     static SsaMethod newFromRopMethod(RopMethod rmeth, int paramWidth,
-            boolean isStatic) {
+            boolean isStatic, OptimizerContext context) {
         SsaMethod result;
 
-        result = new SsaMethod(paramWidth, isStatic);
+        result = new SsaMethod(paramWidth, isStatic, context);
 
         result.maxLabel = rmeth.getBlocks().getMaxLabel();
         result.registerCount = rmeth.getBlocks().getRegCount();
@@ -214,10 +218,17 @@ public final class SsaMethod {
      * @param paramWidth the total width, in register-units, of the
      * method's parameters
      * @param isStatic true if this method has no 'this' pointer argument
+     * @param context non-null; settings for the optimizer run
      */
-    private SsaMethod(int paramWidth, boolean isStatic) {
+    private SsaMethod(int paramWidth, boolean isStatic,
+            OptimizerContext context) {
+        if (context == null) {
+            throw new NullPointerException("context == null");
+        }
+
         this.paramWidth = paramWidth;
         this.isStatic = isStatic;
+        this.context = context;
     }
 
     /**
@@ -313,6 +324,14 @@ public final class SsaMethod {
         return isStatic;
     }
 
+    /**
+     * @return non-null; settings of the optimizer run that created
+     * this method
+     */
+    public OptimizerContext getContext() {
+        return context;
+    }
+
     /**
      * Borrow a register to use as a temp. Used in the phi removal process.
      * Call returnSpareRegisters() when done.
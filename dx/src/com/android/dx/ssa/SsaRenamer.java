@@ -499,8 +499,9 @@ class SsaRenamer implements Runnable {
                     = RegisterSpec.makeLocalOptional(
                         ssaSourceReg, ropResult.getType(), newLocal);
 
-            if (!Optimizer.getPreserveLocals() || (onlyOneAssociatedLocal
-                    && equalsHandlesNulls(newLocal, sourceLocal))) {
+            if (!ssaMeth.getContext().getPreserveLocals()
+                    || (onlyOneAssociatedLocal
+                        && equalsHandlesNulls(newLocal, sourceLocal))) {
                 /*
                  * We don't have to keep this move to preserve local
                  * information. Either the name is the same, or the result
@@ -0,0 +1,456 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.ssa;
+
+import com.android.dx.rop.code.BasicBlock;
+import com.android.dx.rop.code.BasicBlockList;
+import com.android.dx.rop.code.CstInsn;
+import com.android.dx.rop.code.Insn;
+import com.android.dx.rop.code.InsnList;
+import com.android.dx.rop.code.RegOps;
+import com.android.dx.rop.code.RegisterSpec;
+import com.android.dx.rop.code.RegisterSpecList;
+import com.android.dx.rop.code.Rop;
+import com.android.dx.rop.code.RopMethod;
+import com.android.dx.rop.cst.Constant;
+import com.android.dx.rop.cst.CstBaseMethodRef;
+import com.android.dx.rop.cst.CstInteger;
+import com.android.dx.rop.cst.CstMemberRef;
+import com.android.dx.rop.cst.CstType;
+import com.android.dx.rop.type.StdTypeList;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * The body of a method small and simple enough to be inlined by
+ * {@link MethodInliner}: straight-line code with at most one
+ * instruction that can throw, and no exception handlers. The body is
+ * kept as rop instructions in which every register names a distinct
+ * value; values <code>0..argCount-1</code> are the arguments (including
+ * <code>this</code>), and the rest are each defined once by the body.
+ * Moves are folded away, as is anything that contributes neither to
+ * the result nor to the throwing instruction.
+ */
+public final class TrivialMethod {
+    /** non-null; the method */
+    private final CstBaseMethodRef ref;
+
+    /** whether the method is static */
+    private final boolean isStatic;
+
+    /** non-null; the body, with registers numbered as described above */
+    private final ArrayList<Insn> body;
+
+    /** index into {@link #body} of the instruction that can throw, or -1 */
+    private final int throwingIndex;
+
+    /** the value returned, or -1 for a void method */
+    private final int returnValue;
+
+    /** &gt; 0; one more than the highest value number used */
+    private final int valueCount;
+
+    /** the number of instructions that count against the size budget */
+    private final int size;
+
+    /**
+     * Makes an instance for the given method, if it's simple enough.
+     *
+     * @param ref non-null; the method
+     * @param isStatic whether the method is static
+     * @param rmeth non-null; the method's code
+     * @param maxSize the most instructions, not counting moves, that
+     * the body may consist of
+     * @return null-ok; the instance, or <code>null</code> if the
+     * method doesn't qualify
+     */
+    public static TrivialMethod make(CstBaseMethodRef ref, boolean isStatic,
+            RopMethod rmeth, int maxSize) {
+        BasicBlockList blocks = rmeth.getBlocks();
+        StdTypeList params = ref.getPrototype().getParameterTypes();
+        int argCount = params.size() + (isStatic ? 0 : 1);
+        int[] wordToArg = new int[ref.getParameterWordCount(isStatic)];
+        int word = 0;
+
+        for (int i = 0; i < argCount; i++) {
+            wordToArg[word] = i;
+            if (isStatic || (i != 0)) {
+                word += params.getType(isStatic ? i : i - 1).getCategory();
+            } else {
+                word++;
+            }
+        }
+
+        // Which value each rop register currently holds.
+        int[] current = new int[blocks.getRegCount()];
+        Arrays.fill(current, -1);
+
+        ArrayList<Insn> body = new ArrayList<Insn>();
+        int throwingIndex = -1;
+        int valueCount = argCount;
+        int returnValue = -1;
+        BasicBlock block = blocks.labelToBlock(rmeth.getFirstLabel());
+
+        for (int blockCount = 0; /*block*/; blockCount++) {
+            if (blockCount > blocks.size()) {
+                // There's a loop.
+                return null;
+            }
+
+            InsnList insns = block.getInsns();
+            int sz = insns.size();
+
+            for (int i = 0; i < sz; i++) {
+                Insn insn = insns.get(i);
+                Rop opcode = insn.getOpcode();
+                RegisterSpec result = insn.getResult();
+
+                switch (opcode.getOpcode()) {
+                    case RegOps.MOVE_PARAM: {
+                        int index = ((CstInteger)
+                                ((CstInsn) insn).getConstant()).getValue();
+                        current[result.getReg()] = wordToArg[index];
+                        continue;
+                    }
+                    case RegOps.MOVE: {
+                        int value = current[insn.getSources().get(0).getReg()];
+                        if (value < 0) {
+                            return null;
+                        }
+                        current[result.getReg()] = value;
+                        continue;
+                    }
+                    case RegOps.GOTO: {
+                        continue;
+                    }
+                    case RegOps.RETURN: {
+                        RegisterSpecList sources = insn.getSources();
+                        if (sources.size() != 0) {
+                            returnValue = current[sources.get(0).getReg()];
+                            if (returnValue < 0) {
+                                return null;
+                            }
+                        }
+                        return finish(ref, isStatic, body, throwingIndex,
+                                returnValue, valueCount, maxSize);
+                    }
+                    case RegOps.MOVE_RESULT:
+                    case RegOps.MOVE_RESULT_PSEUDO: {
+                        if ((i != 0) || (throwingIndex != body.size() - 1)) {
+                            return null;
+                        }
+                        break;
+                    }
+                    default: {
+                        if (insn.canThrow()) {
+                            if ((throwingIndex >= 0)
+                                    || !isInlinableThrowingOp(insn)
+                                    || (insn.getCatches().size() != 0)) {
+                                return null;
+                            }
+                            throwingIndex = body.size();
+                        } else if ((opcode.getBranchingness()
+                                        != Rop.BRANCH_NONE)
+                                || (opcode.getOpcode() == RegOps.MARK_LOCAL)) {
+                            return null;
+                        }
+                    }
+                }
+
+                RegisterSpecList sources = insn.getSources();
+                int sourceCount = sources.size();
+                RegisterSpecList newSources =
+                    new RegisterSpecList(sourceCount);
+
+                for (int j = 0; j < sourceCount; j++) {
+                    RegisterSpec source = sources.get(j);
+                    int value = current[source.getReg()];
+
+                    if (value < 0) {
+                        return null;
+                    }
+
+                    newSources.set(j, source.withReg(value));
+                }
+
+                newSources.setImmutable();
+
+                RegisterSpec newResult = null;
+                if (result != null) {
+                    newResult = result.withReg(valueCount);
+                    current[result.getReg()] = valueCount;
+                    valueCount++;
+                }
+
+                body.add(insn.withNewRegisters(newResult, newSources));
+            }
+
+            if (block.getSuccessors().size() != 1) {
+                return null;
+            }
+
+            block = blocks.labelToBlock(block.getPrimarySuccessor());
+        }
+    }
+
+    /**
+     * Helper for {@link #make}, which drops the instructions that
+     * don't matter and checks the result against the size budget.
+     */
+    private static TrivialMethod finish(CstBaseMethodRef ref,
+            boolean isStatic, ArrayList<Insn> body, int throwingIndex,
+            int returnValue, int valueCount, int maxSize) {
+        int sz = body.size();
+        BitSet live = new BitSet(valueCount);
+        boolean[] keep = new boolean[sz];
+
+        if (returnValue >= 0) {
+            live.set(returnValue);
+        }
+
+        for (int i = sz - 1; i >= 0; i--) {
+            Insn insn = body.get(i);
+            RegisterSpec result = insn.getResult();
+
+            /*
+             * The throwing instruction stays, and so does the
+             * move-result that goes with it.
+             */
+            keep[i] = (i == throwingIndex) || isMoveResult(insn)
+                || ((result != null) && live.get(result.getReg()));
+
+            if (keep[i]) {
+                RegisterSpecList sources = insn.getSources();
+                for (int j = 0; j < sources.size(); j++) {
+                    live.set(sources.get(j).getReg());
+                }
+            }
+        }
+
+        ArrayList<Insn> kept = new ArrayList<Insn>(sz);
+        int newThrowingIndex = -1;
+        int size = 0;
+
+        for (int i = 0; i < sz; i++) {
+            if (!keep[i]) {
+                continue;
+            }
+
+            Insn insn = body.get(i);
+
+            if (i == throwingIndex) {
+                newThrowingIndex = kept.size();
+            }
+
+            if (!isMoveResult(insn)) {
+                size++;
+            }
+
+            kept.add(insn);
+        }
+
+        if (size > maxSize) {
+            return null;
+        }
+
+        kept.trimToSize();
+        return new TrivialMethod(ref, isStatic, kept, newThrowingIndex,
+                returnValue, valueCount, size);
+    }
+
+    /**
+     * Tells whether the given instruction is a <code>move-result</code>
+     * or <code>move-result-pseudo</code>. A body only ever has one of
+     * these, right after the instruction that can throw.
+     *
+     * @param insn non-null; the instruction
+     * @return whether it's one of those
+     */
+    private static boolean isMoveResult(Insn insn) {
+        int opcode = insn.getOpcode().getOpcode();
+
+        return (opcode == RegOps.MOVE_RESULT)
+            || (opcode == RegOps.MOVE_RESULT_PSEUDO);
+    }
+
+    /**
+     * Tells whether the given instruction is one that can throw but
+     * may still be part of an inlined body. These are all the ones
+     * whose only effect other than an exception is the obvious one,
+     * and whose meaning doesn't depend on the class they're in.
+     *
+     * @param insn non-null; the instruction
+     * @return whether it's allowed
+     */
+    private static boolean isInlinableThrowingOp(Insn insn) {
+        if (!(insn instanceof CstInsn)) {
+            return false;
+        }
+
+        switch (insn.getOpcode().getOpcode()) {
+            case RegOps.CONST:
+            case RegOps.GET_FIELD:
+            case RegOps.PUT_FIELD:
+            case RegOps.GET_STATIC:
+            case RegOps.PUT_STATIC:
+            case RegOps.INVOKE_STATIC:
+            case RegOps.INVOKE_VIRTUAL:
+            case RegOps.INVOKE_INTERFACE: {
+                return true;
+            }
+            case RegOps.INVOKE_DIRECT: {
+                // Constructor calls only ever follow a new-instance.
+                CstBaseMethodRef method =
+                    (CstBaseMethodRef) ((CstInsn) insn).getConstant();
+                return !method.isInstanceInit();
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Constructs an instance.
+     */
+    private TrivialMethod(CstBaseMethodRef ref, boolean isStatic,
+            ArrayList<Insn> body, int throwingIndex, int returnValue,
+            int valueCount, int size) {
+        this.ref = ref;
+        this.isStatic = isStatic;
+        this.body = body;
+        this.throwingIndex = throwingIndex;
+        this.returnValue = returnValue;
+        this.valueCount = valueCount;
+        this.size = size;
+    }
+
+    /**
+     * @return non-null; the method
+     */
+    public CstBaseMethodRef getRef() {
+        return ref;
+    }
+
+    /**
+     * @return whether the method is static
+     */
+    public boolean isStatic() {
+        return isStatic;
+    }
+
+    /**
+     * @return non-null; the body; the list must not be modified
+     */
+    public ArrayList<Insn> getBody() {
+        return body;
+    }
+
+    /**
+     * @return index into the body of the instruction that can throw,
+     * or <code>-1</code> if none can
+     */
+    public int getThrowingIndex() {
+        return throwingIndex;
+    }
+
+    /**
+     * @return the value returned, or <code>-1</code> for a void method
+     */
+    public int getReturnValue() {
+        return returnValue;
+    }
+
+    /**
+     * @return &gt; 0; one more than the highest value number used
+     */
+    public int getValueCount() {
+        return valueCount;
+    }
+
+    /**
+     * @return the number of instructions, not counting moves
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Tells whether the body starts out by doing something that
+     * throws a <code>NullPointerException</code> if <code>this</code>
+     * is <code>null</code>, just as calling the method would have.
+     *
+     * @return whether that's so
+     */
+    public boolean checksThis() {
+        if (isStatic || (throwingIndex < 0)) {
+            return false;
+        }
+
+        Insn insn = body.get(throwingIndex);
+        RegisterSpecList sources = insn.getSources();
+        int objectIndex;
+
+        switch (insn.getOpcode().getOpcode()) {
+            case RegOps.GET_FIELD:
+            case RegOps.INVOKE_VIRTUAL:
+            case RegOps.INVOKE_INTERFACE:
+            case RegOps.INVOKE_DIRECT: {
+                objectIndex = 0;
+                break;
+            }
+            case RegOps.PUT_FIELD: {
+                objectIndex = 1;
+                break;
+            }
+            default: {
+                return false;
+            }
+        }
+
+        return (sources.size() > objectIndex)
+            && (sources.get(objectIndex).getReg() == 0);
+    }
+
+    /**
+     * Tells whether the body starts out by doing something that
+     * initializes the given class, just as calling a static method
+     * of the class would have.
+     *
+     * @param clazz non-null; the class
+     * @return whether that's so
+     */
+    public boolean initializes(CstType clazz) {
+        if (throwingIndex < 0) {
+            return false;
+        }
+
+        Insn insn = body.get(throwingIndex);
+
+        switch (insn.getOpcode().getOpcode()) {
+            case RegOps.GET_STATIC:
+            case RegOps.PUT_STATIC:
+            case RegOps.INVOKE_STATIC: {
+                Constant cst = ((CstInsn) insn).getConstant();
+                return ((CstMemberRef) cst).getDefiningClass().equals(clazz);
+            }
+        }
+
+        return false;
+    }
+}
@@ -0,0 +1,529 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.ssa;
+
+import com.android.dx.rop.code.CstInsn;
+import com.android.dx.rop.code.Insn;
+import com.android.dx.rop.code.PlainInsn;
+import com.android.dx.rop.code.RegOps;
+import com.android.dx.rop.code.RegisterSpec;
+import com.android.dx.rop.code.RegisterSpecList;
+import com.android.dx.rop.code.Rop;
+import com.android.dx.rop.code.Rops;
+import com.android.dx.rop.cst.Constant;
+import com.android.dx.rop.cst.CstFieldRef;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Dominator-based global value numbering. Walks the dominator tree,
+ * keeping a table of the values computed by the blocks that dominate
+ * the current one, and removes each instruction that computes a value
+ * already in the table, pointing its uses at the earlier result.
+ *
+ * <p>The instructions taken into account are arithmetic, logical and
+ * conversion operations that can't throw, along with two kinds that
+ * can throw but never do when an earlier, identical one didn't:
+ * <code>array-length</code>, and reads of final fields of the method's
+ * class that the method itself doesn't write. A redundant throwing
+ * instruction is only removed if its block has no exception handlers,
+ * since the goto that replaces it can't have any.</p>
+ *
+ * <p>When local variable information is being preserved, an
+ * instruction whose result is a local variable is left alone, except
+ * that a redundant throwing one is turned into a move.</p>
+ */
+public class ValueNumberer {
+    /** method we're processing */
+    private final SsaMethod ssaMeth;
+
+    /** whether local variable information is being preserved */
+    private final boolean preserveLocals;
+
+    /** null-ok; final fields of the method's class, if known */
+    private final Set<CstFieldRef> finalFields;
+
+    /** non-null; fields the method writes */
+    private final HashSet<CstFieldRef> writtenFields;
+
+    /**
+     * non-null; the value held by each register, as the register
+     * first known to hold it, for those that hold a copy of another
+     * register's value; all others hold their own value
+     */
+    private final int[] values;
+
+    /**
+     * non-null; the register that takes the place of each register
+     * defined by a removed instruction, or <code>null</code>
+     */
+    private final RegisterSpec[] replacements;
+
+    /** non-null; values available in the current block */
+    private final HashMap<Key, RegisterSpec> available;
+
+    /** non-null; instructions to delete when done */
+    private final HashSet<SsaInsn> deletedInsns;
+
+    /**
+     * Processes a method.
+     *
+     * @param ssaMethod non-null; method to process
+     */
+    public static void process(SsaMethod ssaMethod) {
+        new ValueNumberer(ssaMethod).run();
+    }
+
+    private ValueNumberer(SsaMethod ssaMethod) {
+        OptimizerContext context = ssaMethod.getContext();
+        int regCount = ssaMethod.getRegCount();
+
+        this.ssaMeth = ssaMethod;
+        this.preserveLocals = context.getPreserveLocals();
+        this.finalFields = context.getFinalFields();
+        this.writtenFields = new HashSet<CstFieldRef>();
+        this.values = new int[regCount];
+        this.replacements = new RegisterSpec[regCount];
+        this.available = new HashMap<Key, RegisterSpec>();
+        this.deletedInsns = new HashSet<SsaInsn>();
+
+        for (int i = 0; i < regCount; i++) {
+            values[i] = i;
+        }
+    }
+
+    /**
+     * Runs the optimization.
+     */
+    private void run() {
+        if (finalFields != null) {
+            findWrittenFields();
+        }
+
+        walkDomTree();
+
+        if (deletedInsns.isEmpty()) {
+            return;
+        }
+
+        ssaMeth.deleteInsns(deletedInsns);
+
+        final int regCount = ssaMeth.getRegCount();
+        RegisterMapper mapper = new RegisterMapper() {
+            /** @inheritDoc */
+            public int getNewRegisterCount() {
+                return regCount;
+            }
+
+            /** @inheritDoc */
+            public RegisterSpec map(RegisterSpec registerSpec) {
+                RegisterSpec replacement =
+                    replacements[registerSpec.getReg()];
+
+                if (replacement == null) {
+                    return registerSpec;
+                }
+
+                return registerSpec.withReg(replacement.getReg());
+            }
+        };
+
+        for (SsaBasicBlock block : ssaMeth.getBlocks()) {
+            for (SsaInsn insn : block.getInsns()) {
+                insn.mapSourceRegisters(mapper);
+            }
+        }
+
+        ssaMeth.onInsnsChanged();
+    }
+
+    /**
+     * Finds the fields that the method writes.
+     */
+    private void findWrittenFields() {
+        for (SsaBasicBlock block : ssaMeth.getBlocks()) {
+            for (SsaInsn insn : block.getInsns()) {
+                Insn ropInsn = insn.getOriginalRopInsn();
+
+                if (ropInsn == null) {
+                    continue;
+                }
+
+                int opcode = ropInsn.getOpcode().getOpcode();
+
+                if ((opcode == RegOps.PUT_FIELD)
+                        || (opcode == RegOps.PUT_STATIC)) {
+                    writtenFields.add((CstFieldRef)
+                            ((CstInsn) ropInsn).getConstant());
+                }
+            }
+        }
+    }
+
+    /**
+     * Visits the blocks in dominator tree order, with the values
+     * computed by each block available to the blocks it dominates and
+     * no others. The walk keeps its own stack, since the tree of a
+     * long method can be deep.
+     */
+    private void walkDomTree() {
+        ArrayList<SsaBasicBlock> blocks = ssaMeth.getBlocks();
+        ArrayList<SsaBasicBlock> stack = new ArrayList<SsaBasicBlock>();
+        ArrayList<ArrayList<Key>> added =
+            new ArrayList<ArrayList<Key>>(blocks.size());
+        BitSet entered = new BitSet(blocks.size());
+
+        for (int i = 0; i < blocks.size(); i++) {
+            added.add(null);
+        }
+
+        stack.add(ssaMeth.getEntryBlock());
+
+        while (!stack.isEmpty()) {
+            SsaBasicBlock block = stack.remove(stack.size() - 1);
+            int index = block.getIndex();
+
+            if (entered.get(index)) {
+                // Leaving the block: its values go out of scope.
+                for (Key key : added.get(index)) {
+                    available.remove(key);
+                }
+                added.set(index, null);
+                continue;
+            }
+
+            entered.set(index);
+            added.set(index, visitBlock(block));
+            stack.add(block);
+
+            // The entry block is listed as its own child.
+            for (SsaBasicBlock child : block.getDomChildren()) {
+                if (child != block) {
+                    stack.add(child);
+                }
+            }
+        }
+    }
+
+    /**
+     * Numbers the values computed by a block.
+     *
+     * @param block non-null; the block
+     * @return non-null; the keys added to the table of available values
+     */
+    private ArrayList<Key> visitBlock(SsaBasicBlock block) {
+        ArrayList<Key> added = new ArrayList<Key>();
+        ArrayList<SsaInsn> insns = block.getInsns();
+        int start = block.getPhiInsns().size();
+        int sz = insns.size();
+
+        for (int i = start; i < sz; i++) {
+            SsaInsn insn = insns.get(i);
+            Insn ropInsn = insn.getOriginalRopInsn();
+
+            if (ropInsn == null) {
+                continue;
+            }
+
+            int opcode = ropInsn.getOpcode().getOpcode();
+            RegisterSpec result = insn.getResult();
+
+            if (opcode == RegOps.MOVE) {
+                values[result.getReg()] = valueOf(insn.getSources().get(0));
+                continue;
+            }
+
+            boolean throwing = (opcode == RegOps.MOVE_RESULT_PSEUDO);
+            Key key;
+
+            if (throwing) {
+                if (i != start) {
+                    continue;
+                }
+
+                SsaBasicBlock pred = ssaMeth.getBlocks().get(
+                        block.getPredecessors().nextSetBit(0));
+                ArrayList<SsaInsn> predInsns = pred.getInsns();
+
+                key = keyForThrowing(predInsns.get(predInsns.size() - 1));
+
+                if ((key != null) && available.containsKey(key)
+                        && (pred.getSuccessors().cardinality() == 1)) {
+                    removeThrowing(predInsns.get(predInsns.size() - 1),
+                            block, i, available.get(key));
+                    continue;
+                }
+            } else {
+                key = keyForPure(insn);
+            }
+
+            if (key == null) {
+                continue;
+            }
+
+            RegisterSpec previous = available.get(key);
+
+            if (previous == null) {
+                available.put(key, result);
+                added.add(key);
+            } else if (!throwing && !isLocal(result)) {
+                deletedInsns.add(insn);
+                replace(result, previous);
+            }
+        }
+
+        return added;
+    }
+
+    /**
+     * Removes a throwing instruction along with the
+     * <code>move-result-pseudo</code> that follows it, since an earlier
+     * instruction computed the same value.
+     *
+     * @param insn non-null; the throwing instruction
+     * @param block non-null; the block that starts with the
+     * <code>move-result-pseudo</code>
+     * @param index the index of the <code>move-result-pseudo</code>
+     * @param previous non-null; the register with the same value
+     */
+    private void removeThrowing(SsaInsn insn, SsaBasicBlock block,
+            int index, RegisterSpec previous) {
+        SsaInsn moveResult = block.getInsns().get(index);
+        RegisterSpec result = moveResult.getResult();
+
+        deletedInsns.add(insn);
+
+        if (isLocal(result)) {
+            // A move takes its place, which keeps the local variable.
+            Insn move = new PlainInsn(Rops.opMove(result.getType()),
+                    moveResult.getOriginalRopInsn().getPosition(), result,
+                    RegisterSpecList.make(previous));
+
+            block.getInsns().set(index, new NormalSsaInsn(move, block));
+        } else {
+            deletedInsns.add(moveResult);
+            replace(result, previous);
+        }
+    }
+
+    /**
+     * Notes that uses of a register are to be replaced.
+     *
+     * @param reg non-null; the register
+     * @param replacement non-null; the register to use instead
+     */
+    private void replace(RegisterSpec reg, RegisterSpec replacement) {
+        replacements[reg.getReg()] = replacement;
+        values[reg.getReg()] = valueOf(replacement);
+    }
+
+    /**
+     * Tells whether a register has to be kept because it holds a local
+     * variable.
+     *
+     * @param reg non-null; the register
+     * @return whether that's so
+     */
+    private boolean isLocal(RegisterSpec reg) {
+        return preserveLocals && ssaMeth.isRegALocal(reg);
+    }
+
+    /**
+     * Gets the value held by a register.
+     *
+     * @param reg non-null; the register
+     * @return the value number
+     */
+    private int valueOf(RegisterSpec reg) {
+        return values[reg.getReg()];
+    }
+
+    /**
+     * Gets the key for an instruction that can't throw and has no
+     * effect other than computing its result.
+     *
+     * @param insn non-null; the instruction
+     * @return null-ok; the key, or <code>null</code> if the instruction
+     * isn't of a kind this step handles
+     */
+    private Key keyForPure(SsaInsn insn) {
+        Rop rop = insn.getOpcode();
+
+        if (rop.canThrow() || (insn.getResult() == null)) {
+            return null;
+        }
+
+        if (!isPureOpcode(rop.getOpcode())) {
+            return null;
+        }
+
+        return makeKey(insn.getOriginalRopInsn());
+    }
+
+    /**
+     * Tells whether an opcode is one of the arithmetic, logical,
+     * comparison and conversion operations, which have no effect other
+     * than computing their result when they can't throw.
+     *
+     * @param opcode the opcode
+     * @return whether that's so
+     */
+    /*package*/ static boolean isPureOpcode(int opcode) {
+        switch (opcode) {
+            case RegOps.ADD:
+            case RegOps.SUB:
+            case RegOps.MUL:
+            case RegOps.DIV:
+            case RegOps.REM:
+            case RegOps.NEG:
+            case RegOps.AND:
+            case RegOps.OR:
+            case RegOps.XOR:
+            case RegOps.SHL:
+            case RegOps.SHR:
+            case RegOps.USHR:
+            case RegOps.NOT:
+            case RegOps.CMPL:
+            case RegOps.CMPG:
+            case RegOps.CONV:
+            case RegOps.TO_BYTE:
+            case RegOps.TO_CHAR:
+            case RegOps.TO_SHORT: {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Gets the key for the throwing instruction at the end of a block,
+     * if it's one whose result may be reused.
+     *
+     * @param insn non-null; the instruction
+     * @return null-ok; the key, or <code>null</code> if the instruction
+     * isn't of a kind this step handles
+     */
+    private Key keyForThrowing(SsaInsn insn) {
+        Insn ropInsn = insn.getOriginalRopInsn();
+
+        if (ropInsn == null) {
+            return null;
+        }
+
+        switch (ropInsn.getOpcode().getOpcode()) {
+            case RegOps.ARRAY_LENGTH: {
+                return makeKey(ropInsn);
+            }
+            case RegOps.GET_FIELD:
+            case RegOps.GET_STATIC: {
+                CstFieldRef field =
+                    (CstFieldRef) ((CstInsn) ropInsn).getConstant();
+
+                if ((finalFields == null) || !finalFields.contains(field)
+                        || writtenFields.contains(field)) {
+                    return null;
+                }
+
+                return makeKey(ropInsn);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Makes the key for an instruction.
+     *
+     * @param insn non-null; the instruction
+     * @return non-null; the key
+     */
+    private Key makeKey(Insn insn) {
+        Rop rop = insn.getOpcode();
+        RegisterSpecList sources = insn.getSources();
+        int sz = sources.size();
+        int[] sourceValues = new int[sz];
+
+        for (int i = 0; i < sz; i++) {
+            sourceValues[i] = valueOf(sources.get(i));
+        }
+
+        if (rop.isCommutative()) {
+            Arrays.sort(sourceValues);
+        }
+
+        Constant cst = (insn instanceof CstInsn)
+            ? ((CstInsn) insn).getConstant() : null;
+
+        return new Key(rop, cst, sourceValues);
+    }
+
+    /**
+     * What makes two instructions compute the same value: the same
+     * operation, constant and source values.
+     */
+    private static final class Key {
+        /** non-null; the operation */
+        private final Rop rop;
+
+        /** null-ok; the constant */
+        private final Constant cst;
+
+        /** non-null; the source values */
+        private final int[] sources;
+
+        /**
+         * Constructs an instance.
+         */
+        public Key(Rop rop, Constant cst, int[] sources) {
+            this.rop = rop;
+            this.cst = cst;
+            this.sources = sources;
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+
+            Key key = (Key) other;
+
+            return rop.equals(key.rop)
+                && ((cst == null) ? (key.cst == null) : cst.equals(key.cst))
+                && Arrays.equals(sources, key.sources);
+        }
+
+        /** {@inheritDoc} */
+        @Override
+        public int hashCode() {
+            int result = rop.hashCode() * 31 + Arrays.hashCode(sources);
+
+            if (cst != null) {
+                result = result * 31 + cst.hashCode();
+            }
+
+            return result;
+        }
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.ssa._tests;
+
+import com.android.dx.util.IntList;
+
+/**
+ * Methods whose class files the tests of the method inliner translate:
+ * callers in this class, and the methods they call in the nested
+ * ones. What matters is the shape of the code javac makes of them, not
+ * what they compute.
+ */
+class InlineSamples {
+    /**
+     * Methods called on a receiver that may be <code>null</code>. The
+     * class is final, so none of them can be overridden.
+     */
+    static final class Box {
+        int value;
+        private int secret;
+
+        int getValue() {
+            return value;
+        }
+
+        void setValue(int v) {
+            value = v;
+        }
+
+        int getConstant() {
+            return 42;
+        }
+
+        int getSecret() {
+            return secret;
+        }
+
+        int selfConstant() {
+            return getConstant();
+        }
+
+        int selfSecret() {
+            return getSecret();
+        }
+    }
+
+    /**
+     * Methods that aren't candidates at all.
+     */
+    static class Open {
+        int value;
+
+        int getValue() {
+            return value;
+        }
+
+        final synchronized int getLocked() {
+            return value;
+        }
+    }
+
+    /**
+     * A class whose initialization runs code.
+     */
+    static class Init {
+        static int count = Integer.parseInt("7");
+
+        static int constant() {
+            return 1;
+        }
+
+        static int getCount() {
+            return count;
+        }
+
+        static int selfConstant() {
+            return constant();
+        }
+    }
+
+    /**
+     * A class whose initialization runs no code.
+     */
+    static class NoInit {
+        static int constant() {
+            return 2;
+        }
+
+        static int outside(int i) {
+            return Math.abs(i);
+        }
+    }
+
+    /**
+     * Methods that are candidates, but whose bodies don't qualify.
+     */
+    static class Rejected {
+        static void loops(int i) {
+            for (;;) {
+                i++;
+            }
+        }
+
+        static int branches(int i) {
+            return (i > 0) ? 1 : 2;
+        }
+
+        static int throwsTwice(Box x, Box y) {
+            return x.value + y.value;
+        }
+
+        static Object allocates() {
+            return new Object();
+        }
+
+        static int readsArray(int[] a) {
+            return a[0];
+        }
+
+        static int catches(Box x) {
+            try {
+                return x.value;
+            } catch (NullPointerException ex) {
+                return 0;
+            }
+        }
+
+        static int fiveOps(int i, int j) {
+            return ((i + j) * (i - j)) ^ (i * j);
+        }
+
+        static int local(int i) {
+            int j = i + 1;
+            return j;
+        }
+    }
+
+    static int callGetter(Box b) {
+        return b.getValue();
+    }
+
+    static void callSetter(Box b) {
+        b.setValue(3);
+    }
+
+    static int callConstant(Box b) {
+        return b.getConstant();
+    }
+
+    static int callSecret(Box b) {
+        return b.getSecret();
+    }
+
+    static int callOpen(Open o) {
+        return o.getValue();
+    }
+
+    static int callLocked(Open o) {
+        return o.getLocked();
+    }
+
+    static int callInitConstant() {
+        return Init.constant();
+    }
+
+    static int callInitCount() {
+        return Init.getCount();
+    }
+
+    static int callNoInit() {
+        return NoInit.constant();
+    }
+
+    static int callOutside(int i) {
+        return NoInit.outside(i);
+    }
+
+    static int callSize(IntList list) {
+        return list.size();
+    }
+
+    static int callGetterInTry(Box b) {
+        try {
+            return b.getValue();
+        } catch (NullPointerException ex) {
+            return -1;
+        }
+    }
+
+    static int callConstantInTry() {
+        try {
+            return NoInit.constant();
+        } catch (RuntimeException ex) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.ssa._tests;
+
+/**
+ * Methods with loops of various shapes, whose class file the tests of
+ * {@link com.android.dx.ssa.LoopNest} and {@link
+ * com.android.dx.ssa.LoopInvariantMover} translate. What matters is
+ * the shape of the code javac makes of them, not what they compute.
+ */
+class LoopSamples {
+    static int straight(int a, int b) {
+        return a * b;
+    }
+
+    static int single(int a, int b, int n) {
+        int sum = 0;
+
+        for (int i = 0; i < n; i++) {
+            sum += a * b;
+        }
+
+        return sum;
+    }
+
+    static int nested(int a, int b, int n) {
+        int sum = 0;
+
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                sum += (a ^ b) + (i << 3);
+            }
+        }
+
+        return sum;
+    }
+
+    static int twoEntries(int a, int b, int n, boolean f) {
+        int sum = 0;
+        int i;
+
+        if (f) {
+            i = a;
+        } else {
+            i = b;
+        }
+
+        while (i < n) {
+            sum += a - b;
+            i++;
+        }
+
+        return sum;
+    }
+
+    static int intoPhi(int a, int b, int n) {
+        int last = 0;
+
+        for (int i = 0; i < n; i++) {
+            last = a | b;
+        }
+
+        return last;
+    }
+
+    static int local(int a, int b, int n) {
+        int sum = 0;
+
+        for (int i = 0; i < n; i++) {
+            int product = a * b;
+            sum += product;
+        }
+
+        return sum;
+    }
+
+    static int constant(int n) {
+        int sum = 0;
+
+        for (int i = 0; i < n; i++) {
+            sum += 100000;
+        }
+
+        return sum;
+    }
+}
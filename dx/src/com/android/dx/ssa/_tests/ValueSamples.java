@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.ssa._tests;
+
+/**
+ * Methods that compute the same values more than once, whose class
+ * file the tests of {@link com.android.dx.ssa.ValueNumberer}
+ * translate. What matters is the shape of the code javac makes of
+ * them, not what they compute.
+ */
+class ValueSamples {
+    private final int size;
+    private final int twice;
+
+    ValueSamples(int[] data) {
+        // The constructor writes the final field it reads.
+        size = data.length;
+        twice = size + size;
+    }
+
+    int finalField() {
+        return size * size;
+    }
+
+    static int arrayLength(int[] a) {
+        return a.length * a.length;
+    }
+
+    static int arrayLengthWithHandler(int[] a) {
+        try {
+            return a.length * a.length;
+        } catch (NullPointerException ex) {
+            return 0;
+        }
+    }
+
+    static int arrayLengthToLocal(int[] a) {
+        int first = a.length;
+        int second = a.length;
+
+        return first * second;
+    }
+
+    static int commutative(int a, int b) {
+        return (a + b) * (b + a);
+    }
+
+    static int notCommutative(int a, int b) {
+        return (a - b) * (b - a);
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.ssa._tests;
+
+import com.android.dx.rop.code.LocalItem;
+import com.android.dx.rop.code.RegOps;
+import com.android.dx.rop.code.Rop;
+import com.android.dx.rop.cst.CstUtf8;
+import com.android.dx.ssa.LoopInvariantMover;
+import com.android.dx.ssa.LoopNest;
+import com.android.dx.ssa.SsaInsn;
+import com.android.dx.ssa.SsaMethod;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+
+/**
+ * Test the class <code>com.android.dx.ssa.LoopInvariantMover</code>,
+ * over the methods of {@link LoopSamples}.
+ */
+public class _LoopInvariantMover
+        extends TestCase {
+
+    public void test_hoistsToPreheader() throws IOException {
+        SsaMethod ssaMeth = _LoopNest.translate("single", false);
+        LoopNest.Loop loop = LoopNest.find(ssaMeth).getLoops().get(0);
+
+        assertTrue(loop.contains(_LoopNest.findBlock(ssaMeth, RegOps.MUL)));
+        assertEquals(1, LoopInvariantMover.process(ssaMeth));
+        assertSame(loop.getPreheader(),
+                _LoopNest.findBlock(ssaMeth, RegOps.MUL));
+
+        // The add depends on the loop's phis, so it stays.
+        assertTrue(loop.contains(_LoopNest.findBlock(ssaMeth, RegOps.ADD)));
+    }
+
+    public void test_nestedLoops() throws IOException {
+        SsaMethod ssaMeth = _LoopNest.translate("nested", false);
+        LoopNest nest = LoopNest.find(ssaMeth);
+        LoopNest.Loop inner = nest.getLoops().get(0);
+        LoopNest.Loop outer = nest.getLoops().get(1);
+
+        // a ^ b is moved twice, once out of each loop...
+        assertEquals(4, LoopInvariantMover.process(ssaMeth));
+        assertSame(outer.getPreheader(),
+                _LoopNest.findBlock(ssaMeth, RegOps.XOR));
+
+        // ...but i << 3 only out of the inner one...
+        assertSame(inner.getPreheader(),
+                _LoopNest.findBlock(ssaMeth, RegOps.SHL));
+
+        // ...and so does the add of the two, which comes after them.
+        assertSame(inner.getPreheader(),
+                _LoopNest.findBlock(ssaMeth, RegOps.ADD));
+    }
+
+    public void test_noPreheader() throws IOException {
+        SsaMethod ssaMeth = _LoopNest.translate("twoEntries", false);
+
+        assertEquals(0, LoopInvariantMover.process(ssaMeth));
+    }
+
+    public void test_phiInputStays() throws IOException {
+        // The or is invariant, but its result flows into a phi.
+        SsaMethod ssaMeth = _LoopNest.translate("intoPhi", false);
+        LoopNest.Loop loop = LoopNest.find(ssaMeth).getLoops().get(0);
+
+        assertEquals(0, LoopInvariantMover.process(ssaMeth));
+        assertTrue(loop.contains(_LoopNest.findBlock(ssaMeth, RegOps.OR)));
+    }
+
+    public void test_localStays() throws IOException {
+        /*
+         * So as not to depend on how the samples were compiled, the
+         * product is named here rather than in the class file.
+         */
+        SsaMethod ssaMeth = _LoopNest.translate("local", true);
+        LoopNest.Loop loop = LoopNest.find(ssaMeth).getLoops().get(0);
+
+        findInsn(ssaMeth, RegOps.MUL).setResultLocal(
+                LocalItem.make(new CstUtf8("product"), null));
+        assertEquals(0, LoopInvariantMover.process(ssaMeth));
+        assertTrue(loop.contains(_LoopNest.findBlock(ssaMeth, RegOps.MUL)));
+
+        // Without local variable information, it can go.
+        ssaMeth = _LoopNest.translate("local", false);
+        assertEquals(1, LoopInvariantMover.process(ssaMeth));
+    }
+
+    public void test_constantStays() throws IOException {
+        // Placing constants is left to the const collector.
+        SsaMethod ssaMeth = _LoopNest.translate("constant", false);
+        LoopNest.Loop loop = LoopNest.find(ssaMeth).getLoops().get(0);
+
+        assertEquals(0, LoopInvariantMover.process(ssaMeth));
+        assertTrue(loop.contains(
+                _LoopNest.findBlock(ssaMeth, RegOps.CONST)));
+    }
+
+    /**
+     * Finds the first instruction with the given opcode.
+     *
+     * @param ssaMeth non-null; the method
+     * @param opcode the opcode, as in {@link RegOps}
+     * @return non-null; the instruction
+     */
+    private static SsaInsn findInsn(SsaMethod ssaMeth, int opcode) {
+        for (SsaInsn insn : _LoopNest.findBlock(ssaMeth, opcode).getInsns()) {
+            Rop rop = insn.getOpcode();
+
+            if ((rop != null) && (rop.getOpcode() == opcode)) {
+                return insn;
+            }
+        }
+
+        fail("no insn with opcode " + opcode);
+        return null;
+    }
+}
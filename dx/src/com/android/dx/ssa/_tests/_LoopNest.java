@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.ssa._tests;
+
+import com.android.dx.cf.code.ConcreteMethod;
+import com.android.dx.cf.code.Ropper;
+import com.android.dx.cf.direct.DirectClassFile;
+import com.android.dx.cf.direct.StdAttributeFactory;
+import com.android.dx.cf.iface.Method;
+import com.android.dx.cf.iface.MethodList;
+import com.android.dx.rop.code.DexTranslationAdvice;
+import com.android.dx.rop.code.RegOps;
+import com.android.dx.rop.code.Rop;
+import com.android.dx.rop.code.RopMethod;
+import com.android.dx.ssa.LoopNest;
+import com.android.dx.ssa.Optimizer;
+import com.android.dx.ssa.SsaBasicBlock;
+import com.android.dx.ssa.SsaInsn;
+import com.android.dx.ssa.SsaMethod;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.BitSet;
+
+/**
+ * Test the class <code>com.android.dx.ssa.LoopNest</code>, over the
+ * methods of {@link LoopSamples}.
+ */
+public class _LoopNest
+        extends TestCase {
+    /** non-null; name of the class file of the samples */
+    private static final String SAMPLES =
+        "/com/android/dx/ssa/_tests/LoopSamples.class";
+
+    public void test_noLoops() throws IOException {
+        SsaMethod ssaMeth = translate("straight", false);
+
+        assertTrue(LoopNest.find(ssaMeth).getLoops().isEmpty());
+    }
+
+    public void test_singleLoop() throws IOException {
+        SsaMethod ssaMeth = translate("single", false);
+        LoopNest nest = LoopNest.find(ssaMeth);
+        ArrayList<LoopNest.Loop> loops = nest.getLoops();
+
+        assertEquals(1, loops.size());
+
+        LoopNest.Loop loop = loops.get(0);
+        SsaBasicBlock header = loop.getHeader();
+
+        assertEquals(0, loop.getDepth());
+        assertNull(loop.getParent());
+        assertTrue(loop.contains(header));
+        assertTrue(loop.contains(findBlock(ssaMeth, RegOps.MUL)));
+        assertNull(nest.getLoopFor(ssaMeth.getEntryBlock()));
+        assertSame(loop, nest.getLoopFor(header));
+
+        BitSet blocks = loop.getBlocks();
+        for (int i = blocks.nextSetBit(0); i >= 0;
+             i = blocks.nextSetBit(i + 1)) {
+            assertTrue(nest.dominates(header, ssaMeth.getBlocks().get(i)));
+        }
+        assertFalse(nest.dominates(header, ssaMeth.getEntryBlock()));
+    }
+
+    public void test_preheader() throws IOException {
+        SsaMethod ssaMeth = translate("single", false);
+        LoopNest.Loop loop = LoopNest.find(ssaMeth).getLoops().get(0);
+        SsaBasicBlock preheader = loop.getPreheader();
+
+        assertNotNull(preheader);
+        assertFalse(loop.contains(preheader));
+        assertEquals(1, preheader.getSuccessors().cardinality());
+        assertTrue(preheader.getSuccessors().get(
+                loop.getHeader().getIndex()));
+    }
+
+    public void test_noPreheader() throws IOException {
+        // The loop is entered from both arms of an if.
+        SsaMethod ssaMeth = translate("twoEntries", false);
+        ArrayList<LoopNest.Loop> loops = LoopNest.find(ssaMeth).getLoops();
+
+        assertEquals(1, loops.size());
+        assertNull(loops.get(0).getPreheader());
+    }
+
+    public void test_nestedLoops() throws IOException {
+        SsaMethod ssaMeth = translate("nested", false);
+        LoopNest nest = LoopNest.find(ssaMeth);
+        ArrayList<LoopNest.Loop> loops = nest.getLoops();
+
+        assertEquals(2, loops.size());
+
+        // The inner loop comes first.
+        LoopNest.Loop inner = loops.get(0);
+        LoopNest.Loop outer = loops.get(1);
+
+        assertEquals(1, inner.getDepth());
+        assertSame(outer, inner.getParent());
+        assertEquals(0, outer.getDepth());
+        assertNull(outer.getParent());
+
+        BitSet innerBlocks = (BitSet) inner.getBlocks().clone();
+        innerBlocks.andNot(outer.getBlocks());
+        assertTrue(innerBlocks.isEmpty());
+        assertTrue(outer.getBlocks().cardinality()
+                > inner.getBlocks().cardinality());
+
+        assertSame(inner, nest.getLoopFor(inner.getHeader()));
+        assertSame(outer, nest.getLoopFor(outer.getHeader()));
+        assertTrue(nest.dominates(outer.getHeader(), inner.getHeader()));
+        assertFalse(nest.dominates(inner.getHeader(), outer.getHeader()));
+
+        // The inner loop is entered once per iteration of the outer one.
+        assertTrue(outer.contains(inner.getPreheader()));
+        assertFalse(outer.contains(outer.getPreheader()));
+    }
+
+    /**
+     * Converts a method of {@link LoopSamples} to SSA form, with the
+     * default optimizer steps run over it.
+     *
+     * @param name non-null; the name of the method
+     * @param preserveLocals whether to keep local variable information
+     * @return non-null; the method
+     */
+    static SsaMethod translate(String name, boolean preserveLocals)
+            throws IOException {
+        DirectClassFile cf =
+            new DirectClassFile(readResource(SAMPLES), SAMPLES, false);
+        cf.setAttributeFactory(StdAttributeFactory.THE_ONE);
+
+        MethodList methods = cf.getMethods();
+        int sz = methods.size();
+
+        for (int i = 0; i < sz; i++) {
+            Method one = methods.get(i);
+
+            if (!one.getName().getString().equals(name)) {
+                continue;
+            }
+
+            ConcreteMethod concrete =
+                new ConcreteMethod(one, cf, true, preserveLocals);
+            int paramWidth = concrete.getEffectiveDescriptor()
+                .getParameterTypes().getWordCount();
+            RopMethod rmeth =
+                Ropper.convert(concrete, DexTranslationAdvice.THE_ONE);
+
+            return Optimizer.debugNoRegisterAllocation(rmeth, paramWidth,
+                    true, preserveLocals, DexTranslationAdvice.THE_ONE,
+                    Optimizer.getDefaultSteps());
+        }
+
+        fail("no method " + name);
+        return null;
+    }
+
+    /**
+     * Finds the block holding the first instruction with the given
+     * opcode.
+     *
+     * @param ssaMeth non-null; the method
+     * @param opcode the opcode, as in {@link RegOps}
+     * @return non-null; the block
+     */
+    static SsaBasicBlock findBlock(SsaMethod ssaMeth, int opcode) {
+        for (SsaBasicBlock block : ssaMeth.getBlocks()) {
+            for (SsaInsn insn : block.getInsns()) {
+                Rop rop = insn.getOpcode();
+
+                if ((rop != null) && (rop.getOpcode() == opcode)) {
+                    return block;
+                }
+            }
+        }
+
+        fail("no insn with opcode " + opcode);
+        return null;
+    }
+
+    /**
+     * Reads a class file from the class path.
+     */
+    private static byte[] readResource(String name) throws IOException {
+        InputStream in = _LoopNest.class.getResourceAsStream(name);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+
+        try {
+            for (;;) {
+                int count = in.read(buf);
+                if (count < 0) {
+                    break;
+                }
+                out.write(buf, 0, count);
+            }
+        } finally {
+            in.close();
+        }
+
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,530 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.ssa._tests;
+
+import com.android.dx.cf.code.ConcreteMethod;
+import com.android.dx.cf.code.Ropper;
+import com.android.dx.cf.direct.DirectClassFile;
+import com.android.dx.cf.direct.StdAttributeFactory;
+import com.android.dx.cf.iface.Method;
+import com.android.dx.cf.iface.MethodList;
+import com.android.dx.dex.cf.CfOptions;
+import com.android.dx.dex.cf.CfTranslator;
+import com.android.dx.rop.code.AccessFlags;
+import com.android.dx.rop.code.BasicBlock;
+import com.android.dx.rop.code.BasicBlockList;
+import com.android.dx.rop.code.CstInsn;
+import com.android.dx.rop.code.DexTranslationAdvice;
+import com.android.dx.rop.code.Insn;
+import com.android.dx.rop.code.InsnList;
+import com.android.dx.rop.code.LocalItem;
+import com.android.dx.rop.code.PlainInsn;
+import com.android.dx.rop.code.RegOps;
+import com.android.dx.rop.code.RegisterSpec;
+import com.android.dx.rop.code.RegisterSpecList;
+import com.android.dx.rop.code.RopMethod;
+import com.android.dx.rop.code.Rops;
+import com.android.dx.rop.cst.Constant;
+import com.android.dx.rop.cst.CstBaseMethodRef;
+import com.android.dx.rop.cst.CstMemberRef;
+import com.android.dx.rop.cst.CstMethodRef;
+import com.android.dx.rop.cst.CstInteger;
+import com.android.dx.rop.cst.CstUtf8;
+import com.android.dx.rop.type.Type;
+import com.android.dx.ssa.InlinableMethods;
+import com.android.dx.ssa.Optimizer;
+import com.android.dx.ssa.OptimizerContext;
+import com.android.dx.ssa.SsaBasicBlock;
+import com.android.dx.ssa.SsaInsn;
+import com.android.dx.ssa.SsaMethod;
+import com.android.dx.ssa.TrivialMethod;
+import com.android.dx.util.Profile;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.EnumSet;
+
+/**
+ * Test the classes <code>com.android.dx.ssa.MethodInliner</code> and
+ * <code>com.android.dx.ssa.TrivialMethod</code>, over the methods of
+ * {@link InlineSamples}. The methods that may be inlined are found in
+ * the samples and in <code>IntList</code>, the way the dexer finds
+ * them, and each caller is converted to SSA form with the inliner as
+ * the only optional step.
+ */
+public class _MethodInliner
+        extends TestCase {
+    /** non-null; prefix of the names of the class files of the samples */
+    private static final String SAMPLES = "com/android/dx/ssa/_tests/";
+
+    /** non-null; the classes that go in the same file as the callers */
+    private static final String[] CLASSES = {
+        SAMPLES + "InlineSamples",
+        SAMPLES + "InlineSamples$Box",
+        SAMPLES + "InlineSamples$Open",
+        SAMPLES + "InlineSamples$Init",
+        SAMPLES + "InlineSamples$NoInit",
+        SAMPLES + "InlineSamples$Rejected",
+        "com/android/dx/util/IntList"
+    };
+
+    /** the size budget the dexer uses by default */
+    private static final int MAX_SIZE = 4;
+
+    public void test_receiverChecked() throws IOException {
+        // The body reads a field of the receiver, which checks it.
+        SsaMethod ssaMeth = translate("InlineSamples", "callGetter");
+
+        assertEquals(0, countCalls(ssaMeth, "getValue"));
+        assertEquals(1, count(ssaMeth, RegOps.GET_FIELD));
+        assertEquals(paramReg(ssaMeth, 0), findInsn(ssaMeth, RegOps.GET_FIELD)
+                .getSources().get(0).getReg());
+
+        // A setter writes one, which does too.
+        ssaMeth = translate("InlineSamples", "callSetter");
+
+        assertEquals(0, countCalls(ssaMeth, "setValue"));
+        assertEquals(1, count(ssaMeth, RegOps.PUT_FIELD));
+    }
+
+    public void test_receiverNotChecked() throws IOException {
+        /*
+         * Returning a constant doesn't look at the receiver, so a call
+         * on one that may be null has to stay...
+         */
+        assertNotNull(findInlinable("InlineSamples$Box", "getConstant"));
+        assertEquals(1, countCalls(translate("InlineSamples", "callConstant"),
+                        "getConstant"));
+
+        // ...unless it's this, which can't be.
+        SsaMethod ssaMeth = translate("InlineSamples$Box", "selfConstant");
+
+        assertEquals(0, countCalls(ssaMeth, "getConstant"));
+        assertEquals(0, countThrowing(ssaMeth));
+    }
+
+    public void test_classInit() throws IOException {
+        // Calling a static method would have initialized its class...
+        assertNotNull(findInlinable("InlineSamples$Init", "constant"));
+        assertEquals(1, countCalls(
+                        translate("InlineSamples", "callInitConstant"),
+                        "constant"));
+
+        // ...which a body that reads one of its fields does too...
+        SsaMethod ssaMeth = translate("InlineSamples", "callInitCount");
+
+        assertEquals(0, countCalls(ssaMeth, "getCount"));
+        assertEquals(1, count(ssaMeth, RegOps.GET_STATIC));
+
+        // ...and which makes no difference from within the class...
+        assertEquals(0, countCalls(
+                        translate("InlineSamples$Init", "selfConstant"),
+                        "constant"));
+
+        // ...or for a class whose initialization runs no code.
+        assertEquals(0, countCalls(translate("InlineSamples", "callNoInit"),
+                        "constant"));
+    }
+
+    public void test_exceptions() throws IOException {
+        /*
+         * The instruction of the body that can throw takes the place
+         * of the call in its try block, with the call's handlers and
+         * position.
+         */
+        SsaMethod ssaMeth = translate("InlineSamples", "callGetterInTry");
+        SsaInsn get = findInsn(ssaMeth, RegOps.GET_FIELD);
+        Insn getInsn = get.getOriginalRopInsn();
+
+        assertEquals(0, countCalls(ssaMeth, "getValue"));
+        assertEquals(1, getInsn.getCatches().size());
+        assertEquals(Type.intern("Ljava/lang/NullPointerException;"),
+                getInsn.getCatches().getType(0));
+        assertEquals(2, get.getBlock().getSuccessors().cardinality());
+        assertTrue(getInsn.getPosition().getLine() > 0);
+
+        /*
+         * A body that can't throw can't replace a call that has
+         * handlers, since there'd be nothing left to attach them to.
+         */
+        assertEquals(1, countCalls(
+                        translate("InlineSamples", "callConstantInTry"),
+                        "constant"));
+    }
+
+    public void test_accessBoundaries() throws IOException {
+        // A private field of another class...
+        assertNotNull(findInlinable("InlineSamples$Box", "getSecret"));
+        assertEquals(1, countCalls(translate("InlineSamples", "callSecret"),
+                        "getSecret"));
+
+        // ...which is fine from within the class itself...
+        assertEquals(0, countCalls(
+                        translate("InlineSamples$Box", "selfSecret"),
+                        "getSecret"));
+
+        // ...a private field in another package...
+        assertNotNull(findInlinable("com/android/dx/util/IntList", "size"));
+        assertEquals(1, countCalls(translate("InlineSamples", "callSize"),
+                        "size"));
+
+        // ...and a class that isn't in the file at all.
+        assertNotNull(findInlinable("InlineSamples$NoInit", "outside"));
+        assertEquals(1, countCalls(translate("InlineSamples", "callOutside"),
+                        "outside"));
+    }
+
+    public void test_notCandidates() throws IOException {
+        // A method that can be overridden, and a synchronized one.
+        assertNull(findInlinable("InlineSamples$Open", "getValue"));
+        assertNull(findInlinable("InlineSamples$Open", "getLocked"));
+        assertEquals(1, countCalls(translate("InlineSamples", "callOpen"),
+                        "getValue"));
+        assertEquals(1, countCalls(translate("InlineSamples", "callLocked"),
+                        "getLocked"));
+    }
+
+    public void test_rejectedBodies() throws IOException {
+        String[] rejected = {
+            "loops", "branches", "throwsTwice", "allocates", "readsArray",
+            "catches", "fiveOps"
+        };
+
+        for (String name : rejected) {
+            RopMethod rmeth = convert("InlineSamples$Rejected", name);
+            CstBaseMethodRef ref = findRef("InlineSamples$Rejected", name);
+
+            assertNull(name, TrivialMethod.make(ref, true, rmeth, MAX_SIZE));
+        }
+
+        // With a bigger budget, the size is all that was wrong.
+        assertNotNull(TrivialMethod.make(
+                        findRef("InlineSamples$Rejected", "fiveOps"), true,
+                        convert("InlineSamples$Rejected", "fiveOps"), 5));
+    }
+
+    public void test_rejectedLocal() throws IOException {
+        /*
+         * A local variable has nowhere to go in the caller. Whether the
+         * sample has a local variable table depends on how it was
+         * compiled, so one is marked here.
+         */
+        CstBaseMethodRef ref = findRef("InlineSamples$Rejected", "local");
+        RopMethod rmeth = convert("InlineSamples$Rejected", "local");
+
+        assertNotNull(TrivialMethod.make(ref, true, rmeth, MAX_SIZE));
+        assertNull(TrivialMethod.make(ref, true, withMarkLocal(rmeth),
+                        MAX_SIZE));
+    }
+
+    /**
+     * Finds the inlinable methods among {@link #CLASSES} the way the
+     * dexer does.
+     *
+     * @return non-null; the methods
+     */
+    private static InlinableMethods findInlinableMethods()
+            throws IOException {
+        InlinableMethods methods = new InlinableMethods(MAX_SIZE);
+
+        for (String name : CLASSES) {
+            String path = name + ".class";
+            CfTranslator.findInlinableMethods(path, readResource("/" + path),
+                    new CfOptions(), methods);
+        }
+
+        return methods;
+    }
+
+    /**
+     * Gets the inlinable body of a method, if it has one.
+     *
+     * @param className non-null; the class, relative to the samples'
+     * package unless it has one of its own
+     * @param name non-null; the method's name
+     * @return null-ok; the body
+     */
+    private static TrivialMethod findInlinable(String className, String name)
+            throws IOException {
+        return findInlinableMethods().get(findRef(className, name));
+    }
+
+    /**
+     * Converts a method to SSA form, inlining what it calls.
+     *
+     * @param className non-null; the class, relative to the samples'
+     * package
+     * @param name non-null; the method's name
+     * @return non-null; the method
+     */
+    private static SsaMethod translate(String className, String name)
+            throws IOException {
+        DirectClassFile cf = parse(className);
+        Method one = findMethod(cf, name);
+        ConcreteMethod concrete = new ConcreteMethod(one, cf, true, false);
+        int paramWidth = concrete.getEffectiveDescriptor()
+            .getParameterTypes().getWordCount();
+        RopMethod rmeth =
+            Ropper.convert(concrete, DexTranslationAdvice.THE_ONE);
+        OptimizerContext context =
+            new OptimizerContext(false, DexTranslationAdvice.THE_ONE,
+                    false, Profile.NONE, findInlinableMethods(),
+                    cf.getThisClass(), null, false);
+
+        return Optimizer.debugNoRegisterAllocation(rmeth, paramWidth,
+                AccessFlags.isStatic(one.getAccessFlags()), context,
+                EnumSet.of(Optimizer.OptionalStep.METHOD_INLINER));
+    }
+
+    /**
+     * Converts a method to rop form the way the dexer does when it
+     * looks for inlinable methods.
+     */
+    private static RopMethod convert(String className, String name)
+            throws IOException {
+        DirectClassFile cf = parse(className);
+        ConcreteMethod concrete =
+            new ConcreteMethod(findMethod(cf, name), cf, false, false);
+
+        return Ropper.convert(concrete, DexTranslationAdvice.THE_ONE);
+    }
+
+    /**
+     * Gets a reference to a method.
+     */
+    private static CstBaseMethodRef findRef(String className, String name)
+            throws IOException {
+        DirectClassFile cf = parse(className);
+
+        return new CstMethodRef(cf.getThisClass(),
+                findMethod(cf, name).getNat());
+    }
+
+    /**
+     * Parses a class file.
+     *
+     * @param className non-null; the class, relative to the samples'
+     * package unless it has one of its own
+     * @return non-null; the parsed class file
+     */
+    private static DirectClassFile parse(String className)
+            throws IOException {
+        String path = ((className.indexOf('/') < 0) ? SAMPLES : "") +
+            className + ".class";
+        DirectClassFile cf =
+            new DirectClassFile(readResource("/" + path), path, false);
+
+        cf.setAttributeFactory(StdAttributeFactory.THE_ONE);
+        return cf;
+    }
+
+    /**
+     * Finds the only method of a class with the given name.
+     */
+    private static Method findMethod(DirectClassFile cf, String name) {
+        MethodList methods = cf.getMethods();
+
+        for (int i = 0; i < methods.size(); i++) {
+            Method one = methods.get(i);
+
+            if (one.getName().getString().equals(name)) {
+                return one;
+            }
+        }
+
+        fail("no method " + name);
+        return null;
+    }
+
+    /**
+     * Gets a copy of a method with a local variable marked right after
+     * the first instruction that isn't a <code>move-param</code>.
+     */
+    private static RopMethod withMarkLocal(RopMethod rmeth) {
+        BasicBlockList blocks = rmeth.getBlocks();
+        int sz = blocks.size();
+        BasicBlockList newBlocks = new BasicBlockList(sz);
+        boolean marked = false;
+
+        for (int i = 0; i < sz; i++) {
+            BasicBlock block = blocks.get(i);
+            InsnList insns = block.getInsns();
+            ArrayList<Insn> newInsns = new ArrayList<Insn>();
+
+            for (int j = 0; j < insns.size(); j++) {
+                Insn insn = insns.get(j);
+                RegisterSpec result = insn.getResult();
+
+                newInsns.add(insn);
+
+                if (!marked && (result != null)
+                        && (insn.getOpcode().getOpcode()
+                                != RegOps.MOVE_PARAM)) {
+                    RegisterSpec local = result.withLocalItem(
+                            LocalItem.make(new CstUtf8("j"), null));
+
+                    newInsns.add(new PlainInsn(Rops.opMarkLocal(local),
+                                    insn.getPosition(), null,
+                                    RegisterSpecList.make(local)));
+                    marked = true;
+                }
+            }
+
+            InsnList newList = new InsnList(newInsns.size());
+            for (int j = 0; j < newInsns.size(); j++) {
+                newList.set(j, newInsns.get(j));
+            }
+            newList.setImmutable();
+
+            newBlocks.set(i, new BasicBlock(block.getLabel(), newList,
+                            block.getSuccessors(),
+                            block.getPrimarySuccessor()));
+        }
+
+        assertTrue(marked);
+        newBlocks.setImmutable();
+        return new RopMethod(newBlocks, rmeth.getFirstLabel());
+    }
+
+    /**
+     * Counts the calls to methods with the given name.
+     */
+    private static int countCalls(SsaMethod ssaMeth, String name) {
+        int result = 0;
+
+        for (SsaBasicBlock block : ssaMeth.getBlocks()) {
+            for (SsaInsn insn : block.getInsns()) {
+                Insn ropInsn = insn.getOriginalRopInsn();
+
+                if (!(ropInsn instanceof CstInsn)) {
+                    continue;
+                }
+
+                Constant cst = ((CstInsn) ropInsn).getConstant();
+
+                if ((cst instanceof CstBaseMethodRef)
+                        && ((CstMemberRef) cst).getNat().getName()
+                            .getString().equals(name)) {
+                    result++;
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Counts the instructions with the given opcode.
+     */
+    private static int count(SsaMethod ssaMeth, int opcode) {
+        int result = 0;
+
+        for (SsaBasicBlock block : ssaMeth.getBlocks()) {
+            for (SsaInsn insn : block.getInsns()) {
+                if ((insn.getOpcode() != null)
+                        && (insn.getOpcode().getOpcode() == opcode)) {
+                    result++;
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Counts the instructions that can throw.
+     */
+    private static int countThrowing(SsaMethod ssaMeth) {
+        int result = 0;
+
+        for (SsaBasicBlock block : ssaMeth.getBlocks()) {
+            for (SsaInsn insn : block.getInsns()) {
+                if (insn.canThrow()) {
+                    result++;
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Finds the only instruction with the given opcode.
+     */
+    private static SsaInsn findInsn(SsaMethod ssaMeth, int opcode) {
+        for (SsaBasicBlock block : ssaMeth.getBlocks()) {
+            for (SsaInsn insn : block.getInsns()) {
+                if ((insn.getOpcode() != null)
+                        && (insn.getOpcode().getOpcode() == opcode)) {
+                    return insn;
+                }
+            }
+        }
+
+        fail("no insn with opcode " + opcode);
+        return null;
+    }
+
+    /**
+     * Gets the register that the given parameter is moved into.
+     */
+    private static int paramReg(SsaMethod ssaMeth, int index) {
+        for (SsaBasicBlock block : ssaMeth.getBlocks()) {
+            for (SsaInsn insn : block.getInsns()) {
+                Insn ropInsn = insn.getOriginalRopInsn();
+
+                if ((ropInsn != null)
+                        && (ropInsn.getOpcode().getOpcode()
+                                == RegOps.MOVE_PARAM)
+                        && (((CstInteger) ((CstInsn) ropInsn)
+                                        .getConstant()).getValue() == index)) {
+                    return insn.getResult().getReg();
+                }
+            }
+        }
+
+        fail("no parameter " + index);
+        return -1;
+    }
+
+    /**
+     * Reads a class file from the class path.
+     */
+    private static byte[] readResource(String name) throws IOException {
+        InputStream in = _MethodInliner.class.getResourceAsStream(name);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+
+        try {
+            for (;;) {
+                int count = in.read(buf);
+                if (count < 0) {
+                    break;
+                }
+                out.write(buf, 0, count);
+            }
+        } finally {
+            in.close();
+        }
+
+        return out.toByteArray();
+    }
+}
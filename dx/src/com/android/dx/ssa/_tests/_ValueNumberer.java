@@ -0,0 +1,335 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.ssa._tests;
+
+import com.android.dx.cf.code.ConcreteMethod;
+import com.android.dx.cf.code.Ropper;
+import com.android.dx.cf.direct.DirectClassFile;
+import com.android.dx.cf.direct.StdAttributeFactory;
+import com.android.dx.cf.iface.Field;
+import com.android.dx.cf.iface.FieldList;
+import com.android.dx.cf.iface.Method;
+import com.android.dx.cf.iface.MethodList;
+import com.android.dx.rop.code.AccessFlags;
+import com.android.dx.rop.code.DexTranslationAdvice;
+import com.android.dx.rop.code.Insn;
+import com.android.dx.rop.code.LocalItem;
+import com.android.dx.rop.code.RegOps;
+import com.android.dx.rop.code.RegisterSpec;
+import com.android.dx.rop.code.Rop;
+import com.android.dx.rop.code.RopMethod;
+import com.android.dx.rop.cst.CstFieldRef;
+import com.android.dx.rop.cst.CstUtf8;
+import com.android.dx.ssa.Optimizer;
+import com.android.dx.ssa.OptimizerContext;
+import com.android.dx.ssa.SsaBasicBlock;
+import com.android.dx.ssa.SsaInsn;
+import com.android.dx.ssa.SsaMethod;
+import com.android.dx.ssa.ValueNumberer;
+import com.android.dx.util.Profile;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashSet;
+
+/**
+ * Test the class <code>com.android.dx.ssa.ValueNumberer</code>, over
+ * the methods of {@link ValueSamples}. Each method is converted to SSA
+ * form with value numbering as the only optional step.
+ */
+public class _ValueNumberer
+        extends TestCase {
+    /** non-null; name of the class file of the samples */
+    private static final String SAMPLES =
+        "/com/android/dx/ssa/_tests/ValueSamples.class";
+
+    public void test_arrayLength() throws IOException {
+        SsaMethod ssaMeth = translate("arrayLength", false, true);
+
+        assertEquals(1, count(ssaMeth, RegOps.ARRAY_LENGTH));
+        assertEquals(1, count(ssaMeth, RegOps.MOVE_RESULT_PSEUDO));
+        assertSameSources(ssaMeth, RegOps.MUL);
+        assertBranchesAtEnds(ssaMeth);
+    }
+
+    public void test_finalField() throws IOException {
+        SsaMethod ssaMeth = translate("finalField", false, true);
+
+        assertEquals(1, count(ssaMeth, RegOps.GET_FIELD));
+        assertSameSources(ssaMeth, RegOps.MUL);
+        assertBranchesAtEnds(ssaMeth);
+    }
+
+    public void test_unknownFinalFields() throws IOException {
+        // Without the class's final fields, no read may be reused.
+        SsaMethod ssaMeth = translate("finalField", false, false);
+
+        assertEquals(2, count(ssaMeth, RegOps.GET_FIELD));
+    }
+
+    public void test_writtenField() throws IOException {
+        // The constructor reads the final field after writing it.
+        SsaMethod ssaMeth = translate("<init>", false, true);
+
+        assertEquals(2, count(ssaMeth, RegOps.GET_FIELD));
+    }
+
+    public void test_handlers() throws IOException {
+        // The goto that would replace the second read can't catch.
+        SsaMethod ssaMeth = translate("arrayLengthWithHandler", false, true);
+
+        assertEquals(2, count(ssaMeth, RegOps.ARRAY_LENGTH));
+    }
+
+    public void test_localBecomesMove() throws IOException {
+        /*
+         * The second read goes to a local variable. So as not to
+         * depend on how the samples were compiled, the local is named
+         * here rather than taken from the class file.
+         */
+        SsaMethod ssaMeth = translate("arrayLengthToLocal", true, true,
+                EnumSet.noneOf(Optimizer.OptionalStep.class));
+        SsaInsn second = find(ssaMeth, RegOps.MOVE_RESULT_PSEUDO, 1);
+
+        second.setResultLocal(LocalItem.make(new CstUtf8("second"), null));
+        ValueNumberer.process(ssaMeth);
+
+        assertEquals(1, count(ssaMeth, RegOps.ARRAY_LENGTH));
+        assertEquals(1, count(ssaMeth, RegOps.MOVE_RESULT_PSEUDO));
+        assertBranchesAtEnds(ssaMeth);
+
+        // The second local still gets its value, from a move.
+        SsaInsn move = find(ssaMeth, RegOps.MOVE);
+        RegisterSpec source = move.getSources().get(0);
+        SsaInsn def = ssaMeth.getDefinitionForRegister(source.getReg());
+
+        assertTrue(ssaMeth.isRegALocal(move.getResult()));
+        assertEquals(RegOps.MOVE_RESULT_PSEUDO,
+                def.getOpcode().getOpcode());
+    }
+
+    public void test_commutative() throws IOException {
+        SsaMethod ssaMeth = translate("commutative", false, true);
+
+        assertEquals(1, count(ssaMeth, RegOps.ADD));
+        assertSameSources(ssaMeth, RegOps.MUL);
+    }
+
+    public void test_notCommutative() throws IOException {
+        SsaMethod ssaMeth = translate("notCommutative", false, true);
+
+        assertEquals(2, count(ssaMeth, RegOps.SUB));
+    }
+
+    /**
+     * Converts a method of {@link ValueSamples} to SSA form, with value
+     * numbering the only optional step run over it.
+     *
+     * @param name non-null; the name of the method
+     * @param preserveLocals whether to keep local variable information
+     * @param knowFinalFields whether to tell the optimizer which fields
+     * of the class are final
+     * @return non-null; the method
+     */
+    private static SsaMethod translate(String name, boolean preserveLocals,
+            boolean knowFinalFields) throws IOException {
+        return translate(name, preserveLocals, knowFinalFields,
+                EnumSet.of(Optimizer.OptionalStep.VALUE_NUMBERING));
+    }
+
+    /**
+     * Converts a method of {@link ValueSamples} to SSA form, with the
+     * given optional steps run over it.
+     *
+     * @param name non-null; the name of the method
+     * @param preserveLocals whether to keep local variable information
+     * @param knowFinalFields whether to tell the optimizer which fields
+     * of the class are final
+     * @param steps non-null; the optional steps
+     * @return non-null; the method
+     */
+    private static SsaMethod translate(String name, boolean preserveLocals,
+            boolean knowFinalFields, EnumSet<Optimizer.OptionalStep> steps)
+            throws IOException {
+        DirectClassFile cf =
+            new DirectClassFile(readResource(SAMPLES), SAMPLES, false);
+        cf.setAttributeFactory(StdAttributeFactory.THE_ONE);
+
+        HashSet<CstFieldRef> finalFields = null;
+
+        if (knowFinalFields) {
+            FieldList fields = cf.getFields();
+            finalFields = new HashSet<CstFieldRef>();
+
+            for (int i = 0; i < fields.size(); i++) {
+                Field one = fields.get(i);
+
+                if ((one.getAccessFlags() & AccessFlags.ACC_FINAL) != 0) {
+                    finalFields.add(new CstFieldRef(cf.getThisClass(),
+                                    one.getNat()));
+                }
+            }
+        }
+
+        OptimizerContext context =
+            new OptimizerContext(preserveLocals, DexTranslationAdvice.THE_ONE,
+                    false, Profile.NONE, null, cf.getThisClass(),
+                    finalFields, false);
+        MethodList methods = cf.getMethods();
+        int sz = methods.size();
+
+        for (int i = 0; i < sz; i++) {
+            Method one = methods.get(i);
+
+            if (!one.getName().getString().equals(name)) {
+                continue;
+            }
+
+            ConcreteMethod concrete =
+                new ConcreteMethod(one, cf, true, preserveLocals);
+            int paramWidth = concrete.getEffectiveDescriptor()
+                .getParameterTypes().getWordCount();
+            RopMethod rmeth =
+                Ropper.convert(concrete, DexTranslationAdvice.THE_ONE);
+
+            return Optimizer.debugNoRegisterAllocation(rmeth, paramWidth,
+                    AccessFlags.isStatic(one.getAccessFlags()), context,
+                    steps);
+        }
+
+        fail("no method " + name);
+        return null;
+    }
+
+    /**
+     * Counts the instructions with the given opcode.
+     *
+     * @param ssaMeth non-null; the method
+     * @param opcode the opcode, as in {@link RegOps}
+     * @return &gt;= 0; the count
+     */
+    private static int count(SsaMethod ssaMeth, int opcode) {
+        int result = 0;
+
+        for (SsaBasicBlock block : ssaMeth.getBlocks()) {
+            for (SsaInsn insn : block.getInsns()) {
+                Rop rop = insn.getOpcode();
+
+                if ((rop != null) && (rop.getOpcode() == opcode)) {
+                    result++;
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Finds the first instruction with the given opcode.
+     *
+     * @param ssaMeth non-null; the method
+     * @param opcode the opcode, as in {@link RegOps}
+     * @return non-null; the instruction
+     */
+    private static SsaInsn find(SsaMethod ssaMeth, int opcode) {
+        return find(ssaMeth, opcode, 0);
+    }
+
+    /**
+     * Finds the instruction with the given opcode that has the given
+     * number of others with that opcode before it.
+     *
+     * @param ssaMeth non-null; the method
+     * @param opcode the opcode, as in {@link RegOps}
+     * @param index &gt;= 0; the number of instructions to skip
+     * @return non-null; the instruction
+     */
+    private static SsaInsn find(SsaMethod ssaMeth, int opcode, int index) {
+        for (SsaBasicBlock block : ssaMeth.getBlocks()) {
+            for (SsaInsn insn : block.getInsns()) {
+                Rop rop = insn.getOpcode();
+
+                if ((rop != null) && (rop.getOpcode() == opcode)
+                        && (index-- == 0)) {
+                    return insn;
+                }
+            }
+        }
+
+        fail("no insn with opcode " + opcode);
+        return null;
+    }
+
+    /**
+     * Checks that the two sources of the first instruction with the
+     * given opcode are the same register.
+     */
+    private static void assertSameSources(SsaMethod ssaMeth, int opcode) {
+        SsaInsn insn = find(ssaMeth, opcode);
+
+        assertEquals(insn.getSources().get(0).getReg(),
+                insn.getSources().get(1).getReg());
+    }
+
+    /**
+     * Checks that every block but the exit block still ends with a
+     * branch, which removing a throwing instruction relies on {@link
+     * SsaMethod#deleteInsns} to add.
+     */
+    private static void assertBranchesAtEnds(SsaMethod ssaMeth) {
+        for (SsaBasicBlock block : ssaMeth.getBlocks()) {
+            if (block == ssaMeth.getExitBlock()) {
+                continue;
+            }
+
+            ArrayList<SsaInsn> insns = block.getInsns();
+            Insn last = insns.get(insns.size() - 1).getOriginalRopInsn();
+
+            assertNotNull(last);
+            assertTrue(last.getOpcode().getBranchingness()
+                    != Rop.BRANCH_NONE);
+        }
+    }
+
+    /**
+     * Reads a class file from the class path.
+     */
+    private static byte[] readResource(String name) throws IOException {
+        InputStream in = _ValueNumberer.class.getResourceAsStream(name);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+
+        try {
+            for (;;) {
+                int count = in.read(buf);
+                if (count < 0) {
+                    break;
+                }
+                out.write(buf, 0, count);
+            }
+        } finally {
+            in.close();
+        }
+
+        return out.toByteArray();
+    }
+}
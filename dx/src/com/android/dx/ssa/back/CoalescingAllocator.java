@@ -0,0 +1,1042 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.ssa.back;
+
+import com.android.dx.rop.code.CstInsn;
+import com.android.dx.rop.code.LocalItem;
+import com.android.dx.rop.code.RegOps;
+import com.android.dx.rop.code.RegisterSpec;
+import com.android.dx.rop.code.RegisterSpecList;
+import com.android.dx.rop.cst.CstInteger;
+import com.android.dx.ssa.InterferenceRegisterMapper;
+import com.android.dx.ssa.LoopNest;
+import com.android.dx.ssa.NormalSsaInsn;
+import com.android.dx.ssa.PhiInsn;
+import com.android.dx.ssa.RegisterMapper;
+import com.android.dx.ssa.SsaBasicBlock;
+import com.android.dx.ssa.SsaInsn;
+import com.android.dx.ssa.SsaMethod;
+import com.android.dx.util.BitIntSet;
+import com.android.dx.util.IntIterator;
+import com.android.dx.util.IntList;
+import com.android.dx.util.IntSet;
+import com.android.dx.util.ListIntSet;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+
+/**
+ * Allocates registers by first coalescing copy-related SSA registers
+ * into classes that share one rop register, and then coloring the
+ * classes. Two registers are copy-related when one is a phi operand
+ * of the other, a move source of the other, the source of the
+ * <code>check-cast</code> whose <code>move-result-pseudo</code> is the
+ * other, or, when local variable information is being preserved, when
+ * both hold the same local variable. The copies between registers of
+ * one class all become moves of a register to itself, which are
+ * dropped when the method goes back to rop form.
+ *
+ * <p>Every pair of classes that don't interfere is a candidate, but a
+ * merge is only done when it can't make the interference graph harder
+ * to color with as many registers as the translation advice says are
+ * optimal: either the merged class has fewer neighbors of significant
+ * degree than that (Briggs' test), or each neighbor of one class
+ * already interferes with the other or is of insignificant degree
+ * (George's test). Copies in deeper loops are tried first.</p>
+ *
+ * <p>Classes are then colored: those holding parameters go in the
+ * parameter registers, at the bottom of the register space; then the
+ * sources of each instruction that wants them in a contiguous range,
+ * picking the start of the range that needs the fewest added moves;
+ * then everything else, first fit, trying the registers of the
+ * classes a class has copies with first. As in {@link
+ * FirstFitLocalCombiningAllocator}, registers holding parameters and
+ * local variables aren't shared with anything else unless registers
+ * are being minimized.</p>
+ */
+public class CoalescingAllocator extends RegisterAllocator {
+    /**
+     * register count up to which per-class interference sets are kept
+     * as bit sets rather than lists
+     */
+    private static final int BIT_SET_THRESHOLD = 3072;
+
+    /** the largest weight given a copy, however deep in loops it is */
+    private static final int MAX_WEIGHT = 1 << 15;
+
+    /** &gt; 0; number of colors the coalescing tests keep colorable */
+    private final int maxColors;
+
+    /** true if registers of parameters and locals may be shared */
+    private final boolean minimizeRegisters;
+
+    /** true if local variable information is being preserved */
+    private final boolean preserveLocals;
+
+    /** end of rop registers range (starting at 0) reserved for parameters */
+    private final int paramRangeEnd;
+
+    /** &gt;= 0; the SSA register count before any moves are added */
+    private final int regCount;
+
+    /** non-null; union-find parent of each SSA register */
+    private final int[] parents;
+
+    /**
+     * non-null; the members of each class, as a circular list through
+     * this array, indexed by SSA register
+     */
+    private final int[] nextMembers;
+
+    /**
+     * non-null; the category of each SSA register, or <code>0</code>
+     * for registers with no definition
+     */
+    private final int[] categories;
+
+    /**
+     * non-null; the parameter held by each class, indexed by class,
+     * or <code>-1</code> for classes that hold none
+     */
+    private final int[] paramIndices;
+
+    /**
+     * non-null; the local variable held by each class, indexed by
+     * class; elements are <code>null</code> for classes holding none
+     */
+    private final LocalItem[] locals;
+
+    /**
+     * non-null; the SSA registers each class interferes with, indexed
+     * by class; elements are filled in as needed
+     */
+    private final IntSet[] neighbors;
+
+    /**
+     * non-null; the SSA registers each class has copies with that
+     * weren't coalesced, indexed by class; elements are filled in as
+     * needed
+     */
+    private final IntList[] partners;
+
+    /** non-null; copy-related pairs of SSA registers */
+    private final ArrayList<Copy> copies;
+
+    /** non-null; instructions that want their sources in a range */
+    private final ArrayList<NormalSsaInsn> rangeInsns;
+
+    /** non-null; the SSA registers that have been mapped */
+    private final BitSet ssaRegsMapped;
+
+    /** non-null; rop registers reserved for parameters or locals */
+    private final BitSet reservedRopRegs;
+
+    /** non-null; rop registers that anything has been mapped to */
+    private final BitSet usedRopRegs;
+
+    /** non-null; register mapper which will be our result */
+    private final InterferenceRegisterMapper mapper;
+
+    /**
+     * Constructs instance.
+     *
+     * @param ssaMeth non-null; method to process
+     * @param interference non-null; interference graph for SSA registers
+     * @param minimizeRegisters true if converter should take steps to
+     * minimize rop-form registers
+     */
+    public CoalescingAllocator(SsaMethod ssaMeth,
+            InterferenceGraph interference, boolean minimizeRegisters) {
+        super(ssaMeth, interference);
+
+        this.maxColors =
+            ssaMeth.getContext().getAdvice().getMaxOptimalRegisterCount();
+        this.minimizeRegisters = minimizeRegisters;
+        this.preserveLocals = ssaMeth.getContext().getPreserveLocals();
+        this.paramRangeEnd = ssaMeth.getParamWidth();
+        this.regCount = ssaMeth.getRegCount();
+        this.parents = new int[regCount];
+        this.nextMembers = new int[regCount];
+        this.categories = new int[regCount];
+        this.paramIndices = new int[regCount];
+        this.locals = new LocalItem[regCount];
+        this.neighbors = new IntSet[regCount];
+        this.partners = new IntList[regCount];
+        this.copies = new ArrayList<Copy>();
+        this.rangeInsns = new ArrayList<NormalSsaInsn>();
+        this.ssaRegsMapped = new BitSet(regCount);
+        this.reservedRopRegs = new BitSet(paramRangeEnd * 2);
+        this.usedRopRegs = new BitSet(paramRangeEnd * 2);
+        this.mapper = new InterferenceRegisterMapper(interference, regCount);
+
+        /*
+         * When minimizing registers, anything may reuse a parameter's
+         * register once the parameter is dead, except for "this".
+         */
+        if (!minimizeRegisters) {
+            reservedRopRegs.set(0, paramRangeEnd);
+        } else if (!ssaMeth.isStatic()) {
+            reservedRopRegs.set(0);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean wantsParamsMovedHigh() {
+        return true;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public RegisterMapper allocateRegisters() {
+        analyzeInstructions();
+        coalesce();
+        mapParams();
+
+        for (NormalSsaInsn insn : rangeInsns) {
+            mapRange(insn);
+        }
+
+        // Locals go first, so that they get the lowest registers.
+        mapOthers(true);
+        mapOthers(false);
+
+        return mapper;
+    }
+
+    /**
+     * Tells whether two SSA registers ended up in the same class, and
+     * so share a rop register however the classes are colored. For
+     * use once {@link #allocateRegisters} has run, by tests.
+     *
+     * @param reg1 &gt;= 0; one SSA register
+     * @param reg2 &gt;= 0; the other SSA register
+     * @return whether they were coalesced
+     */
+    public boolean areCoalesced(int reg1, int reg2) {
+        return find(reg1) == find(reg2);
+    }
+
+    /**
+     * Makes each SSA register a class of its own, and finds the copies
+     * and the instructions that want their sources in a range.
+     */
+    private void analyzeInstructions() {
+        LoopNest loops = LoopNest.find(ssaMeth);
+        ArrayList<SsaBasicBlock> blocks = ssaMeth.getBlocks();
+        ArrayList<ArrayList<RegisterSpec>> localRegs =
+            new ArrayList<ArrayList<RegisterSpec>>();
+
+        for (int i = 0; i < regCount; i++) {
+            parents[i] = i;
+            nextMembers[i] = i;
+            paramIndices[i] = -1;
+
+            RegisterSpec spec = getDefinitionSpecForSsaReg(i);
+
+            categories[i] = (spec == null) ? 0 : spec.getCategory();
+        }
+
+        for (SsaBasicBlock block : blocks) {
+            int weight = weightFor(loops, block);
+
+            for (SsaInsn insn : block.getInsns()) {
+                RegisterSpec result = insn.getResult();
+                RegisterSpec local = insn.getLocalAssignment();
+
+                if (preserveLocals && (local != null)) {
+                    locals[local.getReg()] = local.getLocalItem();
+                    addLocal(localRegs, local);
+                }
+
+                if (insn instanceof PhiInsn) {
+                    PhiInsn phi = (PhiInsn) insn;
+                    RegisterSpecList sources = phi.getSources();
+                    int sz = sources.size();
+
+                    for (int i = 0; i < sz; i++) {
+                        SsaBasicBlock pred = blocks.get(
+                                phi.predBlockIndexForSourcesIndex(i));
+
+                        addCopy(result.getReg(), sources.get(i).getReg(),
+                                weightFor(loops, pred));
+                    }
+
+                    continue;
+                }
+
+                int opcode = insn.getOpcode().getOpcode();
+
+                if (opcode == RegOps.MOVE_PARAM) {
+                    CstInsn origInsn = (CstInsn) insn.getOriginalRopInsn();
+
+                    paramIndices[result.getReg()] =
+                        ((CstInteger) origInsn.getConstant()).getValue();
+                } else if (insn.isNormalMoveInsn()) {
+                    addCopy(result.getReg(),
+                            insn.getSources().get(0).getReg(), weight);
+                } else if (opcode == RegOps.MOVE_RESULT_PSEUDO) {
+                    addCheckCastCopy(insn, weight);
+                } else if (ssaMeth.getContext().getAdvice()
+                        .requiresSourcesInOrder(
+                                insn.getOriginalRopInsn().getOpcode(),
+                                insn.getSources())) {
+                    rangeInsns.add((NormalSsaInsn) insn);
+                }
+            }
+        }
+
+        for (ArrayList<RegisterSpec> specs : localRegs) {
+            int first = specs.get(0).getReg();
+            int sz = specs.size();
+
+            for (int i = 1; i < sz; i++) {
+                addCopy(first, specs.get(i).getReg(), 1);
+            }
+        }
+    }
+
+    /**
+     * Gets the weight to give copies made in a block, which grows
+     * with how deep in loops the block is.
+     *
+     * @param loops non-null; the loops of the method
+     * @param block non-null; the block
+     * @return &gt; 0; the weight
+     */
+    private static int weightFor(LoopNest loops, SsaBasicBlock block) {
+        LoopNest.Loop loop = loops.getLoopFor(block);
+
+        if (loop == null) {
+            return 1;
+        }
+
+        return Math.min(8 << (3 * loop.getDepth()), MAX_WEIGHT);
+    }
+
+    /**
+     * Adds an SSA register to the list of registers holding its local
+     * variable.
+     *
+     * @param localRegs non-null; the lists, one per local variable
+     * @param spec non-null; the register, with its local variable
+     */
+    private static void addLocal(ArrayList<ArrayList<RegisterSpec>> localRegs,
+            RegisterSpec spec) {
+        LocalItem local = spec.getLocalItem();
+
+        for (ArrayList<RegisterSpec> specs : localRegs) {
+            if (local.equals(specs.get(0).getLocalItem())) {
+                specs.add(spec);
+                return;
+            }
+        }
+
+        ArrayList<RegisterSpec> specs = new ArrayList<RegisterSpec>();
+
+        specs.add(spec);
+        localRegs.add(specs);
+    }
+
+    /**
+     * Adds the copy made by a <code>move-result-pseudo</code>, if it
+     * holds the result of a <code>check-cast</code>.
+     *
+     * @param insn non-null; the <code>move-result-pseudo</code>
+     * @param weight &gt; 0; the weight of the copy
+     */
+    private void addCheckCastCopy(SsaInsn insn, int weight) {
+        BitSet preds = insn.getBlock().getPredecessors();
+
+        if (preds.cardinality() != 1) {
+            return;
+        }
+
+        ArrayList<SsaInsn> predInsns =
+            ssaMeth.getBlocks().get(preds.nextSetBit(0)).getInsns();
+        SsaInsn checkCast = predInsns.get(predInsns.size() - 1);
+
+        if (checkCast.getOpcode().getOpcode() == RegOps.CHECK_CAST) {
+            addCopy(insn.getResult().getReg(),
+                    checkCast.getSources().get(0).getReg(), weight);
+        }
+    }
+
+    /**
+     * Adds a copy, unless its registers can never share a rop register.
+     *
+     * @param reg1 &gt;= 0; one SSA register
+     * @param reg2 &gt;= 0; the other SSA register
+     * @param weight &gt; 0; how much removing the copy is worth
+     */
+    private void addCopy(int reg1, int reg2, int weight) {
+        if ((reg1 != reg2) && (categories[reg1] != 0)
+                && (categories[reg1] == categories[reg2])) {
+            copies.add(new Copy(reg1, reg2, weight));
+        }
+    }
+
+    /**
+     * Merges the classes of copy-related registers, heaviest copies
+     * first, as long as the merge is safe and passes the tests for
+     * conservative coalescing.
+     */
+    private void coalesce() {
+        Collections.sort(copies, new Comparator<Copy>() {
+            public int compare(Copy a, Copy b) {
+                return b.weight - a.weight;
+            }
+        });
+
+        for (Copy copy : copies) {
+            int class1 = find(copy.reg1);
+            int class2 = find(copy.reg2);
+
+            if (class1 == class2) {
+                continue;
+            }
+
+            if (canMerge(class1, class2)
+                    && (briggsTest(class1, class2)
+                            || georgeTest(class1, class2)
+                            || georgeTest(class2, class1))) {
+                merge(class1, class2);
+            } else {
+                addPartner(class1, copy.reg2);
+                addPartner(class2, copy.reg1);
+            }
+        }
+    }
+
+    /**
+     * Tells whether two classes may share a rop register at all: they
+     * must not interfere, hold two parameters, or hold two local
+     * variables.
+     *
+     * @param class1 &gt;= 0; one class
+     * @param class2 &gt;= 0; the other class
+     * @return whether the classes may be merged
+     */
+    private boolean canMerge(int class1, int class2) {
+        if ((paramIndices[class1] >= 0) && (paramIndices[class2] >= 0)) {
+            return false;
+        }
+
+        if ((locals[class1] != null) && (locals[class2] != null)
+                && !locals[class1].equals(locals[class2])) {
+            return false;
+        }
+
+        IntSet neighbors1 = neighborsOf(class1);
+        int reg = class2;
+
+        do {
+            if (neighbors1.has(reg)) {
+                return false;
+            }
+
+            reg = nextMembers[reg];
+        } while (reg != class2);
+
+        return true;
+    }
+
+    /**
+     * Briggs' test: the merged class has fewer neighbors of
+     * significant degree than there are colors, so it can always be
+     * colored once its other neighbors have been.
+     *
+     * @param class1 &gt;= 0; one class
+     * @param class2 &gt;= 0; the other class
+     * @return whether the classes pass
+     */
+    private boolean briggsTest(int class1, int class2) {
+        BitSet seen = new BitSet(regCount);
+        int significant = 0;
+
+        for (int i = 0; i < 2; i++) {
+            IntIterator iter =
+                neighborsOf((i == 0) ? class1 : class2).iterator();
+
+            while (iter.hasNext()) {
+                int neighbor = find(iter.next());
+
+                if (seen.get(neighbor)) {
+                    continue;
+                }
+
+                seen.set(neighbor);
+
+                if (isSignificant(neighbor) && (++significant >= maxColors)) {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * George's test: every neighbor of one class already interferes
+     * with the other or is of insignificant degree, so the merge adds
+     * no constraint that matters.
+     *
+     * @param from &gt;= 0; the class to merge
+     * @param into &gt;= 0; the class to merge it into
+     * @return whether the classes pass
+     */
+    private boolean georgeTest(int from, int into) {
+        IntSet intoNeighbors = neighborsOf(into);
+        IntIterator iter = neighborsOf(from).iterator();
+
+        while (iter.hasNext()) {
+            int reg = iter.next();
+
+            if (!intoNeighbors.has(reg) && isSignificant(find(reg))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Tells whether a class interferes with as many registers as
+     * there are colors. Since registers are counted rather than
+     * classes, this may overstate the degree, which only makes the
+     * coalescing tests more careful.
+     *
+     * @param cls &gt;= 0; the class
+     * @return whether its degree is significant
+     */
+    private boolean isSignificant(int cls) {
+        return neighborsOf(cls).elements() >= maxColors;
+    }
+
+    /**
+     * Gets the SSA registers a class interferes with.
+     *
+     * @param cls &gt;= 0; the class
+     * @return non-null; the registers
+     */
+    private IntSet neighborsOf(int cls) {
+        IntSet result = neighbors[cls];
+
+        if (result != null) {
+            return result;
+        }
+
+        result = (regCount <= BIT_SET_THRESHOLD)
+            ? new BitIntSet(regCount) : new ListIntSet();
+
+        int reg = cls;
+
+        do {
+            interference.mergeInterferenceSet(reg, result);
+            reg = nextMembers[reg];
+        } while (reg != cls);
+
+        neighbors[cls] = result;
+        return result;
+    }
+
+    /**
+     * Merges two classes.
+     *
+     * @param class1 &gt;= 0; one class
+     * @param class2 &gt;= 0; the other class
+     */
+    private void merge(int class1, int class2) {
+        IntSet merged = neighborsOf(class1);
+
+        merged.merge(neighborsOf(class2));
+        neighbors[class2] = null;
+        parents[class2] = class1;
+
+        int next = nextMembers[class1];
+
+        nextMembers[class1] = nextMembers[class2];
+        nextMembers[class2] = next;
+
+        if (paramIndices[class1] < 0) {
+            paramIndices[class1] = paramIndices[class2];
+        }
+
+        if (locals[class1] == null) {
+            locals[class1] = locals[class2];
+        }
+
+        IntList partners2 = partners[class2];
+
+        if (partners2 != null) {
+            int sz = partners2.size();
+
+            for (int i = 0; i < sz; i++) {
+                addPartner(class1, partners2.get(i));
+            }
+
+            partners[class2] = null;
+        }
+    }
+
+    /**
+     * Notes a register that a class has a copy with.
+     *
+     * @param cls &gt;= 0; the class
+     * @param reg &gt;= 0; the register
+     */
+    private void addPartner(int cls, int reg) {
+        IntList list = partners[cls];
+
+        if (list == null) {
+            list = new IntList(4);
+            partners[cls] = list;
+        }
+
+        list.add(reg);
+    }
+
+    /**
+     * Finds the class of an SSA register. Registers added after
+     * coalescing are classes of their own.
+     *
+     * @param reg &gt;= 0; the register
+     * @return &gt;= 0; its class
+     */
+    private int find(int reg) {
+        if (reg >= regCount) {
+            return reg;
+        }
+
+        int root = reg;
+
+        while (parents[root] != root) {
+            root = parents[root];
+        }
+
+        while (parents[reg] != root) {
+            int next = parents[reg];
+
+            parents[reg] = root;
+            reg = next;
+        }
+
+        return root;
+    }
+
+    /**
+     * Maps the classes holding parameters to the parameters' registers.
+     */
+    private void mapParams() {
+        for (int i = 0; i < regCount; i++) {
+            if ((find(i) == i) && (paramIndices[i] >= 0)) {
+                mapClass(i, paramIndices[i]);
+            }
+        }
+    }
+
+    /**
+     * Maps the sources of an instruction to a contiguous range of rop
+     * registers, adding moves for the sources that can't go there.
+     * Each start of range that lines up with a source that's already
+     * mapped is tried, and failing those, the first free range.
+     *
+     * @param insn non-null; the instruction; the last in its block
+     */
+    private void mapRange(NormalSsaInsn insn) {
+        RegisterSpecList sources = insn.getSources();
+        int sz = sources.size();
+        int rangeLength = 0;
+
+        for (int i = 0; i < sz; i++) {
+            rangeLength += sources.get(i).getCategory();
+        }
+
+        int bestStart = -1;
+        int bestScore = Integer.MIN_VALUE;
+        BitSet bestMoves = null;
+        int offset = 0;
+
+        for (int i = 0; i < sz; i++) {
+            int reg = sources.get(i).getReg();
+            int start = ssaRegsMapped.get(reg)
+                ? mapper.oldToNew(reg) - offset : -1;
+
+            offset += sources.get(i).getCategory();
+
+            if ((start < 0) || spansParamRange(start, rangeLength)) {
+                continue;
+            }
+
+            BitSet moves = new BitSet(sz);
+            int fitWidth = fitPlanForRange(start, insn, moves);
+
+            if (fitWidth < 0) {
+                continue;
+            }
+
+            int score = fitWidth - moves.cardinality();
+
+            if (score > bestScore) {
+                bestScore = score;
+                bestStart = start;
+                bestMoves = moves;
+            }
+        }
+
+        if (bestStart < 0) {
+            bestMoves = new BitSet(sz);
+            bestStart = findNextUnreservedRopReg(0, rangeLength);
+
+            while (fitPlanForRange(bestStart, insn, bestMoves) < 0) {
+                bestMoves.clear();
+                bestStart = findNextUnreservedRopReg(bestStart + 1,
+                        rangeLength);
+            }
+        }
+
+        int ropReg = bestStart;
+
+        for (int i = 0; i < sz; i++) {
+            RegisterSpec source = sources.get(i);
+            int category = source.getCategory();
+
+            if (bestMoves.get(i)) {
+                RegisterSpec moved = insertMoveBefore(insn, source);
+
+                insn.changeOneSource(i, moved);
+                addMapping(moved.getReg(), ropReg, category);
+            } else if (!ssaRegsMapped.get(source.getReg())) {
+                mapClass(find(source.getReg()), ropReg);
+            }
+
+            ropReg += category;
+        }
+    }
+
+    /**
+     * Works out which sources of an instruction would need moves for
+     * the instruction to take its sources from the range of rop
+     * registers starting at the given one.
+     *
+     * @param ropReg &gt;= 0; the start of the range
+     * @param insn non-null; the instruction
+     * @param outMoves non-null; set to the indices of the sources
+     * that need moves
+     * @return the width of the sources that fit without moves, or
+     * <code>-1</code> if the range can't be used at all
+     */
+    private int fitPlanForRange(int ropReg, NormalSsaInsn insn,
+            BitSet outMoves) {
+        RegisterSpecList sources = insn.getSources();
+        int sz = sources.size();
+        RegisterSpecList liveOutSpecs =
+            ssaSetToSpecs(insn.getBlock().getLiveOutRegs());
+        BitSet seen = new BitSet(regCount);
+        int fitWidth = 0;
+
+        for (int i = 0; i < sz; i++) {
+            RegisterSpec source = sources.get(i);
+            int reg = source.getReg();
+            int cls = find(reg);
+            int category = source.getCategory();
+
+            if (ssaRegsMapped.get(reg) && (mapper.oldToNew(reg) == ropReg)) {
+                fitWidth += category;
+            } else if (rangeContainsReserved(ropReg, category)) {
+                return -1;
+            } else if (!ssaRegsMapped.get(reg) && !seen.get(cls)
+                    && canMapClass(cls, ropReg)) {
+                fitWidth += category;
+                seen.set(cls);
+            } else if (!mapper.areAnyPinned(liveOutSpecs, ropReg, category)
+                    && !mapper.areAnyPinned(sources, ropReg, category)) {
+                /*
+                 * A move can go in as long as nothing already in the
+                 * target register is live out of the block or is
+                 * another source, since the moves can't overlap.
+                 */
+                outMoves.set(i);
+            } else {
+                return -1;
+            }
+
+            ropReg += category;
+        }
+
+        return fitWidth;
+    }
+
+    /**
+     * Maps the classes that are still unmapped. Classes holding local
+     * variables get registers nothing else has used yet, unless
+     * registers are being minimized; the others try the registers of
+     * the classes they have copies with before the first free one.
+     *
+     * @param withLocals whether to map the classes that hold local
+     * variables, as opposed to the ones that don't
+     */
+    private void mapOthers(boolean withLocals) {
+        for (int i = 0; i < regCount; i++) {
+            if ((find(i) != i) || (categories[i] == 0)
+                    || ssaRegsMapped.get(i)
+                    || ((locals[i] != null) != withLocals)) {
+                continue;
+            }
+
+            int ropReg;
+
+            if (withLocals && !minimizeRegisters) {
+                ropReg = findUnusedRopReg(0, categories[i]);
+
+                while (!canMapClass(i, ropReg)) {
+                    ropReg = findUnusedRopReg(ropReg + 1, categories[i]);
+                }
+            } else {
+                ropReg = preferredRopReg(i);
+            }
+
+            if (ropReg < 0) {
+                ropReg = findNextUnreservedRopReg(0, categories[i]);
+
+                while (!canMapClass(i, ropReg)) {
+                    ropReg = findNextUnreservedRopReg(ropReg + 1,
+                            categories[i]);
+                }
+            }
+
+            mapClass(i, ropReg);
+        }
+    }
+
+    /**
+     * Gets the register of an already-mapped class that a class has a
+     * copy with, if the class can go there too.
+     *
+     * @param cls &gt;= 0; the class
+     * @return the register, or <code>-1</code> if there's none
+     */
+    private int preferredRopReg(int cls) {
+        IntList list = partners[cls];
+
+        if (list == null) {
+            return -1;
+        }
+
+        int sz = list.size();
+
+        for (int i = 0; i < sz; i++) {
+            int reg = list.get(i);
+
+            if (!ssaRegsMapped.get(reg)) {
+                continue;
+            }
+
+            int ropReg = mapper.oldToNew(reg);
+
+            if (!rangeContainsReserved(ropReg, categories[cls])
+                    && canMapClass(cls, ropReg)) {
+                return ropReg;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Tells whether every member of a class may be mapped to the given
+     * rop register.
+     *
+     * @param cls &gt;= 0; the class
+     * @param ropReg &gt;= 0; the rop register
+     * @return whether it may
+     */
+    private boolean canMapClass(int cls, int ropReg) {
+        int category = categories[cls];
+
+        if (spansParamRange(ropReg, category)) {
+            return false;
+        }
+
+        int reg = cls;
+
+        do {
+            if (mapper.interferes(reg, ropReg, category)) {
+                return false;
+            }
+
+            reg = nextMembers[reg];
+        } while (reg != cls);
+
+        return true;
+    }
+
+    /**
+     * Maps every member of a class to the given rop register, and
+     * reserves the register if the class holds a local variable.
+     *
+     * @param cls &gt;= 0; the class
+     * @param ropReg &gt;= 0; the rop register
+     */
+    private void mapClass(int cls, int ropReg) {
+        int category = categories[cls];
+
+        if (!canMapClass(cls, ropReg)) {
+            throw new RuntimeException(
+                    "attempt to add invalid register mapping");
+        }
+
+        int reg = cls;
+
+        do {
+            if (categories[reg] != 0) {
+                addMapping(reg, ropReg, category);
+            }
+
+            reg = nextMembers[reg];
+        } while (reg != cls);
+
+        if ((locals[cls] != null) && !minimizeRegisters) {
+            reservedRopRegs.set(ropReg, ropReg + category);
+        }
+    }
+
+    /**
+     * Adds a mapping from an SSA register to a rop register.
+     *
+     * @param ssaReg &gt;= 0; the SSA register
+     * @param ropReg &gt;= 0; the rop register
+     * @param category the register's category
+     */
+    private void addMapping(int ssaReg, int ropReg, int category) {
+        mapper.addMapping(ssaReg, ropReg, category);
+        ssaRegsMapped.set(ssaReg);
+        usedRopRegs.set(ropReg, ropReg + category);
+    }
+
+    /**
+     * Returns true if the specified rop register and category would
+     * cross the boundary between the registers reserved for
+     * parameters and the rest, which can't be allowed since the
+     * parameters get moved to the top later.
+     *
+     * @param ropReg &gt;= 0; the rop register
+     * @param category width that the register will have
+     * @return whether the boundary is crossed
+     */
+    private boolean spansParamRange(int ropReg, int category) {
+        return (ropReg < paramRangeEnd)
+            && ((ropReg + category) > paramRangeEnd);
+    }
+
+    /**
+     * Checks to see if any rop registers in the specified range are
+     * reserved for parameters or local variables.
+     *
+     * @param ropRangeStart &gt;= 0; lowest rop register
+     * @param width &gt; 0; number of rop registers in range
+     * @return true if any register in range is reserved
+     */
+    private boolean rangeContainsReserved(int ropRangeStart, int width) {
+        int next = reservedRopRegs.nextSetBit(ropRangeStart);
+
+        return (next >= 0) && (next < ropRangeStart + width);
+    }
+
+    /**
+     * Finds a range of unreserved rop registers.
+     *
+     * @param startReg &gt;= 0; a rop register to start the search at
+     * @param width &gt; 0; the width, in registers, required
+     * @return &gt;= 0; start of available register range
+     */
+    private int findNextUnreservedRopReg(int startReg, int width) {
+        int reg = reservedRopRegs.nextClearBit(startReg);
+
+        while (rangeContainsReserved(reg, width)) {
+            reg = reservedRopRegs.nextClearBit(reg + 1);
+        }
+
+        return reg;
+    }
+
+    /**
+     * Finds a range of rop registers that nothing has used yet and
+     * that aren't reserved.
+     *
+     * @param startReg &gt;= 0; a rop register to start the search at
+     * @param width &gt; 0; the width, in registers, required
+     * @return &gt;= 0; start of available register range
+     */
+    private int findUnusedRopReg(int startReg, int width) {
+        int reg = findNextUnreservedRopReg(startReg, width);
+
+        for (;;) {
+            int next = usedRopRegs.nextSetBit(reg);
+
+            if ((next < 0) || (next >= reg + width)) {
+                return reg;
+            }
+
+            reg = findNextUnreservedRopReg(next + 1, width);
+        }
+    }
+
+    /**
+     * Converts a set of SSA registers into a list of the registers'
+     * definition specs.
+     *
+     * @param ssaSet non-null; set of SSA registers
+     * @return non-null; the specs
+     */
+    private RegisterSpecList ssaSetToSpecs(IntSet ssaSet) {
+        RegisterSpecList result = new RegisterSpecList(ssaSet.elements());
+        IntIterator iter = ssaSet.iterator();
+        int i = 0;
+
+        while (iter.hasNext()) {
+            result.set(i++, getDefinitionSpecForSsaReg(iter.next()));
+        }
+
+        return result;
+    }
+
+    /**
+     * A pair of copy-related SSA registers.
+     */
+    private static class Copy {
+        /** &gt;= 0; one register */
+        public final int reg1;
+
+        /** &gt;= 0; the other register */
+        public final int reg2;
+
+        /** &gt; 0; how much removing the copy is worth */
+        public final int weight;
+
+        /**
+         * Constructs an instance.
+         */
+        public Copy(int reg1, int reg2, int weight) {
+            this.reg1 = reg1;
+            this.reg2 = reg2;
+            this.weight = weight;
+        }
+    }
+}
@@ -0,0 +1,378 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.ssa.back;
+
+import com.android.dx.rop.code.RegisterSpec;
+import com.android.dx.rop.code.RegisterSpecList;
+import com.android.dx.ssa.PhiInsn;
+import com.android.dx.ssa.SsaBasicBlock;
+import com.android.dx.ssa.SsaInsn;
+import com.android.dx.ssa.SsaMethod;
+import com.android.dx.util.Bits;
+import com.android.dx.util.IntList;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+
+/**
+ * Liveness analysis which computes the live-in and live-out sets of
+ * all registers at once, as one bit set per block, by iterating the
+ * usual backward dataflow equations to a fixed point. Blocks are
+ * visited in post-order (that is, successors first), and a block is
+ * only revisited once the live-in set of one of its successors has
+ * grown.
+ *
+ * <p>The result is exactly what {@link LivenessAnalyzer}'s
+ * per-register walk produces: a phi operand makes its register live-out
+ * at the corresponding predecessor and nowhere else, and each
+ * instruction's result interferes with every other register that is
+ * live just after it.</p>
+ */
+/*package*/ final class DataflowLivenessAnalyzer {
+    /**
+     * maximum size, in <code>int</code>s, of each of the live-in and
+     * live-out matrices (one bit set per block). Methods that would
+     * need more than this are left to the per-register analysis, which
+     * needs no per-block bit sets. A value of 1M here is 4mb per matrix.
+     */
+    private static final int MAX_MATRIX_SIZE = 1 << 20;
+
+    /** non-null; method to process */
+    private final SsaMethod ssaMeth;
+
+    /** non-null; the blocks of the method, indexed by block index */
+    private final ArrayList<SsaBasicBlock> blocks;
+
+    /** &gt;= 0; count of registers in the method */
+    private final int regCount;
+
+    /**
+     * non-null; per block index, registers used in the block before
+     * any definition in it, not counting phi operands
+     */
+    private final IntList[] uses;
+
+    /** non-null; per block index, registers defined in the block */
+    private final IntList[] defs;
+
+    /** non-null; scratch bit set over all registers */
+    private final int[] scratch;
+
+    /** non-null; per block index, registers live on entry */
+    private final int[][] liveIn;
+
+    /** non-null; per block index, registers live on exit */
+    private final int[][] liveOut;
+
+    /**
+     * Tells whether this class is suitable for analyzing the given
+     * method, that is, whether its bit sets wouldn't be too big.
+     *
+     * @param ssaMeth non-null; method to analyze
+     * @return true if this class should be used for the method
+     */
+    public static boolean isSuitableFor(SsaMethod ssaMeth) {
+        long words = (ssaMeth.getRegCount() + 0x1f) >> 5;
+
+        return (words * ssaMeth.getBlocks().size()) <= MAX_MATRIX_SIZE;
+    }
+
+    /**
+     * Runs liveness analysis for a method, updating the live in/out
+     * information in its blocks and adding to the given interference
+     * graph.
+     *
+     * @param ssaMeth non-null; method to process
+     * @param interference non-null; graph to add to
+     */
+    public static void run(SsaMethod ssaMeth,
+            InterferenceGraph interference) {
+        DataflowLivenessAnalyzer analyzer =
+            new DataflowLivenessAnalyzer(ssaMeth);
+
+        analyzer.computeLocalSets();
+        analyzer.solve();
+        analyzer.addInterference(interference);
+        analyzer.updateBlocks();
+    }
+
+    /**
+     * Constructs an instance.
+     *
+     * @param ssaMeth non-null; method to process
+     */
+    private DataflowLivenessAnalyzer(SsaMethod ssaMeth) {
+        int blockCount = ssaMeth.getBlocks().size();
+
+        this.ssaMeth = ssaMeth;
+        this.blocks = ssaMeth.getBlocks();
+        this.regCount = ssaMeth.getRegCount();
+        this.uses = new IntList[blockCount];
+        this.defs = new IntList[blockCount];
+        this.scratch = Bits.makeBitSet(regCount);
+        this.liveIn = new int[blockCount][];
+        this.liveOut = new int[blockCount][];
+
+        for (int i = 0; i < blockCount; i++) {
+            liveIn[i] = Bits.makeBitSet(regCount);
+            liveOut[i] = Bits.makeBitSet(regCount);
+        }
+    }
+
+    /**
+     * Computes the use and definition sets of each block. Phi operands
+     * are added directly to the live-out sets of the predecessors they
+     * come from, which is where they stay live.
+     */
+    private void computeLocalSets() {
+        for (SsaBasicBlock block : blocks) {
+            int index = block.getIndex();
+            IntList blockDefs = new IntList();
+            IntList candidates = new IntList();
+            ArrayList<SsaInsn> insns = block.getInsns();
+
+            for (int i = insns.size() - 1; i >= 0; i--) {
+                SsaInsn insn = insns.get(i);
+                RegisterSpec result = insn.getResult();
+
+                if (result != null) {
+                    blockDefs.add(result.getReg());
+                    Bits.clear(scratch, result.getReg());
+                }
+
+                RegisterSpecList sources = insn.getSources();
+                int sz = sources.size();
+
+                if (insn instanceof PhiInsn) {
+                    PhiInsn phi = (PhiInsn) insn;
+
+                    for (int j = 0; j < sz; j++) {
+                        int pred = phi.predBlockIndexForSourcesIndex(j);
+                        Bits.set(liveOut[pred], sources.get(j).getReg());
+                    }
+                } else {
+                    for (int j = 0; j < sz; j++) {
+                        int reg = sources.get(j).getReg();
+                        Bits.set(scratch, reg);
+                        candidates.add(reg);
+                    }
+                }
+            }
+
+            /*
+             * The candidates that are still set weren't defined above
+             * their first use. Clear the scratch set as they're found,
+             * so that each one is only added once.
+             */
+            IntList blockUses = new IntList();
+            int sz = candidates.size();
+
+            for (int i = 0; i < sz; i++) {
+                int reg = candidates.get(i);
+
+                if (Bits.get(scratch, reg)) {
+                    blockUses.add(reg);
+                    Bits.clear(scratch, reg);
+                }
+            }
+
+            uses[index] = blockUses;
+            defs[index] = blockDefs;
+        }
+    }
+
+    /**
+     * Iterates the dataflow equations until the live-in and live-out
+     * sets stop changing. Whenever a block's live-in set grows, it is
+     * merged into the live-out sets of the block's predecessors, which
+     * are then queued to be revisited.
+     */
+    private void solve() {
+        int[] order = postOrder();
+        int[] positions = new int[blocks.size()];
+        BitSet pending = new BitSet(order.length);
+
+        for (int i = 0; i < order.length; i++) {
+            positions[order[i]] = i;
+        }
+
+        pending.set(0, order.length);
+
+        for (int at = pending.nextSetBit(0); at >= 0;
+             at = pending.nextSetBit(0)) {
+            pending.clear(at);
+
+            int index = order[at];
+
+            if (updateLiveIn(index)) {
+                int[] in = liveIn[index];
+                BitSet preds = blocks.get(index).getPredecessors();
+
+                for (int p = preds.nextSetBit(0); p >= 0;
+                     p = preds.nextSetBit(p + 1)) {
+                    Bits.or(liveOut[p], in);
+                    pending.set(positions[p]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Recomputes the live-in set of a block from its live-out set.
+     *
+     * @param index block index
+     * @return whether the live-in set changed
+     */
+    private boolean updateLiveIn(int index) {
+        int[] in = liveIn[index];
+        IntList blockUses = uses[index];
+        IntList blockDefs = defs[index];
+        boolean changed = false;
+
+        System.arraycopy(liveOut[index], 0, scratch, 0, scratch.length);
+
+        int sz = blockDefs.size();
+        for (int i = 0; i < sz; i++) {
+            Bits.clear(scratch, blockDefs.get(i));
+        }
+
+        sz = blockUses.size();
+        for (int i = 0; i < sz; i++) {
+            Bits.set(scratch, blockUses.get(i));
+        }
+
+        for (int i = 0; i < in.length; i++) {
+            if (scratch[i] != in[i]) {
+                in[i] = scratch[i];
+                changed = true;
+            }
+        }
+
+        return changed;
+    }
+
+    /**
+     * Gets the block indices of the method in post-order of a
+     * depth-first walk from the entry block. Blocks that can't be
+     * reached from the entry block come last, in index order.
+     *
+     * @return non-null; the block indices
+     */
+    private int[] postOrder() {
+        int blockCount = blocks.size();
+        int[] result = new int[blockCount];
+        int[] stack = new int[blockCount];
+        int[] cursors = new int[blockCount];
+        BitSet visited = new BitSet(blockCount);
+        int count = 0;
+        int depth = 0;
+
+        int entry = ssaMeth.getEntryBlockIndex();
+        stack[depth++] = entry;
+        visited.set(entry);
+
+        while (depth > 0) {
+            int index = stack[depth - 1];
+            BitSet successors = blocks.get(index).getSuccessors();
+            int next = successors.nextSetBit(cursors[index]);
+
+            while ((next >= 0) && visited.get(next)) {
+                next = successors.nextSetBit(next + 1);
+            }
+
+            if (next >= 0) {
+                cursors[index] = next + 1;
+                visited.set(next);
+                stack[depth++] = next;
+            } else {
+                result[count++] = index;
+                depth--;
+            }
+        }
+
+        for (int i = visited.nextClearBit(0); i < blockCount;
+             i = visited.nextClearBit(i + 1)) {
+            result[count++] = i;
+        }
+
+        return result;
+    }
+
+    /**
+     * Walks each block backward from its live-out set, making the
+     * result of each instruction interfere with everything else that
+     * is live just after it.
+     *
+     * @param interference non-null; graph to add to
+     */
+    private void addInterference(InterferenceGraph interference) {
+        int[] live = scratch;
+
+        for (SsaBasicBlock block : blocks) {
+            ArrayList<SsaInsn> insns = block.getInsns();
+
+            System.arraycopy(liveOut[block.getIndex()], 0, live, 0,
+                    live.length);
+
+            for (int i = insns.size() - 1; i >= 0; i--) {
+                SsaInsn insn = insns.get(i);
+                RegisterSpec result = insn.getResult();
+
+                if (result != null) {
+                    int reg = result.getReg();
+
+                    Bits.clear(live, reg);
+
+                    for (int v = Bits.findFirst(live, 0); v >= 0;
+                         v = Bits.findFirst(live, v + 1)) {
+                        interference.add(v, reg);
+                    }
+                }
+
+                if (!(insn instanceof PhiInsn)) {
+                    RegisterSpecList sources = insn.getSources();
+                    int sz = sources.size();
+
+                    for (int j = 0; j < sz; j++) {
+                        Bits.set(live, sources.get(j).getReg());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Stores the computed live-in and live-out sets in the blocks.
+     */
+    private void updateBlocks() {
+        for (SsaBasicBlock block : blocks) {
+            int index = block.getIndex();
+            int[] in = liveIn[index];
+            int[] out = liveOut[index];
+
+            for (int v = Bits.findFirst(in, 0); v >= 0;
+                 v = Bits.findFirst(in, v + 1)) {
+                block.addLiveIn(v);
+            }
+
+            for (int v = Bits.findFirst(out, 0); v >= 0;
+                 v = Bits.findFirst(out, v + 1)) {
+                block.addLiveOut(v);
+            }
+        }
+    }
+}
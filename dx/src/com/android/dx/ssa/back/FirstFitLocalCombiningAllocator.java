@@ -24,7 +24,6 @@ import com.android.dx.ssa.SsaInsn;
 import com.android.dx.ssa.SsaMethod;
 import com.android.dx.ssa.NormalSsaInsn;
 import com.android.dx.ssa.PhiInsn;
-import com.android.dx.ssa.Optimizer;
 import com.android.dx.ssa.SsaBasicBlock;
 import com.android.dx.util.IntSet;
 import com.android.dx.util.IntIterator;
@@ -610,7 +609,8 @@ public class FirstFitLocalCombiningAllocator extends RegisterAllocator {
                     if (insn.getOpcode().getOpcode() ==
                             RegOps.MOVE_RESULT_PSEUDO) {
                         moveResultPseudoInsns.add((NormalSsaInsn) insn);
-                    } else if (Optimizer.getAdvice().requiresSourcesInOrder(
+                    } else if (ssaMeth.getContext().getAdvice()
+                            .requiresSourcesInOrder(
                             insn.getOriginalRopInsn().getOpcode(),
                             insn.getSources())) {
                         invokeRangeInsns.add((NormalSsaInsn) insn);
@@ -16,26 +16,57 @@
 
 package com.android.dx.ssa.back;
 
-import com.android.dx.ssa.SsaMethod;
-import com.android.dx.ssa.SsaBasicBlock;
-import com.android.dx.ssa.SsaInsn;
-import com.android.dx.ssa.PhiInsn;
-import com.android.dx.ssa.SetFactory;
-import com.android.dx.rop.code.RegisterSpec;
 import com.android.dx.util.IntSet;
 import com.android.dx.util.BitIntSet;
-import com.android.dx.util.ListIntSet;
-
-import java.util.BitSet;
-import java.util.List;
-import java.util.ArrayList;
+import com.android.dx.util.Bits;
 
 /**
- * A register interference graph
+ * A register interference graph.
+ *
+ * <p>Since interference is symmetric, graphs over few enough registers
+ * are kept as a single lower-triangular bit matrix. Larger graphs,
+ * which come from huge methods and tend to be very sparse, instead keep
+ * an adjacency row per register; each row starts out as a sorted array
+ * of registers and switches to a bit set only once that would be
+ * smaller. Either way, memory use is bounded by about half of what
+ * a full per-register bit set would take, and sparse graphs over
+ * thousands of registers take little more than their edges.</p>
  */
 public class InterferenceGraph {
-    /** interference graph, indexed by register in both dimensions  */
-    private final ArrayList<IntSet> interference;
+    /**
+     * register count up to which the graph is kept as a bit matrix.
+     * A value of 1024 here is 64k of matrix.
+     */
+    private static final int MATRIX_THRESHOLD = 1024;
+
+    /** initial capacity of a sparse adjacency row */
+    private static final int INITIAL_ROW_CAPACITY = 4;
+
+    /** &gt;= 0; count of registers currently covered by the graph */
+    private int regCount;
+
+    /**
+     * null-ok; the lower-triangular bit matrix, if the graph is small
+     * enough to use one. The pair <code>(v, w)</code> with
+     * <code>v &gt;= w</code> is at bit <code>triangle(v) + w</code>.
+     */
+    private int[] matrix;
+
+    /**
+     * null-ok; the adjacency rows, if the graph is kept that way,
+     * indexed by register. Each element is either <code>null</code>
+     * for a register that interferes with nothing, a sorted array of
+     * registers (the first {@link #rowSizes rowSizes[reg]} of which are
+     * valid), or a bit set (in which case <code>rowSizes[reg]</code> is
+     * <code>-1</code>).
+     */
+    private int[][] rows;
+
+    /**
+     * null-ok; the number of valid elements in each sparse row in
+     * {@link #rows}, or <code>-1</code> for rows kept as bit sets
+     */
+    private int[] rowSizes;
 
     /**
      * Creates a new graph.
@@ -44,10 +75,13 @@ public class InterferenceGraph {
      * New registers can be added subsequently.
      */
     public InterferenceGraph(int countRegs) {
-        interference = new ArrayList<IntSet>(countRegs);
+        regCount = countRegs;
 
-        for (int i = 0; i < countRegs; i++) {
-            interference.add(SetFactory.makeInterferenceSet(countRegs));
+        if (countRegs <= MATRIX_THRESHOLD) {
+            matrix = Bits.makeBitSet(triangle(countRegs));
+        } else {
+            rows = new int[countRegs][];
+            rowSizes = new int[countRegs];
         }
     }
 
@@ -61,22 +95,29 @@ public class InterferenceGraph {
     public void add(int regV, int regW) {
         ensureCapacity(Math.max(regV, regW) + 1);
 
-        interference.get(regV).add(regW);
-        interference.get(regW).add(regV);
+        if (matrix != null) {
+            if (regV >= regW) {
+                Bits.set(matrix, triangle(regV) + regW);
+            } else {
+                Bits.set(matrix, triangle(regW) + regV);
+            }
+        } else {
+            addToRow(regV, regW);
+            if (regV != regW) {
+                addToRow(regW, regV);
+            }
+        }
     }
 
     /**
      * Dumps interference graph to stdout for debugging.
      */
     public void dumpToStdout() {
-        int oldRegCount = interference.size();
-
-        for (int i = 0; i < oldRegCount; i++) {
-            StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < regCount; i++) {
+            BitIntSet set = new BitIntSet(regCount);
 
-            sb.append("Reg " + i + ":" + interference.get(i).toString());
-
-            System.out.println(sb.toString());
+            mergeInterferenceSet(i, set);
+            System.out.println("Reg " + i + ":" + set.toString());
         }
     }
 
@@ -88,21 +129,211 @@ public class InterferenceGraph {
      * given register
      */
     public void mergeInterferenceSet(int reg, IntSet set) {
-        if (reg < interference.size()) {
-            set.merge(interference.get(reg));
+        if (reg >= regCount) {
+            return;
+        }
+
+        if (matrix != null) {
+            mergeMatrixRow(reg, set);
+            return;
+        }
+
+        int[] row = rows[reg];
+        int size = rowSizes[reg];
+
+        if (row == null) {
+            return;
+        } else if (size < 0) {
+            for (int i = Bits.findFirst(row, 0); i >= 0;
+                 i = Bits.findFirst(row, i + 1)) {
+                set.add(i);
+            }
+        } else {
+            for (int i = 0; i < size; i++) {
+                set.add(row[i]);
+            }
         }
     }
 
     /**
-     * Ensures that the interference graph is appropriately sized.
+     * Helper for {@link #mergeInterferenceSet}, which handles graphs
+     * kept as a bit matrix. The registers below <code>reg</code> are
+     * contiguous in the matrix; the ones above it are found one matrix
+     * row apart.
+     *
+     * @param reg &gt;= 0, &lt; regCount; register
+     * @param set non-null; set to merge into
+     */
+    private void mergeMatrixRow(int reg, IntSet set) {
+        int base = triangle(reg);
+        int end = base + reg;
+
+        for (int i = Bits.findFirst(matrix, base); (i >= 0) && (i <= end);
+             i = Bits.findFirst(matrix, i + 1)) {
+            set.add(i - base);
+        }
+
+        int at = triangle(reg + 1) + reg;
+        for (int i = reg + 1; i < regCount; i++) {
+            if (Bits.get(matrix, at)) {
+                set.add(i);
+            }
+            at += i + 1;
+        }
+    }
+
+    /**
+     * Adds a register to the adjacency row of another, switching the
+     * row over to a bit set once that would be no bigger than the
+     * sorted array.
+     *
+     * @param reg &gt;= 0; register whose row to add to
+     * @param other &gt;= 0; register to add
+     */
+    private void addToRow(int reg, int other) {
+        int[] row = rows[reg];
+        int size = rowSizes[reg];
+
+        if (row == null) {
+            row = new int[INITIAL_ROW_CAPACITY];
+            rows[reg] = row;
+        } else if (size < 0) {
+            if (other >= Bits.getMax(row)) {
+                row = grow(row, (regCount + 0x1f) >> 5);
+                rows[reg] = row;
+            }
+            Bits.set(row, other);
+            return;
+        }
+
+        int at = insertionPoint(row, size, other);
+
+        if ((at < size) && (row[at] == other)) {
+            return;
+        }
+
+        if (size == row.length) {
+            int bitSetSize = (regCount + 0x1f) >> 5;
+
+            if (size >= bitSetSize) {
+                int[] bits = new int[bitSetSize];
+
+                for (int i = 0; i < size; i++) {
+                    Bits.set(bits, row[i]);
+                }
+
+                Bits.set(bits, other);
+                rows[reg] = bits;
+                rowSizes[reg] = -1;
+                return;
+            }
+
+            row = grow(row, Math.min(size * 2, bitSetSize));
+            rows[reg] = row;
+        }
+
+        System.arraycopy(row, at, row, at + 1, size - at);
+        row[at] = other;
+        rowSizes[reg] = size + 1;
+    }
+
+    /**
+     * Ensures that the interference graph is appropriately sized. A
+     * graph kept as a matrix is switched over to adjacency rows if it
+     * grows too big for that.
      *
      * @param size requested minumum size
      */
     private void ensureCapacity(int size) {
-        int countRegs = interference.size();
-        interference.ensureCapacity(size);
-        for (int i = countRegs ; i < size; i++) {
-            interference.add(SetFactory.makeInterferenceSet(size));
+        if (size <= regCount) {
+            return;
         }
+
+        int oldRegCount = regCount;
+        regCount = size;
+
+        if (matrix == null) {
+            if (size > rows.length) {
+                int newLength = Math.max(size, rows.length * 3 / 2);
+                int[][] newRows = new int[newLength][];
+
+                System.arraycopy(rows, 0, newRows, 0, rows.length);
+                rows = newRows;
+                rowSizes = grow(rowSizes, newLength);
+            }
+        } else if (size <= MATRIX_THRESHOLD) {
+            int words = (triangle(size) + 0x1f) >> 5;
+            if (words > matrix.length) {
+                matrix = grow(matrix, Math.max(words, matrix.length * 3 / 2));
+            }
+        } else {
+            int[] oldMatrix = matrix;
+
+            matrix = null;
+            rows = new int[size][];
+            rowSizes = new int[size];
+
+            for (int v = 0; v < oldRegCount; v++) {
+                int base = triangle(v);
+                for (int w = 0; w <= v; w++) {
+                    if (Bits.get(oldMatrix, base + w)) {
+                        add(v, w);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds where a value is or belongs in the valid part of a sparse
+     * adjacency row.
+     *
+     * @param row non-null; the row
+     * @param size &gt;= 0; the number of valid elements in the row
+     * @param value value to look for
+     * @return &gt;= 0, &lt;= size; index of the first element not less
+     * than <code>value</code>
+     */
+    private static int insertionPoint(int[] row, int size, int value) {
+        int low = 0;
+        int high = size;
+
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+
+            if (row[mid] < value) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        return low;
+    }
+
+    /**
+     * Makes a copy of an array, padded with zeroes to the given length.
+     *
+     * @param array non-null; the array
+     * @param newLength &gt;= array.length; the length of the copy
+     * @return non-null; the copy
+     */
+    private static int[] grow(int[] array, int newLength) {
+        int[] result = new int[newLength];
+
+        System.arraycopy(array, 0, result, 0, array.length);
+        return result;
+    }
+
+    /**
+     * Gets the index of the first bit of the given register's row in
+     * the bit matrix, which is also the number of bits taken up by the
+     * rows of all the registers below it.
+     *
+     * @param reg &gt;= 0; register
+     * @return &gt;= 0; the bit index
+     */
+    private static int triangle(int reg) {
+        return (reg * (reg + 1)) >> 1;
     }
 }
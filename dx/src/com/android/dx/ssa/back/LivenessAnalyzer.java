@@ -78,7 +78,11 @@ public class LivenessAnalyzer {
     /**
      * Runs register liveness algorithm for a method, updating the
      * live in/out information in <code>SsaBasicBlock</code> instances and
-     * returning an interference graph.
+     * returning an interference graph. Unless the method's {@link
+     * com.android.dx.ssa.OptimizerContext} asks for the per-register
+     * algorithm in this class, or the method is too big for it, {@link
+     * DataflowLivenessAnalyzer} is used instead; the results are the
+     * same.
      *
      * @param ssaMeth non-null; Method to process.
      * @return non-null; interference graph indexed by SSA registers in both
@@ -90,8 +94,13 @@ public class LivenessAnalyzer {
 
         InterferenceGraph interference = new InterferenceGraph(szRegs);
 
-        for (int i = 0; i < szRegs; i++) {
-            new LivenessAnalyzer(ssaMeth, i, interference).run();
+        if (ssaMeth.getContext().getPerRegisterLiveness()
+                || !DataflowLivenessAnalyzer.isSuitableFor(ssaMeth)) {
+            for (int i = 0; i < szRegs; i++) {
+                new LivenessAnalyzer(ssaMeth, i, interference).run();
+            }
+        } else {
+            DataflowLivenessAnalyzer.run(ssaMeth, interference);
         }
 
         coInterferePhis(ssaMeth, interference);
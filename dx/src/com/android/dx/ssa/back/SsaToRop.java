@@ -20,6 +20,7 @@ import com.android.dx.rop.code.BasicBlock;
 import com.android.dx.rop.code.BasicBlockList;
 import com.android.dx.rop.code.CstInsn;
 import com.android.dx.rop.code.InsnList;
+import com.android.dx.rop.code.LocalItem;
 import com.android.dx.rop.code.RegOps;
 import com.android.dx.rop.code.RegisterSpec;
 import com.android.dx.rop.code.RegisterSpecList;
@@ -36,6 +37,7 @@ import com.android.dx.ssa.SsaInsn;
 import com.android.dx.ssa.SsaMethod;
 import com.android.dx.util.IntList;
 import com.android.dx.util.Hex;
+import com.android.dx.util.Profile;
 
 import java.util.ArrayList;
 import java.util.BitSet;
@@ -77,7 +79,12 @@ public class SsaToRop {
     }
 
     private RopMethod convert() {
+        Profile profile = ssaMeth.getContext().getProfile();
+        Profile.Mark mark = profile.start();
+
         interference = LivenessAnalyzer.constructInterferenceGraph(ssaMeth);
+        profile.stop(Profile.Phase.LIVENESS, mark);
+        mark = profile.start();
 
         if (DEBUG) {
             interference.dumpToStdout();
@@ -91,8 +98,13 @@ public class SsaToRop {
         //allocator = new NullRegisterAllocator(ssaMeth, interference);
         //allocator = new FirstFitAllocator(ssaMeth, interference);
 
-        allocator = new FirstFitLocalCombiningAllocator(ssaMeth, interference,
-                minimizeRegisters);
+        if (ssaMeth.getContext().getCoalesceRegisters()) {
+            allocator = new CoalescingAllocator(ssaMeth, interference,
+                    minimizeRegisters);
+        } else {
+            allocator = new FirstFitLocalCombiningAllocator(ssaMeth,
+                    interference, minimizeRegisters);
+        }
 
         mapper = allocator.allocateRegisters();
 
@@ -105,6 +117,7 @@ public class SsaToRop {
 
         ssaMeth.mapRegisters(mapper);
 
+        removeNoOpMoves();
         removePhiFunctions();
 
         if (allocator.wantsParamsMovedHigh()) {
@@ -119,6 +132,7 @@ public class SsaToRop {
 
         ropMethod = new IdenticalBlockCombiner(ropMethod).process();
 
+        profile.stop(Profile.Phase.REGISTER_ALLOCATION, mark);
         return ropMethod;
     }
 
@@ -153,6 +167,42 @@ public class SsaToRop {
         });
     }
 
+    /**
+     * Removes the moves that the register allocator has left copying a
+     * register to itself. A move that starts a local variable is kept,
+     * unless the register already held that variable.
+     */
+    private void removeNoOpMoves() {
+        boolean any = false;
+
+        for (SsaBasicBlock block : ssaMeth.getBlocks()) {
+            ArrayList<SsaInsn> insns = block.getInsns();
+
+            for (int i = insns.size() - 1; i >= 0; i--) {
+                SsaInsn insn = insns.get(i);
+
+                if (!insn.isNormalMoveInsn()) {
+                    continue;
+                }
+
+                RegisterSpec result = insn.getResult();
+                RegisterSpec source = insn.getSources().get(0);
+                LocalItem local = result.getLocalItem();
+
+                if ((result.getReg() == source.getReg())
+                        && ((local == null)
+                                || local.equals(source.getLocalItem()))) {
+                    insns.remove(i);
+                    any = true;
+                }
+            }
+        }
+
+        if (any) {
+            ssaMeth.onInsnsChanged();
+        }
+    }
+
     /**
      * This method is not presently used.
      * @return a list of registers ordered by most-frequently-used
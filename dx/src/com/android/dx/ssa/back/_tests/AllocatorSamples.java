@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.ssa.back._tests;
+
+/**
+ * Methods whose class file the tests of {@link
+ * com.android.dx.ssa.back.CoalescingAllocator} translate. What matters
+ * is the shape of the code javac makes of them, not what they compute.
+ */
+class AllocatorSamples {
+    static int sum(int a, int b, int c, int d, int e, int f) {
+        return a + b + c + d + e + f;
+    }
+
+    static int phi(int a, int b, boolean f) {
+        int x;
+
+        if (f) {
+            x = a + b;
+        } else {
+            x = a - b;
+        }
+
+        return x;
+    }
+
+    static int subset(int a, int b, boolean f) {
+        int x;
+
+        if (f) {
+            x = a + b;
+        } else {
+            x = a - b;
+        }
+
+        return x * a;
+    }
+
+    static int privateNeighbors(int a, int b, int c, boolean f) {
+        int x;
+
+        if (f) {
+            // p is live across x, and across values x isn't.
+            int p = a * b;
+            int t1 = a + 1;
+            int t2 = a + 2;
+            int t3 = a + 3;
+            sink(t1 + t2 + t3);
+            x = a + c;
+            sink(p);
+        } else {
+            x = a - c;
+        }
+
+        // So is q, the other way around.
+        int q = a * 7;
+        int y = x + q;
+        int w1 = a + 4;
+        int w2 = a + 5;
+        int w3 = a + 6;
+        return y + w1 + w2 + w3 + q + a;
+    }
+
+    static void sink(int value) {
+        // Just something to pass values to.
+    }
+
+    static int forwardParams(int a, int b, int c, int d, int e, int f) {
+        return sum(a, b, c, d, e, f);
+    }
+
+    static int forwardValues(int a, int b) {
+        return sum(a + 1, a + 2, a + 3, b + 1, b + 2, b + 3);
+    }
+
+    static int forwardRepeated(int a, int b) {
+        int x = a * b;
+
+        return sum(x, a + 1, a + 2, b + 1, b + 2, x);
+    }
+}
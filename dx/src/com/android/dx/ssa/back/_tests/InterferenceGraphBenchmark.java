@@ -0,0 +1,294 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.ssa.back._tests;
+
+import com.android.dx.cf.code.ConcreteMethod;
+import com.android.dx.cf.code.Ropper;
+import com.android.dx.cf.direct.ClassPathOpener;
+import com.android.dx.cf.direct.DirectClassFile;
+import com.android.dx.cf.direct.StdAttributeFactory;
+import com.android.dx.cf.iface.Method;
+import com.android.dx.cf.iface.MethodList;
+import com.android.dx.rop.code.AccessFlags;
+import com.android.dx.rop.code.DexTranslationAdvice;
+import com.android.dx.rop.code.RopMethod;
+import com.android.dx.rop.code.TranslationAdvice;
+import com.android.dx.ssa.Optimizer;
+import com.android.dx.ssa.OptimizerContext;
+import com.android.dx.ssa.SsaMethod;
+import com.android.dx.ssa.back.FirstFitLocalCombiningAllocator;
+import com.android.dx.ssa.back.InterferenceGraph;
+import com.android.dx.ssa.back.LivenessAnalyzer;
+import com.android.dx.util.ListIntSet;
+import com.android.dx.util.Profile;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
+
+/**
+ * Benchmark of interference graph construction and register allocation
+ * over real methods. Every concrete method in the given class files,
+ * directories and archives is converted to SSA form; then, for a few
+ * rounds, the interference graph is built and registers are allocated
+ * for each one. The best time for each method is kept. The totals are
+ * reported, along with the times and the retained size of the graphs
+ * for the methods with the most registers. Run it as
+ * <code>java -cp dx.jar
+ * com.android.dx.ssa.back._tests.InterferenceGraphBenchmark
+ * [--liveness=per-register] &lt;path&gt;...</code>; the option
+ * selects the liveness analysis to use, as it does for dx.
+ */
+public class InterferenceGraphBenchmark {
+    /** number of timed rounds over all the methods */
+    private static final int ROUNDS = 5;
+
+    /** number of largest methods to report individually */
+    private static final int TOP_COUNT = 10;
+
+    /** non-null; advice used for all translation */
+    private static final TranslationAdvice ADVICE =
+        DexTranslationAdvice.THE_ONE;
+
+    /** non-null; optimizer steps run before register allocation */
+    private static final EnumSet<Optimizer.OptionalStep> STEPS =
+        EnumSet.allOf(Optimizer.OptionalStep.class);
+
+    /**
+     * This class is uninstantiable.
+     */
+    private InterferenceGraphBenchmark() {
+        // This space intentionally left blank.
+    }
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args command-line arguments
+     */
+    public static void main(String[] args) {
+        final ArrayList<Subject> subjects = new ArrayList<Subject>();
+        boolean perRegisterLiveness = false;
+        int at = 0;
+
+        if ((args.length > 0) && args[0].equals("--liveness=per-register")) {
+            perRegisterLiveness = true;
+            at++;
+        }
+
+        final OptimizerContext context =
+            new OptimizerContext(false, ADVICE, perRegisterLiveness,
+                    Profile.NONE, null, null, null, false);
+
+        for (/*at*/; at < args.length; at++) {
+            String path = args[at];
+            new ClassPathOpener(path, false, new ClassPathOpener.Consumer() {
+                public boolean processFileBytes(String name, byte[] bytes) {
+                    if (name.endsWith(".class")) {
+                        addSubjects(subjects, context, name, bytes);
+                    }
+                    return true;
+                }
+
+                public void onException(Exception ex) {
+                    throw new RuntimeException(ex);
+                }
+
+                public void onProcessArchiveStart(File file) {
+                    // This space intentionally left blank.
+                }
+            }).process();
+        }
+
+        for (int round = 0; round < ROUNDS; round++) {
+            for (Subject s : subjects) {
+                s.run();
+            }
+        }
+
+        long graphNanos = 0;
+        long allocNanos = 0;
+
+        for (Subject s : subjects) {
+            graphNanos += s.graphNanos;
+            allocNanos += s.allocNanos;
+        }
+
+        System.out.printf("%d methods; graph %.1f ms; allocation %.1f ms\n",
+                subjects.size(), graphNanos / 1e6, allocNanos / 1e6);
+
+        Collections.sort(subjects, new Comparator<Subject>() {
+            public int compare(Subject a, Subject b) {
+                return b.regCount - a.regCount;
+            }
+        });
+
+        System.out.println("   regs  graph ms  alloc ms  graph kb  method");
+
+        int count = Math.min(TOP_COUNT, subjects.size());
+        for (int i = 0; i < count; i++) {
+            Subject s = subjects.get(i);
+            System.out.printf("%7d  %8.2f  %8.2f  %8d  %s\n", s.regCount,
+                    s.graphNanos / 1e6, s.allocNanos / 1e6,
+                    s.graphBytes() / 1024, s.name);
+        }
+    }
+
+    /**
+     * Adds a subject for each concrete method of a class.
+     *
+     * @param subjects non-null; list to add to
+     * @param context non-null; settings to optimize the methods with
+     * @param name non-null; name of the class file
+     * @param bytes non-null; contents of the class file
+     */
+    private static void addSubjects(ArrayList<Subject> subjects,
+            OptimizerContext context, String name, byte[] bytes) {
+        DirectClassFile cf = new DirectClassFile(bytes, name, false);
+
+        cf.setAttributeFactory(StdAttributeFactory.THE_ONE);
+
+        MethodList methods = cf.getMethods();
+        int sz = methods.size();
+
+        for (int i = 0; i < sz; i++) {
+            Method one = methods.get(i);
+            int accessFlags = one.getAccessFlags();
+
+            if (AccessFlags.isNative(accessFlags)
+                    || AccessFlags.isAbstract(accessFlags)) {
+                continue;
+            }
+
+            boolean isStatic = AccessFlags.isStatic(accessFlags);
+            ConcreteMethod concrete = new ConcreteMethod(one, cf, true, false);
+            int paramWidth = concrete.getEffectiveDescriptor()
+                .getParameterTypes().getWordCount();
+
+            String className = name.substring(0, name.length() - 6);
+
+            subjects.add(new Subject(className + "." + one.getName().getString(),
+                    Ropper.convert(concrete, ADVICE), paramWidth, isStatic,
+                    context));
+        }
+    }
+
+    /**
+     * Gets the amount of heap in use, after collecting garbage.
+     *
+     * @return &gt;= 0; bytes of heap in use
+     */
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * A method to benchmark, along with its best times so far.
+     */
+    private static class Subject {
+        /** non-null; human name of the method */
+        final String name;
+
+        /** non-null; the method, before optimization */
+        final RopMethod ropMethod;
+
+        /** width of the method's parameters, in register units */
+        final int paramWidth;
+
+        /** whether the method is static */
+        final boolean isStatic;
+
+        /** non-null; settings to optimize the method with */
+        final OptimizerContext context;
+
+        /** count of SSA registers, as of the last run */
+        int regCount;
+
+        /** best time taken to build the interference graph */
+        long graphNanos = Long.MAX_VALUE;
+
+        /** best time taken to allocate registers */
+        long allocNanos = Long.MAX_VALUE;
+
+        Subject(String name, RopMethod ropMethod, int paramWidth,
+                boolean isStatic, OptimizerContext context) {
+            this.name = name;
+            this.ropMethod = ropMethod;
+            this.paramWidth = paramWidth;
+            this.isStatic = isStatic;
+            this.context = context;
+        }
+
+        /**
+         * Converts the method to SSA form.
+         *
+         * @return non-null; the method, ready for register allocation
+         */
+        SsaMethod toSsa() {
+            SsaMethod ssaMeth = Optimizer.debugNoRegisterAllocation(
+                    ropMethod, paramWidth, isStatic, context, STEPS);
+
+            regCount = ssaMeth.getRegCount();
+            return ssaMeth;
+        }
+
+        /**
+         * Runs one timed round, keeping the best times.
+         */
+        void run() {
+            SsaMethod ssaMeth = toSsa();
+            long start = System.nanoTime();
+            InterferenceGraph graph =
+                LivenessAnalyzer.constructInterferenceGraph(ssaMeth);
+            long built = System.nanoTime();
+
+            new FirstFitLocalCombiningAllocator(ssaMeth, graph, false)
+                .allocateRegisters();
+
+            long allocated = System.nanoTime();
+
+            graphNanos = Math.min(graphNanos, built - start);
+            allocNanos = Math.min(allocNanos, allocated - built);
+        }
+
+        /**
+         * Measures the heap retained by the method's interference graph.
+         *
+         * @return &gt;= 0; the size in bytes, approximately
+         */
+        long graphBytes() {
+            SsaMethod ssaMeth = toSsa();
+            long before = usedMemory();
+            InterferenceGraph graph =
+                LivenessAnalyzer.constructInterferenceGraph(ssaMeth);
+            long after = usedMemory();
+
+            // Keep the graph reachable until it has been measured.
+            graph.mergeInterferenceSet(0, new ListIntSet());
+
+            return Math.max(0, after - before);
+        }
+    }
+}
@@ -0,0 +1,333 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.ssa.back._tests;
+
+import com.android.dx.cf.code.ConcreteMethod;
+import com.android.dx.cf.code.Ropper;
+import com.android.dx.cf.direct.DirectClassFile;
+import com.android.dx.cf.direct.StdAttributeFactory;
+import com.android.dx.cf.iface.Method;
+import com.android.dx.cf.iface.MethodList;
+import com.android.dx.rop.code.AccessFlags;
+import com.android.dx.rop.code.DexTranslationAdvice;
+import com.android.dx.rop.code.RegOps;
+import com.android.dx.rop.code.RegisterSpec;
+import com.android.dx.rop.code.RegisterSpecList;
+import com.android.dx.rop.code.Rop;
+import com.android.dx.rop.code.RopMethod;
+import com.android.dx.rop.code.TranslationAdvice;
+import com.android.dx.ssa.Optimizer;
+import com.android.dx.ssa.OptimizerContext;
+import com.android.dx.ssa.PhiInsn;
+import com.android.dx.ssa.RegisterMapper;
+import com.android.dx.ssa.SsaBasicBlock;
+import com.android.dx.ssa.SsaInsn;
+import com.android.dx.ssa.SsaMethod;
+import com.android.dx.ssa.back.CoalescingAllocator;
+import com.android.dx.ssa.back.LivenessAnalyzer;
+import com.android.dx.util.Profile;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Test the class <code>com.android.dx.ssa.back.CoalescingAllocator</code>,
+ * over the methods of {@link AllocatorSamples}. The number of colors
+ * the coalescing tests keep colorable is the advice's maximum optimal
+ * register count, which each test picks.
+ */
+public class _CoalescingAllocator
+        extends TestCase {
+    /** non-null; name of the class file of the samples */
+    private static final String SAMPLES =
+        "/com/android/dx/ssa/back/_tests/AllocatorSamples.class";
+
+    public void test_plentyOfColors() throws IOException {
+        SsaMethod ssaMeth = translate("privateNeighbors", 16);
+        CoalescingAllocator allocator = newAllocator(ssaMeth);
+        allocator.allocateRegisters();
+        PhiInsn phi = findPhi(ssaMeth);
+
+        assertTrue(areCoalesced(ssaMeth, allocator, phi, RegOps.ADD));
+        assertTrue(areCoalesced(ssaMeth, allocator, phi, RegOps.SUB));
+    }
+
+    public void test_briggs() throws IOException {
+        /*
+         * The phi and the a + c each have a neighbor of degree four or
+         * more that the other doesn't have, which fails the George
+         * test both ways; between them they have three, few enough for
+         * the Briggs test.
+         */
+        SsaMethod ssaMeth = translate("privateNeighbors", 4);
+        CoalescingAllocator allocator = newAllocator(ssaMeth);
+        allocator.allocateRegisters();
+        PhiInsn phi = findPhi(ssaMeth);
+
+        assertTrue(areCoalesced(ssaMeth, allocator, phi, RegOps.ADD));
+
+        // With three colors, neither test allows it...
+        ssaMeth = translate("privateNeighbors", 3);
+        allocator = newAllocator(ssaMeth);
+        allocator.allocateRegisters();
+        phi = findPhi(ssaMeth);
+
+        assertFalse(areCoalesced(ssaMeth, allocator, phi, RegOps.ADD));
+
+        // ...but the a - c has no neighbor the phi doesn't.
+        assertTrue(areCoalesced(ssaMeth, allocator, phi, RegOps.SUB));
+    }
+
+    public void test_george() throws IOException {
+        /*
+         * With a single color, the neighbor a that the phi and its
+         * sources share fails the Briggs test, but the sources have no
+         * neighbor the phi doesn't, which the George test allows.
+         */
+        SsaMethod ssaMeth = translate("subset", 1);
+        CoalescingAllocator allocator = newAllocator(ssaMeth);
+        allocator.allocateRegisters();
+        PhiInsn phi = findPhi(ssaMeth);
+
+        assertTrue(areCoalesced(ssaMeth, allocator, phi, RegOps.ADD));
+        assertTrue(areCoalesced(ssaMeth, allocator, phi, RegOps.SUB));
+    }
+
+    public void test_rangeOfParams() throws IOException {
+        SsaMethod ssaMeth = translate("forwardParams", 16);
+        int regCount = ssaMeth.getRegCount();
+        RegisterMapper mapper = newAllocator(ssaMeth).allocateRegisters();
+
+        assertInRange(mapper, findInvoke(ssaMeth));
+        assertEquals(regCount, ssaMeth.getRegCount());
+    }
+
+    public void test_rangeOfValues() throws IOException {
+        // The values are computed straight into the range.
+        SsaMethod ssaMeth = translate("forwardValues", 16);
+        int regCount = ssaMeth.getRegCount();
+        RegisterMapper mapper = newAllocator(ssaMeth).allocateRegisters();
+
+        assertInRange(mapper, findInvoke(ssaMeth));
+        assertEquals(regCount, ssaMeth.getRegCount());
+    }
+
+    public void test_rangeWithRepeatedSource() throws IOException {
+        SsaMethod ssaMeth = translate("forwardRepeated", 16);
+        int regCount = ssaMeth.getRegCount();
+        RegisterMapper mapper = newAllocator(ssaMeth).allocateRegisters();
+        SsaInsn invoke = findInvoke(ssaMeth);
+        RegisterSpecList sources = invoke.getSources();
+
+        assertInRange(mapper, invoke);
+
+        // Only the second x needs a move, which adds a register.
+        assertEquals(regCount + 1, ssaMeth.getRegCount());
+        assertEquals(RegOps.MUL, definingOpcode(ssaMeth, sources.get(0)));
+        assertEquals(RegOps.MOVE,
+                definingOpcode(ssaMeth, sources.get(sources.size() - 1)));
+    }
+
+    /**
+     * Converts a method of {@link AllocatorSamples} to SSA form, with
+     * the default optional steps run over it, ready for register
+     * allocation.
+     *
+     * @param name non-null; the name of the method
+     * @param maxColors &gt; 0; the maximum optimal register count to
+     * advise
+     * @return non-null; the method
+     */
+    private static SsaMethod translate(String name, final int maxColors)
+            throws IOException {
+        DirectClassFile cf =
+            new DirectClassFile(readResource(SAMPLES), SAMPLES, false);
+        cf.setAttributeFactory(StdAttributeFactory.THE_ONE);
+
+        TranslationAdvice advice = new TranslationAdvice() {
+            public boolean hasConstantOperation(Rop opcode,
+                    RegisterSpec sourceA, RegisterSpec sourceB) {
+                return DexTranslationAdvice.THE_ONE.hasConstantOperation(
+                        opcode, sourceA, sourceB);
+            }
+
+            public boolean requiresSourcesInOrder(Rop opcode,
+                    RegisterSpecList sources) {
+                return DexTranslationAdvice.THE_ONE.requiresSourcesInOrder(
+                        opcode, sources);
+            }
+
+            public int getMaxOptimalRegisterCount() {
+                return maxColors;
+            }
+        };
+
+        OptimizerContext context = new OptimizerContext(false, advice,
+                false, Profile.NONE, null, null, null, true);
+        MethodList methods = cf.getMethods();
+        int sz = methods.size();
+
+        for (int i = 0; i < sz; i++) {
+            Method one = methods.get(i);
+
+            if (!one.getName().getString().equals(name)) {
+                continue;
+            }
+
+            ConcreteMethod concrete = new ConcreteMethod(one, cf, true, false);
+            int paramWidth = concrete.getEffectiveDescriptor()
+                .getParameterTypes().getWordCount();
+            RopMethod rmeth = Ropper.convert(concrete, advice);
+
+            return Optimizer.debugNoRegisterAllocation(rmeth, paramWidth,
+                    AccessFlags.isStatic(one.getAccessFlags()), context,
+                    Optimizer.getDefaultSteps());
+        }
+
+        fail("no method " + name);
+        return null;
+    }
+
+    /**
+     * Makes an allocator for a method the way <code>SsaToRop</code>
+     * does, without running it.
+     *
+     * @param ssaMeth non-null; the method
+     * @return non-null; the allocator
+     */
+    private static CoalescingAllocator newAllocator(SsaMethod ssaMeth) {
+        return new CoalescingAllocator(ssaMeth,
+                LivenessAnalyzer.constructInterferenceGraph(ssaMeth), false);
+    }
+
+    /**
+     * Finds the only phi of a method.
+     *
+     * @param ssaMeth non-null; the method
+     * @return non-null; the phi
+     */
+    private static PhiInsn findPhi(SsaMethod ssaMeth) {
+        for (SsaBasicBlock block : ssaMeth.getBlocks()) {
+            for (SsaInsn insn : block.getInsns()) {
+                if (insn instanceof PhiInsn) {
+                    return (PhiInsn) insn;
+                }
+            }
+        }
+
+        fail("no phi");
+        return null;
+    }
+
+    /**
+     * Finds the first instruction that wants its sources in order.
+     *
+     * @param ssaMeth non-null; the method
+     * @return non-null; the instruction
+     */
+    private static SsaInsn findInvoke(SsaMethod ssaMeth) {
+        TranslationAdvice advice = ssaMeth.getContext().getAdvice();
+
+        for (SsaBasicBlock block : ssaMeth.getBlocks()) {
+            for (SsaInsn insn : block.getInsns()) {
+                Rop rop = insn.getOpcode();
+
+                if ((rop != null) && advice.requiresSourcesInOrder(rop,
+                        insn.getSources())) {
+                    return insn;
+                }
+            }
+        }
+
+        fail("no insn wanting its sources in order");
+        return null;
+    }
+
+    /**
+     * Gets the opcode of the instruction that defines a register.
+     */
+    private static int definingOpcode(SsaMethod ssaMeth,
+            RegisterSpec spec) {
+        SsaInsn def = ssaMeth.getDefinitionForRegister(spec.getReg());
+
+        return def.getOpcode().getOpcode();
+    }
+
+    /**
+     * Tells whether a phi's result was coalesced with the source
+     * defined by an instruction with the given opcode, once the
+     * allocator has run.
+     */
+    private static boolean areCoalesced(SsaMethod ssaMeth,
+            CoalescingAllocator allocator, PhiInsn phi, int opcode) {
+        RegisterSpecList sources = phi.getSources();
+
+        for (int i = 0; i < sources.size(); i++) {
+            RegisterSpec source = sources.get(i);
+
+            if (definingOpcode(ssaMeth, source) == opcode) {
+                return allocator.areCoalesced(phi.getResult().getReg(),
+                        source.getReg());
+            }
+        }
+
+        fail("no phi source with opcode " + opcode);
+        return false;
+    }
+
+    /**
+     * Checks that the sources of an instruction were mapped to
+     * consecutive rop registers.
+     */
+    private static void assertInRange(RegisterMapper mapper, SsaInsn insn) {
+        RegisterSpecList sources = insn.getSources();
+        int ropReg = mapper.map(sources.get(0)).getReg();
+
+        for (int i = 0; i < sources.size(); i++) {
+            RegisterSpec source = sources.get(i);
+
+            assertEquals(ropReg, mapper.map(source).getReg());
+            ropReg += source.getCategory();
+        }
+    }
+
+    /**
+     * Reads a class file from the class path.
+     */
+    private static byte[] readResource(String name) throws IOException {
+        InputStream in = _CoalescingAllocator.class.getResourceAsStream(name);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+
+        try {
+            for (;;) {
+                int count = in.read(buf);
+                if (count < 0) {
+                    break;
+                }
+                out.write(buf, 0, count);
+            }
+        } finally {
+            in.close();
+        }
+
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.ssa.back._tests;
+
+import com.android.dx.ssa.back.InterferenceGraph;
+import com.android.dx.util.BitIntSet;
+import com.android.dx.util.ListIntSet;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+public class _InterferenceGraph extends TestCase {
+    public void test_matrix() {
+        checkRandom(100, 100, 1000);
+    }
+
+    public void test_sparseRows() {
+        checkRandom(3000, 3000, 20000);
+    }
+
+    public void test_denseRows() {
+        checkRandom(1500, 1500, 400000);
+    }
+
+    public void test_growPastMatrix() {
+        checkRandom(1000, 1200, 20000);
+    }
+
+    public void test_selfInterference() {
+        InterferenceGraph graph = new InterferenceGraph(2);
+        ListIntSet set = new ListIntSet();
+
+        graph.add(1, 1);
+        graph.mergeInterferenceSet(1, set);
+        assertEquals(1, set.elements());
+        assertTrue(set.has(1));
+
+        set = new ListIntSet();
+        graph.mergeInterferenceSet(0, set);
+        assertEquals(0, set.elements());
+
+        graph.mergeInterferenceSet(5, set);
+        assertEquals(0, set.elements());
+    }
+
+    /**
+     * Adds random edges to a graph and checks it against a plain
+     * boolean matrix.
+     *
+     * @param startRegs initial register count of the graph
+     * @param maxRegs register count to add edges within
+     * @param edges number of edges to add
+     */
+    private static void checkRandom(int startRegs, int maxRegs, int edges) {
+        InterferenceGraph graph = new InterferenceGraph(startRegs);
+        boolean[][] expected = new boolean[maxRegs][maxRegs];
+        Random random = new Random(startRegs * 31 + edges);
+
+        for (int i = 0; i < edges; i++) {
+            int v = random.nextInt(maxRegs);
+            int w = random.nextInt(maxRegs);
+
+            graph.add(v, w);
+            expected[v][w] = true;
+            expected[w][v] = true;
+        }
+
+        for (int v = 0; v < maxRegs; v++) {
+            BitIntSet set = new BitIntSet(maxRegs);
+            int count = 0;
+
+            graph.mergeInterferenceSet(v, set);
+
+            for (int w = 0; w < maxRegs; w++) {
+                assertEquals(expected[v][w], set.has(w));
+                if (expected[v][w]) {
+                    count++;
+                }
+            }
+
+            assertEquals(count, set.elements());
+        }
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.ssa.back._tests;
+
+import com.android.dx.cf.code.ConcreteMethod;
+import com.android.dx.cf.code.Ropper;
+import com.android.dx.cf.direct.DirectClassFile;
+import com.android.dx.cf.direct.StdAttributeFactory;
+import com.android.dx.cf.iface.Method;
+import com.android.dx.cf.iface.MethodList;
+import com.android.dx.rop.code.AccessFlags;
+import com.android.dx.rop.code.DexTranslationAdvice;
+import com.android.dx.rop.code.RopMethod;
+import com.android.dx.ssa.Optimizer;
+import com.android.dx.ssa.OptimizerContext;
+import com.android.dx.ssa.SsaBasicBlock;
+import com.android.dx.ssa.SsaMethod;
+import com.android.dx.ssa.back.InterferenceGraph;
+import com.android.dx.ssa.back.LivenessAnalyzer;
+import com.android.dx.util.BitIntSet;
+import com.android.dx.util.Profile;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.EnumSet;
+
+/**
+ * Checks that the per-register and dataflow liveness analyses agree,
+ * over the methods of a few of the bigger classes in dx itself.
+ */
+public class _LivenessAnalyzer extends TestCase {
+    /** non-null; classes whose methods to check */
+    private static final String[] CLASSES = {
+        "/com/android/dx/cf/code/BytecodeArray.class",
+        "/com/android/dx/cf/code/Ropper.class",
+        "/com/android/dx/ssa/SCCP.class",
+        "/com/android/dx/ssa/back/FirstFitLocalCombiningAllocator.class"
+    };
+
+    public void test_sameResults() throws IOException {
+        OptimizerContext dataflow =
+            new OptimizerContext(true, DexTranslationAdvice.THE_ONE, false,
+                    Profile.NONE, null, null, null, false);
+        OptimizerContext perRegister =
+            new OptimizerContext(true, DexTranslationAdvice.THE_ONE, true,
+                    Profile.NONE, null, null, null, false);
+        int methodCount = 0;
+
+        for (String name : CLASSES) {
+            DirectClassFile cf =
+                new DirectClassFile(readResource(name), name, false);
+            cf.setAttributeFactory(StdAttributeFactory.THE_ONE);
+
+            MethodList methods = cf.getMethods();
+            int sz = methods.size();
+
+            for (int i = 0; i < sz; i++) {
+                Method one = methods.get(i);
+                int accessFlags = one.getAccessFlags();
+
+                if (AccessFlags.isNative(accessFlags)
+                        || AccessFlags.isAbstract(accessFlags)) {
+                    continue;
+                }
+
+                boolean isStatic = AccessFlags.isStatic(accessFlags);
+                ConcreteMethod concrete =
+                    new ConcreteMethod(one, cf, true, true);
+                int paramWidth = concrete.getEffectiveDescriptor()
+                    .getParameterTypes().getWordCount();
+                RopMethod rmeth =
+                    Ropper.convert(concrete, DexTranslationAdvice.THE_ONE);
+
+                SsaMethod a = toSsa(rmeth, paramWidth, isStatic, dataflow);
+                SsaMethod b = toSsa(rmeth, paramWidth, isStatic, perRegister);
+
+                assertSame(name + "." + one.getName().getString(), a, b);
+                methodCount++;
+            }
+        }
+
+        assertTrue(methodCount > 0);
+    }
+
+    /**
+     * Converts a method to SSA form, ready for register allocation.
+     */
+    private static SsaMethod toSsa(RopMethod rmeth, int paramWidth,
+            boolean isStatic, OptimizerContext context) {
+        return Optimizer.debugNoRegisterAllocation(rmeth, paramWidth,
+                isStatic, context, EnumSet.allOf(Optimizer.OptionalStep.class));
+    }
+
+    /**
+     * Checks that two conversions of the same method have the same
+     * interference graph and per-block liveness.
+     */
+    private static void assertSame(String name, SsaMethod a, SsaMethod b) {
+        int regCount = a.getRegCount();
+        InterferenceGraph graphA = LivenessAnalyzer.constructInterferenceGraph(a);
+        InterferenceGraph graphB = LivenessAnalyzer.constructInterferenceGraph(b);
+
+        assertEquals(name, regCount, b.getRegCount());
+
+        for (int reg = 0; reg < regCount; reg++) {
+            BitIntSet setA = new BitIntSet(regCount);
+            BitIntSet setB = new BitIntSet(regCount);
+
+            graphA.mergeInterferenceSet(reg, setA);
+            graphB.mergeInterferenceSet(reg, setB);
+            assertEquals(name + " reg " + reg, setB.toString(),
+                    setA.toString());
+        }
+
+        ArrayList<SsaBasicBlock> blocksA = a.getBlocks();
+        ArrayList<SsaBasicBlock> blocksB = b.getBlocks();
+
+        assertEquals(name, blocksB.size(), blocksA.size());
+
+        for (int i = 0; i < blocksA.size(); i++) {
+            SsaBasicBlock blockA = blocksA.get(i);
+            SsaBasicBlock blockB = blocksB.get(i);
+
+            assertEquals(name + " block " + i,
+                    blockB.getLiveInRegs().toString(),
+                    blockA.getLiveInRegs().toString());
+            assertEquals(name + " block " + i,
+                    blockB.getLiveOutRegs().toString(),
+                    blockA.getLiveOutRegs().toString());
+        }
+    }
+
+    /**
+     * Reads a class file from the class path.
+     */
+    private static byte[] readResource(String name) throws IOException {
+        InputStream in = _LivenessAnalyzer.class.getResourceAsStream(name);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+
+        try {
+            for (;;) {
+                int count = in.read(buf);
+                if (count < 0) {
+                    break;
+                }
+                out.write(buf, 0, count);
+            }
+        } finally {
+            in.close();
+        }
+
+        return out.toByteArray();
+    }
+}
@@ -162,6 +162,16 @@ public final class IntList extends MutabilityControl {
         return size;
     }
 
+    /**
+     * Gets whether this list is known to be sorted, in which case
+     * searches of it are binary.
+     *
+     * @return whether the list is known to be sorted
+     */
+    public boolean isSorted() {
+        return sorted;
+    }
+
     /**
      * Gets the indicated value.
      * 
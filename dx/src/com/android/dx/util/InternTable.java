@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.util;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Thread-safe table of interned instances. Lookups never block, and
+ * insertions only contend with other insertions that land in the same
+ * stripe of the underlying map. Values are only weakly held, so an
+ * instance that nothing else refers to anymore is dropped from the
+ * table; this keeps the table from growing without bound in a
+ * long-lived process that runs many translations. Since a dropped
+ * instance is by definition no longer referenced, a later request for
+ * an equal instance may safely produce a fresh one without breaking
+ * <code>==</code> comparisons.
+ *
+ * <p><b>Note:</b> A key must not refer (directly or indirectly) to its
+ * value, or else the value will never be dropped.</p>
+ *
+ * @param <K> type of the keys
+ * @param <V> type of the interned values
+ */
+public final class InternTable<K, V> {
+    /** non-null; the underlying map */
+    private final ConcurrentHashMap<Object, Entry<V>> map;
+
+    /** non-null; queue of entries whose values have been collected */
+    private final ReferenceQueue<V> queue;
+
+    /**
+     * Constructs an instance.
+     *
+     * @param initialCapacity &gt;= 0; the expected number of entries
+     */
+    public InternTable(int initialCapacity) {
+        map = new ConcurrentHashMap<Object, Entry<V>>(initialCapacity);
+        queue = new ReferenceQueue<V>();
+    }
+
+    /**
+     * Gets the interned instance for the given key, if any. The key
+     * used for the lookup need not be of type <code>K</code>, so long
+     * as it is <code>equals()</code> to (and has the same hash code as)
+     * the key it was interned with. This allows callers to look up
+     * with a reusable mutable probe.
+     *
+     * @param key non-null; the key to look up
+     * @return null-ok; the interned instance, or <code>null</code> if
+     * there is none
+     */
+    public V get(Object key) {
+        Entry<V> entry = map.get(key);
+        return (entry == null) ? null : entry.get();
+    }
+
+    /**
+     * Interns the given instance under the given key, unless there is
+     * already an instance interned under an equal key, in which case
+     * that instance is returned instead.
+     *
+     * @param key non-null; the key
+     * @param value non-null; the candidate instance
+     * @return non-null; the interned instance, which is either
+     * <code>value</code> or a previously-interned instance
+     */
+    public V intern(K key, V value) {
+        if (value == null) {
+            throw new NullPointerException("value == null");
+        }
+
+        expungeStaleEntries();
+
+        Entry<V> fresh = new Entry<V>(key, value, queue);
+
+        for (;;) {
+            Entry<V> entry = map.putIfAbsent(key, fresh);
+
+            if (entry == null) {
+                return value;
+            }
+
+            V already = entry.get();
+
+            if (already != null) {
+                return already;
+            }
+
+            // The old value was collected; try to displace its entry.
+            if (map.replace(key, entry, fresh)) {
+                return value;
+            }
+        }
+    }
+
+    /**
+     * Gets the number of entries in the table, including any whose
+     * values have been collected but not yet expunged.
+     *
+     * @return &gt;= 0; the size
+     */
+    public int size() {
+        return map.size();
+    }
+
+    /**
+     * Removes the entries whose values have been collected.
+     */
+    private void expungeStaleEntries() {
+        for (;;) {
+            @SuppressWarnings("unchecked")
+            Entry<V> entry = (Entry<V>) queue.poll();
+
+            if (entry == null) {
+                break;
+            }
+
+            map.remove(entry.key, entry);
+        }
+    }
+
+    /**
+     * Weak reference to an interned value, which remembers the key it
+     * was interned under so that it can be removed once collected.
+     */
+    private static final class Entry<V> extends WeakReference<V> {
+        /** non-null; the key */
+        private final Object key;
+
+        /**
+         * Constructs an instance.
+         *
+         * @param key non-null; the key
+         * @param value non-null; the value
+         * @param queue non-null; queue to register with
+         */
+        public Entry(Object key, V value, ReferenceQueue<V> queue) {
+            super(value, queue);
+            this.key = key;
+        }
+    }
+}
@@ -0,0 +1,482 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.util;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Record of where the time, and the allocated memory if the VM can
+ * tell, goes during a translation. Time and memory are totaled per
+ * {@link Phase}, and also per method for whichever method the
+ * sampling thread is in the middle of; the slowest few methods are
+ * kept for the report, which is written as JSON.
+ *
+ * <p>Instances are safe to share between threads. Phase totals are
+ * summed over all the threads, so with more than one of them they can
+ * add up to more than the elapsed time.</p>
+ */
+public final class Profile {
+    /** the phases that time is charged to */
+    public enum Phase {
+        /** parsing class files */
+        PARSE("parse"),
+
+        /** converting bytecode to rop form */
+        ROP("rop"),
+
+        /** converting rop form to SSA form */
+        SSA_CONVERSION("ssa-conversion"),
+
+        /** sparse conditional constant propagation */
+        SCCP("sccp"),
+
+        /** the other SSA form optimizations */
+        SSA_OPTIMIZATION("ssa-optimization"),
+
+        /** liveness analysis and interference graph construction */
+        LIVENESS("liveness"),
+
+        /** register allocation and conversion back to rop form */
+        REGISTER_ALLOCATION("register-allocation"),
+
+        /** converting rop form to dalvik code */
+        ROP_TO_DEX("rop-to-dex"),
+
+        /** laying out and writing the dex file */
+        WRITE_DEX("write-dex");
+
+        /** non-null; name used in the report */
+        private final String reportName;
+
+        private Phase(String reportName) {
+            this.reportName = reportName;
+        }
+
+        /**
+         * Gets the name of this phase as used in the report.
+         *
+         * @return non-null; the name
+         */
+        public String getReportName() {
+            return reportName;
+        }
+    }
+
+    /** non-null; orders method records by increasing time */
+    private static final Comparator<MethodRecord> BY_NANOS =
+        new Comparator<MethodRecord>() {
+            public int compare(MethodRecord a, MethodRecord b) {
+                return (a.nanos < b.nanos) ? -1
+                    : ((a.nanos > b.nanos) ? 1 : 0);
+            }
+        };
+
+    /** non-null; a profile that records nothing */
+    public static final Profile NONE = new Profile(false, 0);
+
+    /**
+     * null-ok; <code>getThreadAllocatedBytes(long)</code> of the
+     * platform thread bean, if the VM has it
+     */
+    private static final Method THREAD_ALLOCATED_BYTES =
+        findThreadAllocatedBytes();
+
+    /** null-ok; the platform thread bean, if the above is non-null */
+    private static final Object THREAD_BEAN =
+        (THREAD_ALLOCATED_BYTES == null) ? null
+        : ManagementFactory.getThreadMXBean();
+
+    /** whether anything is recorded */
+    private final boolean enabled;
+
+    /** &gt;= 0; how many of the slowest methods to keep */
+    private final int topCount;
+
+    /** time at which this instance was made */
+    private final long startNanos;
+
+    /** non-null; time spent per phase, indexed by ordinal */
+    private final AtomicLongArray phaseNanos;
+
+    /** non-null; bytes allocated per phase, indexed by ordinal */
+    private final AtomicLongArray phaseBytes;
+
+    /** non-null; number of samples per phase, indexed by ordinal */
+    private final AtomicLongArray phaseCounts;
+
+    /** non-null; number of methods recorded */
+    private final AtomicInteger methodCount;
+
+    /** non-null; per thread, the method in progress, if any */
+    private final ThreadLocal<MethodRecord> currentMethod;
+
+    /**
+     * non-null; the slowest methods so far, with the fastest of
+     * them at the head; guarded by <code>this</code>
+     */
+    private final PriorityQueue<MethodRecord> slowestMethods;
+
+    /**
+     * Constructs an instance which records.
+     *
+     * @param topCount &gt;= 0; how many of the slowest methods to keep
+     */
+    public Profile(int topCount) {
+        this(true, topCount);
+    }
+
+    /**
+     * Constructs an instance.
+     *
+     * @param enabled whether anything is recorded
+     * @param topCount &gt;= 0; how many of the slowest methods to keep
+     */
+    private Profile(boolean enabled, int topCount) {
+        if (topCount < 0) {
+            throw new IllegalArgumentException("topCount < 0");
+        }
+
+        int phaseCount = Phase.values().length;
+
+        this.enabled = enabled;
+        this.topCount = topCount;
+        this.startNanos = System.nanoTime();
+        this.phaseNanos = new AtomicLongArray(phaseCount);
+        this.phaseBytes = new AtomicLongArray(phaseCount);
+        this.phaseCounts = new AtomicLongArray(phaseCount);
+        this.methodCount = new AtomicInteger();
+        this.currentMethod = new ThreadLocal<MethodRecord>();
+        this.slowestMethods = new PriorityQueue<MethodRecord>(
+                Math.max(topCount, 1), BY_NANOS);
+    }
+
+    /**
+     * Tells whether this instance records anything.
+     *
+     * @return whether this instance records anything
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Starts a sample, to be finished with {@link #stop}.
+     *
+     * @return null-ok; the start of the sample, or <code>null</code> if
+     * this instance doesn't record anything
+     */
+    public Mark start() {
+        return enabled ? new Mark() : null;
+    }
+
+    /**
+     * Finishes a sample, charging it to the given phase and to the
+     * method the calling thread is in, if any.
+     *
+     * @param phase non-null; phase to charge
+     * @param mark null-ok; the start of the sample, as returned by
+     * {@link #start}
+     */
+    public void stop(Phase phase, Mark mark) {
+        if (mark == null) {
+            return;
+        }
+
+        long nanos = System.nanoTime() - mark.nanos;
+        long bytes = getAllocatedBytes() - mark.bytes;
+        int index = phase.ordinal();
+
+        phaseNanos.addAndGet(index, nanos);
+        phaseBytes.addAndGet(index, bytes);
+        phaseCounts.incrementAndGet(index);
+
+        MethodRecord method = currentMethod.get();
+        if (method != null) {
+            method.phaseNanos[index] += nanos;
+            method.phaseBytes[index] += bytes;
+        }
+    }
+
+    /**
+     * Notes that the calling thread is starting work on a method.
+     *
+     * @param name non-null; human name of the method
+     */
+    public void startMethod(String name) {
+        if (enabled) {
+            currentMethod.set(new MethodRecord(name));
+        }
+    }
+
+    /**
+     * Notes that the calling thread is done with the method most
+     * recently passed to {@link #startMethod}.
+     */
+    public void stopMethod() {
+        if (!enabled) {
+            return;
+        }
+
+        MethodRecord method = currentMethod.get();
+
+        if (method == null) {
+            return;
+        }
+
+        currentMethod.set(null);
+        method.nanos = System.nanoTime() - method.start.nanos;
+        method.bytes = getAllocatedBytes() - method.start.bytes;
+        methodCount.incrementAndGet();
+
+        synchronized (this) {
+            if (slowestMethods.size() < topCount) {
+                slowestMethods.add(method);
+            } else if ((topCount != 0)
+                    && (slowestMethods.peek().nanos < method.nanos)) {
+                slowestMethods.poll();
+                slowestMethods.add(method);
+            }
+        }
+    }
+
+    /**
+     * Writes the report, as a JSON object. Byte counts are
+     * <code>-1</code> if the VM can't tell how much memory a thread
+     * has allocated. The members are:
+     *
+     * <ul>
+     * <li><code>nanos</code>: time since this instance was made</li>
+     * <li><code>allocationTracked</code>: whether byte counts are
+     * known</li>
+     * <li><code>methods</code>: number of methods recorded</li>
+     * <li><code>phases</code>: object with a member per phase, each
+     * with its <code>count</code> of samples, <code>nanos</code> and
+     * <code>bytes</code></li>
+     * <li><code>slowestMethods</code>: array of the slowest methods,
+     * slowest first, each with its <code>name</code>, total
+     * <code>nanos</code> and <code>bytes</code>, and <code>phases</code>
+     * (as above, but without counts)</li>
+     * </ul>
+     *
+     * @param out non-null; where to write the report
+     * @throws IOException from <code>out</code>
+     */
+    public void writeJson(Writer out) throws IOException {
+        boolean tracked = isAllocationTracked();
+        ArrayList<MethodRecord> methods;
+
+        synchronized (this) {
+            methods = new ArrayList<MethodRecord>(slowestMethods);
+        }
+
+        Collections.sort(methods, Collections.reverseOrder(BY_NANOS));
+
+        out.write("{\n");
+        out.write("  \"nanos\": " + (System.nanoTime() - startNanos) + ",\n");
+        out.write("  \"allocationTracked\": " + tracked + ",\n");
+        out.write("  \"methods\": " + methodCount.get() + ",\n");
+        out.write("  \"phases\": {");
+
+        Phase[] phases = Phase.values();
+        for (int i = 0; i < phases.length; i++) {
+            out.write((i == 0) ? "\n" : ",\n");
+            out.write("    " + quote(phases[i].getReportName()) +
+                    ": {\"count\": " + phaseCounts.get(i) +
+                    ", \"nanos\": " + phaseNanos.get(i) +
+                    ", \"bytes\": " + (tracked ? phaseBytes.get(i) : -1) +
+                    "}");
+        }
+
+        out.write("\n  },\n");
+        out.write("  \"slowestMethods\": [");
+
+        for (int i = 0; i < methods.size(); i++) {
+            MethodRecord m = methods.get(i);
+
+            out.write((i == 0) ? "\n" : ",\n");
+            out.write("    {\"name\": " + quote(m.name) +
+                    ", \"nanos\": " + m.nanos +
+                    ", \"bytes\": " + (tracked ? m.bytes : -1) +
+                    ", \"phases\": {");
+
+            boolean first = true;
+            for (int j = 0; j < phases.length; j++) {
+                if (m.phaseNanos[j] == 0) {
+                    continue;
+                }
+
+                out.write(first ? "" : ", ");
+                out.write(quote(phases[j].getReportName()) +
+                        ": {\"nanos\": " + m.phaseNanos[j] +
+                        ", \"bytes\": " + (tracked ? m.phaseBytes[j] : -1) +
+                        "}");
+                first = false;
+            }
+
+            out.write("}}");
+        }
+
+        out.write("\n  ]\n");
+        out.write("}\n");
+        out.flush();
+    }
+
+    /**
+     * Quotes a string for use in JSON.
+     *
+     * @param s non-null; the string
+     * @return non-null; the quoted form
+     */
+    private static String quote(String s) {
+        StringBuilder sb = new StringBuilder(s.length() + 2);
+        int len = s.length();
+
+        sb.append('"');
+
+        for (int i = 0; i < len; i++) {
+            char c = s.charAt(i);
+
+            if ((c == '"') || (c == '\\')) {
+                sb.append('\\');
+                sb.append(c);
+            } else if ((c < 0x20) || (c >= 0x7f)) {
+                sb.append("\\u");
+                sb.append(Hex.u2(c));
+            } else {
+                sb.append(c);
+            }
+        }
+
+        sb.append('"');
+        return sb.toString();
+    }
+
+    /**
+     * Tells whether the VM can tell how much memory a thread has
+     * allocated.
+     *
+     * @return whether {@link #getAllocatedBytes} is meaningful
+     */
+    public static boolean isAllocationTracked() {
+        return THREAD_ALLOCATED_BYTES != null;
+    }
+
+    /**
+     * Gets the number of bytes the calling thread has allocated so
+     * far, if the VM can tell.
+     *
+     * @return the number of bytes, or <code>0</code> if unknown
+     */
+    public static long getAllocatedBytes() {
+        if (THREAD_ALLOCATED_BYTES == null) {
+            return 0;
+        }
+
+        try {
+            Long result = (Long) THREAD_ALLOCATED_BYTES.invoke(THREAD_BEAN,
+                    Thread.currentThread().getId());
+            return result.longValue();
+        } catch (Exception ex) {
+            return 0;
+        }
+    }
+
+    /**
+     * Finds the method that tells how many bytes a thread has
+     * allocated. It's not part of the standard management API, so it
+     * may well not be there.
+     *
+     * @return null-ok; the method, or <code>null</code> if not found
+     */
+    private static Method findThreadAllocatedBytes() {
+        try {
+            Class<?> beanClass =
+                Class.forName("com.sun.management.ThreadMXBean");
+            Object bean = ManagementFactory.getThreadMXBean();
+
+            if (!beanClass.isInstance(bean)) {
+                return null;
+            }
+
+            Method result =
+                beanClass.getMethod("getThreadAllocatedBytes", long.class);
+            result.invoke(bean, Thread.currentThread().getId());
+            return result;
+        } catch (Exception ex) {
+            return null;
+        } catch (LinkageError ex) {
+            return null;
+        }
+    }
+
+    /**
+     * The start of a sample.
+     */
+    public static final class Mark {
+        /** time at which the sample started */
+        private final long nanos;
+
+        /** bytes allocated by the thread when the sample started */
+        private final long bytes;
+
+        private Mark() {
+            this.nanos = System.nanoTime();
+            this.bytes = getAllocatedBytes();
+        }
+    }
+
+    /**
+     * What was recorded for one method.
+     */
+    private static final class MethodRecord {
+        /** non-null; human name of the method */
+        final String name;
+
+        /** non-null; when work on the method started */
+        final Mark start;
+
+        /** non-null; time spent per phase, indexed by ordinal */
+        final long[] phaseNanos;
+
+        /** non-null; bytes allocated per phase, indexed by ordinal */
+        final long[] phaseBytes;
+
+        /** total time spent on the method; set when it's done */
+        long nanos;
+
+        /** total bytes allocated for the method; set when it's done */
+        long bytes;
+
+        MethodRecord(String name) {
+            int phaseCount = Phase.values().length;
+
+            this.name = name;
+            this.start = new Mark();
+            this.phaseNanos = new long[phaseCount];
+            this.phaseBytes = new long[phaseCount];
+        }
+    }
+}
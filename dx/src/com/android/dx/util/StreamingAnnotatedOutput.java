@@ -0,0 +1,303 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Implementation of {@link AnnotatedOutput} which passes the written
+ * data on to an {@link OutputStream}, holding on to no more than a
+ * fixed-size buffer of it. Instances never keep annotations. The
+ * cursor may start at a nonzero value, for output that continues
+ * something written elsewhere.
+ *
+ * <p>Since the {@link Output} methods can't throw checked exceptions,
+ * an <code>IOException</code> from the stream is thrown wrapped in an
+ * {@link ExceptionWithContext}.</p>
+ *
+ * <p><b>Note:</b> As per the {@link Output} interface, multi-byte
+ * writes all use little-endian order.</p>
+ */
+public final class StreamingAnnotatedOutput
+        implements AnnotatedOutput {
+    /** default size of the buffer */
+    private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    /** non-null; where the data goes */
+    private final OutputStream out;
+
+    /** non-null; data not yet passed on to {@link #out} */
+    private final byte[] buffer;
+
+    /** &gt;= 0; number of valid bytes in {@link #buffer} */
+    private int buffered;
+
+    /** &gt;= 0; current output cursor */
+    private int cursor;
+
+    /**
+     * Constructs an instance.
+     *
+     * @param out non-null; where to write the data
+     * @param cursor &gt;= 0; the initial cursor
+     */
+    public StreamingAnnotatedOutput(OutputStream out, int cursor) {
+        if (out == null) {
+            throw new NullPointerException("out == null");
+        }
+
+        if (cursor < 0) {
+            throw new IllegalArgumentException("cursor < 0");
+        }
+
+        this.out = out;
+        this.buffer = new byte[DEFAULT_BUFFER_SIZE];
+        this.buffered = 0;
+        this.cursor = cursor;
+    }
+
+    /**
+     * Passes all buffered data on to the underlying stream, and flushes
+     * it.
+     */
+    public void flush() throws IOException {
+        out.write(buffer, 0, buffered);
+        out.flush();
+        buffered = 0;
+    }
+
+    /** {@inheritDoc} */
+    public int getCursor() {
+        return cursor;
+    }
+
+    /** {@inheritDoc} */
+    public void assertCursor(int expectedCursor) {
+        if (cursor != expectedCursor) {
+            throw new ExceptionWithContext("expected cursor " +
+                    expectedCursor + "; actual value: " + cursor);
+        }
+    }
+
+    /** {@inheritDoc} */
+    public void writeByte(int value) {
+        ensureRoom(1);
+        buffer[buffered] = (byte) value;
+        buffered++;
+        cursor++;
+    }
+
+    /** {@inheritDoc} */
+    public void writeShort(int value) {
+        ensureRoom(2);
+        buffer[buffered] = (byte) value;
+        buffer[buffered + 1] = (byte) (value >> 8);
+        buffered += 2;
+        cursor += 2;
+    }
+
+    /** {@inheritDoc} */
+    public void writeInt(int value) {
+        ensureRoom(4);
+        buffer[buffered] = (byte) value;
+        buffer[buffered + 1] = (byte) (value >> 8);
+        buffer[buffered + 2] = (byte) (value >> 16);
+        buffer[buffered + 3] = (byte) (value >> 24);
+        buffered += 4;
+        cursor += 4;
+    }
+
+    /** {@inheritDoc} */
+    public void writeLong(long value) {
+        writeInt((int) value);
+        writeInt((int) (value >> 32));
+    }
+
+    /** {@inheritDoc} */
+    public int writeUnsignedLeb128(int value) {
+        int remaining = value >> 7;
+        int count = 0;
+
+        while (remaining != 0) {
+            writeByte((value & 0x7f) | 0x80);
+            value = remaining;
+            remaining >>= 7;
+            count++;
+        }
+
+        writeByte(value & 0x7f);
+        return count + 1;
+    }
+
+    /** {@inheritDoc} */
+    public int writeSignedLeb128(int value) {
+        int remaining = value >> 7;
+        int count = 0;
+        boolean hasMore = true;
+        int end = ((value & Integer.MIN_VALUE) == 0) ? 0 : -1;
+
+        while (hasMore) {
+            hasMore = (remaining != end)
+                || ((remaining & 1) != ((value >> 6) & 1));
+
+            writeByte((value & 0x7f) | (hasMore ? 0x80 : 0));
+            value = remaining;
+            remaining >>= 7;
+            count++;
+        }
+
+        return count;
+    }
+
+    /** {@inheritDoc} */
+    public void write(ByteArray bytes) {
+        int blen = bytes.size();
+
+        if (blen > buffer.length) {
+            byte[] copy = new byte[blen];
+            bytes.getBytes(copy, 0);
+            write(copy, 0, blen);
+            return;
+        }
+
+        ensureRoom(blen);
+        bytes.getBytes(buffer, buffered);
+        buffered += blen;
+        cursor += blen;
+    }
+
+    /** {@inheritDoc} */
+    public void write(byte[] bytes, int offset, int length) {
+        int bytesEnd = offset + length;
+
+        // twos-complement math trick: ((x < 0) || (y < 0)) <=> ((x|y) < 0)
+        if (((offset | length | bytesEnd) < 0) || (bytesEnd > bytes.length)) {
+            throw new IndexOutOfBoundsException("bytes.length " +
+                                                bytes.length + "; " +
+                                                offset + "..!" + bytesEnd);
+        }
+
+        if (length > buffer.length) {
+            // Too big to be worth buffering; pass it straight on.
+            drain();
+            try {
+                out.write(bytes, offset, length);
+            } catch (IOException ex) {
+                throw new ExceptionWithContext(ex);
+            }
+        } else {
+            ensureRoom(length);
+            System.arraycopy(bytes, offset, buffer, buffered, length);
+            buffered += length;
+        }
+
+        cursor += length;
+    }
+
+    /** {@inheritDoc} */
+    public void write(byte[] bytes) {
+        write(bytes, 0, bytes.length);
+    }
+
+    /** {@inheritDoc} */
+    public void writeZeroes(int count) {
+        if (count < 0) {
+            throw new IllegalArgumentException("count < 0");
+        }
+
+        while (count > 0) {
+            int amt = Math.min(count, buffer.length);
+
+            ensureRoom(amt);
+
+            for (int i = 0; i < amt; i++) {
+                buffer[buffered + i] = 0;
+            }
+
+            buffered += amt;
+            cursor += amt;
+            count -= amt;
+        }
+    }
+
+    /** {@inheritDoc} */
+    public void alignTo(int alignment) {
+        int mask = alignment - 1;
+
+        if ((alignment < 0) || ((mask & alignment) != 0)) {
+            throw new IllegalArgumentException("bogus alignment");
+        }
+
+        writeZeroes(((cursor + mask) & ~mask) - cursor);
+    }
+
+    /** {@inheritDoc} */
+    public boolean annotates() {
+        return false;
+    }
+
+    /** {@inheritDoc} */
+    public boolean isVerbose() {
+        return false;
+    }
+
+    /** {@inheritDoc} */
+    public void annotate(String msg) {
+        // This space intentionally left blank.
+    }
+
+    /** {@inheritDoc} */
+    public void annotate(int amt, String msg) {
+        // This space intentionally left blank.
+    }
+
+    /** {@inheritDoc} */
+    public void endAnnotation() {
+        // This space intentionally left blank.
+    }
+
+    /** {@inheritDoc} */
+    public int getAnnotationWidth() {
+        return 0;
+    }
+
+    /**
+     * Makes sure there is room in the buffer for the given number of
+     * bytes, passing what's there on to the stream if need be.
+     *
+     * @param amt &gt;= 0, &lt;= buffer.length; the number of bytes
+     */
+    private void ensureRoom(int amt) {
+        if (buffered + amt > buffer.length) {
+            drain();
+        }
+    }
+
+    /**
+     * Passes all buffered data on to the underlying stream.
+     */
+    private void drain() {
+        try {
+            out.write(buffer, 0, buffered);
+        } catch (IOException ex) {
+            throw new ExceptionWithContext(ex);
+        }
+
+        buffered = 0;
+    }
+}
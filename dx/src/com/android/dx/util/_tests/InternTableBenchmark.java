@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.util._tests;
+
+import com.android.dx.rop.code.RegisterSpec;
+import com.android.dx.rop.cst.CstType;
+import com.android.dx.rop.type.Prototype;
+import com.android.dx.rop.type.Type;
+
+/**
+ * Microbenchmark of the rop intern tables, measuring the throughput
+ * of interning types, type constants, prototypes and register specs
+ * as the number of threads doing it grows. Run it as
+ * <code>java -cp dx.jar com.android.dx.util._tests.InternTableBenchmark
+ * [&lt;max threads&gt;]</code>.
+ */
+public class InternTableBenchmark {
+    /** number of distinct class names to intern */
+    private static final int NAME_COUNT = 2000;
+
+    /** number of passes over the names that each thread makes */
+    private static final int PASSES = 50;
+
+    /**
+     * This class is uninstantiable.
+     */
+    private InternTableBenchmark() {
+        // This space intentionally left blank.
+    }
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args command-line arguments
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int maxThreads = (args.length > 0) ? Integer.parseInt(args[0]) : 8;
+        String[] descriptors = new String[NAME_COUNT];
+
+        for (int i = 0; i < NAME_COUNT; i++) {
+            descriptors[i] = "Lcom/example/pkg" + (i % 37) + "/Class" + i + ";";
+        }
+
+        // Warm up the code paths before measuring anything.
+        run(descriptors, 1);
+
+        System.out.println("threads  ops/ms  ops/ms/thread");
+
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            long ops = (long) threads * PASSES * NAME_COUNT * 4;
+            long nanos = run(descriptors, threads);
+            double opsPerMs = ops / (nanos / 1000000.0);
+            System.out.printf("%7d  %6.0f  %13.0f\n", threads, opsPerMs,
+                    opsPerMs / threads);
+        }
+    }
+
+    /**
+     * Runs one timed round of the benchmark.
+     *
+     * @param descriptors non-null; the descriptors to intern
+     * @param threadCount &gt; 0; how many threads to use
+     * @return the elapsed time, in nanoseconds
+     */
+    private static long run(final String[] descriptors, int threadCount)
+            throws InterruptedException {
+        Thread[] threads = new Thread[threadCount];
+
+        for (int i = 0; i < threadCount; i++) {
+            final int offset = i * (NAME_COUNT / threadCount);
+            threads[i] = new Thread() {
+                public void run() {
+                    for (int pass = 0; pass < PASSES; pass++) {
+                        for (int j = 0; j < NAME_COUNT; j++) {
+                            int at = (j + offset) % NAME_COUNT;
+                            String desc = descriptors[at];
+                            Type type = Type.intern(desc);
+                            CstType.intern(type);
+                            Prototype.intern("(" + desc + ")V");
+                            RegisterSpec.make(at & 0xff, type);
+                        }
+                    }
+                }
+            };
+        }
+
+        long start = System.nanoTime();
+
+        for (Thread t : threads) {
+            t.start();
+        }
+
+        for (Thread t : threads) {
+            t.join();
+        }
+
+        return System.nanoTime() - start;
+    }
+}
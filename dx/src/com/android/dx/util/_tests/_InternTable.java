@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.util._tests;
+
+import com.android.dx.util.InternTable;
+
+import junit.framework.TestCase;
+
+public class _InternTable extends TestCase {
+    public void test_basic() {
+        InternTable<String, String> table = new InternTable<String, String>(10);
+        String first = new String("foo");
+        String second = new String("foo");
+
+        assertNull(table.get("foo"));
+        assertSame(first, table.intern("foo", first));
+        assertSame(first, table.intern("foo", second));
+        assertSame(first, table.get("foo"));
+        assertEquals(1, table.size());
+    }
+
+    public void test_concurrent() throws InterruptedException {
+        final InternTable<Integer, Object> table =
+            new InternTable<Integer, Object>(10);
+        final Object[][] results = new Object[4][100];
+        Thread[] threads = new Thread[results.length];
+
+        for (int i = 0; i < threads.length; i++) {
+            final Object[] mine = results[i];
+            threads[i] = new Thread() {
+                public void run() {
+                    for (int j = 0; j < mine.length; j++) {
+                        mine[j] = table.intern(j, new Object());
+                    }
+                }
+            };
+            threads[i].start();
+        }
+
+        for (Thread t : threads) {
+            t.join();
+        }
+
+        for (int i = 1; i < results.length; i++) {
+            for (int j = 0; j < results[i].length; j++) {
+                assertSame(results[0][j], results[i][j]);
+            }
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.util._tests;
+
+import com.android.dx.util.Profile;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+/**
+ * Test the class <code>com.android.dx.util.Profile</code>.
+ */
+public class _Profile
+    extends TestCase {
+
+    public void test_disabled() throws IOException {
+        Profile profile = Profile.NONE;
+
+        assertFalse(profile.isEnabled());
+        assertNull(profile.start());
+
+        profile.startMethod("a");
+        profile.stop(Profile.Phase.ROP, profile.start());
+        profile.stopMethod();
+
+        String json = report(profile);
+        assertTrue(json, json.contains("\"methods\": 0,"));
+        assertTrue(json, json.contains("\"rop\": {\"count\": 0,"));
+    }
+
+    public void test_phases() throws IOException {
+        Profile profile = new Profile(5);
+        Profile.Mark mark;
+
+        mark = profile.start();
+        profile.stop(Profile.Phase.SCCP, mark);
+        mark = profile.start();
+        profile.stop(Profile.Phase.SCCP, mark);
+
+        String json = report(profile);
+        assertTrue(json, json.contains("\"sccp\": {\"count\": 2,"));
+        assertTrue(json, json.contains("\"parse\": {\"count\": 0,"));
+    }
+
+    public void test_slowestMethods() throws Exception {
+        Profile profile = new Profile(2);
+
+        runMethod(profile, "fast", 1);
+        runMethod(profile, "slowest", 40);
+        runMethod(profile, "slow \"quoted\"", 20);
+
+        String json = report(profile);
+        int slowest = json.indexOf("\"name\": \"slowest\"");
+        int slow = json.indexOf("\"name\": \"slow \\\"quoted\\\"\"");
+
+        assertTrue(json, json.contains("\"methods\": 3,"));
+        assertTrue(json, slowest >= 0);
+        assertTrue(json, slow > slowest);
+        assertFalse(json, json.contains("\"fast\""));
+        assertTrue(json, json.contains("\"phases\": {\"liveness\": "));
+    }
+
+    /**
+     * Records a method that spends a while in one phase.
+     */
+    private static void runMethod(Profile profile, String name, int millis)
+            throws InterruptedException {
+        profile.startMethod(name);
+
+        Profile.Mark mark = profile.start();
+        Thread.sleep(millis);
+        profile.stop(Profile.Phase.LIVENESS, mark);
+
+        profile.stopMethod();
+    }
+
+    /**
+     * Gets the JSON report of a profile.
+     */
+    private static String report(Profile profile) throws IOException {
+        StringWriter out = new StringWriter();
+
+        profile.writeJson(out);
+        return out.toString();
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.util._tests;
+
+import com.android.dx.util.AnnotatedOutput;
+import com.android.dx.util.ByteArray;
+import com.android.dx.util.ByteArrayAnnotatedOutput;
+import com.android.dx.util.StreamingAnnotatedOutput;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Test the class <code>com.android.dx.util.StreamingAnnotatedOutput</code>.
+ */
+public class _StreamingAnnotatedOutput
+    extends TestCase {
+
+    public void test_sameAsByteArray() throws IOException {
+        Random random = new Random(0);
+
+        for (int trial = 0; trial < 20; trial++) {
+            long seed = random.nextLong();
+            ByteArrayAnnotatedOutput expected = new ByteArrayAnnotatedOutput();
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            StreamingAnnotatedOutput actual =
+                new StreamingAnnotatedOutput(bytes, 0);
+
+            writeRandom(expected, new Random(seed));
+            writeRandom(actual, new Random(seed));
+            actual.flush();
+
+            assertEquals(expected.getCursor(), actual.getCursor());
+            assertTrue("trial " + trial,
+                    Arrays.equals(expected.toByteArray(), bytes.toByteArray()));
+        }
+    }
+
+    public void test_initialCursor() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        StreamingAnnotatedOutput out = new StreamingAnnotatedOutput(bytes, 6);
+
+        out.writeByte(1);
+        out.alignTo(4);
+        out.writeShort(2);
+        out.flush();
+
+        assertEquals(10, out.getCursor());
+        assertTrue(Arrays.equals(new byte[] { 1, 0, 2, 0 },
+                        bytes.toByteArray()));
+    }
+
+    /**
+     * Writes a random mix of everything an output can take, including
+     * pieces bigger than the streaming buffer.
+     */
+    private static void writeRandom(AnnotatedOutput out, Random random) {
+        for (int i = 0; i < 2000; i++) {
+            switch (random.nextInt(9)) {
+                case 0: out.writeByte(random.nextInt()); break;
+                case 1: out.writeShort(random.nextInt()); break;
+                case 2: out.writeInt(random.nextInt()); break;
+                case 3: out.writeLong(random.nextLong()); break;
+                case 4: {
+                    out.writeUnsignedLeb128(random.nextInt(Integer.MAX_VALUE));
+                    break;
+                }
+                case 5: out.writeSignedLeb128(random.nextInt()); break;
+                case 6: out.alignTo(1 << random.nextInt(4)); break;
+                case 7: {
+                    out.writeZeroes(random.nextInt(100));
+                    break;
+                }
+                default: {
+                    byte[] data = new byte[random.nextInt(3) == 0
+                            ? random.nextInt(200000) : random.nextInt(100)];
+                    random.nextBytes(data);
+                    if (random.nextBoolean()) {
+                        out.write(data);
+                    } else {
+                        out.write(new ByteArray(data));
+                    }
+                    break;
+                }
+            }
+        }
+    }
+}
@@ -24,12 +24,17 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
 import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 
 /**
@@ -47,9 +52,22 @@ import java.util.NoSuchElementException;
  * file, rather than reading one concentrated blob.
  *
  * Use ZipOutputStream if you want to create an archive.
+ *
+ * If the system property "java.util.zip.ZipFile.map" is "true" when the
+ * archive is opened, the whole file is mapped into memory instead.  The
+ * central directory is then kept as arrays of offsets into the mapping,
+ * ZipEntry objects are only built when they are asked for, and every
+ * stream returned by getInputStream() reads from its own view of the
+ * mapping, so threads reading from the same archive never wait for each
+ * other.  Archives too big to map fall back to the RandomAccessFile.
  */
 public class ZipFile implements ZipConstants {
 
+    /**
+     * Name of the system property that turns on mapped mode.
+     */
+    static final String MAP_PROPERTY = "java.util.zip.ZipFile.map";
+
     String fileName;
 
     File fileToDeleteOnClose;
@@ -115,6 +133,11 @@ public class ZipFile implements ZipConstants {
         fileName = file.getPath();
         mRaf = new RandomAccessFile(fileName, "r");
 
+        if (isMapRequested() && mapFile()) {
+            readMappedCentralDir();
+            return;
+        }
+
         mEntryList = new ArrayList<ZipEntry>();
 
         readCentralDir();
@@ -152,6 +175,39 @@ public class ZipFile implements ZipConstants {
         this(new File(name), OPEN_READ);
     }
 
+    /*
+     * Check whether mapped mode was asked for.
+     */
+    private static boolean isMapRequested() {
+        String value = AccessController.doPrivileged(
+                new PrivilegedAction<String>() {
+                    public String run() {
+                        return System.getProperty(MAP_PROPERTY);
+                    }
+                });
+        return "true".equals(value);
+    }
+
+    /*
+     * Map the whole file, read-only.  Returns false, leaving us to use
+     * the RandomAccessFile, if the file can't be mapped: int offsets only
+     * reach 2GB, and not every file system supports mapping.
+     */
+    private boolean mapFile() {
+        try {
+            long length = mRaf.length();
+            if (length > Integer.MAX_VALUE)
+                return false;
+            MappedByteBuffer map = mRaf.getChannel().map(
+                    FileChannel.MapMode.READ_ONLY, 0, length);
+            map.order(ByteOrder.LITTLE_ENDIAN);
+            mMap = map;
+            return true;
+        } catch (IOException ioe) {
+            return false;
+        }
+    }
+
 /*
     private void openZip() throws IOException {
         int result = openZipImpl(Util.getBytes(fileName));
@@ -234,6 +290,24 @@ public class ZipFile implements ZipConstants {
      * Zip archive.
      */
     public Enumeration<? extends ZipEntry> entries() {
+        if (mMap != null) {
+            return new Enumeration<ZipEntry>() {
+                private int i = 0;
+
+                public boolean hasMoreElements() {
+                    if (mRaf == null) throw new IllegalStateException("Zip File closed.");
+                    return i < mEntryOffsets.length;
+                }
+
+                public ZipEntry nextElement() {
+                    if (mRaf == null) throw new IllegalStateException("Zip File closed.");
+                    if (i >= mEntryOffsets.length)
+                        throw new NoSuchElementException();
+                    return entryAt(i++);
+                }
+            };
+        }
+
         return new Enumeration<ZipEntry>() {
             private int i = 0;
 
@@ -262,6 +336,11 @@ public class ZipFile implements ZipConstants {
      */
     public ZipEntry getEntry(String entryName) {
         if (entryName != null) {
+            if (mMap != null) {
+                int index = findEntry(entryName);
+                if (index < 0) index = findEntry(entryName + "/");
+                return (index < 0) ? null : entryAt(index);
+            }
             ZipEntry ze = mFastLookup.get(entryName);
             if (ze == null) ze = mFastLookup.get(entryName + "/");
             return ze;
@@ -286,6 +365,12 @@ public class ZipFile implements ZipConstants {
         if (entry == null)
             return null;
 
+        if (mMap != null) {
+            if (mRaf == null)
+                throw new IllegalStateException("Zip File closed");
+            return getMappedInputStream(entry);
+        }
+
         /*
          * Create a ZipInputStream at the right part of the file.
          */
@@ -330,6 +415,8 @@ public class ZipFile implements ZipConstants {
      * @return Number of entries in this file
      */
     public int size() {
+        if (mMap != null)
+            return mEntryOffsets.length;
         return mEntryList.size();
     }
 
@@ -419,6 +506,192 @@ public class ZipFile implements ZipConstants {
         }
     }
 
+    /*
+     * Find and index the central directory of the mapped file.
+     *
+     * Same as readCentralDir(), but all we keep of each entry is the
+     * offset of its CDE and the hash of its name, plus an open-addressing
+     * hash table over them.  The CDEs are checked here, so that building
+     * a ZipEntry from one later can't fail.
+     */
+    private void readMappedCentralDir() throws IOException {
+        MappedByteBuffer map = mMap;
+        int limit = map.limit();
+
+        int scanOffset = limit - ENDHDR;
+        if (scanOffset < 0)
+            throw new ZipException("too short to be Zip");
+
+        int stopOffset = scanOffset - 65536;
+        if (stopOffset < 0)
+            stopOffset = 0;
+
+        while (map.getInt(scanOffset) != (int) ENDSIG) {
+            scanOffset--;
+            if (scanOffset < stopOffset)
+                throw new ZipException("EOCD not found; not a Zip archive?");
+        }
+
+        int diskNumber = map.getShort(scanOffset + 4) & 0xffff;
+        int diskWithCentralDir = map.getShort(scanOffset + 6) & 0xffff;
+        int numEntries = map.getShort(scanOffset + 8) & 0xffff;
+        int totalNumEntries = map.getShort(scanOffset + 10) & 0xffff;
+        long centralDirOffset = map.getInt(scanOffset + 16) & 0xffffffffL;
+
+        if (numEntries != totalNumEntries ||
+            diskNumber != 0 ||
+            diskWithCentralDir != 0)
+            throw new ZipException("spanned archives not supported");
+
+        int[] offsets = new int[numEntries];
+        int[] hashes = new int[numEntries];
+        int tableSize = 2;
+        while (tableSize < numEntries * 2)
+            tableSize <<= 1;
+        int[] table = new int[tableSize];
+
+        long offset = centralDirOffset;
+        for (int i = 0; i < numEntries; i++) {
+            if (offset + CENHDR > limit
+                    || map.getInt((int) offset) != (int) CENSIG)
+                throw new ZipException("Central Directory Entry not found");
+
+            int cde = (int) offset;
+            int nameLen = map.getShort(cde + 28) & 0xffff;
+            int extraLen = map.getShort(cde + 30) & 0xffff;
+            int commentLen = map.getShort(cde + 32) & 0xffff;
+            offset += CENHDR + nameLen + extraLen + commentLen;
+            if (offset > limit)
+                throw new ZipException("Central Directory Entry too long");
+
+            /*
+             * Names are ISO-8859-1 (see ZipEntry), so this is the same
+             * as the String's hashCode().
+             */
+            int hash = 0;
+            for (int j = cde + CENHDR; j < cde + CENHDR + nameLen; j++)
+                hash = 31 * hash + (map.get(j) & 0xff);
+
+            offsets[i] = cde;
+            hashes[i] = hash;
+
+            /*
+             * A later entry with the same name replaces the earlier one,
+             * just as it does in mFastLookup.
+             */
+            int slot = hash & (tableSize - 1);
+            while (table[slot] != 0) {
+                int other = table[slot] - 1;
+                if (hashes[other] == hash
+                        && sameName(map, offsets[other], cde))
+                    break;
+                slot = (slot + 1) & (tableSize - 1);
+            }
+            table[slot] = i + 1;
+        }
+
+        mEntryOffsets = offsets;
+        mEntryHashes = hashes;
+        mHashTable = table;
+        mEntries = new AtomicReferenceArray<ZipEntry>(numEntries);
+    }
+
+    /*
+     * Compare the names of two mapped CDEs.
+     */
+    private static boolean sameName(ByteBuffer map, int cde1, int cde2) {
+        int nameLen = map.getShort(cde1 + 28) & 0xffff;
+        if (nameLen != (map.getShort(cde2 + 28) & 0xffff))
+            return false;
+        for (int j = CENHDR; j < CENHDR + nameLen; j++) {
+            if (map.get(cde1 + j) != map.get(cde2 + j))
+                return false;
+        }
+        return true;
+    }
+
+    /*
+     * Return the index of the mapped entry with the given name, or -1.
+     */
+    private int findEntry(String name) {
+        MappedByteBuffer map = mMap;
+        int hash = name.hashCode();
+        int length = name.length();
+        int mask = mHashTable.length - 1;
+
+        for (int slot = hash & mask; mHashTable[slot] != 0;
+                slot = (slot + 1) & mask) {
+            int index = mHashTable[slot] - 1;
+            if (mEntryHashes[index] != hash)
+                continue;
+            int cde = mEntryOffsets[index];
+            if ((map.getShort(cde + 28) & 0xffff) != length)
+                continue;
+            int j = 0;
+            while (j < length
+                    && name.charAt(j) == (map.get(cde + CENHDR + j) & 0xff))
+                j++;
+            if (j == length)
+                return index;
+        }
+        return -1;
+    }
+
+    /*
+     * Return the ZipEntry for a mapped CDE, building it on first use.
+     * If two threads race to build the same one, both get the winner's.
+     */
+    private ZipEntry entryAt(int index) {
+        ZipEntry entry = mEntries.get(index);
+        if (entry == null) {
+            MappedStream in = new MappedStream(mMap, mEntryOffsets[index],
+                    mMap.limit());
+            try {
+                // Not our shared "ler": its buffer isn't thread-safe.
+                entry = new ZipEntry(new ZipEntry.LittleEndianReader(), in);
+            } catch (IOException ioe) {
+                // The CDE was checked by readMappedCentralDir().
+                throw new InternalError(ioe.getMessage());
+            }
+            if (!mEntries.compareAndSet(index, null, entry))
+                entry = mEntries.get(index);
+        }
+        return entry;
+    }
+
+    /*
+     * Open a stream on the data of a mapped entry.  Nothing here touches
+     * shared state other than to read the mapping, so no lock is needed.
+     */
+    private InputStream getMappedInputStream(ZipEntry entry) throws IOException {
+        MappedByteBuffer map = mMap;
+        int limit = map.limit();
+
+        // As in getInputStream(), the local header's lengths are the ones
+        // that count.
+        long local = entry.mLocalHeaderRelOffset;
+        if (local < 0 || local + LOCHDR > limit
+                || map.getInt((int) local) != (int) LOCSIG)
+            throw new ZipException("Local File Header not found");
+        long start = local + LOCHDR
+                + (map.getShort((int) local + 26) & 0xffff)
+                + (map.getShort((int) local + 28) & 0xffff);
+        long end = start + entry.compressedSize;
+        if (entry.compressedSize < 0 || end > limit)
+            throw new ZipException("Entry data extends past end of file");
+
+        MappedStream in = new MappedStream(map, (int) start, (int) end);
+        if (entry.compressionMethod == ZipEntry.DEFLATED) {
+            // Copying out of the mapping is cheap; fewer, larger inputs
+            // mean fewer trips into the native inflater.
+            int bufSize = (int) Math.min(Math.max(entry.compressedSize, 1),
+                    8192);
+            return new InflaterInputStream(in, new Inflater(true), bufSize);
+        } else {
+            return in;
+        }
+    }
+
     /*
      * Local data items.
      */
@@ -436,6 +709,18 @@ public class ZipFile implements ZipConstants {
     private ArrayList<ZipEntry> mEntryList;
     private HashMap<String, ZipEntry> mFastLookup;
 
+    /*
+     * Mapped mode.  mMap is null unless the file was mapped, in which
+     * case the central directory lives in the arrays below instead of
+     * mEntryList and mFastLookup.  mHashTable holds (index + 1) of the
+     * entry for each slot, 0 for an empty one.
+     */
+    private MappedByteBuffer mMap;
+    private int[] mEntryOffsets;
+    private int[] mEntryHashes;
+    private int[] mHashTable;
+    private AtomicReferenceArray<ZipEntry> mEntries;
+
 
     /*
      * Wrap a stream around a RandomAccessFile.  The RandomAccessFile
@@ -489,4 +774,62 @@ public class ZipFile implements ZipConstants {
         long mLength;
         private byte[] singleByteBuf = new byte[1];
     }
+
+
+    /*
+     * A stream over part of the mapped file.  Each one reads through its
+     * own duplicate of the buffer, so they don't share a position and can
+     * be read concurrently without any locking.
+     */
+    static class MappedStream extends InputStream {
+        MappedStream(ByteBuffer map, int start, int end) {
+            mBuf = map.duplicate();
+            mOffset = start;
+            mLength = end;
+        }
+
+        @Override
+        public int available() throws IOException {
+            if (mBuf == null) throw new IOException("Stream closed");
+            return mLength - mOffset;
+        }
+
+        public int read() throws IOException {
+            if (mBuf == null) throw new IOException("Stream closed");
+            if (mOffset >= mLength) return -1;
+            return mBuf.get(mOffset++) & 0xff;
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (mBuf == null) throw new IOException("Stream closed");
+            if (off < 0 || len < 0 || off + len > b.length)
+                throw new IndexOutOfBoundsException();
+            if (len == 0) return 0;
+            if (mOffset >= mLength) return -1;
+            if (len > mLength - mOffset) len = mLength - mOffset;
+            mBuf.position(mOffset);
+            mBuf.get(b, off, len);
+            mOffset += len;
+            return len;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            if (mBuf == null) throw new IOException("Stream closed");
+            if (n <= 0) return 0;
+            if (n > mLength - mOffset)
+                n = mLength - mOffset;
+            mOffset += (int) n;
+            return n;
+        }
+
+        @Override
+        public void close() {
+            mBuf = null;
+        }
+
+        private ByteBuffer mBuf;
+        private int mOffset;
+        private final int mLength;
+    }
 }
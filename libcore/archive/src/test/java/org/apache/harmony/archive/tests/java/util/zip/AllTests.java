@@ -43,6 +43,7 @@ public class AllTests {
         suite.addTestSuite(GZIPOutputStreamTest.class);
         suite.addTestSuite(InflaterInputStreamTest.class);
         suite.addTestSuite(InflaterTest.class);
+        suite.addTestSuite(MappedZipFileTest.class);
         suite.addTestSuite(ZipEntryTest.class);
         suite.addTestSuite(ZipFileTest.class);
         suite.addTestSuite(ZipInputStreamTest.class);
@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.harmony.archive.tests.java.util.zip;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Runs the <code>ZipFile</code> tests again with the archive mapped,
+ * plus tests of reading one mapped archive from several threads.
+ */
+public class MappedZipFileTest extends ZipFileTest {
+
+    private static final String MAP_PROPERTY = "java.util.zip.ZipFile.map";
+
+    private static final int ENTRY_COUNT = 64;
+
+    private static final int THREAD_COUNT = 8;
+
+    @Override
+    protected void setUp() {
+        System.setProperty(MAP_PROPERTY, "true");
+        super.setUp();
+    }
+
+    @Override
+    protected void tearDown() {
+        super.tearDown();
+        System.clearProperty(MAP_PROPERTY);
+    }
+
+    private static byte[] contents(int index) {
+        Random random = new Random(index);
+        byte[] bytes = new byte[random.nextInt(16 * 1024)];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) ('a' + random.nextInt(4));
+        }
+        return bytes;
+    }
+
+    private static String name(int index) {
+        return "dir" + (index % 4) + "/entry" + index;
+    }
+
+    /**
+     * Writes an archive of {@link #ENTRY_COUNT} entries, every third one
+     * stored and the rest deflated.
+     */
+    private static File writeArchive() throws IOException {
+        File file = File.createTempFile("MappedZipFileTest", ".zip");
+        ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file));
+        for (int i = 0; i < ENTRY_COUNT; i++) {
+            byte[] bytes = contents(i);
+            ZipEntry entry = new ZipEntry(name(i));
+            if (i % 3 == 0) {
+                CRC32 crc = new CRC32();
+                crc.update(bytes);
+                entry.setMethod(ZipEntry.STORED);
+                entry.setSize(bytes.length);
+                entry.setCompressedSize(bytes.length);
+                entry.setCrc(crc.getValue());
+            }
+            out.putNextEntry(entry);
+            out.write(bytes);
+            out.closeEntry();
+        }
+        out.close();
+        return file;
+    }
+
+    private static byte[] read(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1000];
+        int count;
+        while ((count = in.read(buffer)) != -1) {
+            bytes.write(buffer, 0, count);
+        }
+        in.close();
+        return bytes.toByteArray();
+    }
+
+    public void test_storedAndDeflatedEntries() throws Exception {
+        File file = writeArchive();
+        ZipFile zip = new ZipFile(file);
+        try {
+            assertEquals(ENTRY_COUNT, zip.size());
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            for (int i = 0; i < ENTRY_COUNT; i++) {
+                ZipEntry entry = entries.nextElement();
+                assertEquals(name(i), entry.getName());
+                assertSame(entry, zip.getEntry(name(i)));
+                assertTrue(Arrays.equals(contents(i),
+                        read(zip.getInputStream(entry))));
+            }
+            assertFalse(entries.hasMoreElements());
+            assertNull(zip.getEntry("dir0/entry1"));
+            assertNull(zip.getEntry("dir0/entry0\u0100"));
+        } finally {
+            zip.close();
+            file.delete();
+        }
+    }
+
+    public void test_concurrentReads() throws Exception {
+        File file = writeArchive();
+        final ZipFile zip = new ZipFile(file);
+        final Throwable[] failure = new Throwable[1];
+        Thread[] threads = new Thread[THREAD_COUNT];
+        for (int t = 0; t < THREAD_COUNT; t++) {
+            final int first = t;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        // Each thread takes the entries in its own order,
+                        // and keeps two streams open at a time.
+                        for (int i = 0; i < ENTRY_COUNT; i++) {
+                            int a = (first + i) % ENTRY_COUNT;
+                            int b = (first + i * 7) % ENTRY_COUNT;
+                            InputStream inA = zip.getInputStream(
+                                    zip.getEntry(name(a)));
+                            InputStream inB = zip.getInputStream(
+                                    zip.getEntry(name(b)));
+                            assertTrue(Arrays.equals(contents(b), read(inB)));
+                            assertTrue(Arrays.equals(contents(a), read(inA)));
+                        }
+                    } catch (Throwable e) {
+                        synchronized (failure) {
+                            failure[0] = e;
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        try {
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            synchronized (failure) {
+                if (failure[0] != null) {
+                    throw new AssertionError(failure[0]);
+                }
+            }
+        } finally {
+            zip.close();
+            file.delete();
+        }
+    }
+
+    public void test_readAfterStreamClose() throws Exception {
+        File file = writeArchive();
+        ZipFile zip = new ZipFile(file);
+        try {
+            InputStream in = zip.getInputStream(zip.getEntry(name(0)));
+            in.close();
+            try {
+                in.read();
+                fail();
+            } catch (IOException expected) {
+            }
+        } finally {
+            zip.close();
+            file.delete();
+        }
+    }
+}
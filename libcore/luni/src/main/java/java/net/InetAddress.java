@@ -29,6 +29,7 @@ import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.StringTokenizer;
 
+import org.apache.harmony.luni.net.AddressCache;
 import org.apache.harmony.luni.net.NetUtil;
 import org.apache.harmony.luni.platform.INetworkSystem;
 import org.apache.harmony.luni.platform.Platform;
@@ -131,10 +132,6 @@ public class InetAddress extends Object implements Serializable {
         return array;
     }
 
-    CacheElement cacheElement() {
-        return new CacheElement();
-    }
-
     /**
      * Compares this <code>InetAddress</code> against the specified object.
      * 
@@ -412,7 +409,10 @@ public class InetAddress extends Object implements Serializable {
         return ((ipaddress[0] & 255) >>> 4) == 0xE;
     }
 
-    static synchronized InetAddress lookupHostByName(String host)
+    // BEGIN android-changed
+    // Replaced the five-entry cache behind a class-wide lock with a
+    // concurrent one, so that lookups don't wait for one another.
+    static InetAddress lookupHostByName(String host)
             throws UnknownHostException {
         int ttl = -1;
 
@@ -426,21 +426,15 @@ public class InetAddress extends Object implements Serializable {
         } catch (NumberFormatException e) {
             // Ignored
         }
-        CacheElement element = null;
+        AddressCache cache = AddressCache.getDefault();
         if (ttl == 0) {
-            Cache.clear();
+            cache.clear();
         } else {
-            element = Cache.get(host);
-            if (element != null && ttl > 0) {
-                long delta = System.nanoTime() - element.nanoTimeAdded;
-                if (delta > secondsToNanos(ttl)) {
-                    element = null;
-                }
+            InetAddress cached = cache.get(host, ttl);
+            if (cached != null) {
+                return cached;
             }
         }
-        if (element != null) {
-            return element.inetAddress();
-        }
 
         // now try the negative cache
         String failedMessage = NegativeCache.getFailedMessage(host);
@@ -448,25 +442,26 @@ public class InetAddress extends Object implements Serializable {
             throw new UnknownHostException(host + " - " + failedMessage); //$NON-NLS-1$
         }
 
-        InetAddress anInetAddress;
-        try {
-            anInetAddress = getHostByNameImpl(host, preferIPv6Addresses());
-        } catch (UnknownHostException e) {
-            // put the entry in the negative cache
-            NegativeCache.put(host, e.getMessage());
-            throw new UnknownHostException(host + " - " + e.getMessage()); //$NON-NLS-1$
-        }
-
-        Cache.add(anInetAddress);
-        return anInetAddress;
+        return cache.resolve(host, ttl != 0, RESOLVER);
     }
 
     /**
-     * Multiplies value by 1 billion.
+     * Resolves names for the {@link AddressCache}, noting the ones that
+     * can't be resolved in the negative cache.
      */
-    private static int secondsToNanos(int ttl) {
-        return ttl * 1000000000;
-    }
+    private static final AddressCache.Resolver RESOLVER =
+            new AddressCache.Resolver() {
+        public InetAddress resolve(String host) throws UnknownHostException {
+            try {
+                return getHostByNameImpl(host, preferIPv6Addresses());
+            } catch (UnknownHostException e) {
+                // put the entry in the negative cache
+                NegativeCache.put(host, e.getMessage());
+                throw new UnknownHostException(host + " - " + e.getMessage()); //$NON-NLS-1$
+            }
+        }
+    };
+    // END android-changed
 
     /**
      * Query the IP stack for aliases for the host. The host is in string name
@@ -669,91 +664,10 @@ public class InetAddress extends Object implements Serializable {
         return (hostName == null ? "" : hostName) + "/" + getHostAddress(); //$NON-NLS-1$ //$NON-NLS-2$
     }
 
-    class CacheElement {
-        long nanoTimeAdded = System.nanoTime();
-
-        CacheElement next;
-
-        public CacheElement() {
-            super();
-        }
-
-        String hostName() {
-            return hostName;
-        }
-
-        InetAddress inetAddress() {
-            return InetAddress.this;
-        }
-    }
-
-    static class Cache {
-        static int maxSize = 5;
-
-        private static int size = 0;
-
-        private static CacheElement head;
-
-        static void clear() {
-            size = 0;
-            head = null;
-        }
-
-        static void add(InetAddress value) {
-            CacheElement newElement = value.cacheElement();
-            if (size < maxSize) {
-                size++;
-            } else {
-                deleteTail();
-            }
-            newElement.next = head; // If the head is null, this does no harm.
-            head = newElement;
-        }
-
-        static CacheElement get(String name) {
-            CacheElement previous = null;
-            CacheElement current = head;
-            boolean notFound = true;
-            while ((null != current)
-                    && (notFound = !(name.equals(current.hostName())))) {
-                previous = current;
-                current = current.next;
-            }
-            if (notFound) {
-                return null;
-            }
-            moveToHead(current, previous);
-            return current;
-        }
-
-        private static void deleteTail() {
-            if (0 == size) {
-                return;
-            }
-            if (1 == size) {
-                head = null;
-            }
-
-            CacheElement previous = null;
-            CacheElement current = head;
-            while (null != current.next) {
-                previous = current;
-                current = current.next;
-            }
-            previous.next = null;
-        }
-
-        private static void moveToHead(CacheElement element,
-                CacheElement elementPredecessor) {
-            if (null == elementPredecessor) {
-                head = element;
-            } else {
-                elementPredecessor.next = element.next;
-                element.next = head;
-                head = element;
-            }
-        }
-    }
+    // BEGIN android-removed
+    // The CacheElement and Cache classes are replaced by
+    // org.apache.harmony.luni.net.AddressCache.
+    // END android-removed
 
     /**
      * Answer true if the string is a host name, false if it is an IP Address.
@@ -69,7 +69,10 @@ class NegativeCache<K, V> extends LinkedHashMap<K, V> {
      * @param failedMessage
      *            the message returned when we failed the lookup
      */
-    static void put(String hostName, String failedMessage) {
+    // BEGIN android-changed
+    // Synchronized, since InetAddress no longer looks names up under a lock.
+    static synchronized void put(String hostName, String failedMessage) {
+    // END android-changed
         checkCacheExists();
         negCache.put(hostName, new NegCacheElement(failedMessage));
     }
@@ -83,7 +86,9 @@ class NegativeCache<K, V> extends LinkedHashMap<K, V> {
      * @return the message which was returned when the host failed to be looked
      *         up if there is still a valid entry within the cache
      */
-    static String getFailedMessage(String hostName) {
+    // BEGIN android-changed
+    static synchronized String getFailedMessage(String hostName) {
+    // END android-changed
         checkCacheExists();
         NegCacheElement element = negCache.get(hostName);
         if (element != null) {
@@ -119,9 +124,11 @@ class NegativeCache<K, V> extends LinkedHashMap<K, V> {
     /**
      * Multiplies value by 1 billion.
      */
-    private static int secondsToNanos(int ttl) {
-        return ttl * 1000000000;
+    // BEGIN android-changed
+    private static long secondsToNanos(int ttl) {
+        return ttl * 1000000000L;
     }
+    // END android-changed
 
     /**
      * This method checks if we have created the cache and if not creates it
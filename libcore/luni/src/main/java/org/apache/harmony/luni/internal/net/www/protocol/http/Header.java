@@ -60,17 +60,25 @@ public class Header implements Cloneable {
      */
     public Header(Map<String, List<String>> map) {
         this(); // initialize fields
+        // BEGIN android-changed
+        // Add each value as its own key/value pair, so that positional
+        // lookups line up, and take the status line from the null key, as
+        // maps from URLConnection.getHeaderFields() (and response caches)
+        // have it.
         for (Entry<String, List<String>> next : map.entrySet()) {
             String key = next.getKey();
-            props.add(key);
             List<String> value = next.getValue();
-            LinkedList<String> linkedList = new LinkedList<String>();
+            if (key == null) {
+                if (!value.isEmpty()) {
+                    setStatusLine(value.get(value.size() - 1));
+                }
+                continue;
+            }
             for (String element : value) {
-                linkedList.add(element);
-                props.add(element);
+                add(key, element);
             }
-            keyTable.put(key, linkedList);
         }
+        // END android-changed
     }
 
     @SuppressWarnings("unchecked")
@@ -140,6 +148,26 @@ public class Header implements Cloneable {
         }
     }
 
+    // BEGIN android-added
+    /**
+     * Removes all the values of a field, if it has any.
+     * 
+     * @param key
+     */
+    public void removeAll(String key) {
+        key = key.toLowerCase();
+        if (keyTable.remove(key) == null) {
+            return;
+        }
+        for (int i = props.size() - 2; i >= 0; i -= 2) {
+            if (key.equals(props.get(i))) {
+                props.remove(i + 1);
+                props.remove(i);
+            }
+        }
+    }
+    // END android-added
+
     /**
      * Provides an unmodifiable map with all String header names mapped to their
      * String values. The map keys are Strings and the values are unmodifiable
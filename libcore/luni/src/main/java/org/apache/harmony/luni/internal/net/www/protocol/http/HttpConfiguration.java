@@ -20,6 +20,9 @@ import java.net.InetSocketAddress;
 import java.net.Proxy;
 import java.net.SocketAddress;
 import java.net.URI;
+// BEGIN android-added
+import java.util.Locale;
+// END android-added
 
 import org.apache.harmony.luni.util.Msg;
 
@@ -117,22 +120,48 @@ public class HttpConfiguration {
         return hostPort;
     }
 
+    // BEGIN android-changed
+    // Compare by route (scheme, host, port and proxy) rather than by the
+    // whole URI, so that requests for different paths on the same server
+    // can share pooled connections.
     @Override
     public boolean equals(Object arg0) {
         if(!(arg0 instanceof HttpConfiguration)) {
             return false;
         } else {
             HttpConfiguration config = (HttpConfiguration)arg0;
-            if(config.proxy != null && proxy != null) {
-                return config.proxy.equals(proxy) && uri.equals(config.uri);
+            if(proxy == null ? config.proxy != null : !proxy.equals(config.proxy)) {
+                return false;
             }
-            return uri.equals(config.uri);
+            String host = uri.getHost();
+            String configHost = config.uri.getHost();
+            return uri.getScheme().equalsIgnoreCase(config.uri.getScheme())
+                    && (host == null ? configHost == null
+                            : host.equalsIgnoreCase(configHost))
+                    && getTargetPort() == config.getTargetPort();
         }
     }
 
     @Override
     public int hashCode() {
-        return uri.hashCode();
+        // Lower-case the host the way equals() ignores its case, whatever
+        // the default locale.
+        String host = uri.getHost();
+        int hostHash = host == null ? 0 : host.toLowerCase(Locale.US).hashCode();
+        return hostHash * 31 + getTargetPort();
     }
 
+    /**
+     * Returns the port of the server the URI refers to, which is not
+     * necessarily the one connected to if a proxy is used
+     */
+    private int getTargetPort() {
+        int port = uri.getPort();
+        if(port == -1) {
+            port = uri.getScheme().equalsIgnoreCase("https") ? 443 : 80; //$NON-NLS-1$
+        }
+        return port;
+    }
+    // END android-changed
+
 }
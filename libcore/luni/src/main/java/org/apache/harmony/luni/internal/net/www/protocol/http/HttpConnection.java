@@ -48,6 +48,12 @@ public class HttpConnection {
 
     private HttpConfiguration config;
 
+    // BEGIN android-added
+    // When this connection was last returned to the pool, as given by
+    // System.nanoTime(); used to close connections that sit idle too long.
+    private long idleSince;
+    // END android-added
+
     public HttpConnection(HttpConfiguration config, int connectTimeout) throws IOException {
         this.config = config;
         String hostName = config.getHostName();
@@ -176,6 +182,16 @@ public class HttpConnection {
     Socket getSocket() {
         return socket;
     }
+
+    // BEGIN android-added
+    long getIdleSince() {
+        return idleSince;
+    }
+
+    void setIdleSince(long idleSince) {
+        this.idleSince = idleSince;
+    }
+    // END android-added
     
     /*
      * This method has been copied from the Apache Jakarta Commons HttpClient project
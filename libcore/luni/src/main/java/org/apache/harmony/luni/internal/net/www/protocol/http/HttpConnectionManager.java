@@ -21,10 +21,11 @@ import java.net.Proxy;
 import java.net.URI;
 import java.security.AccessController;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.harmony.luni.util.PriviAction;
 
@@ -34,32 +35,37 @@ import org.apache.harmony.luni.util.PriviAction;
  * Clients should return an <code>HttpConnection</code> to the pool after use by calling 
  * <code>returnConnectionToPool</code>
  * 
- * Two system properties affect the behaviour of this class - <code>http.maxConnections</code>
- * and <code>http.keepAlive</code>.  <code>http.keepAlive</code> determines whether 
- * or not connections should be persisted and <code>http.maxConnections</code> 
- * determines the maximum number of connections to each individual host that 
- * should be kept in the pool.
+ * Three system properties affect the behaviour of this class - <code>http.maxConnections</code>,
+ * <code>http.keepAlive</code> and <code>http.keepAliveTimeout</code>.  <code>http.keepAlive</code> determines whether 
+ * or not connections should be persisted, <code>http.maxConnections</code> 
+ * determines the maximum number of idle connections to each individual host that 
+ * should be kept in the pool, and <code>http.keepAliveTimeout</code> is the number
+ * of seconds an idle connection is kept before it is closed.
  */
 public class HttpConnectionManager {
 
-    // The maximum number of connections to any location
-    private static int maxConnections = 5;
+    // BEGIN android-changed
+    // The maximum number of idle connections to any location
+    private static final int DEFAULT_MAX_IDLE_PER_ROUTE = 5;
+
+    // The number of seconds idle connections are kept for
+    private static final int DEFAULT_IDLE_TIMEOUT = 30;
 
     // Keeps connections alive if true
-    private static boolean keepAlive = true;
+    private static volatile boolean keepAlive = true;
+
+    private static final HttpConnectionManager defaultConnectionManager =
+            new HttpConnectionManager();
 
-    private static HttpConnectionManager defaultConnectionManager;
-    private ConnectionPool pool = new ConnectionPool();
+    private final ConnectionPool pool = new ConnectionPool();
 
     /**
      * Returns the default connection manager
      */
     public static HttpConnectionManager getDefault() {
-        if(defaultConnectionManager == null) {
-            defaultConnectionManager = new HttpConnectionManager();
-        }
         return defaultConnectionManager;
     }
+    // END android-changed
 
     public HttpConnection getConnection(URI uri, int connectTimeout) throws IOException {
         checkSystemProperties();
@@ -82,12 +88,80 @@ public class HttpConnectionManager {
         return pool.numFreeConnections();
     }
 
+    // BEGIN android-added
+    /**
+     * Sets the maximum number of idle connections kept for each route,
+     * that is, each combination of scheme, host, port and proxy. This is
+     * overridden by <code>http.maxConnections</code> if that is set.
+     */
+    public void setMaxIdleConnectionsPerRoute(int maxIdle) {
+        if (maxIdle < 0) {
+            throw new IllegalArgumentException();
+        }
+        pool.maxIdlePerRoute = maxIdle;
+    }
+
+    /**
+     * Sets how long a connection may stay idle in the pool before it is
+     * closed, in milliseconds. This is overridden by
+     * <code>http.keepAliveTimeout</code> if that is set.
+     */
+    public void setIdleTimeout(long millis) {
+        if (millis <= 0) {
+            throw new IllegalArgumentException();
+        }
+        pool.idleTimeoutNanos = millis * 1000000L;
+    }
+
+    /**
+     * Returns the number of connections asked for. Together with
+     * {@link #getReusedConnectionCount} this gives the reuse rate.
+     */
+    public long getRequestedConnectionCount() {
+        return pool.requested.get();
+    }
+
+    /**
+     * Returns the number of connections handed out from the pool rather
+     * than newly opened.
+     */
+    public long getReusedConnectionCount() {
+        return pool.reused.get();
+    }
+
+    /**
+     * Returns the number of pooled connections closed without being
+     * reused: because they were idle too long, because their route
+     * already had as many idle connections as it may, or because they
+     * turned out to have been closed by the other end.
+     */
+    public long getEvictedConnectionCount() {
+        return pool.evicted.get();
+    }
+
+    /**
+     * Returns the total time spent getting connections, whether from
+     * the pool or by opening new ones, in nanoseconds.
+     */
+    public long getConnectionWaitNanos() {
+        return pool.waitNanos.get();
+    }
+    // END android-added
+
     private void checkSystemProperties() {
         String httpMaxConnections =  AccessController.doPrivileged(new PriviAction<String>("http.maxConnections"));
         String httpKeepAlive = AccessController.doPrivileged(new PriviAction<String>("http.keepAlive"));
+        // BEGIN android-added
+        String httpKeepAliveTimeout = AccessController.doPrivileged(new PriviAction<String>("http.keepAliveTimeout"));
+        // END android-added
         if(httpMaxConnections != null) {
-            maxConnections = Integer.parseInt(httpMaxConnections);
+            pool.maxIdlePerRoute = Integer.parseInt(httpMaxConnections);
+        }
+        // BEGIN android-added
+        if(httpKeepAliveTimeout != null) {
+            pool.idleTimeoutNanos = Integer.parseInt(httpKeepAliveTimeout) * 1000000000L;
         }
+        // END android-added
         if(httpKeepAlive != null) {
             keepAlive = Boolean.parseBoolean(httpKeepAlive);
             if(!keepAlive) {
@@ -96,78 +170,225 @@ public class HttpConnectionManager {
         }
     }
 
+    // BEGIN android-changed
+    // Replaced the single synchronized map with one stack of idle
+    // connections per route, each with its own lock, so that requests
+    // to different servers don't wait for one another. Connections are
+    // checked for staleness and opened outside of any lock, and ones
+    // left idle too long are closed by a background thread.
     private static class ConnectionPool {
 
-        private Map<HttpConfiguration, List<HttpConnection>> freeConnectionMap = new HashMap<HttpConfiguration, List<HttpConnection>>(); // Map of free Sockets
+        volatile int maxIdlePerRoute = DEFAULT_MAX_IDLE_PER_ROUTE;
+
+        volatile long idleTimeoutNanos = DEFAULT_IDLE_TIMEOUT * 1000000000L;
+
+        final AtomicLong requested = new AtomicLong();
+
+        final AtomicLong reused = new AtomicLong();
+
+        final AtomicLong evicted = new AtomicLong();
+
+        final AtomicLong waitNanos = new AtomicLong();
+
+        private final ConcurrentHashMap<HttpConfiguration, Route> routes = new ConcurrentHashMap<HttpConfiguration, Route>();
+
+        // Whether the reaper thread is running
+        private final AtomicBoolean reaping = new AtomicBoolean();
 
-        public synchronized void clear() {
-            for (Iterator<List<HttpConnection>> iter = freeConnectionMap.values().iterator(); iter.hasNext();) {
-                List<HttpConnection> connections = iter.next();
-                for (Iterator<HttpConnection> iterator = connections.iterator(); iterator.hasNext();) {
-                    HttpConnection connection = iterator.next();
+        /**
+         * The idle connections to one route, most recently returned last.
+         * A route that has been removed from the map is marked dead, and
+         * must not have connections added to it.
+         */
+        private static class Route {
+            final List<HttpConnection> idle = new ArrayList<HttpConnection>();
+
+            boolean dead;
+        }
+
+        public void clear() {
+            for (Iterator<Route> iter = routes.values().iterator(); iter.hasNext();) {
+                Route route = iter.next();
+                List<HttpConnection> toClose;
+                synchronized (route) {
+                    toClose = new ArrayList<HttpConnection>(route.idle);
+                    route.idle.clear();
+                }
+                for (HttpConnection connection : toClose) {
                     connection.closeSocketAndStreams();
                 }
             }
-            freeConnectionMap.clear();
         }
 
-        public synchronized void returnConnection(HttpConnection connection) {
-            // BEGIN android-note
-            // Simplified the following test.
-            // END android-note
-            if(keepAlive && connection.isEligibleForRecycling()) {
-                HttpConfiguration config = connection.getHttpConfiguration();
-                List<HttpConnection> connections = freeConnectionMap.get(config);
-                if(connections == null) {
-                    connections = new ArrayList<HttpConnection>();
-                    freeConnectionMap.put(config, connections);
+        public void returnConnection(HttpConnection connection) {
+            if(!keepAlive || !connection.isEligibleForRecycling()) {
+                // Make sure all streams are closed etc.
+                connection.closeSocketAndStreams();
+                return;
+            }
+
+            HttpConfiguration config = connection.getHttpConfiguration();
+            HttpConnection toClose = null;
+            connection.setIdleSince(System.nanoTime());
+            for (;;) {
+                Route route = routes.get(config);
+                if (route == null) {
+                    route = new Route();
+                    Route existing = routes.putIfAbsent(config, route);
+                    if (existing != null) {
+                        route = existing;
+                    }
                 }
-                if(connections.size() < HttpConnectionManager.maxConnections) {
-                    if(!connections.contains(connection)) {
-                        connections.add(connection);
+                synchronized (route) {
+                    if (route.dead) {
+                        continue;
+                    }
+                    List<HttpConnection> idle = route.idle;
+                    if (idle.contains(connection)) {
+                        return;
+                    }
+                    if (maxIdlePerRoute <= 0) {
+                        toClose = connection;
+                    } else {
+                        if (idle.size() >= maxIdlePerRoute) {
+                            // The connection idle longest makes way.
+                            toClose = idle.remove(0);
+                        }
+                        idle.add(connection);
                     }
-                } else {
-                    connection.closeSocketAndStreams();
                 }
-            } else {
-                // Make sure all streams are closed etc.
-                connection.closeSocketAndStreams();
+                break;
             }
-        }
 
-        public synchronized HttpConnection getHttpConnection(HttpConfiguration config, int connectTimeout) throws IOException {
-            List<HttpConnection> connections = freeConnectionMap.get(config);
-            if(keepAlive && connections == null) {
-                connections = new ArrayList<HttpConnection>();
-                freeConnectionMap.put(config, connections);
+            if (toClose != null) {
+                evicted.incrementAndGet();
+                toClose.closeSocketAndStreams();
             }
-            if(!keepAlive || connections.isEmpty()) {
-                HttpConnection connection = new HttpConnection(config, connectTimeout);
-                return connection;
-            } else {
-                HttpConnection connection = connections.get(0);
-                connections.remove(0);
-                if(!connection.isStale()) {
-                    SecurityManager security = System.getSecurityManager();
-                    if (security != null) {
-                        security.checkConnect(connection.getSocket().getInetAddress().getHostName(), connection.getSocket().getPort());
+            startReaper();
+        }
+
+        public HttpConnection getHttpConnection(HttpConfiguration config, int connectTimeout) throws IOException {
+            long start = System.nanoTime();
+            requested.incrementAndGet();
+            try {
+                if (keepAlive) {
+                    HttpConnection connection;
+                    while ((connection = takeIdle(config)) != null) {
+                        if(!connection.isStale()) {
+                            SecurityManager security = System.getSecurityManager();
+                            if (security != null) {
+                                security.checkConnect(connection.getSocket().getInetAddress().getHostName(), connection.getSocket().getPort());
+                            }
+                            reused.incrementAndGet();
+                            return connection;
+                        }
+                        evicted.incrementAndGet();
+                        connection.closeSocketAndStreams();
                     }
-                    return connection;                 
-                } else {
-                    return getHttpConnection(config, connectTimeout);
                 }
+                return new HttpConnection(config, connectTimeout);
+            } finally {
+                waitNanos.addAndGet(System.nanoTime() - start);
+            }
+        }
+
+        /**
+         * Takes the most recently returned idle connection for a route
+         * out of the pool, or returns null if there is none.
+         */
+        private HttpConnection takeIdle(HttpConfiguration config) {
+            Route route = routes.get(config);
+            if (route == null) {
+                return null;
+            }
+            synchronized (route) {
+                List<HttpConnection> idle = route.idle;
+                return idle.isEmpty() ? null : idle.remove(idle.size() - 1);
             }
         }
 
         public int numFreeConnections() {
             int numFree = 0;
-            for (Iterator<List<HttpConnection>> iter = freeConnectionMap.values().iterator(); iter.hasNext();) {
-                List<HttpConnection> connections = iter.next();
-                numFree += connections.size();
+            for (Iterator<Route> iter = routes.values().iterator(); iter.hasNext();) {
+                Route route = iter.next();
+                synchronized (route) {
+                    numFree += route.idle.size();
+                }
             }
             return numFree;
         }
+
+        /**
+         * Closes the connections that have been idle too long, and drops
+         * the routes left without any.
+         */
+        void closeIdleConnections() {
+            long now = System.nanoTime();
+            long timeout = idleTimeoutNanos;
+            List<HttpConnection> toClose = new ArrayList<HttpConnection>();
+            for (Iterator<Route> iter = routes.values().iterator(); iter.hasNext();) {
+                Route route = iter.next();
+                synchronized (route) {
+                    List<HttpConnection> idle = route.idle;
+                    // The oldest connections are at the front.
+                    int expired = 0;
+                    while (expired < idle.size()
+                            && now - idle.get(expired).getIdleSince() >= timeout) {
+                        expired++;
+                    }
+                    if (expired > 0) {
+                        List<HttpConnection> sub = idle.subList(0, expired);
+                        toClose.addAll(sub);
+                        sub.clear();
+                    }
+                    if (idle.isEmpty()) {
+                        route.dead = true;
+                        iter.remove();
+                    }
+                }
+            }
+            evicted.addAndGet(toClose.size());
+            for (HttpConnection connection : toClose) {
+                connection.closeSocketAndStreams();
+            }
+        }
+
+        /**
+         * Starts the thread that closes idle connections, unless it is
+         * already running. It stops by itself once the pool is empty.
+         */
+        private void startReaper() {
+            if (!reaping.compareAndSet(false, true)) {
+                return;
+            }
+            Thread reaper = new Thread("HttpConnectionManager reaper") { //$NON-NLS-1$
+                @Override
+                public void run() {
+                    for (;;) {
+                        long sleepMillis = Math.max(idleTimeoutNanos / 2000000L, 1);
+                        try {
+                            Thread.sleep(sleepMillis);
+                        } catch (InterruptedException e) {
+                            // Sweep early.
+                        }
+                        closeIdleConnections();
+                        if (numFreeConnections() == 0) {
+                            reaping.set(false);
+                            // A connection may have been returned just
+                            // before the flag was cleared.
+                            if (numFreeConnections() == 0
+                                    || !reaping.compareAndSet(false, true)) {
+                                return;
+                            }
+                        }
+                    }
+                }
+            };
+            reaper.setDaemon(true);
+            reaper.start();
+        }
     }
+    // END android-changed
 
     public void reset() {
         pool.clear();
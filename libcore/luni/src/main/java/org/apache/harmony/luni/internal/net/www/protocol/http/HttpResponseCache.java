@@ -0,0 +1,1117 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.harmony.luni.internal.net.www.protocol.http;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.CacheRequest;
+import java.net.CacheResponse;
+import java.net.ResponseCache;
+import java.net.URI;
+import java.net.URLConnection;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link ResponseCache} that keeps the responses to <code>GET</code>
+ * requests in a directory, up to a given number of bytes, dropping the
+ * least recently used ones to make room. Install it with
+ * <code>ResponseCache.setDefault(new HttpResponseCache(dir, size))</code>.
+ *
+ * <p>A response is stored if it may be (no <code>Cache-Control:
+ * no-store</code>, no <code>Vary</code>, no <code>Authorization</code> on
+ * the request unless the response is <code>public</code>) and if there is
+ * some point to it: it has an explicit lifetime (<code>max-age</code> or
+ * <code>Expires</code>) or a validator (<code>ETag</code> or
+ * <code>Last-Modified</code>). The body is written to disk as the caller
+ * reads it, and the entry only appears once the whole body has been
+ * read; a body that is abandoned part way through is thrown away.</p>
+ *
+ * <p>A stored response is served without going to the network while it
+ * is fresh, as worked out from its <code>Date</code>, <code>Age</code>,
+ * <code>Cache-Control</code>, <code>Expires</code> and
+ * <code>Last-Modified</code> headers and the request's own
+ * <code>Cache-Control</code>. When it is stale but has a validator, the
+ * {@link HttpURLConnection} of this package sends a conditional request,
+ * and if the server answers <code>304 Not Modified</code> the stored body
+ * is served and its headers are refreshed.</p>
+ *
+ * <p>Each entry is two files: a body, and a metadata file naming it, which
+ * is replaced atomically when the entry is written, so lookups read the
+ * files without taking any lock. The index of entries is rebuilt from the
+ * directory when the cache is constructed, in order of last use as far as
+ * the files' modification times can tell.</p>
+ */
+public class HttpResponseCache extends ResponseCache {
+    /** suffix of metadata file names */
+    private static final String META_SUFFIX = ".meta"; //$NON-NLS-1$
+
+    /** suffix of body file names */
+    private static final String BODY_SUFFIX = ".body"; //$NON-NLS-1$
+
+    /** suffix of files being written */
+    private static final String TEMP_SUFFIX = ".tmp"; //$NON-NLS-1$
+
+    /** first word of every metadata file */
+    private static final int META_MAGIC = 0x48524331;
+
+    /** headers that only apply to one connection, and are never stored */
+    private static final Set<String> HOP_BY_HOP_HEADERS =
+        new HashSet<String>(Arrays.asList(new String[] {
+            "connection", "keep-alive", "proxy-authenticate", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+            "proxy-authorization", "te", "trailers", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+            "transfer-encoding", "upgrade" })); //$NON-NLS-1$ //$NON-NLS-2$
+
+    /** formats of the dates in headers, most common first */
+    private static final String[] DATE_FORMATS = {
+        "EEE, dd MMM yyyy HH:mm:ss zzz", //$NON-NLS-1$
+        "EEEE, dd-MMM-yy HH:mm:ss zzz", //$NON-NLS-1$
+        "EEE MMM d HH:mm:ss yyyy", //$NON-NLS-1$
+    };
+
+    /** non-null; the directory the entries are in */
+    private final File directory;
+
+    /** &gt; 0; the most bytes the entries may take up */
+    private final long maxSize;
+
+    /**
+     * non-null; the entries by key, least recently used first; guarded
+     * by <code>this</code>
+     */
+    private final LinkedHashMap<String, Entry> entries =
+        new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+    /** bytes taken up by the entries; guarded by <code>this</code> */
+    private long size;
+
+    /** non-null; source of unique numbers for file names */
+    private final AtomicLong generation = new AtomicLong();
+
+    private final AtomicInteger requestCount = new AtomicInteger();
+
+    private final AtomicInteger hitCount = new AtomicInteger();
+
+    private final AtomicInteger conditionalHitCount = new AtomicInteger();
+
+    private final AtomicInteger writeSuccessCount = new AtomicInteger();
+
+    private final AtomicInteger writeAbortCount = new AtomicInteger();
+
+    /**
+     * Constructs a cache over a directory, picking up the entries left in
+     * it by an earlier cache over the same directory.
+     *
+     * @param directory
+     *            the directory to keep the entries in, which is created if
+     *            it doesn't exist, and shouldn't be used for anything else
+     * @param maxSize
+     *            the most bytes the entries may take up
+     * @throws IOException
+     *             if the directory can't be created
+     */
+    public HttpResponseCache(File directory, long maxSize) throws IOException {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException();
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException(directory.getPath());
+        }
+        this.directory = directory;
+        this.maxSize = maxSize;
+        readIndex();
+    }
+
+    /**
+     * Returns the stored response to a request if it is fresh enough to be
+     * served without asking the server.
+     */
+    @Override
+    public CacheResponse get(URI uri, String method,
+            Map<String, List<String>> requestHeaders) throws IOException {
+        EntryResponse response = find(uri, method, requestHeaders);
+        if (response != null && !response.isFresh()) {
+            response.getBody().close();
+            return null;
+        }
+        return response;
+    }
+
+    /**
+     * Returns the stored response to a request if it is fresh, or if it
+     * is stale but has a validator, in which case it may be used if a
+     * conditional request finds it is still current; see {@link #update}.
+     *
+     * @return the response, with its body open, or <code>null</code>
+     */
+    EntryResponse find(URI uri, String method,
+            Map<String, List<String>> requestHeaders) {
+        if (!"GET".equals(method)) { //$NON-NLS-1$
+            return null;
+        }
+        requestCount.incrementAndGet();
+
+        String key = keyOf(uri);
+        synchronized (this) {
+            if (entries.get(key) == null) {
+                return null;
+            }
+        }
+
+        File metaFile = new File(directory, key + META_SUFFIX);
+        Metadata metadata;
+        InputStream body;
+        try {
+            metadata = readMetadata(metaFile);
+            if (!metadata.uri.equals(uri.toString())) {
+                return null;
+            }
+            body = new FileInputStream(new File(directory, metadata.bodyName));
+        } catch (IOException e) {
+            // Evicted or replaced since it was looked up.
+            return null;
+        }
+        metaFile.setLastModified(System.currentTimeMillis());
+
+        boolean fresh = isFresh(metadata, requestHeaders,
+                System.currentTimeMillis());
+        if (fresh) {
+            hitCount.incrementAndGet();
+        } else if (value(metadata.headers, "ETag") == null //$NON-NLS-1$
+                && value(metadata.headers, "Last-Modified") == null) { //$NON-NLS-1$
+            try {
+                body.close();
+            } catch (IOException e) {
+                // Ignored
+            }
+            return null;
+        }
+        return new EntryResponse(key, metadata, body, fresh);
+    }
+
+    /**
+     * Refreshes a stale response after the server has said, with a
+     * <code>304 Not Modified</code>, that it is still current.
+     *
+     * @param response
+     *            the stale response, from {@link #find}
+     * @param notModifiedHeaders
+     *            the headers of the <code>304</code> response
+     * @return the headers to serve the stored body with
+     */
+    Map<String, List<String>> update(EntryResponse response,
+            Map<String, List<String>> notModifiedHeaders) {
+        conditionalHitCount.incrementAndGet();
+
+        Map<String, List<String>> headers =
+            new LinkedHashMap<String, List<String>>(response.metadata.headers);
+        for (Map.Entry<String, List<String>> header
+                : notModifiedHeaders.entrySet()) {
+            String name = header.getKey();
+            if (name == null || isHopByHop(name)
+                    || name.equalsIgnoreCase("Content-Length")) { //$NON-NLS-1$
+                continue;
+            }
+            for (Iterator<String> it = headers.keySet().iterator();
+                    it.hasNext();) {
+                String old = it.next();
+                if (old != null && old.equalsIgnoreCase(name)) {
+                    it.remove();
+                }
+            }
+            headers.put(name, header.getValue());
+        }
+
+        long now = System.currentTimeMillis();
+        Metadata metadata = new Metadata(response.metadata.uri,
+                response.metadata.bodyName, now, now, headers);
+        try {
+            File metaTemp = newTempFile(response.key);
+            writeMetadata(metaTemp, metadata);
+            commit(response.key, metaTemp, metadata.bodyName);
+        } catch (IOException e) {
+            // The old entry stays, and will be revalidated again.
+        }
+        return Collections.unmodifiableMap(headers);
+    }
+
+    /**
+     * Starts storing a response, if it is one that should be stored.
+     * Other requests than <code>GET</code> remove the stored response
+     * for their URI, as they may change what it would be.
+     */
+    @Override
+    public CacheRequest put(URI uri, URLConnection connection)
+            throws IOException {
+        if (!(connection instanceof java.net.HttpURLConnection)) {
+            return null;
+        }
+        java.net.HttpURLConnection http =
+            (java.net.HttpURLConnection) connection;
+        String key = keyOf(uri);
+
+        String method = http.getRequestMethod();
+        if (!"GET".equals(method)) { //$NON-NLS-1$
+            if (!"HEAD".equals(method)) { //$NON-NLS-1$
+                remove(key);
+            }
+            return null;
+        }
+
+        int responseCode = http.getResponseCode();
+        if (responseCode != java.net.HttpURLConnection.HTTP_OK
+                && responseCode != java.net.HttpURLConnection.HTTP_NOT_AUTHORITATIVE) {
+            return null;
+        }
+
+        Map<String, List<String>> responseHeaders = responseHeadersOf(http);
+        if (!isCacheable(requestHeadersOf(http), responseHeaders)) {
+            return null;
+        }
+        return new EntryRequest(key, uri.toString(), responseHeaders);
+    }
+
+    /**
+     * @return the directory the entries are in
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @return the most bytes the entries may take up
+     */
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return the bytes taken up by the entries
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * @return the number of <code>GET</code> requests looked up
+     */
+    public int getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * @return the number of requests served without going to the network
+     */
+    public int getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * @return the number of requests served from the cache after the
+     *         server said the stored response was still current
+     */
+    public int getConditionalHitCount() {
+        return conditionalHitCount.get();
+    }
+
+    /**
+     * @return the number of responses stored
+     */
+    public int getWriteSuccessCount() {
+        return writeSuccessCount.get();
+    }
+
+    /**
+     * @return the number of responses that started to be stored but
+     *         weren't, because their bodies weren't read to the end, were
+     *         too big, or couldn't be written
+     */
+    public int getWriteAbortCount() {
+        return writeAbortCount.get();
+    }
+
+    /**
+     * Works out whether a stored response can be served as it is.
+     *
+     * @param metadata
+     *            the response
+     * @param requestHeaders
+     *            the headers of the request
+     * @param now
+     *            the current time
+     * @return <code>true</code> if it can
+     */
+    private static boolean isFresh(Metadata metadata,
+            Map<String, List<String>> requestHeaders, long now) {
+        Map<String, String> requestControl =
+            parseCacheControl(values(requestHeaders, "Cache-Control")); //$NON-NLS-1$
+        if (requestControl.containsKey("no-cache")) { //$NON-NLS-1$
+            return false;
+        }
+        String pragma = value(requestHeaders, "Pragma"); //$NON-NLS-1$
+        if (pragma != null && pragma.trim().equalsIgnoreCase("no-cache")) { //$NON-NLS-1$
+            return false;
+        }
+
+        Map<String, List<String>> headers = metadata.headers;
+        Map<String, String> responseControl =
+            parseCacheControl(values(headers, "Cache-Control")); //$NON-NLS-1$
+        if (responseControl.containsKey("no-cache")) { //$NON-NLS-1$
+            return false;
+        }
+
+        long lifetime = freshnessLifetime(metadata, responseControl);
+        long maxAge = seconds(requestControl, "max-age"); //$NON-NLS-1$
+        if (maxAge != -1) {
+            lifetime = Math.min(lifetime, maxAge * 1000);
+        }
+        long minFresh = seconds(requestControl, "min-fresh"); //$NON-NLS-1$
+        long maxStale = 0;
+        if (!responseControl.containsKey("must-revalidate") //$NON-NLS-1$
+                && requestControl.containsKey("max-stale")) { //$NON-NLS-1$
+            maxStale = seconds(requestControl, "max-stale"); //$NON-NLS-1$
+            maxStale = (maxStale == -1) ? Long.MAX_VALUE : maxStale * 1000;
+        }
+
+        long age = currentAge(metadata, now);
+        return age + Math.max(minFresh, 0) * 1000 - lifetime < maxStale;
+    }
+
+    /**
+     * Works out how long a response stays fresh, from its
+     * <code>max-age</code>, else its <code>Expires</code>, else a tenth
+     * of the time it had gone unmodified when it was sent.
+     *
+     * @return the lifetime in milliseconds
+     */
+    private static long freshnessLifetime(Metadata metadata,
+            Map<String, String> responseControl) {
+        long maxAge = seconds(responseControl, "max-age"); //$NON-NLS-1$
+        if (maxAge != -1) {
+            return maxAge * 1000;
+        }
+
+        Map<String, List<String>> headers = metadata.headers;
+        long date = parseDate(value(headers, "Date")); //$NON-NLS-1$
+        if (date == -1) {
+            date = metadata.receivedMillis;
+        }
+        String expires = value(headers, "Expires"); //$NON-NLS-1$
+        if (expires != null) {
+            // An Expires that can't be parsed is already in the past.
+            long expiresMillis = parseDate(expires);
+            return (expiresMillis == -1) ? 0 : Math.max(expiresMillis - date, 0);
+        }
+
+        long lastModified = parseDate(value(headers, "Last-Modified")); //$NON-NLS-1$
+        if (lastModified != -1 && lastModified < date) {
+            return (date - lastModified) / 10;
+        }
+        return 0;
+    }
+
+    /**
+     * Works out the age of a stored response as RFC 2616 section 13.2.3
+     * does, from its <code>Date</code> and <code>Age</code> headers and
+     * when it was sent for and received.
+     *
+     * @return the age in milliseconds
+     */
+    private static long currentAge(Metadata metadata, long now) {
+        Map<String, List<String>> headers = metadata.headers;
+        long apparentAge = 0;
+        long date = parseDate(value(headers, "Date")); //$NON-NLS-1$
+        if (date != -1) {
+            apparentAge = Math.max(0, metadata.receivedMillis - date);
+        }
+        long ageValue = 0;
+        String age = value(headers, "Age"); //$NON-NLS-1$
+        if (age != null) {
+            try {
+                ageValue = Long.parseLong(age.trim()) * 1000;
+            } catch (NumberFormatException e) {
+                // Ignored
+            }
+        }
+        long receivedAge = Math.max(apparentAge, ageValue);
+        long responseDelay = metadata.receivedMillis - metadata.sentMillis;
+        long residentTime = now - metadata.receivedMillis;
+        return receivedAge + responseDelay + residentTime;
+    }
+
+    /**
+     * Works out whether a response may and should be stored.
+     *
+     * @param requestHeaders
+     *            the headers of the request
+     * @param responseHeaders
+     *            the headers of the response
+     * @return <code>true</code> if it may and should be
+     */
+    private static boolean isCacheable(Map<String, List<String>> requestHeaders,
+            Map<String, List<String>> responseHeaders) {
+        Map<String, String> requestControl =
+            parseCacheControl(values(requestHeaders, "Cache-Control")); //$NON-NLS-1$
+        Map<String, String> responseControl =
+            parseCacheControl(values(responseHeaders, "Cache-Control")); //$NON-NLS-1$
+        if (requestControl.containsKey("no-store") //$NON-NLS-1$
+                || responseControl.containsKey("no-store")) { //$NON-NLS-1$
+            return false;
+        }
+        if (value(requestHeaders, "Authorization") != null //$NON-NLS-1$
+                && !responseControl.containsKey("public")) { //$NON-NLS-1$
+            return false;
+        }
+        if (value(responseHeaders, "Vary") != null) { //$NON-NLS-1$
+            return false;
+        }
+        return responseControl.containsKey("max-age") //$NON-NLS-1$
+                || value(responseHeaders, "Expires") != null //$NON-NLS-1$
+                || value(responseHeaders, "ETag") != null //$NON-NLS-1$
+                || value(responseHeaders, "Last-Modified") != null; //$NON-NLS-1$
+    }
+
+    /**
+     * Collects the response headers of a connection to be stored, with
+     * the status line under the <code>null</code> key.
+     */
+    private static Map<String, List<String>> responseHeadersOf(
+            URLConnection connection) {
+        Map<String, List<String>> headers =
+            new LinkedHashMap<String, List<String>>();
+        String statusLine = connection.getHeaderField(0);
+        if (connection.getHeaderFieldKey(0) == null && statusLine != null) {
+            headers.put(null, Collections.singletonList(statusLine));
+        }
+        Map<String, List<String>> fields = connection.getHeaderFields();
+        if (fields != null) {
+            for (Map.Entry<String, List<String>> field : fields.entrySet()) {
+                String name = field.getKey();
+                if (name != null && !isHopByHop(name)) {
+                    headers.put(name, field.getValue());
+                }
+            }
+        }
+        return headers;
+    }
+
+    /**
+     * Returns the request headers of a connection, which a connection of
+     * this package gives up even once it has connected.
+     */
+    private static Map<String, List<String>> requestHeadersOf(
+            URLConnection connection) {
+        if (connection instanceof HttpURLConnection) {
+            return ((HttpURLConnection) connection).getRequestHeaderFields();
+        }
+        try {
+            return connection.getRequestProperties();
+        } catch (IllegalStateException e) {
+            return Collections.emptyMap();
+        }
+    }
+
+    private static boolean isHopByHop(String name) {
+        return HOP_BY_HOP_HEADERS.contains(name.toLowerCase());
+    }
+
+    /**
+     * Returns the last value of a header, whatever the case of its name.
+     */
+    static String value(Map<String, List<String>> headers, String name) {
+        List<String> values = values(headers, name);
+        return values.isEmpty() ? null : values.get(values.size() - 1);
+    }
+
+    /**
+     * Returns all the values of a header, whatever the case of its name.
+     */
+    static List<String> values(Map<String, List<String>> headers,
+            String name) {
+        List<String> result = new ArrayList<String>();
+        if (headers != null) {
+            for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+                String key = header.getKey();
+                if (key != null && key.equalsIgnoreCase(name)) {
+                    result.addAll(header.getValue());
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Parses <code>Cache-Control</code> headers into their directives,
+     * mapping each lower-cased name to its value, or to <code>null</code>
+     * if it has none.
+     */
+    private static Map<String, String> parseCacheControl(List<String> values) {
+        Map<String, String> directives = new HashMap<String, String>();
+        for (String value : values) {
+            for (String directive : value.split(",")) { //$NON-NLS-1$
+                directive = directive.trim();
+                if (directive.length() == 0) {
+                    continue;
+                }
+                int equals = directive.indexOf('=');
+                if (equals == -1) {
+                    directives.put(directive.toLowerCase(), null);
+                } else {
+                    String argument = directive.substring(equals + 1).trim();
+                    if (argument.length() >= 2 && argument.startsWith("\"") //$NON-NLS-1$
+                            && argument.endsWith("\"")) { //$NON-NLS-1$
+                        argument = argument.substring(1, argument.length() - 1);
+                    }
+                    directives.put(directive.substring(0, equals).trim()
+                            .toLowerCase(), argument);
+                }
+            }
+        }
+        return directives;
+    }
+
+    /**
+     * Returns the number of seconds given to a directive, or
+     * <code>-1</code> if it is missing or has no number.
+     */
+    private static long seconds(Map<String, String> directives, String name) {
+        String value = directives.get(name);
+        if (value != null) {
+            try {
+                return Math.max(Long.parseLong(value), 0);
+            } catch (NumberFormatException e) {
+                // Ignored
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Parses a date in any of the formats HTTP allows.
+     *
+     * @return the time in milliseconds, or <code>-1</code> if it can't
+     *         be parsed
+     */
+    static long parseDate(String value) {
+        if (value == null) {
+            return -1;
+        }
+        for (String format : DATE_FORMATS) {
+            SimpleDateFormat parser = new SimpleDateFormat(format, Locale.US);
+            parser.setTimeZone(TimeZone.getTimeZone("GMT")); //$NON-NLS-1$
+            try {
+                return parser.parse(value.trim()).getTime();
+            } catch (ParseException e) {
+                // Try the next format.
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the key of the entry for a URI, which the names of its files
+     * start with.
+     */
+    private static String keyOf(URI uri) {
+        try {
+            MessageDigest md5 = MessageDigest.getInstance("MD5"); //$NON-NLS-1$
+            byte[] digest = md5.digest(uri.toString().getBytes("UTF-8")); //$NON-NLS-1$
+            StringBuilder key = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                key.append(Character.forDigit((b >> 4) & 0xf, 16));
+                key.append(Character.forDigit(b & 0xf, 16));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Returns a new, unique file to write part of an entry to.
+     */
+    private File newTempFile(String key) {
+        return new File(directory, key + '.' + generation.incrementAndGet()
+                + TEMP_SUFFIX);
+    }
+
+    /**
+     * Makes a newly written metadata file the one for its key, replacing
+     * any old entry, and drops least recently used entries until the
+     * cache fits.
+     *
+     * @param key
+     *            the key
+     * @param metaTemp
+     *            the metadata file, written to a temporary name
+     * @param bodyName
+     *            the name of the body file it refers to, which is left
+     *            alone if it is also the old entry's body
+     */
+    private synchronized void commit(String key, File metaTemp, String bodyName)
+            throws IOException {
+        File metaFile = new File(directory, key + META_SUFFIX);
+        File bodyFile = new File(directory, bodyName);
+        if (!bodyFile.exists()) {
+            // Evicted while it was being revalidated.
+            metaTemp.delete();
+            throw new FileNotFoundException(bodyFile.getPath());
+        }
+        if (!metaTemp.renameTo(metaFile)) {
+            metaTemp.delete();
+            throw new IOException(metaFile.getPath());
+        }
+        long entrySize = metaFile.length() + bodyFile.length();
+        Entry old = entries.put(key, new Entry(bodyName, entrySize));
+        if (old != null) {
+            size -= old.size;
+            if (!old.bodyName.equals(bodyName)) {
+                new File(directory, old.bodyName).delete();
+            }
+        }
+        size += entrySize;
+        trimToSize();
+    }
+
+    /**
+     * Removes the entry for a key, if there is one.
+     */
+    private synchronized void remove(String key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            delete(key, entry);
+        }
+    }
+
+    private void trimToSize() {
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (size > maxSize && it.hasNext()) {
+            Map.Entry<String, Entry> eldest = it.next();
+            it.remove();
+            delete(eldest.getKey(), eldest.getValue());
+        }
+    }
+
+    /**
+     * Deletes the files of an entry that has been taken out of the index.
+     */
+    private void delete(String key, Entry entry) {
+        new File(directory, key + META_SUFFIX).delete();
+        new File(directory, entry.bodyName).delete();
+        size -= entry.size;
+    }
+
+    /**
+     * Builds the index from the files in the directory, throwing away the
+     * ones that were left half written, or that nothing refers to.
+     */
+    private synchronized void readIndex() {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        List<File> metaFiles = new ArrayList<File>();
+        Set<String> bodyNames = new HashSet<String>();
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(META_SUFFIX)) {
+                metaFiles.add(file);
+            } else if (name.endsWith(BODY_SUFFIX)) {
+                bodyNames.add(name);
+            } else if (name.endsWith(TEMP_SUFFIX)) {
+                file.delete();
+            }
+        }
+
+        // Least recently used first, as the index keeps them.
+        Collections.sort(metaFiles, new Comparator<File>() {
+            public int compare(File a, File b) {
+                long difference = a.lastModified() - b.lastModified();
+                return (difference < 0) ? -1 : ((difference > 0) ? 1 : 0);
+            }
+        });
+
+        long maxGeneration = 0;
+        for (File metaFile : metaFiles) {
+            String name = metaFile.getName();
+            String key = name.substring(0, name.length() - META_SUFFIX.length());
+            Metadata metadata;
+            try {
+                metadata = readMetadata(metaFile);
+            } catch (IOException e) {
+                metaFile.delete();
+                continue;
+            }
+            File bodyFile = new File(directory, metadata.bodyName);
+            if (!bodyNames.remove(metadata.bodyName)) {
+                metaFile.delete();
+                continue;
+            }
+            long entrySize = metaFile.length() + bodyFile.length();
+            entries.put(key, new Entry(metadata.bodyName, entrySize));
+            size += entrySize;
+            maxGeneration = Math.max(maxGeneration,
+                    generationOf(metadata.bodyName));
+        }
+
+        for (String orphan : bodyNames) {
+            new File(directory, orphan).delete();
+        }
+        generation.set(maxGeneration);
+        trimToSize();
+    }
+
+    /**
+     * Returns the number in the name of a body file.
+     */
+    private static long generationOf(String bodyName) {
+        int start = bodyName.indexOf('.') + 1;
+        int end = bodyName.length() - BODY_SUFFIX.length();
+        try {
+            return Long.parseLong(bodyName.substring(start, end));
+        } catch (RuntimeException e) {
+            return 0;
+        }
+    }
+
+    private static Metadata readMetadata(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(file)));
+        try {
+            if (in.readInt() != META_MAGIC) {
+                throw new IOException(file.getPath());
+            }
+            String uri = in.readUTF();
+            String bodyName = in.readUTF();
+            long sentMillis = in.readLong();
+            long receivedMillis = in.readLong();
+            int headerCount = in.readInt();
+            Map<String, List<String>> headers =
+                new LinkedHashMap<String, List<String>>();
+            for (int i = 0; i < headerCount; i++) {
+                String name = in.readBoolean() ? in.readUTF() : null;
+                int valueCount = in.readInt();
+                List<String> values = new ArrayList<String>(valueCount);
+                for (int j = 0; j < valueCount; j++) {
+                    values.add(in.readUTF());
+                }
+                headers.put(name, Collections.unmodifiableList(values));
+            }
+            return new Metadata(uri, bodyName, sentMillis, receivedMillis,
+                    headers);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void writeMetadata(File file, Metadata metadata)
+            throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(file)));
+        try {
+            out.writeInt(META_MAGIC);
+            out.writeUTF(metadata.uri);
+            out.writeUTF(metadata.bodyName);
+            out.writeLong(metadata.sentMillis);
+            out.writeLong(metadata.receivedMillis);
+            out.writeInt(metadata.headers.size());
+            for (Map.Entry<String, List<String>> header
+                    : metadata.headers.entrySet()) {
+                String name = header.getKey();
+                out.writeBoolean(name != null);
+                if (name != null) {
+                    out.writeUTF(name);
+                }
+                out.writeInt(header.getValue().size());
+                for (String value : header.getValue()) {
+                    out.writeUTF(value);
+                }
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * An entry in the index.
+     */
+    private static final class Entry {
+        /** non-null; the name of the body file */
+        final String bodyName;
+
+        /** the bytes taken up by both files */
+        final long size;
+
+        Entry(String bodyName, long size) {
+            this.bodyName = bodyName;
+            this.size = size;
+        }
+    }
+
+    /**
+     * What a metadata file holds.
+     */
+    private static final class Metadata {
+        final String uri;
+
+        final String bodyName;
+
+        /** when the request was sent */
+        final long sentMillis;
+
+        /** when the response was received */
+        final long receivedMillis;
+
+        /** the headers, with the status line under <code>null</code> */
+        final Map<String, List<String>> headers;
+
+        Metadata(String uri, String bodyName, long sentMillis,
+                long receivedMillis, Map<String, List<String>> headers) {
+            this.uri = uri;
+            this.bodyName = bodyName;
+            this.sentMillis = sentMillis;
+            this.receivedMillis = receivedMillis;
+            this.headers = headers;
+        }
+    }
+
+    /**
+     * A stored response, with its body open for reading.
+     */
+    static final class EntryResponse extends CacheResponse {
+        private final String key;
+
+        private final Metadata metadata;
+
+        private final InputStream body;
+
+        private final boolean fresh;
+
+        EntryResponse(String key, Metadata metadata, InputStream body,
+                boolean fresh) {
+            this.key = key;
+            this.metadata = metadata;
+            this.body = body;
+            this.fresh = fresh;
+        }
+
+        @Override
+        public Map<String, List<String>> getHeaders() {
+            return Collections.unmodifiableMap(metadata.headers);
+        }
+
+        @Override
+        public InputStream getBody() {
+            return body;
+        }
+
+        /**
+         * @return whether it can be served without asking the server
+         */
+        boolean isFresh() {
+            return fresh;
+        }
+    }
+
+    /**
+     * A response being stored, whose body is written to a temporary file
+     * and only becomes an entry once it has all been written.
+     */
+    private final class EntryRequest extends CacheRequest {
+        private final String key;
+
+        private final String uri;
+
+        private final Map<String, List<String>> headers;
+
+        private final long receivedMillis = System.currentTimeMillis();
+
+        private final BodyOutputStream body;
+
+        EntryRequest(String key, String uri, Map<String, List<String>> headers)
+                throws IOException {
+            this.key = key;
+            this.uri = uri;
+            this.headers = headers;
+            this.body = new BodyOutputStream(this, newTempFile(key));
+        }
+
+        @Override
+        public OutputStream getBody() {
+            return body;
+        }
+
+        @Override
+        public void abort() {
+            body.discard();
+        }
+
+        /**
+         * Makes the written body into an entry, with its length as the
+         * <code>Content-Length</code>, since it is stored decoded from
+         * however it was sent.
+         */
+        void commit(File bodyTemp, long length) throws IOException {
+            String bodyName = key + '.' + generation.incrementAndGet()
+                    + BODY_SUFFIX;
+            File bodyFile = new File(directory, bodyName);
+            if (!bodyTemp.renameTo(bodyFile)) {
+                throw new IOException(bodyFile.getPath());
+            }
+
+            Map<String, List<String>> stored =
+                new LinkedHashMap<String, List<String>>();
+            for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+                String name = header.getKey();
+                if (name == null || !name.equalsIgnoreCase("Content-Length")) { //$NON-NLS-1$
+                    stored.put(name, header.getValue());
+                }
+            }
+            stored.put("Content-Length", //$NON-NLS-1$
+                    Collections.singletonList(Long.toString(length)));
+
+            Metadata metadata = new Metadata(uri, bodyName, receivedMillis,
+                    receivedMillis, stored);
+            File metaTemp = newTempFile(key);
+            try {
+                writeMetadata(metaTemp, metadata);
+                HttpResponseCache.this.commit(key, metaTemp, bodyName);
+            } catch (IOException e) {
+                bodyFile.delete();
+                metaTemp.delete();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * The stream a body is written to. It never throws, since it is
+     * written to as the caller reads the response, and a failure to store
+     * it shouldn't stop them reading; the body is simply not stored.
+     * Closing it stores the entry, unless it has failed or been aborted.
+     */
+    private final class BodyOutputStream extends FilterOutputStream {
+        private final EntryRequest request;
+
+        private final File file;
+
+        private long written;
+
+        private boolean failed;
+
+        private boolean done;
+
+        BodyOutputStream(EntryRequest request, File file)
+                throws FileNotFoundException {
+            super(new BufferedOutputStream(new FileOutputStream(file)));
+            this.request = request;
+            this.file = file;
+        }
+
+        @Override
+        public void write(int oneByte) {
+            write(new byte[] { (byte) oneByte }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int count) {
+            if (done || failed) {
+                return;
+            }
+            written += count;
+            if (written > maxSize) {
+                failed = true;
+                return;
+            }
+            try {
+                out.write(buffer, offset, count);
+            } catch (IOException e) {
+                failed = true;
+            }
+        }
+
+        @Override
+        public void flush() {
+            // Nothing is read back until the body is complete.
+        }
+
+        @Override
+        public void close() {
+            if (done) {
+                return;
+            }
+            done = true;
+            try {
+                out.close();
+            } catch (IOException e) {
+                failed = true;
+            }
+            if (!failed) {
+                try {
+                    request.commit(file, written);
+                    writeSuccessCount.incrementAndGet();
+                    return;
+                } catch (IOException e) {
+                    // Counted as aborted.
+                }
+            }
+            file.delete();
+            writeAbortCount.incrementAndGet();
+        }
+
+        /**
+         * Throws away what has been written.
+         */
+        void discard() {
+            if (done) {
+                return;
+            }
+            failed = true;
+            close();
+        }
+    }
+}
@@ -47,6 +47,7 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.TimeZone;
+import java.util.zip.GZIPInputStream;
 
 import org.apache.harmony.luni.util.Base64;
 import org.apache.harmony.luni.util.Msg;
@@ -89,6 +90,12 @@ public class HttpURLConnection extends java.net.HttpURLConnection {
 
     private boolean hasTriedCache;
 
+    // BEGIN android-added
+    // A stored response that is out of date but may still be current, if
+    // the server answers a conditional request for it with a 304.
+    private HttpResponseCache.EntryResponse staleResponse;
+    // END android-added
+
     private HttpOutputStream os;
 
     private boolean sentRequest;
@@ -198,6 +205,65 @@ public class HttpURLConnection extends java.net.HttpURLConnection {
         }
     }    
     // END android-added
+
+    // BEGIN android-added
+    /**
+     * Decompresses a gzipped response body as it is read. The gzip header
+     * isn't read until the first read, so as not to block getting the
+     * response code. Once the compressed data ends, whatever is left of
+     * the body (such as the last chunk of a chunked one) is read too, so
+     * that the connection can be reused and the body cached.
+     */
+    private class GzipInputStream extends InputStream {
+        private final InputStream body;
+
+        private GZIPInputStream gzip;
+
+        GzipInputStream(InputStream body) {
+            this.body = body;
+        }
+
+        private GZIPInputStream gzip() throws IOException {
+            if (gzip == null) {
+                gzip = new GZIPInputStream(body);
+            }
+            return gzip;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] oneByte = new byte[1];
+            int result = read(oneByte, 0, 1);
+            return (result == -1) ? -1 : (oneByte[0] & 0xff);
+        }
+
+        @Override
+        public int read(byte[] buf, int offset, int length) throws IOException {
+            int result = gzip().read(buf, offset, length);
+            if (result == -1) {
+                byte[] rest = new byte[64];
+                while (body.read(rest, 0, rest.length) != -1) {
+                    // discard
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (gzip == null) ? 0 : gzip.available();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (gzip != null) {
+                gzip.close();
+            } else {
+                body.close();
+            }
+        }
+    }
+    // END android-added
     
     private class LimitedInputStream extends InputStream {
         int bytesRemaining;
@@ -241,6 +307,9 @@ public class HttpURLConnection extends java.net.HttpURLConnection {
         @Override
         public int read() throws IOException {
             if (bytesRemaining <= 0) {
+                // BEGIN android-added
+                commitCacheRequest();
+                // END android-added
                 disconnect(false);
                 return -1;
             }
@@ -252,6 +321,9 @@ public class HttpURLConnection extends java.net.HttpURLConnection {
             }
             bytesRemaining--;
             if (bytesRemaining <= 0) {
+                // BEGIN android-added
+                commitCacheRequest();
+                // END android-added
                 disconnect(false);
             }
             return result;
@@ -268,6 +340,9 @@ public class HttpURLConnection extends java.net.HttpURLConnection {
                 throw new ArrayIndexOutOfBoundsException();
             }
             if (bytesRemaining <= 0) {
+                // BEGIN android-added
+                commitCacheRequest();
+                // END android-added
                 disconnect(false);
                 return -1;
             }
@@ -284,6 +359,9 @@ public class HttpURLConnection extends java.net.HttpURLConnection {
                 }
             }
             if (bytesRemaining <= 0) {
+                // BEGIN android-added
+                commitCacheRequest();
+                // END android-added
                 disconnect(false);
             }
             return result;
@@ -377,6 +455,9 @@ public class HttpURLConnection extends java.net.HttpURLConnection {
                 // What is the point of calling readHeaders() here?
                 // END android-note
                 readHeaders();
+                // BEGIN android-added
+                commitCacheRequest();
+                // END android-added
             }
         }
 
@@ -824,8 +905,35 @@ public class HttpURLConnection extends java.net.HttpURLConnection {
             if (null == resHeader) {
                 resHeader = new Header();
             }
-            cacheResponse = responseCache.get(uri, method, resHeader
-                    .getFieldMap());
+            // BEGIN android-changed
+            // Look up the whole URL, which "uri" no longer is once
+            // connected, with the request headers rather than the (empty)
+            // response headers. Our own cache also gives back a response
+            // that is stale but can be revalidated.
+            URI cacheUri = getCacheUri();
+            if (null == cacheUri) {
+                return false;
+            }
+            if (responseCache instanceof HttpResponseCache) {
+                HttpResponseCache.EntryResponse response =
+                        ((HttpResponseCache) responseCache).find(cacheUri,
+                                method, reqHeader.getFieldMap());
+                if (null != response && !response.isFresh()) {
+                    if (null == reqHeader.get("If-None-Match") //$NON-NLS-1$
+                            && null == reqHeader.get("If-Modified-Since")) { //$NON-NLS-1$
+                        staleResponse = response;
+                    } else {
+                        // the caller is making its own conditional request
+                        response.getBody().close();
+                    }
+                    response = null;
+                }
+                cacheResponse = response;
+            } else {
+                cacheResponse = responseCache.get(cacheUri, method,
+                        reqHeader.getFieldMap());
+            }
+            // END android-changed
             if (null != cacheResponse) {
                 Map<String, List<String>> headMap = cacheResponse.getHeaders();
                 if (null != headMap) {
@@ -847,13 +955,93 @@ public class HttpURLConnection extends java.net.HttpURLConnection {
     // exists
     private void putToCache() throws IOException {
         if (useCaches && null != responseCache) {
-            cacheRequest = responseCache.put(uri, this);
+            // BEGIN android-changed
+            URI cacheUri = getCacheUri();
+            if (null == cacheUri) {
+                return;
+            }
+            cacheRequest = responseCache.put(cacheUri, this);
+            // END android-changed
             if (null != cacheRequest) {
                 cacheOut = cacheRequest.getBody();
             }
         }
     }
 
+    // BEGIN android-added
+    /**
+     * Returns the URI responses are cached under, which is that of the
+     * URL as it is now, after any redirects.
+     */
+    private URI getCacheUri() {
+        try {
+            return url.toURI();
+        } catch (URISyntaxException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Finishes storing the response body, all of which has been read.
+     */
+    private void commitCacheRequest() {
+        if (null != cacheOut) {
+            try {
+                cacheOut.close();
+            } catch (IOException e) {
+                cacheRequest.abort();
+            }
+            cacheOut = null;
+            cacheRequest = null;
+        }
+    }
+
+    /**
+     * Stops storing the response body, throwing away what has been stored.
+     */
+    private void abortCacheRequest() {
+        if (null != cacheRequest) {
+            cacheRequest.abort();
+            cacheOut = null;
+            cacheRequest = null;
+        }
+    }
+
+    /**
+     * Serves the stale response, which the server has just said is still
+     * current, with its headers refreshed from the 304.
+     */
+    private void useStaleResponse() throws IOException {
+        // A 304 has no body, so the connection can go back to the pool.
+        disconnect(false);
+        resHeader = new Header(((HttpResponseCache) responseCache).update(
+                staleResponse, resHeader.getFieldMap()));
+        cacheResponse = staleResponse;
+        staleResponse = null;
+        is = cacheResponse.getBody();
+        responseCode = -1;
+        responseMessage = null;
+        getResponseCode();
+    }
+
+    private void closeStaleResponse() {
+        try {
+            staleResponse.getBody().close();
+        } catch (IOException e) {
+            // Ignored
+        }
+        staleResponse = null;
+    }
+
+    /**
+     * Returns the request headers, which {@link HttpResponseCache} needs
+     * after {@link #getRequestProperties} stops giving them out.
+     */
+    Map<String, List<String>> getRequestHeaderFields() {
+        return reqHeader.getFieldMap();
+    }
+    // END android-added
+
     /**
      * Closes the connection with the HTTP server
      * 
@@ -883,6 +1071,18 @@ public class HttpURLConnection extends java.net.HttpURLConnection {
             connection = null;
         }
 
+        /*
+         * A response served from the cache reads from a stream that
+         * nothing else will close.
+         */
+        if (cacheResponse != null && is != null) {
+            try {
+                is.close();
+            } catch (IOException e) {
+                // Ignored
+            }
+        }
+
         /*
          * Clear "is" and "os" to ensure that no further I/O attempts
          * from this instance make their way to the underlying
@@ -1043,11 +1243,44 @@ public class HttpURLConnection extends java.net.HttpURLConnection {
         return uis;
     }
 
+    // BEGIN android-added
+    /**
+     * Returns the stream of the response body, decompressed if it was
+     * gzipped only because we asked for it to be. The headers then describe
+     * the decompressed body, whose length isn't known.
+     */
     private InputStream getContentStream() throws IOException {
         if (uis != null) {
             return uis;
         }
 
+        InputStream transferStream = getTransferStream();
+        if (requestsGzip()
+                && "gzip".equalsIgnoreCase(resHeader.get("Content-Encoding")) //$NON-NLS-1$ //$NON-NLS-2$
+                && !"0".equals(resHeader.get("Content-Length"))) { //$NON-NLS-1$ //$NON-NLS-2$
+            resHeader.removeAll("Content-Encoding"); //$NON-NLS-1$
+            resHeader.removeAll("Content-Length"); //$NON-NLS-1$
+            uis = new GzipInputStream(transferStream);
+        }
+        return uis;
+    }
+
+    /**
+     * Returns whether we ask for the body gzipped: only if the caller
+     * didn't name encodings of its own, and didn't ask for a range of the
+     * body, which would be a range of the compressed bytes.
+     */
+    private boolean requestsGzip() {
+        return reqHeader.get("Accept-Encoding") == null //$NON-NLS-1$
+                && reqHeader.get("Range") == null; //$NON-NLS-1$
+    }
+    // END android-added
+
+    private InputStream getTransferStream() throws IOException {
+        if (uis != null) {
+            return uis;
+        }
+
         String encoding = resHeader.get("Transfer-Encoding"); //$NON-NLS-1$
         if (encoding != null && encoding.toLowerCase().equals("chunked")) { //$NON-NLS-1$
             return uis = new ChunkedInputStream();
@@ -1067,7 +1300,11 @@ public class HttpURLConnection extends java.net.HttpURLConnection {
          * Wrap the input stream from the HttpConnection (rather than
          * just returning "is" directly here), so that we can control
          * its use after the reference escapes.
+         *
+         * A body that runs until the connection closes is never known to
+         * be complete, so it isn't cached.
          */
+        abortCacheRequest();
         return uis = new LocalCloseInputStream();
         // END android-changed
     }
@@ -1234,6 +1471,16 @@ public class HttpURLConnection extends java.net.HttpURLConnection {
             }
         } while (getResponseCode() == 100);
 
+        // BEGIN android-added
+        if (staleResponse != null) {
+            if (responseCode == HTTP_NOT_MODIFIED) {
+                useStaleResponse();
+                return;
+            }
+            closeStaleResponse();
+        }
+        // END android-added
+
         if (method == HEAD || (responseCode >= 100 && responseCode < 200)
                 || responseCode == HTTP_NO_CONTENT
                 || responseCode == HTTP_NOT_MODIFIED) {
@@ -1327,6 +1574,12 @@ public class HttpURLConnection extends java.net.HttpURLConnection {
         if (httpVersion > 0 && reqHeader.get("Connection") == null) { //$NON-NLS-1$
             output.append("Connection: Keep-Alive\r\n"); //$NON-NLS-1$
         }
+        // BEGIN android-added
+        // offer to take the body gzipped, which getContentStream() undoes
+        if (requestsGzip()) {
+            output.append("Accept-Encoding: gzip\r\n"); //$NON-NLS-1$
+        }
+        // END android-added
 
         // if we are doing output make sure the appropriate headers are sent
         if (os != null) {
@@ -1380,6 +1633,25 @@ public class HttpURLConnection extends java.net.HttpURLConnection {
             output.append(String.valueOf(fixedContentLength));
             output.append("\r\n"); //$NON-NLS-1$
         }
+        // BEGIN android-added
+        // ask whether the stale cached response is still current
+        if (staleResponse != null) {
+            Map<String, List<String>> cached = staleResponse.getHeaders();
+            String etag = HttpResponseCache.value(cached, "ETag"); //$NON-NLS-1$
+            if (etag != null) {
+                output.append("If-None-Match: "); //$NON-NLS-1$
+                output.append(etag);
+                output.append("\r\n"); //$NON-NLS-1$
+            }
+            String lastModified = HttpResponseCache.value(cached,
+                    "Last-Modified"); //$NON-NLS-1$
+            if (lastModified != null) {
+                output.append("If-Modified-Since: "); //$NON-NLS-1$
+                output.append(lastModified);
+                output.append("\r\n"); //$NON-NLS-1$
+            }
+        }
+        // END android-added
         // end the headers
         output.append("\r\n"); //$NON-NLS-1$
         return output.toString().getBytes("ISO8859_1"); //$NON-NLS-1$
@@ -0,0 +1,363 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.harmony.luni.net;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.security.AccessController;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.harmony.luni.util.PriviAction;
+
+/**
+ * Cache of the addresses that host names have been resolved to, used
+ * by {@link InetAddress#getByName}. Lookups never block one another:
+ * the cache is a concurrent hash map, and names that aren't in it are
+ * resolved in parallel, except that threads asking for the same name
+ * at the same time share a single resolution rather than each making
+ * their own.
+ *
+ * <p>The cache holds up to <code>networkaddress.cache.size</code>
+ * names (64 by default); when it is full, the name added longest ago
+ * makes way for the new one. How long an entry stays good is given to
+ * each lookup, so that a change to <code>networkaddress.cache.ttl</code>
+ * applies to the entries already there.</p>
+ *
+ * <p>The counts of hits, misses and resolutions, and the time spent
+ * resolving, are kept for the life of the cache, and can be read at
+ * any time to see how well it is working.</p>
+ */
+public final class AddressCache {
+    /** default maximum number of names in the cache */
+    public static final int DEFAULT_CAPACITY = 64;
+
+    /** non-null; the cache used by {@link InetAddress} */
+    private static final AddressCache DEFAULT =
+        new AddressCache(readCapacity());
+
+    /** &gt;= 0; maximum number of names in the cache */
+    private final int capacity;
+
+    /** non-null; the cached addresses, by host name */
+    private final ConcurrentHashMap<String, Entry> entries;
+
+    /** non-null; the resolutions in progress, by host name */
+    private final ConcurrentHashMap<String, FutureTask<InetAddress>> pending;
+
+    /** non-null; number of lookups answered from the cache */
+    private final AtomicLong hits = new AtomicLong();
+
+    /** non-null; number of lookups that had to wait for a resolution */
+    private final AtomicLong misses = new AtomicLong();
+
+    /** non-null; number of resolutions done */
+    private final AtomicLong resolutions = new AtomicLong();
+
+    /** non-null; total time taken by the resolutions, in nanoseconds */
+    private final AtomicLong resolutionNanos = new AtomicLong();
+
+    /**
+     * Something that can resolve a host name to an address, which the
+     * cache calls when it doesn't have the address already.
+     */
+    public interface Resolver {
+        /**
+         * Resolves a host name.
+         *
+         * @param host the name to resolve
+         * @return the address
+         * @throws UnknownHostException if the name can't be resolved
+         */
+        InetAddress resolve(String host) throws UnknownHostException;
+    }
+
+    /**
+     * Returns the cache used by {@link InetAddress}, whose counters
+     * show how well name lookups are doing for the whole process.
+     *
+     * @return the cache
+     */
+    public static AddressCache getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Constructs an empty cache.
+     *
+     * @param capacity
+     *            the maximum number of names to hold; <code>0</code> means
+     *            nothing is kept, though concurrent lookups of the same
+     *            name still share one resolution
+     */
+    public AddressCache(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException();
+        }
+        this.capacity = capacity;
+        this.entries = new ConcurrentHashMap<String, Entry>();
+        this.pending = new ConcurrentHashMap<String, FutureTask<InetAddress>>();
+    }
+
+    /**
+     * Returns the cached address of a host, if there is one that is
+     * still good, counting a hit if so.
+     *
+     * @param host
+     *            the host name
+     * @param ttl
+     *            how long an entry stays good, in seconds, or a negative
+     *            number if entries stay good until they are evicted
+     * @return the address, or <code>null</code> if it isn't cached
+     */
+    public InetAddress get(String host, int ttl) {
+        Entry entry = entries.get(host);
+        if (entry == null) {
+            return null;
+        }
+        if (ttl >= 0
+                && System.nanoTime() - entry.nanoTimeAdded > ttl * 1000000000L) {
+            entries.remove(host, entry);
+            return null;
+        }
+        hits.incrementAndGet();
+        return entry.address;
+    }
+
+    /**
+     * Resolves a host that wasn't found by {@link #get}, counting a
+     * miss. If another thread is already resolving the same host, this
+     * waits for its result instead of resolving it again. A successful
+     * resolution is added to the cache if <code>store</code> is true.
+     *
+     * @param host
+     *            the host name
+     * @param store
+     *            whether to cache the address
+     * @param resolver
+     *            what to resolve the name with
+     * @return the address
+     * @throws UnknownHostException
+     *             if the name can't be resolved
+     */
+    public InetAddress resolve(final String host, final boolean store,
+            final Resolver resolver) throws UnknownHostException {
+        FutureTask<InetAddress> task = new FutureTask<InetAddress>(
+                new Callable<InetAddress>() {
+                    public InetAddress call() throws UnknownHostException {
+                        InetAddress address = resolver.resolve(host);
+                        if (store) {
+                            put(host, address);
+                        }
+                        return address;
+                    }
+                });
+
+        FutureTask<InetAddress> running = pending.putIfAbsent(host, task);
+        misses.incrementAndGet();
+        if (running == null) {
+            // Another thread may have finished resolving the name between
+            // this one's call to get() and now; a resolution is cached
+            // before it stops being pending, so looking again suffices.
+            Entry entry = store ? entries.get(host) : null;
+            if (entry != null) {
+                pending.remove(host, task);
+                return entry.address;
+            }
+
+            // This thread does the resolution.
+            long start = System.nanoTime();
+            try {
+                task.run();
+            } finally {
+                pending.remove(host, task);
+                resolutionNanos.addAndGet(System.nanoTime() - start);
+                resolutions.incrementAndGet();
+            }
+            running = task;
+        }
+
+        return await(running);
+    }
+
+    /**
+     * Waits for a resolution to finish, without giving up if the
+     * thread is interrupted, just as a resolution of its own wouldn't.
+     *
+     * @param task
+     *            the resolution
+     * @return the address
+     * @throws UnknownHostException
+     *             if the name couldn't be resolved
+     */
+    private static InetAddress await(FutureTask<InetAddress> task)
+            throws UnknownHostException {
+        boolean interrupted = false;
+        try {
+            for (;;) {
+                try {
+                    return task.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof UnknownHostException) {
+                        throw (UnknownHostException) cause;
+                    } else if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    } else if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw new RuntimeException(cause);
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Adds an address to the cache, making room for it if need be.
+     *
+     * @param host
+     *            the host name
+     * @param address
+     *            its address
+     */
+    private void put(String host, InetAddress address) {
+        if (capacity == 0) {
+            return;
+        }
+        entries.put(host, new Entry(address));
+        while (entries.size() > capacity) {
+            evictOldest();
+        }
+    }
+
+    /**
+     * Removes the entry that was added longest ago. Eviction only
+     * happens when the cache is full, so a scan is cheap next to the
+     * resolution that led to it.
+     */
+    private void evictOldest() {
+        Map.Entry<String, Entry> oldest = null;
+        for (Map.Entry<String, Entry> one : entries.entrySet()) {
+            if (oldest == null
+                    || one.getValue().nanoTimeAdded
+                            - oldest.getValue().nanoTimeAdded < 0) {
+                oldest = one;
+            }
+        }
+        if (oldest != null) {
+            entries.remove(oldest.getKey(), oldest.getValue());
+        }
+    }
+
+    /**
+     * Removes every entry from the cache. The counters are left alone.
+     */
+    public void clear() {
+        entries.clear();
+    }
+
+    /**
+     * @return the maximum number of names the cache holds
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the number of names in the cache
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return the number of lookups answered from the cache
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of lookups not answered from the cache, each of
+     *         which either resolved the name or waited for another thread
+     *         that was resolving it
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * @return the number of resolutions done, which is less than the
+     *         number of misses by the number that shared a resolution
+     */
+    public long getResolutionCount() {
+        return resolutions.get();
+    }
+
+    /**
+     * @return the total time taken by the resolutions, successful or not,
+     *         in nanoseconds
+     */
+    public long getResolutionNanos() {
+        return resolutionNanos.get();
+    }
+
+    /**
+     * Reads the capacity of the default cache from the
+     * <code>networkaddress.cache.size</code> property.
+     *
+     * @return the capacity
+     */
+    private static int readCapacity() {
+        String value = AccessController.doPrivileged(new PriviAction<String>(
+                "networkaddress.cache.size")); //$NON-NLS-1$
+        try {
+            if (value != null) {
+                int capacity = Integer.decode(value).intValue();
+                if (capacity >= 0) {
+                    return capacity;
+                }
+            }
+        } catch (NumberFormatException e) {
+            // Ignored
+        }
+        return DEFAULT_CAPACITY;
+    }
+
+    /**
+     * A cached address, with the time it was added.
+     */
+    private static final class Entry {
+        final InetAddress address;
+
+        final long nanoTimeAdded = System.nanoTime();
+
+        Entry(InetAddress address) {
+            this.address = address;
+        }
+    }
+}
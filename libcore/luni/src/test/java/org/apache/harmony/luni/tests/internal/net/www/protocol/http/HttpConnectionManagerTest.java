@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.harmony.luni.tests.internal.net.www.protocol.http;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import junit.framework.TestCase;
+
+import org.apache.harmony.luni.internal.net.www.protocol.http.HttpConfiguration;
+import org.apache.harmony.luni.internal.net.www.protocol.http.HttpConnection;
+import org.apache.harmony.luni.internal.net.www.protocol.http.HttpConnectionManager;
+
+/**
+ * Tests for the pooling of <code>HttpConnectionManager</code>.
+ */
+public class HttpConnectionManagerTest extends TestCase {
+
+    /**
+     * Accepts connections and holds them open, without ever sending
+     * anything, until it is closed.
+     */
+    static class IdleServer extends Thread {
+        final ServerSocket serverSocket;
+        final List<Socket> accepted = new ArrayList<Socket>();
+
+        IdleServer() throws IOException {
+            serverSocket = new ServerSocket(0);
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                for (;;) {
+                    Socket socket = serverSocket.accept();
+                    synchronized (accepted) {
+                        accepted.add(socket);
+                    }
+                }
+            } catch (IOException e) {
+                // closed
+            }
+        }
+
+        void close() throws IOException {
+            serverSocket.close();
+            synchronized (accepted) {
+                for (Socket socket : accepted) {
+                    socket.close();
+                }
+            }
+        }
+    }
+
+    private IdleServer server;
+
+    private HttpConnectionManager manager;
+
+    @Override
+    protected void setUp() throws Exception {
+        server = new IdleServer();
+        server.start();
+        manager = new HttpConnectionManager();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        manager.reset();
+        server.close();
+    }
+
+    private URI uri(String path) throws Exception {
+        return new URI("http://localhost:" + server.serverSocket.getLocalPort()
+                + path);
+    }
+
+    private HttpConnection open(String path) throws Exception {
+        HttpConnection connection = manager.getConnection(uri(path), 0);
+        connection.getInputStream();
+        connection.getOutputStream();
+        return connection;
+    }
+
+    public void test_reuseAcrossPaths() throws Exception {
+        HttpConnection first = open("/a");
+        manager.returnConnectionToPool(first);
+        assertEquals(1, manager.numFreeConnections());
+
+        HttpConnection second = open("/b");
+        assertSame(first, second);
+        assertEquals(0, manager.numFreeConnections());
+        assertEquals(2, manager.getRequestedConnectionCount());
+        assertEquals(1, manager.getReusedConnectionCount());
+    }
+
+    public void test_mostRecentlyReturnedFirst() throws Exception {
+        HttpConnection first = open("/");
+        HttpConnection second = open("/");
+        manager.returnConnectionToPool(first);
+        manager.returnConnectionToPool(second);
+
+        assertSame(second, open("/"));
+        assertSame(first, open("/"));
+    }
+
+    public void test_maxIdlePerRoute() throws Exception {
+        manager.setMaxIdleConnectionsPerRoute(1);
+        HttpConnection first = open("/");
+        HttpConnection second = open("/");
+        manager.returnConnectionToPool(first);
+        manager.returnConnectionToPool(second);
+
+        assertEquals(1, manager.numFreeConnections());
+        assertEquals(1, manager.getEvictedConnectionCount());
+        assertSame(second, open("/"));
+    }
+
+    public void test_idleTimeout() throws Exception {
+        manager.setIdleTimeout(50);
+        manager.returnConnectionToPool(open("/"));
+        assertEquals(1, manager.numFreeConnections());
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (manager.numFreeConnections() != 0
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, manager.numFreeConnections());
+        assertEquals(1, manager.getEvictedConnectionCount());
+    }
+
+    public void test_routeHostCaseInAnyLocale() throws Exception {
+        Locale defaultLocale = Locale.getDefault();
+        Locale.setDefault(new Locale("tr", "TR"));
+        try {
+            HttpConfiguration upper =
+                    new HttpConfiguration(new URI("http://WWW.ITEM.COM/a"));
+            HttpConfiguration lower =
+                    new HttpConfiguration(new URI("http://www.item.com/b"));
+            assertEquals(upper, lower);
+            assertEquals(upper.hashCode(), lower.hashCode());
+        } finally {
+            Locale.setDefault(defaultLocale);
+        }
+    }
+
+    public void test_routeWithoutHost() throws Exception {
+        HttpConfiguration first = new HttpConfiguration(new URI("http:/a"));
+        HttpConfiguration second = new HttpConfiguration(new URI("http:/b"));
+        HttpConfiguration withHost =
+                new HttpConfiguration(new URI("http://localhost/a"));
+        assertEquals(first, second);
+        assertEquals(first.hashCode(), second.hashCode());
+        assertFalse(first.equals(withHost));
+        assertFalse(withHost.equals(first));
+    }
+}
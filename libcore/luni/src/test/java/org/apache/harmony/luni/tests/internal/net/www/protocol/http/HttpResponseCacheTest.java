@@ -0,0 +1,347 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.harmony.luni.tests.internal.net.www.protocol.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.ResponseCache;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import junit.framework.TestCase;
+
+import org.apache.harmony.luni.internal.net.www.protocol.http.Handler;
+import org.apache.harmony.luni.internal.net.www.protocol.http.HttpResponseCache;
+
+/**
+ * Tests for <code>HttpResponseCache</code>, through the
+ * <code>HttpURLConnection</code> of the same package.
+ */
+public class HttpResponseCacheTest extends TestCase {
+
+    /**
+     * Answers each request, on as many kept-alive connections as it is
+     * given, with the next of the responses it was given, and keeps the
+     * request headers it was sent.
+     */
+    static class ScriptedServer extends Thread {
+        final ServerSocket serverSocket;
+        final LinkedList<String> responses = new LinkedList<String>();
+        final List<String> requests = new ArrayList<String>();
+
+        ScriptedServer() throws IOException {
+            serverSocket = new ServerSocket(0);
+            setDaemon(true);
+        }
+
+        synchronized void enqueue(String response) {
+            responses.add(response);
+        }
+
+        synchronized int getRequestCount() {
+            return requests.size();
+        }
+
+        synchronized String getRequest(int index) {
+            return requests.get(index);
+        }
+
+        @Override
+        public void run() {
+            try {
+                for (;;) {
+                    final Socket socket = serverSocket.accept();
+                    new Thread() {
+                        @Override
+                        public void run() {
+                            serve(socket);
+                        }
+                    }.start();
+                }
+            } catch (IOException e) {
+                // closed
+            }
+        }
+
+        void serve(Socket socket) {
+            try {
+                InputStream in = socket.getInputStream();
+                OutputStream out = socket.getOutputStream();
+                for (;;) {
+                    String request = readRequest(in);
+                    if (request == null) {
+                        break;
+                    }
+                    String response;
+                    synchronized (this) {
+                        requests.add(request);
+                        response = responses.removeFirst();
+                    }
+                    out.write(response.getBytes("ISO8859_1"));
+                    out.flush();
+                }
+            } catch (IOException e) {
+                // the client went away
+            } finally {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // Ignored
+                }
+            }
+        }
+
+        static String readRequest(InputStream in) throws IOException {
+            StringBuilder request = new StringBuilder();
+            for (;;) {
+                int b = in.read();
+                if (b == -1) {
+                    return null;
+                }
+                request.append((char) b);
+                if (request.toString().endsWith("\r\n\r\n")) {
+                    return request.toString();
+                }
+            }
+        }
+
+        void close() throws IOException {
+            serverSocket.close();
+        }
+    }
+
+    private ScriptedServer server;
+
+    private File directory;
+
+    private HttpResponseCache cache;
+
+    @Override
+    protected void setUp() throws Exception {
+        server = new ScriptedServer();
+        server.start();
+        directory = new File(System.getProperty("java.io.tmpdir"),
+                "HttpResponseCacheTest" + System.nanoTime());
+        cache = new HttpResponseCache(directory, 1024 * 1024);
+        ResponseCache.setDefault(cache);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        ResponseCache.setDefault(null);
+        server.close();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    private HttpURLConnection open(String path) throws IOException {
+        URL url = new URL(null, "http://localhost:"
+                + server.serverSocket.getLocalPort() + path, new Handler());
+        return (HttpURLConnection) url.openConnection();
+    }
+
+    private static String read(HttpURLConnection connection)
+            throws IOException {
+        InputStream in = connection.getInputStream();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[256];
+        int count;
+        while ((count = in.read(buffer)) != -1) {
+            bytes.write(buffer, 0, count);
+        }
+        in.close();
+        return bytes.toString("ISO8859_1");
+    }
+
+    private static String formatDate(long millis) {
+        SimpleDateFormat format = new SimpleDateFormat(
+                "EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return format.format(new Date(millis));
+    }
+
+    private static String response(String headers, String body) {
+        return "HTTP/1.1 200 OK\r\n" + headers + "Content-Length: "
+                + body.length() + "\r\n\r\n" + body;
+    }
+
+    public void test_freshResponseServedFromCache() throws Exception {
+        server.enqueue(response("Cache-Control: max-age=60\r\n", "ABC"));
+
+        assertEquals("ABC", read(open("/a")));
+        HttpURLConnection second = open("/a");
+        assertEquals("ABC", read(second));
+        assertEquals(200, second.getResponseCode());
+        assertEquals("max-age=60", second.getHeaderField("Cache-Control"));
+
+        assertEquals(1, server.getRequestCount());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getWriteSuccessCount());
+    }
+
+    public void test_chunkedResponseIsCached() throws Exception {
+        server.enqueue("HTTP/1.1 200 OK\r\n"
+                + "Cache-Control: max-age=60\r\n"
+                + "Transfer-Encoding: chunked\r\n\r\n"
+                + "3\r\nABC\r\n2\r\nDE\r\n0\r\n\r\n");
+
+        assertEquals("ABCDE", read(open("/a")));
+        HttpURLConnection second = open("/a");
+        assertEquals("ABCDE", read(second));
+        assertEquals("5", second.getHeaderField("Content-Length"));
+        assertNull(second.getHeaderField("Transfer-Encoding"));
+        assertEquals(1, server.getRequestCount());
+    }
+
+    public void test_expiresInTheFuture() throws Exception {
+        long now = System.currentTimeMillis();
+        server.enqueue(response("Date: " + formatDate(now) + "\r\n"
+                + "Expires: " + formatDate(now + 3600 * 1000) + "\r\n",
+                "ABC"));
+
+        assertEquals("ABC", read(open("/a")));
+        assertEquals("ABC", read(open("/a")));
+        assertEquals(1, server.getRequestCount());
+    }
+
+    public void test_conditionalRequestWithETag() throws Exception {
+        server.enqueue(response("Cache-Control: max-age=0\r\n"
+                + "ETag: \"v1\"\r\n", "ABC"));
+        server.enqueue("HTTP/1.1 304 Not Modified\r\n"
+                + "Cache-Control: max-age=60\r\n\r\n");
+
+        assertEquals("ABC", read(open("/a")));
+        HttpURLConnection second = open("/a");
+        assertEquals("ABC", read(second));
+        assertEquals(200, second.getResponseCode());
+        assertTrue(server.getRequest(1).contains("If-None-Match: \"v1\"\r\n"));
+        assertEquals(1, cache.getConditionalHitCount());
+
+        // The 304 made it fresh again.
+        assertEquals("ABC", read(open("/a")));
+        assertEquals(2, server.getRequestCount());
+    }
+
+    public void test_conditionalRequestWithLastModified() throws Exception {
+        String lastModified = "Mon, 01 Jan 2007 00:00:00 GMT";
+        server.enqueue(response("Cache-Control: no-cache\r\n"
+                + "Last-Modified: " + lastModified + "\r\n", "ABC"));
+        server.enqueue(response("Last-Modified: " + lastModified + "\r\n",
+                "DEF"));
+
+        assertEquals("ABC", read(open("/a")));
+        assertEquals("DEF", read(open("/a")));
+        assertTrue(server.getRequest(1).contains("If-Modified-Since: "
+                + lastModified + "\r\n"));
+        assertEquals(0, cache.getConditionalHitCount());
+        assertEquals(2, cache.getWriteSuccessCount());
+    }
+
+    public void test_noStoreIsNotCached() throws Exception {
+        server.enqueue(response("Cache-Control: no-store, max-age=60\r\n",
+                "ABC"));
+        server.enqueue(response("Cache-Control: no-store, max-age=60\r\n",
+                "DEF"));
+
+        assertEquals("ABC", read(open("/a")));
+        assertEquals("DEF", read(open("/a")));
+        assertEquals(0, cache.getWriteSuccessCount());
+    }
+
+    public void test_noValidatorOrLifetimeIsNotCached() throws Exception {
+        server.enqueue(response("", "ABC"));
+        server.enqueue(response("", "DEF"));
+
+        assertEquals("ABC", read(open("/a")));
+        assertEquals("DEF", read(open("/a")));
+        assertEquals(0, cache.getSize());
+    }
+
+    public void test_partlyReadBodyIsNotCached() throws Exception {
+        server.enqueue(response("Cache-Control: max-age=60\r\n", "ABCDEF"));
+        server.enqueue(response("Cache-Control: max-age=60\r\n", "GHIJKL"));
+
+        InputStream in = open("/a").getInputStream();
+        assertEquals('A', in.read());
+        in.close();
+
+        assertEquals("GHIJKL", read(open("/a")));
+        assertEquals(1, cache.getWriteAbortCount());
+        assertEquals("GHIJKL", read(open("/a")));
+        assertEquals(2, server.getRequestCount());
+    }
+
+    public void test_leastRecentlyUsedIsEvicted() throws Exception {
+        cache = new HttpResponseCache(directory, 1);
+        ResponseCache.setDefault(cache);
+        server.enqueue(response("Cache-Control: max-age=60\r\n", "ABC"));
+        server.enqueue(response("Cache-Control: max-age=60\r\n", "DEF"));
+
+        assertEquals("ABC", read(open("/a")));
+        assertEquals("DEF", read(open("/a")));
+        assertEquals(0, cache.getSize());
+        assertEquals(2, server.getRequestCount());
+    }
+
+    public void test_entriesSurviveANewCache() throws Exception {
+        server.enqueue(response("Cache-Control: max-age=60\r\n", "ABC"));
+        server.enqueue(response("Cache-Control: max-age=60\r\n", "DEF"));
+        assertEquals("ABC", read(open("/a")));
+        assertEquals("DEF", read(open("/b")));
+        // The order of use is kept in file times; let them differ.
+        Thread.sleep(50);
+        assertEquals("ABC", read(open("/a")));
+        long size = cache.getSize();
+
+        // Only room for one: "/b" was used longest ago.
+        cache = new HttpResponseCache(directory, size - 1);
+        ResponseCache.setDefault(cache);
+        assertEquals("ABC", read(open("/a")));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, server.getRequestCount());
+    }
+
+    public void test_postInvalidates() throws Exception {
+        server.enqueue(response("Cache-Control: max-age=60\r\n", "ABC"));
+        server.enqueue(response("", "OK"));
+        server.enqueue(response("Cache-Control: max-age=60\r\n", "DEF"));
+
+        assertEquals("ABC", read(open("/a")));
+        HttpURLConnection post = open("/a");
+        post.setDoOutput(true);
+        post.getOutputStream().write('x');
+        assertEquals("OK", read(post));
+        assertEquals("DEF", read(open("/a")));
+    }
+}
@@ -0,0 +1,300 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.harmony.luni.tests.internal.net.www.protocol.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.harmony.luni.internal.net.www.protocol.http.Handler;
+
+/**
+ * Benchmark of fetching JSON documents of a few typical sizes from a
+ * local server, with the body sent as it is and gzipped, reporting the
+ * bytes sent on the wire for each response and the best time from
+ * opening the connection to reading the last byte. The server can be
+ * held to a given bandwidth, to stand in for a real network. Run it as
+ * <code>java org.apache.harmony.luni.tests.internal.net.www.protocol.http.HttpURLConnectionGzipBenchmark
+ * [--rounds=&lt;n&gt;] [--kbps=&lt;n&gt;]</code>.
+ */
+public class HttpURLConnectionGzipBenchmark {
+    /** default number of timed rounds */
+    private static final int DEFAULT_ROUNDS = 20;
+
+    /** sizes of the documents served, in bytes */
+    private static final int[] SIZES = { 1024, 16 * 1024, 256 * 1024 };
+
+    /** non-null; the documents, indexed like {@link #SIZES} */
+    private final byte[][] documents = new byte[SIZES.length][];
+
+    /** non-null; the gzipped documents, indexed like {@link #SIZES} */
+    private final byte[][] gzipped = new byte[SIZES.length][];
+
+    /** the server's bandwidth in kilobytes per second, or 0 if unlimited */
+    private final int kbps;
+
+    /** non-null; bytes the server has sent, headers included */
+    private final AtomicLong bytesSent = new AtomicLong();
+
+    /** non-null; the server socket */
+    private final ServerSocket serverSocket;
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args command-line arguments
+     */
+    public static void main(String[] args) throws IOException {
+        int rounds = DEFAULT_ROUNDS;
+        int kbps = 0;
+
+        for (String arg : args) {
+            if (arg.startsWith("--rounds=")) {
+                rounds = Integer.parseInt(arg.substring(arg.indexOf('=') + 1));
+            } else if (arg.startsWith("--kbps=")) {
+                kbps = Integer.parseInt(arg.substring(arg.indexOf('=') + 1));
+            } else {
+                System.err.println("usage: HttpURLConnectionGzipBenchmark "
+                        + "[--rounds=<n>] [--kbps=<n>]");
+                System.exit(2);
+            }
+        }
+
+        HttpURLConnectionGzipBenchmark benchmark =
+            new HttpURLConnectionGzipBenchmark(kbps);
+        try {
+            benchmark.run(rounds);
+        } finally {
+            benchmark.serverSocket.close();
+        }
+    }
+
+    private HttpURLConnectionGzipBenchmark(int kbps) throws IOException {
+        this.kbps = kbps;
+        for (int i = 0; i < SIZES.length; i++) {
+            documents[i] = makeJson(SIZES[i]);
+            gzipped[i] = gzip(documents[i]);
+        }
+
+        serverSocket = new ServerSocket(0);
+        Thread acceptor = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    for (;;) {
+                        final Socket socket = serverSocket.accept();
+                        Thread server = new Thread() {
+                            @Override
+                            public void run() {
+                                serve(socket);
+                            }
+                        };
+                        server.setDaemon(true);
+                        server.start();
+                    }
+                } catch (IOException e) {
+                    // closed
+                }
+            }
+        };
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Runs the given number of timed rounds of each case, after a round
+     * of warm-up, and prints the results.
+     */
+    private void run(int rounds) throws IOException {
+        System.out.printf("%-8s %10s %12s %12s %10s\n", "encoding",
+                "size", "wire bytes", "last byte", "ratio");
+        for (int i = 0; i < SIZES.length; i++) {
+            long identityNanos = Long.MAX_VALUE;
+            long gzipNanos = Long.MAX_VALUE;
+            long identityBytes = 0;
+            long gzipBytes = 0;
+
+            for (int round = 0; round <= rounds; round++) {
+                long startBytes = bytesSent.get();
+                long nanos = fetch(i, false);
+                long bytes = bytesSent.get() - startBytes;
+                if (round != 0) {
+                    identityNanos = Math.min(identityNanos, nanos);
+                    identityBytes = bytes;
+                }
+
+                startBytes = bytesSent.get();
+                nanos = fetch(i, true);
+                bytes = bytesSent.get() - startBytes;
+                if (round != 0) {
+                    gzipNanos = Math.min(gzipNanos, nanos);
+                    gzipBytes = bytes;
+                }
+            }
+
+            System.out.printf("%-8s %10d %12d %9.2f ms %10s\n", "identity",
+                    SIZES[i], identityBytes, identityNanos / 1e6, "");
+            System.out.printf("%-8s %10d %12d %9.2f ms %9.1f%%\n", "gzip",
+                    SIZES[i], gzipBytes, gzipNanos / 1e6,
+                    100.0 * gzipBytes / identityBytes);
+        }
+    }
+
+    /**
+     * Fetches one document and reads it to the end.
+     *
+     * @param index which document
+     * @param gzip whether to let the connection ask for it gzipped
+     * @return the time taken, in nanoseconds
+     */
+    private long fetch(int index, boolean gzip) throws IOException {
+        URL url = new URL(null, "http://localhost:"
+                + serverSocket.getLocalPort() + "/" + index, new Handler());
+        long start = System.nanoTime();
+
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        if (!gzip) {
+            connection.setRequestProperty("Accept-Encoding", "identity");
+        }
+        InputStream in = connection.getInputStream();
+        byte[] buffer = new byte[8192];
+        int total = 0;
+        int count;
+        while ((count = in.read(buffer)) != -1) {
+            total += count;
+        }
+        in.close();
+
+        long nanos = System.nanoTime() - start;
+        if (total != SIZES[index]) {
+            throw new AssertionError("read " + total + " bytes, expected "
+                    + SIZES[index]);
+        }
+        return nanos;
+    }
+
+    /**
+     * Answers the requests on one connection, gzipping the document if
+     * the request says it may.
+     */
+    private void serve(Socket socket) {
+        try {
+            // Headers and body are written separately; don't let the body
+            // wait for the headers to be acknowledged.
+            socket.setTcpNoDelay(true);
+            InputStream in = socket.getInputStream();
+            OutputStream out = socket.getOutputStream();
+            for (;;) {
+                String request = HttpResponseCacheTest.ScriptedServer
+                        .readRequest(in);
+                if (request == null) {
+                    break;
+                }
+                int start = request.indexOf('/') + 1;
+                int index = Integer.parseInt(
+                        request.substring(start, request.indexOf(' ', start)));
+                boolean gzip = request.toLowerCase().contains(
+                        "\r\naccept-encoding: gzip");
+                byte[] body = gzip ? gzipped[index] : documents[index];
+                String headers = "HTTP/1.1 200 OK\r\n"
+                        + "Content-Type: application/json\r\n"
+                        + (gzip ? "Content-Encoding: gzip\r\n" : "")
+                        + "Content-Length: " + body.length + "\r\n\r\n";
+                write(out, headers.getBytes("ISO8859_1"));
+                write(out, body);
+                out.flush();
+            }
+        } catch (IOException e) {
+            // the client went away
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Ignored
+            }
+        }
+    }
+
+    /**
+     * Writes to the client, no faster than the bandwidth allows.
+     */
+    private void write(OutputStream out, byte[] bytes) throws IOException {
+        // Counted first, so that it is done by the time the client has
+        // read the last byte.
+        bytesSent.addAndGet(bytes.length);
+        if (kbps == 0) {
+            out.write(bytes);
+        } else {
+            // Send a millisecond's worth at a time.
+            int slice = Math.max(kbps * 1024 / 1000, 1);
+            long start = System.nanoTime();
+            for (int offset = 0; offset < bytes.length; offset += slice) {
+                int count = Math.min(slice, bytes.length - offset);
+                out.write(bytes, offset, count);
+                out.flush();
+                long due = start + (offset + count) * 1000000000L
+                        / (kbps * 1024L);
+                long wait = due - System.nanoTime();
+                if (wait > 0) {
+                    try {
+                        Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+                    } catch (InterruptedException e) {
+                        throw new IOException(e.toString());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Makes a JSON document of the given size, shaped like a typical
+     * response from a web service: an array of records.
+     */
+    private static byte[] makeJson(int size) throws IOException {
+        StringBuilder json = new StringBuilder(size + 256);
+        json.append("[");
+        for (int i = 0; json.length() < size; i++) {
+            if (i > 0) {
+                json.append(",\n");
+            }
+            json.append("{\"id\": ").append(1000 + i * 7)
+                .append(", \"name\": \"user").append(i)
+                .append("\", \"email\": \"user").append(i)
+                .append("@example.com\", \"active\": ").append(i % 3 != 0)
+                .append(", \"score\": ").append((i * 7919) % 1000 / 10.0)
+                .append(", \"tags\": [\"news\", \"sports\"]}");
+        }
+        json.setLength(size - 1);
+        json.append("]");
+        return json.toString().getBytes("UTF-8");
+    }
+
+    private static byte[] gzip(byte[] bytes) throws IOException {
+        ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+        GZIPOutputStream out = new GZIPOutputStream(gzipped);
+        out.write(bytes);
+        out.close();
+        return gzipped.toByteArray();
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.harmony.luni.tests.internal.net.www.protocol.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.ResponseCache;
+import java.net.URL;
+import java.util.zip.GZIPOutputStream;
+
+import junit.framework.TestCase;
+
+import org.apache.harmony.luni.internal.net.www.protocol.http.Handler;
+import org.apache.harmony.luni.internal.net.www.protocol.http.HttpResponseCache;
+
+/**
+ * Tests for the transparent gzip decoding of
+ * <code>HttpURLConnection</code>.
+ */
+public class HttpURLConnectionGzipTest extends TestCase {
+
+    private static final String BODY = "{\"id\": 1, \"name\": \"gzip\"}";
+
+    private HttpResponseCacheTest.ScriptedServer server;
+
+    @Override
+    protected void setUp() throws Exception {
+        server = new HttpResponseCacheTest.ScriptedServer();
+        server.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        ResponseCache.setDefault(null);
+        server.close();
+    }
+
+    private HttpURLConnection open(String path) throws IOException {
+        URL url = new URL(null, "http://localhost:"
+                + server.serverSocket.getLocalPort() + path, new Handler());
+        return (HttpURLConnection) url.openConnection();
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[256];
+        int count;
+        while ((count = in.read(buffer)) != -1) {
+            bytes.write(buffer, 0, count);
+        }
+        in.close();
+        return bytes.toString("ISO8859_1");
+    }
+
+    private static String gzip(String body) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        GZIPOutputStream out = new GZIPOutputStream(bytes);
+        out.write(body.getBytes("ISO8859_1"));
+        out.close();
+        return bytes.toString("ISO8859_1");
+    }
+
+    private static String gzipResponse(String headers, String body)
+            throws IOException {
+        String gzipped = gzip(body);
+        return "HTTP/1.1 200 OK\r\n" + headers
+                + "Content-Encoding: gzip\r\n"
+                + "Content-Length: " + gzipped.length() + "\r\n\r\n" + gzipped;
+    }
+
+    public void test_gzipIsRequestedAndDecoded() throws Exception {
+        server.enqueue(gzipResponse("", BODY));
+
+        HttpURLConnection connection = open("/");
+        assertEquals(BODY, read(connection.getInputStream()));
+        assertTrue(server.getRequest(0).contains("Accept-Encoding: gzip\r\n"));
+        assertNull(connection.getHeaderField("Content-Encoding"));
+        assertEquals(-1, connection.getContentLength());
+    }
+
+    public void test_chunkedGzipLeavesConnectionReusable() throws Exception {
+        String gzipped = gzip(BODY);
+        int half = gzipped.length() / 2;
+        server.enqueue("HTTP/1.1 200 OK\r\n"
+                + "Content-Encoding: gzip\r\n"
+                + "Transfer-Encoding: chunked\r\n\r\n"
+                + Integer.toHexString(half) + "\r\n"
+                + gzipped.substring(0, half) + "\r\n"
+                + Integer.toHexString(gzipped.length() - half) + "\r\n"
+                + gzipped.substring(half) + "\r\n"
+                + "0\r\n\r\n");
+        server.enqueue(gzipResponse("", "second"));
+
+        assertEquals(BODY, read(open("/").getInputStream()));
+        assertEquals("second", read(open("/").getInputStream()));
+        assertEquals(2, server.getRequestCount());
+    }
+
+    public void test_callerAcceptEncodingIsLeftAlone() throws Exception {
+        server.enqueue(gzipResponse("", BODY));
+
+        HttpURLConnection connection = open("/");
+        connection.setRequestProperty("Accept-Encoding", "gzip");
+        assertEquals(gzip(BODY), read(connection.getInputStream()));
+        assertEquals("gzip", connection.getHeaderField("Content-Encoding"));
+        assertEquals(gzip(BODY).length(), connection.getContentLength());
+    }
+
+    public void test_rangeIsNotGzipped() throws Exception {
+        server.enqueue("HTTP/1.1 206 Partial Content\r\n"
+                + "Content-Range: bytes 0-3/" + BODY.length() + "\r\n"
+                + "Content-Length: 4\r\n\r\n" + BODY.substring(0, 4));
+
+        HttpURLConnection connection = open("/");
+        connection.setRequestProperty("Range", "bytes=0-3");
+        assertEquals(BODY.substring(0, 4), read(connection.getInputStream()));
+        assertFalse(server.getRequest(0).contains("Accept-Encoding"));
+        assertEquals(4, connection.getContentLength());
+    }
+
+    public void test_cachedGzipIsDecoded() throws Exception {
+        File directory = new File(System.getProperty("java.io.tmpdir"),
+                "HttpURLConnectionGzipTest" + System.nanoTime());
+        HttpResponseCache cache = new HttpResponseCache(directory, 1024 * 1024);
+        ResponseCache.setDefault(cache);
+        try {
+            server.enqueue(gzipResponse("Cache-Control: max-age=60\r\n",
+                    BODY));
+
+            assertEquals(BODY, read(open("/").getInputStream()));
+            assertEquals(BODY, read(open("/").getInputStream()));
+            assertEquals(1, cache.getHitCount());
+            assertEquals(1, server.getRequestCount());
+        } finally {
+            for (File file : directory.listFiles()) {
+                file.delete();
+            }
+            directory.delete();
+        }
+    }
+}
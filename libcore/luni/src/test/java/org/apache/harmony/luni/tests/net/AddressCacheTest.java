@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.harmony.luni.tests.net;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.apache.harmony.luni.net.AddressCache;
+
+public class AddressCacheTest extends TestCase {
+
+    /**
+     * Resolves every name to the same made-up address, counting how
+     * often it is asked to.
+     */
+    static class CountingResolver implements AddressCache.Resolver {
+        final AtomicInteger count = new AtomicInteger();
+
+        public InetAddress resolve(String host) throws UnknownHostException {
+            count.incrementAndGet();
+            return InetAddress.getByAddress(host, new byte[] { 10, 0, 0, 1 });
+        }
+    }
+
+    public void test_resolveThenGet() throws Exception {
+        AddressCache cache = new AddressCache(4);
+        CountingResolver resolver = new CountingResolver();
+
+        assertNull(cache.get("a", -1));
+        InetAddress resolved = cache.resolve("a", true, resolver);
+        assertSame(resolved, cache.get("a", -1));
+        assertSame(resolved, cache.get("a", 60));
+
+        assertEquals(1, resolver.count.get());
+        assertEquals(2, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getResolutionCount());
+    }
+
+    public void test_resolveWithoutStoring() throws Exception {
+        AddressCache cache = new AddressCache(4);
+        cache.resolve("a", false, new CountingResolver());
+        assertNull(cache.get("a", -1));
+
+        cache = new AddressCache(0);
+        cache.resolve("a", true, new CountingResolver());
+        assertNull(cache.get("a", -1));
+    }
+
+    public void test_evictsOldest() throws Exception {
+        AddressCache cache = new AddressCache(2);
+        CountingResolver resolver = new CountingResolver();
+
+        cache.resolve("a", true, resolver);
+        Thread.sleep(1);
+        cache.resolve("b", true, resolver);
+        Thread.sleep(1);
+        cache.resolve("c", true, resolver);
+
+        assertEquals(2, cache.size());
+        assertNull(cache.get("a", -1));
+        assertNotNull(cache.get("b", -1));
+        assertNotNull(cache.get("c", -1));
+    }
+
+    public void test_expires() throws Exception {
+        AddressCache cache = new AddressCache(4);
+        cache.resolve("a", true, new CountingResolver());
+        Thread.sleep(5);
+
+        assertNotNull(cache.get("a", 60));
+        assertNull(cache.get("a", 0));
+        assertEquals(0, cache.size());
+    }
+
+    public void test_failureIsNotCached() throws Exception {
+        AddressCache cache = new AddressCache(4);
+        AddressCache.Resolver failing = new AddressCache.Resolver() {
+            public InetAddress resolve(String host)
+                    throws UnknownHostException {
+                throw new UnknownHostException(host);
+            }
+        };
+
+        try {
+            cache.resolve("a", true, failing);
+            fail();
+        } catch (UnknownHostException e) {
+            // expected
+        }
+        assertNull(cache.get("a", -1));
+        assertEquals(1, cache.getResolutionCount());
+    }
+
+    public void test_resolveAfterAnotherResolutionFinished() throws Exception {
+        AddressCache cache = new AddressCache(4);
+        CountingResolver resolver = new CountingResolver();
+
+        // The second lookup missed in get() before the first one was
+        // cached, but only gets to resolve() after it is done.
+        InetAddress resolved = cache.resolve("a", true, resolver);
+        assertSame(resolved, cache.resolve("a", true, resolver));
+
+        assertEquals(1, resolver.count.get());
+        assertEquals(1, cache.getResolutionCount());
+        assertEquals(2, cache.getMissCount());
+
+        // A lookup that doesn't cache doesn't use the cache either.
+        cache.resolve("a", false, resolver);
+        assertEquals(2, resolver.count.get());
+    }
+
+    public void test_concurrentLookupsShareOneResolution() throws Exception {
+        final AddressCache cache = new AddressCache(4);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger count = new AtomicInteger();
+        final AddressCache.Resolver resolver = new AddressCache.Resolver() {
+            public InetAddress resolve(String host)
+                    throws UnknownHostException {
+                count.incrementAndGet();
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new UnknownHostException(host);
+                }
+                return InetAddress.getByAddress(host,
+                        new byte[] { 10, 0, 0, 2 });
+            }
+        };
+        final InetAddress[] results = new InetAddress[2];
+        Thread[] threads = new Thread[2];
+
+        for (int i = 0; i < threads.length; i++) {
+            final int index = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        results[index] = cache.resolve("a", true, resolver);
+                    } catch (UnknownHostException e) {
+                        // results[index] stays null
+                    }
+                }
+            };
+        }
+
+        threads[0].start();
+        started.await();
+        threads[1].start();
+
+        // Wait for the second lookup to join the first before letting
+        // the first finish.
+        while (cache.getMissCount() < 2) {
+            Thread.sleep(1);
+        }
+        release.countDown();
+
+        for (Thread t : threads) {
+            t.join();
+        }
+
+        assertNotNull(results[0]);
+        assertSame(results[0], results[1]);
+        assertEquals(1, count.get());
+        assertEquals(1, cache.getResolutionCount());
+        assertEquals(2, cache.getMissCount());
+        assertTrue(cache.getResolutionNanos() > 0);
+    }
+}